@@ -0,0 +1,21 @@
+package com.team14.chatbot.configuration;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.Set;
+
+/**
+ * Accounts allowed to call the admin endpoints (/admin/rag/**): their access
+ * tokens carry the ADMIN scope. Self-registered accounts never get it.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "admin")
+@Data
+public class AdminConfig {
+
+    public static final String ADMIN_SCOPE = "ADMIN";
+
+    private Set<String> usernames = Set.of();
+}
@@ -0,0 +1,42 @@
+package com.team14.chatbot.configuration;
+
+import com.team14.chatbot.enums.QueryIntent;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.Set;
+
+/**
+ * Full-answer cache of conversation-independent knowledge questions, keyed by
+ * the knowledge base version (flushed on ingestion / index rebuild).
+ */
+@Configuration
+@ConfigurationProperties(prefix = "answer-cache")
+@Data
+public class AnswerCacheConfig {
+
+    private boolean enabled = true;
+    private long maxSize = 2000;
+    private long ttlMinutes = 30;
+
+    /**
+     * Only answers whose intents all belong to this set are cached
+     */
+    private Set<QueryIntent> intents = Set.of(QueryIntent.KNOWLEDGE_QUERY);
+
+    /**
+     * Paraphrase tier: nearest cached query with the same intents, by
+     * embedding similarity of the normalized query. Looked up after query
+     * processing (an LLM call), a hit skips the rest of the pipeline only
+     */
+    private Semantic semantic = new Semantic();
+
+    @Data
+    public static class Semantic {
+        private boolean enabled = false;
+        private double similarityThreshold = 0.97;
+        private int lshTables = 8;
+        private int lshBits = 12;
+    }
+}
@@ -2,6 +2,7 @@ package com.team14.chatbot.configuration;
 
 import com.team14.chatbot.dto.BgeEmbeddingRequest;
 import com.team14.chatbot.dto.BgeEmbeddingResponse;
+import com.team14.chatbot.helper.RequestDeadline;
 import org.springframework.ai.document.MetadataMode;
 import org.springframework.ai.embedding.Embedding;
 import org.springframework.ai.embedding.EmbeddingModel;
@@ -40,6 +41,7 @@ public class BgeM3EmbeddingModel implements EmbeddingModel {
     public EmbeddingResponse call(EmbeddingRequest request) {
         // 1. Lấy danh sách text từ request của Spring AI
         List<String> inputs = request.getInstructions();
+        RequestDeadline.throwIfCancelled();
         
 
         // 2. Gọi API custom
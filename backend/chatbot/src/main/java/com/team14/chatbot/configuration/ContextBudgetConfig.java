@@ -0,0 +1,50 @@
+package com.team14.chatbot.configuration;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Token budget of the prompts sent for answer generation: the fixed parts
+ * (instructions, question) are counted first, the rest is shared among the
+ * context sections (knowledge chunks, recent turns, conversation summary).
+ */
+@Configuration
+@ConfigurationProperties(prefix = "context-budget")
+@Data
+public class ContextBudgetConfig {
+
+    private boolean enabled = true;
+
+    /**
+     * Whole prompt (fixed parts + sections), the answer excluded
+     */
+    private int maxPromptTokens = 8000;
+
+    /**
+     * Sections served first get the remaining budget first; sections not
+     * listed come last
+     */
+    private List<String> priority = List.of("knowledge", "analysis", "recent-turns", "summary");
+
+    /**
+     * Reserved for a section (when it needs it) before higher priorities take
+     * the rest; held even if the fixed parts already fill the budget
+     */
+    private Map<String, Integer> minTokens = Map.of("knowledge", 1500, "recent-turns", 400, "summary", 200);
+
+    /**
+     * An item is cut to fit only if at least this many tokens are left for
+     * it, otherwise it is dropped
+     */
+    private int minTruncatedTokens = 64;
+
+    /**
+     * Recent chat memory turns considered at most (older ones are covered by
+     * the summary)
+     */
+    private int maxRecentTurns = 10;
+}
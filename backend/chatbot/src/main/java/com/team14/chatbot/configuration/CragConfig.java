@@ -0,0 +1,54 @@
+package com.team14.chatbot.configuration;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.List;
+
+@Configuration
+@ConfigurationProperties(prefix = "crag")
+@Data
+public class CragConfig {
+
+    /**
+     * Local GOOD/BAD/AMBIGUOUS classification before the LLM grader
+     * (thresholds calibrated with data/calibrate_crag_thresholds.py)
+     */
+    private PreClassifier preClassifier = new PreClassifier();
+
+    /**
+     * Cache of LLM CRAG verdicts (same query + same documents + same prompt)
+     */
+    private Cache cache = new Cache();
+
+    @Data
+    public static class Cache {
+        private boolean enabled = true;
+        private long maxSize = 5000;
+        private long ttlMinutes = 120;
+    }
+
+    @Data
+    public static class PreClassifier {
+        private volatile boolean enabled = true;
+        /** GOOD: best rerank score at least this ... */
+        private volatile double goodMinRerankScore = 0.7;
+        /** ... (or, without rerank scores, this share of docs found by both dense and BM25) ... */
+        private volatile double goodMinAgreement = 0.6;
+        /** ... and at least this share of query terms covered by one document */
+        private volatile double goodMinCoverage = 0.6;
+        /**
+         * Rerankers (name before ':', e.g. "cohere" for cohere:rerank-multilingual-v3.0)
+         * the rerank score thresholds were calibrated on; documents scored by
+         * another reranker (local GBDT sigmoid...) always go to the LLM grader
+         */
+        private volatile List<String> calibratedRerankers = List.of("cohere");
+        /** BAD: best rerank score at most this ... */
+        private volatile double badMaxRerankScore = 0.1;
+        /** ... and at most this lexical coverage */
+        private volatile double badMaxCoverage = 0.2;
+        /** Share of locally decided queries still graded by the LLM in background (calibration/drift check) */
+        private volatile double auditSampleRate = 0.02;
+    }
+}
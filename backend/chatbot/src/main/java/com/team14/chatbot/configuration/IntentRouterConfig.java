@@ -0,0 +1,34 @@
+package com.team14.chatbot.configuration;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Local intent router (kNN over labelled example embeddings + calculation
+ * rules) in front of the LLM routing call
+ */
+@Configuration
+@ConfigurationProperties(prefix = "intent-router")
+@Data
+public class IntentRouterConfig {
+
+    private String examplesPath = "classpath:intent/intent-examples.json";
+    private String evaluationPath = "classpath:intent/intent-eval.json";
+
+    /**
+     * Routing thresholds (tunable at runtime via /admin/rag/intent-router)
+     */
+    private Routing routing = new Routing();
+
+    @Data
+    public static class Routing {
+        private volatile boolean enabled = true;
+        /** Local decision used only at or above this confidence, otherwise the LLM routes */
+        private volatile double confidenceThreshold = 0.8;
+        /** Neighbours voting in kNN */
+        private volatile int k = 7;
+        /** Nearest example must be at least this similar (otherwise out of distribution) */
+        private volatile double minSimilarity = 0.72;
+    }
+}
@@ -0,0 +1,30 @@
+package com.team14.chatbot.configuration;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stage graph execution of intent pipelines: per-stage timeouts (always capped
+ * by what is left of the request budget).
+ */
+@Configuration
+@ConfigurationProperties(prefix = "pipeline")
+@Data
+public class PipelineConfig {
+
+    private long defaultStageTimeoutMs = 25000;
+
+    /**
+     * Timeout per stage name (retrieval, calculation-planning, ...)
+     */
+    private Map<String, Long> stageTimeoutMs = new HashMap<>();
+
+    public Duration stageTimeout(String stage) {
+        return Duration.ofMillis(stageTimeoutMs.getOrDefault(stage, defaultStageTimeoutMs));
+    }
+}
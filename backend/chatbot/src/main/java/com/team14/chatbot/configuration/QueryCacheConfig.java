@@ -0,0 +1,41 @@
+package com.team14.chatbot.configuration;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Semantic cache of query-processing results (intents + step-back + HyDE),
+ * matched by embedding similarity of the normalized query within the same
+ * conversation context.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "query-cache")
+@Data
+public class QueryCacheConfig {
+
+    private long maxSize = 5000;
+    private long ttlMinutes = 60;
+
+    /**
+     * Random-hyperplane LSH: more tables = better recall, more bits = smaller buckets
+     */
+    private int lshTables = 8;
+    private int lshBits = 12;
+
+    /**
+     * Matching thresholds (tunable at runtime via /admin/rag/query-cache)
+     */
+    private Matching matching = new Matching();
+
+    @Data
+    public static class Matching {
+        private volatile boolean enabled = true;
+        /** Minimum cosine similarity to reuse a cached result (data/tune_query_cache_threshold.py) */
+        private volatile double similarityThreshold = 0.93;
+        /** Neighbours at least this similar are logged on a miss (threshold tuning data) */
+        private volatile double sampleMinSimilarity = 0.8;
+        /** Share of hits still recomputed in background to check the cached result */
+        private volatile double shadowSampleRate = 0.02;
+    }
+}
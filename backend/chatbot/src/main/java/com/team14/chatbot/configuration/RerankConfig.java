@@ -0,0 +1,123 @@
+package com.team14.chatbot.configuration;
+
+import com.team14.chatbot.service.RagModules.retriever.RetrievalType;
+import com.team14.chatbot.service.RagModules.retriever.rerank.RerankStrategy;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.List;
+import java.util.Map;
+
+@Configuration
+@ConfigurationProperties(prefix = "rerank")
+@Data
+public class RerankConfig {
+
+    /**
+     * Which reranker to use: remote (Cohere), local model, or remote with local
+     * fallback. Remote only by default: the bundled local model is an untrained
+     * placeholder until one is trained with data/train_local_reranker.py
+     */
+    private RerankStrategy strategy = RerankStrategy.REMOTE_ONLY;
+
+    /**
+     * Retrieval types that are always re-ranked locally (remote rerank too
+     * expensive for this query class)
+     */
+    private List<RetrievalType> localRetrievalTypes = List.of();
+
+    /**
+     * A remote call slower than this (ms) counts as a failure for the health check
+     */
+    private long slowCallMs = 3000;
+
+    /**
+     * Consecutive failed/slow remote calls before switching to the local reranker
+     */
+    private int failureThreshold = 3;
+
+    /**
+     * How long (ms) to stay on the local reranker once the remote one is unhealthy
+     */
+    private long cooldownMs = 60000;
+
+    /**
+     * Gradient-boosted tree model of the local reranker (the bundled one is a
+     * placeholder, see {@link com.team14.chatbot.service.RagModules.retriever.rerank.GbdtModel})
+     */
+    private String localModelPath = "classpath:rerank/local-reranker-gbdt.json";
+
+    /**
+     * Cache of rerank results (same query + same candidates + same model)
+     */
+    private Cache cache = new Cache();
+
+    /**
+     * Remote (Cohere) client settings
+     */
+    private Remote remote = new Remote();
+
+    /**
+     * Skip reranking when the fusion ranking is already confident
+     * (thresholds calibrated offline with data/calibrate_rerank_gating.py,
+     * adjustable at runtime via PUT /admin/rag/rerank-gating)
+     */
+    private Gating gating = new Gating();
+
+    @Data
+    public static class Gating {
+        private volatile boolean enabled = true;
+        /** Never skip with fewer candidates than this (rerank is cheap then anyway) */
+        private volatile int minCandidates = 5;
+        /**
+         * Min RRF lead of the fused top-1 over the runner-up, in rank steps
+         * (1.0 = one rank ahead in both legs)
+         */
+        private volatile double minRankMargin = 0.75;
+        /** Top-1 candidate must be found by both dense and BM25 legs */
+        private volatile boolean requireTop1Agreement = true;
+        /** Min share of the top-K fused candidates found by both legs */
+        private volatile double minTopKAgreement = 0.6;
+        private volatile int agreementK = 5;
+        /** Share of skipped requests still reranked in background to check quality */
+        private volatile double shadowSampleRate = 0.05;
+    }
+
+    /**
+     * Send only the most query-relevant window of each chunk to the remote reranker
+     */
+    private Windowing windowing = new Windowing();
+
+    @Data
+    public static class Windowing {
+        private boolean enabled = true;
+        /** Token budget per chunk when the model has no specific entry (TokenEstimator tokens) */
+        private int defaultTokenBudget = 256;
+        /** Token budget per chunk, by rerank model name */
+        private Map<String, Integer> modelTokenBudgets = Map.of();
+    }
+
+    @Data
+    public static class Remote {
+        /** Max time for one rerank call (shortened to the remaining request budget) */
+        private long timeoutMs = 10000;
+        /** Pooled HTTP connections to Cohere */
+        private int maxConnections = 20;
+        /** Max rerank calls in flight (hedges included); extra calls fail fast */
+        private int maxConcurrency = 16;
+        /** Send a second request when the first is slower than the observed p95 */
+        private boolean hedgeEnabled = true;
+        /** Lower bound of the hedge delay (no hedging until 20 calls were observed) */
+        private long hedgeMinDelayMs = 300;
+        /** Number of recent calls used to compute p95 */
+        private int latencyWindow = 200;
+    }
+
+    @Data
+    public static class Cache {
+        private boolean enabled = true;
+        private long maxSize = 10000;
+        private long ttlMinutes = 60;
+    }
+}
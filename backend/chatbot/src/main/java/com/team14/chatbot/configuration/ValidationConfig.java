@@ -0,0 +1,35 @@
+package com.team14.chatbot.configuration;
+
+import com.team14.chatbot.enums.QueryIntent;
+import com.team14.chatbot.enums.ValidationMode;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Output validation mode per intent: ASYNC takes the validator loop off the
+ * response path (correction / retraction pushed afterwards), BLOCKING keeps
+ * it before the answer is returned.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "rag.validation")
+@Data
+public class ValidationConfig {
+
+    private ValidationMode defaultMode = ValidationMode.ASYNC;
+
+    private Map<QueryIntent, ValidationMode> modes = new HashMap<>();
+
+    /**
+     * Mode of a (multi-intent) answer: blocking as soon as one intent is
+     */
+    public ValidationMode mode(Collection<QueryIntent> intents) {
+        return intents.stream().anyMatch(intent -> modes.getOrDefault(intent, defaultMode) == ValidationMode.BLOCKING)
+                ? ValidationMode.BLOCKING
+                : ValidationMode.ASYNC;
+    }
+}
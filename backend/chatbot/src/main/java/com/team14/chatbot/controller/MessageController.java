@@ -5,13 +5,20 @@ import com.team14.chatbot.dto.response.ApiResponse;
 import com.team14.chatbot.dto.response.MessageResponse;
 import com.team14.chatbot.dto.response.PageResponse;
 import com.team14.chatbot.exception.AppException;
+import com.team14.chatbot.helper.CancellationToken;
 import com.team14.chatbot.service.MessageService;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
+import lombok.experimental.NonFinal;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.security.concurrent.DelegatingSecurityContextRunnable;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 import reactor.core.publisher.Flux;
 
 @RestController
@@ -23,14 +30,25 @@ public class MessageController {
     MessageService messageService;
     // ChatClient chatClient;
 
+    @NonFinal
+    @Value("${message.async-timeout-ms:60000}")
+    long asyncTimeoutMs;
+
     @PostMapping(value = "/stream-create", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
     public Flux<String> streamCreate(@RequestBody MessageRequest request) throws AppException {
         return messageService.streamingCreate(request);
     }
 
     @PostMapping(value = "/stream-create-new", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    public Flux<String> streamCreateNew(@RequestBody MessageRequest request) throws AppException {
-        return messageService.streamingCreateNew(request);
+    public Flux<ServerSentEvent<String>> streamCreateNew(@RequestBody MessageRequest request)
+            throws AppException {
+        // SSE client disconnect cancels the subscription -> cancel the RAG request
+        CancellationToken cancellation = new CancellationToken();
+        return messageService.streamingCreateNew(request, cancellation)
+                .doOnCancel(() -> {
+                    log.info("SSE client disconnected, cancelling RAG request");
+                    cancellation.cancel("client disconnected");
+                });
     }
 
     @PostMapping("/create")
@@ -38,9 +56,30 @@ public class MessageController {
         return ApiResponse.<MessageResponse>builder().data(messageService.create(request)).build();
     }
 
+    /**
+     * Async servlet request: a client disconnect (async error) or timeout
+     * cancels the RAG request instead of letting it run to completion
+     */
     @PostMapping("/create-new")
-    public ApiResponse<MessageResponse> createNew(@RequestBody MessageRequest request) throws AppException {
-        return ApiResponse.<MessageResponse>builder().data(messageService.createNew(request)).build();
+    public DeferredResult<ApiResponse<MessageResponse>> createNew(@RequestBody MessageRequest request) {
+        CancellationToken cancellation = new CancellationToken();
+        DeferredResult<ApiResponse<MessageResponse>> result = new DeferredResult<>(asyncTimeoutMs);
+        result.onError(error -> {
+            log.info("Client disconnected ({}), cancelling RAG request", error.toString());
+            cancellation.cancel("client disconnected");
+        });
+        result.onTimeout(() -> cancellation.cancel("request timed out"));
+
+        Thread.ofVirtual().name("message-create-new").start(new DelegatingSecurityContextRunnable(() -> {
+            try {
+                result.setResult(ApiResponse.<MessageResponse>builder()
+                        .data(messageService.createNew(request, cancellation))
+                        .build());
+            } catch (Exception e) {
+                result.setErrorResult(e);
+            }
+        }, SecurityContextHolder.getContext()));
+        return result;
     }
 
     @GetMapping("/list")
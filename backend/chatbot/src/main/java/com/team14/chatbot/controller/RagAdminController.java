@@ -0,0 +1,173 @@
+package com.team14.chatbot.controller;
+
+import com.team14.chatbot.configuration.CragConfig;
+import com.team14.chatbot.configuration.IntentRouterConfig;
+import com.team14.chatbot.configuration.QueryCacheConfig;
+import com.team14.chatbot.configuration.RerankConfig;
+import com.team14.chatbot.dto.response.ApiResponse;
+import com.team14.chatbot.exception.AppException;
+import com.team14.chatbot.exception.ErrorCode;
+import com.team14.chatbot.service.RagModules.query_processor.IntentRouterEvaluator;
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+/**
+ * Runtime tuning of the RAG pipeline (no restart needed), ADMIN scope only
+ * (see admin.usernames). Values are checked before any is applied.
+ */
+@RestController
+@RequestMapping("/admin/rag")
+@PreAuthorize("hasAuthority('ADMIN')")
+@RequiredArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@Slf4j
+public class RagAdminController {
+    RerankConfig rerankConfig;
+    CragConfig cragConfig;
+    QueryCacheConfig queryCacheConfig;
+    IntentRouterConfig intentRouterConfig;
+    IntentRouterEvaluator intentRouterEvaluator;
+
+    @GetMapping("/rerank-gating")
+    public ApiResponse<RerankConfig.Gating> getRerankGating() {
+        return ApiResponse.<RerankConfig.Gating>builder().data(rerankConfig.getGating()).build();
+    }
+
+    @PutMapping("/rerank-gating")
+    public ApiResponse<RerankConfig.Gating> updateRerankGating(@RequestBody RerankConfig.Gating request)
+            throws AppException {
+        requireAtLeast("minCandidates", request.getMinCandidates(), 1);
+        requireAtLeast("minRankMargin", request.getMinRankMargin(), 0);
+        requireRate("minTopKAgreement", request.getMinTopKAgreement());
+        requireAtLeast("agreementK", request.getAgreementK(), 1);
+        requireRate("shadowSampleRate", request.getShadowSampleRate());
+        RerankConfig.Gating gating = rerankConfig.getGating();
+        gating.setEnabled(request.isEnabled());
+        gating.setMinCandidates(request.getMinCandidates());
+        gating.setMinRankMargin(request.getMinRankMargin());
+        gating.setRequireTop1Agreement(request.isRequireTop1Agreement());
+        gating.setMinTopKAgreement(request.getMinTopKAgreement());
+        gating.setAgreementK(request.getAgreementK());
+        gating.setShadowSampleRate(request.getShadowSampleRate());
+        log.info("Rerank gating thresholds updated: {}", gating);
+        return ApiResponse.<RerankConfig.Gating>builder().data(gating).build();
+    }
+
+    @GetMapping("/crag-pre-classifier")
+    public ApiResponse<CragConfig.PreClassifier> getCragPreClassifier() {
+        return ApiResponse.<CragConfig.PreClassifier>builder().data(cragConfig.getPreClassifier()).build();
+    }
+
+    @PutMapping("/crag-pre-classifier")
+    public ApiResponse<CragConfig.PreClassifier> updateCragPreClassifier(
+            @RequestBody CragConfig.PreClassifier request) throws AppException {
+        requireRate("goodMinRerankScore", request.getGoodMinRerankScore());
+        requireRate("goodMinAgreement", request.getGoodMinAgreement());
+        requireRate("goodMinCoverage", request.getGoodMinCoverage());
+        requireRate("badMaxRerankScore", request.getBadMaxRerankScore());
+        requireRate("badMaxCoverage", request.getBadMaxCoverage());
+        requireRate("auditSampleRate", request.getAuditSampleRate());
+        // GOOD và BAD không được chồng lên nhau
+        requireOrdered("badMaxRerankScore", request.getBadMaxRerankScore(),
+                "goodMinRerankScore", request.getGoodMinRerankScore());
+        requireOrdered("badMaxCoverage", request.getBadMaxCoverage(),
+                "goodMinCoverage", request.getGoodMinCoverage());
+        CragConfig.PreClassifier preClassifier = cragConfig.getPreClassifier();
+        preClassifier.setEnabled(request.isEnabled());
+        preClassifier.setGoodMinRerankScore(request.getGoodMinRerankScore());
+        preClassifier.setGoodMinAgreement(request.getGoodMinAgreement());
+        preClassifier.setGoodMinCoverage(request.getGoodMinCoverage());
+        preClassifier.setBadMaxRerankScore(request.getBadMaxRerankScore());
+        preClassifier.setBadMaxCoverage(request.getBadMaxCoverage());
+        if (request.getCalibratedRerankers() != null) {
+            preClassifier.setCalibratedRerankers(List.copyOf(request.getCalibratedRerankers()));
+        }
+        preClassifier.setAuditSampleRate(request.getAuditSampleRate());
+        log.info("CRAG pre-classifier thresholds updated: {}", preClassifier);
+        return ApiResponse.<CragConfig.PreClassifier>builder().data(preClassifier).build();
+    }
+
+    @GetMapping("/query-cache")
+    public ApiResponse<QueryCacheConfig.Matching> getQueryCache() {
+        return ApiResponse.<QueryCacheConfig.Matching>builder().data(queryCacheConfig.getMatching()).build();
+    }
+
+    @PutMapping("/query-cache")
+    public ApiResponse<QueryCacheConfig.Matching> updateQueryCache(@RequestBody QueryCacheConfig.Matching request)
+            throws AppException {
+        requireRate("similarityThreshold", request.getSimilarityThreshold());
+        requireRate("sampleMinSimilarity", request.getSampleMinSimilarity());
+        requireRate("shadowSampleRate", request.getShadowSampleRate());
+        requireOrdered("sampleMinSimilarity", request.getSampleMinSimilarity(),
+                "similarityThreshold", request.getSimilarityThreshold());
+        QueryCacheConfig.Matching matching = queryCacheConfig.getMatching();
+        matching.setEnabled(request.isEnabled());
+        matching.setSimilarityThreshold(request.getSimilarityThreshold());
+        matching.setSampleMinSimilarity(request.getSampleMinSimilarity());
+        matching.setShadowSampleRate(request.getShadowSampleRate());
+        log.info("Query cache matching updated: {}", matching);
+        return ApiResponse.<QueryCacheConfig.Matching>builder().data(matching).build();
+    }
+
+    @GetMapping("/intent-router")
+    public ApiResponse<IntentRouterConfig.Routing> getIntentRouter() {
+        return ApiResponse.<IntentRouterConfig.Routing>builder().data(intentRouterConfig.getRouting()).build();
+    }
+
+    @PutMapping("/intent-router")
+    public ApiResponse<IntentRouterConfig.Routing> updateIntentRouter(@RequestBody IntentRouterConfig.Routing request)
+            throws AppException {
+        requireRate("confidenceThreshold", request.getConfidenceThreshold());
+        requireAtLeast("k", request.getK(), 1);
+        requireRate("minSimilarity", request.getMinSimilarity());
+        IntentRouterConfig.Routing routing = intentRouterConfig.getRouting();
+        routing.setEnabled(request.isEnabled());
+        routing.setConfidenceThreshold(request.getConfidenceThreshold());
+        routing.setK(request.getK());
+        routing.setMinSimilarity(request.getMinSimilarity());
+        log.info("Intent router settings updated: {}", routing);
+        return ApiResponse.<IntentRouterConfig.Routing>builder().data(routing).build();
+    }
+
+    /**
+     * Labelled evaluation set through the local router (and the LLM router when includeLlm)
+     */
+    @PostMapping("/intent-router/evaluate")
+    public ApiResponse<IntentRouterEvaluator.Report> evaluateIntentRouter(
+            @RequestParam(defaultValue = "false") boolean includeLlm) throws Exception {
+        return ApiResponse.<IntentRouterEvaluator.Report>builder()
+                .data(intentRouterEvaluator.evaluate(includeLlm))
+                .build();
+    }
+
+    // Rates, similarities and normalized scores
+    private static void requireRate(String name, double value) throws AppException {
+        if (!(value >= 0 && value <= 1)) {
+            throw invalid(name + " = " + value + " (expected 0..1)");
+        }
+    }
+
+    private static void requireAtLeast(String name, double value, double min) throws AppException {
+        if (!(value >= min) || Double.isInfinite(value)) {
+            throw invalid(name + " = " + value + " (expected >= " + min + ")");
+        }
+    }
+
+    private static void requireOrdered(String lowName, double low, String highName, double high)
+            throws AppException {
+        if (low > high) {
+            throw invalid(lowName + " = " + low + " above " + highName + " = " + high);
+        }
+    }
+
+    private static AppException invalid(String detail) {
+        log.warn("Rejected RAG setting: {}", detail);
+        return new AppException(ErrorCode.INVALID_SETTING);
+    }
+}
@@ -20,6 +20,7 @@ public class MessageResponse {
     String conversationId;
     String role;
     LocalDateTime createdAt;
+    boolean cached; // served from the answer cache
 //    String userId;
 //    boolean isMe;
 }
@@ -0,0 +1,6 @@
+package com.team14.chatbot.enums;
+
+public enum ValidationMode {
+    BLOCKING, // Validate (self-correct, retry) trước khi trả câu trả lời
+    ASYNC     // Trả / stream câu trả lời ngay, validate sau; chỉ gửi correction / retraction khi fail
+}
@@ -13,7 +13,8 @@ public enum ErrorCode {
     ROLE_NOT_EXISTED(1004, "role not existed", HttpStatus.NOT_FOUND),
     UNAUTHORIZED(1005, "You do not have permission", HttpStatus.FORBIDDEN),
     UNCATEGORIZED(1006, "uncategorized exception", HttpStatus.BAD_REQUEST),
-    CONVERSATION_NOT_EXISTED(1007, "conversation not existed", HttpStatus.NOT_FOUND)
+    CONVERSATION_NOT_EXISTED(1007, "conversation not existed", HttpStatus.NOT_FOUND),
+    INVALID_SETTING(1008, "setting value out of range", HttpStatus.BAD_REQUEST)
     ;
 
 
@@ -0,0 +1,99 @@
+package com.team14.chatbot.helper;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Cooperative cancellation flag for work that can be abandoned midway
+ * (checked between pipeline steps; blocking calls are interrupted separately
+ * by the callbacks registered with {@link #onCancel}).
+ *
+ * Tokens form a tree: cancelling a token cancels its children (request →
+ * task scope → pipeline stages), never its parent.
+ */
+public class CancellationToken {
+
+    public static final CancellationToken NONE = new CancellationToken();
+
+    /**
+     * Removes a callback registered with {@link #onCancel}
+     */
+    @FunctionalInterface
+    public interface Registration extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private final List<Runnable> callbacks = new CopyOnWriteArrayList<>();
+    private volatile boolean cancelled;
+    private volatile String reason;
+
+    public void cancel() {
+        cancel("cancelled");
+    }
+
+    public void cancel(String reason) {
+        if (this == NONE) {
+            return;
+        }
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            this.reason = reason;
+            cancelled = true;
+        }
+        for (Runnable callback : callbacks) {
+            try {
+                callback.run();
+            } catch (RuntimeException ignored) {
+                // one failing callback must not keep the others from running
+            }
+        }
+        callbacks.clear();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public String reason() {
+        return reason;
+    }
+
+    public void throwIfCancelled() {
+        if (cancelled) {
+            throw new CancellationException("Operation cancelled: " + reason);
+        }
+    }
+
+    /**
+     * Run the callback on cancellation (immediately if already cancelled)
+     */
+    public Registration onCancel(Runnable callback) {
+        if (this == NONE) {
+            return () -> {
+            };
+        }
+        synchronized (this) {
+            if (!cancelled) {
+                callbacks.add(callback);
+                return () -> callbacks.remove(callback);
+            }
+        }
+        callback.run();
+        return () -> {
+        };
+    }
+
+    /**
+     * Token cancelled together with this one (but cancellable on its own)
+     */
+    public CancellationToken child() {
+        CancellationToken child = new CancellationToken();
+        Registration registration = onCancel(() -> child.cancel(reason));
+        child.onCancel(registration::close);
+        return child;
+    }
+}
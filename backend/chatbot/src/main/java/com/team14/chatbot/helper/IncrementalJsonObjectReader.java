@@ -0,0 +1,178 @@
+package com.team14.chatbot.helper;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.function.BiConsumer;
+
+/**
+ * Reads a JSON object from a token stream (LLM streaming output) and reports
+ * each top-level field as soon as its value is complete, without waiting for
+ * the closing brace.
+ *
+ * Text before the object (markdown fence, a sentence, braces in prose - see
+ * {@link JsonExtractor#findObjectStart}) and everything after the object
+ * closes are ignored. If the text taken for the object turns out not to be
+ * JSON before any field was reported, reading restarts at the next candidate
+ * '{'. Not thread-safe: feed chunks in order.
+ */
+public class IncrementalJsonObjectReader {
+
+    private final ObjectMapper objectMapper;
+    private final BiConsumer<String, JsonNode> onField;
+    private JsonParser parser;
+    private ByteArrayFeeder feeder;
+
+    // Text not fed to the parser yet (before the object start)
+    private final StringBuilder pending = new StringBuilder();
+    // Text fed since the object start, kept until the first field is reported
+    private StringBuilder fed;
+    private boolean started;
+    private boolean reported;
+    private boolean complete;
+    private int depth;
+    private String currentField;
+    private TokenBuffer valueBuffer;
+
+    public IncrementalJsonObjectReader(ObjectMapper objectMapper, BiConsumer<String, JsonNode> onField) {
+        this.objectMapper = objectMapper;
+        this.onField = onField;
+        resetParser();
+    }
+
+    /**
+     * Feed the next chunk of text; fields completed by this chunk are reported
+     * before the method returns
+     */
+    public void feed(String chunk) throws IOException {
+        if (complete || chunk == null || chunk.isEmpty()) {
+            return;
+        }
+        if (started) {
+            feedParser(chunk);
+            return;
+        }
+        pending.append(chunk);
+        startIfFound();
+    }
+
+    /**
+     * Whether the root object has been closed
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    private void startIfFound() throws IOException {
+        int start = JsonExtractor.findObjectStart(pending, 0);
+        if (start < 0) {
+            return;
+        }
+        String text = pending.substring(start);
+        pending.setLength(0);
+        started = true;
+        fed = new StringBuilder();
+        feedParser(text);
+    }
+
+    private void feedParser(String text) throws IOException {
+        if (fed != null) {
+            fed.append(text);
+        }
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        feeder.feedInput(bytes, 0, bytes.length);
+        try {
+            drain();
+        } catch (JsonProcessingException e) {
+            if (reported) {
+                throw e;
+            }
+            // Không phải JSON (vd. "{" trong câu văn): đọc lại từ '{' tiếp theo
+            pending.append(fed, 1, fed.length());
+            fed = null;
+            started = false;
+            resetParser();
+            startIfFound();
+        }
+    }
+
+    private void resetParser() {
+        try {
+            if (parser != null) {
+                parser.close();
+            }
+            parser = objectMapper.getFactory().createNonBlockingByteArrayParser();
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot create non-blocking JSON parser", e);
+        }
+        feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+        depth = 0;
+        currentField = null;
+        valueBuffer = null;
+    }
+
+    private void drain() throws IOException {
+        JsonToken token;
+        while (!complete && (token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+            switch (token) {
+                case START_OBJECT, START_ARRAY -> {
+                    depth++;
+                    if (depth >= 2) {
+                        bufferEvent(depth == 2);
+                    }
+                }
+                case END_OBJECT, END_ARRAY -> {
+                    depth--;
+                    if (depth == 0) {
+                        complete = true;
+                        feeder.endOfInput();
+                    } else {
+                        valueBuffer.copyCurrentEvent(parser);
+                        if (depth == 1) {
+                            emitBufferedValue();
+                        }
+                    }
+                }
+                case FIELD_NAME -> {
+                    if (depth == 1) {
+                        currentField = parser.currentName();
+                    } else {
+                        valueBuffer.copyCurrentEvent(parser);
+                    }
+                }
+                default -> {
+                    // Scalar value
+                    bufferEvent(depth == 1);
+                    if (depth == 1) {
+                        emitBufferedValue();
+                    }
+                }
+            }
+        }
+    }
+
+    private void bufferEvent(boolean newValue) throws IOException {
+        if (newValue) {
+            valueBuffer = new TokenBuffer(objectMapper, false);
+        }
+        valueBuffer.copyCurrentEvent(parser);
+    }
+
+    private void emitBufferedValue() throws IOException {
+        JsonNode value;
+        try (JsonParser bufferedParser = valueBuffer.asParser(objectMapper)) {
+            value = objectMapper.readTree(bufferedParser);
+        }
+        valueBuffer = null;
+        reported = true;
+        fed = null;
+        onField.accept(currentField, value);
+    }
+}
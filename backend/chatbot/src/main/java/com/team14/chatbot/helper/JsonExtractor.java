@@ -0,0 +1,134 @@
+package com.team14.chatbot.helper;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * Finds the first balanced JSON object or array inside LLM output (markdown
+ * fences, a sentence before or after the JSON, ...).
+ *
+ * One left-to-right pass, no regex and no backtracking: brackets are matched
+ * with a stack, and quotes / escapes are tracked once inside a bracket so that
+ * braces in string values do not count. An unmatched bracket in the prose
+ * before the JSON ("xem {ghi chú") does not hide the JSON that follows.
+ */
+public final class JsonExtractor {
+
+    /**
+     * Position of a JSON value in the text, end exclusive
+     */
+    public record Span(int start, int end) {
+        public int length() {
+            return end - start;
+        }
+    }
+
+    private JsonExtractor() {
+    }
+
+    public static Optional<String> extract(CharSequence text) {
+        return find(text, 0).map(span -> text.subSequence(span.start(), span.end()).toString());
+    }
+
+    /**
+     * Position of the first '{' at or after {@code from} that can open a JSON
+     * object, i.e. whose next non-blank character is '"' or '}': braces in the
+     * prose ("xem {ghi chú") are skipped. For text still being streamed: -1
+     * when there is none yet, including a '{' whose next character has not
+     * arrived.
+     */
+    public static int findObjectStart(CharSequence text, int from) {
+        if (text == null) {
+            return -1;
+        }
+        for (int i = Math.max(0, from); i < text.length(); i++) {
+            if (text.charAt(i) != '{') {
+                continue;
+            }
+            int next = i + 1;
+            while (next < text.length() && Character.isWhitespace(text.charAt(next))) {
+                next++;
+            }
+            if (next == text.length()) {
+                return -1;
+            }
+            char c = text.charAt(next);
+            if (c == '"' || c == '}') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * First balanced JSON value starting at or after {@code from}
+     */
+    public static Optional<Span> find(CharSequence text, int from) {
+        if (text == null) {
+            return Optional.empty();
+        }
+
+        int[] openPositions = new int[16];
+        char[] openChars = new char[16];
+        int depth = 0;
+        boolean inString = false;
+        boolean escaped = false;
+        int bestStart = -1;
+        int bestEnd = -1;
+
+        for (int i = Math.max(0, from); i < text.length(); i++) {
+            char c = text.charAt(i);
+
+            if (inString) {
+                if (escaped) {
+                    escaped = false;
+                } else if (c == '\\') {
+                    escaped = true;
+                } else if (c == '"') {
+                    inString = false;
+                }
+                continue;
+            }
+
+            switch (c) {
+                case '"' -> {
+                    // Quotes only matter inside a value; prose quotes are ignored
+                    if (depth > 0) {
+                        inString = true;
+                    }
+                }
+                case '{', '[' -> {
+                    if (depth == openPositions.length) {
+                        openPositions = Arrays.copyOf(openPositions, depth * 2);
+                        openChars = Arrays.copyOf(openChars, depth * 2);
+                    }
+                    openPositions[depth] = i;
+                    openChars[depth] = c;
+                    depth++;
+                }
+                case '}', ']' -> {
+                    char expected = c == '}' ? '{' : '[';
+                    if (depth == 0 || openChars[depth - 1] != expected) {
+                        // Stray closer in prose or a mismatched pair: skip it
+                        break;
+                    }
+                    depth--;
+                    int start = openPositions[depth];
+                    if (depth == 0) {
+                        // Outermost value closed: nothing later can start earlier
+                        return Optional.of(new Span(start, i + 1));
+                    }
+                    if (bestStart < 0 || start < bestStart) {
+                        bestStart = start;
+                        bestEnd = i + 1;
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+
+        // Unmatched opener before the JSON: return the earliest complete value inside it
+        return bestStart >= 0 ? Optional.of(new Span(bestStart, bestEnd)) : Optional.empty();
+    }
+}
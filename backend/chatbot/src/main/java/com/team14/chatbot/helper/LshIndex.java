@@ -0,0 +1,183 @@
+package com.team14.chatbot.helper;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * In-process approximate nearest-neighbour index for cosine similarity
+ * (random-hyperplane LSH).
+ *
+ * Each of the {@code tables} hash tables signs the vector against {@code bits}
+ * random hyperplanes; vectors sharing a signature in any table are candidates
+ * and are then scored exactly. Below {@code exactScanBelow} entries every
+ * vector is scanned (exact and cheap at that size). Thread-safe.
+ */
+public class LshIndex<K> {
+
+    /**
+     * A neighbour with its cosine similarity to the query
+     */
+    public record Neighbor<K>(K key, double similarity) {
+    }
+
+    private record Entry(float[] unitVector, int[] signatures) {
+    }
+
+    private static final int EXACT_SCAN_BELOW = 256;
+
+    private final int tables;
+    private final int bits;
+    private final long seed;
+    private final Map<K, Entry> entries = new ConcurrentHashMap<>();
+    private final List<Map<Integer, Set<K>>> buckets = new ArrayList<>();
+
+    private volatile float[][][] hyperplanes;
+
+    public LshIndex(int tables, int bits, long seed) {
+        if (bits < 1 || bits > 31) {
+            throw new IllegalArgumentException("bits must be in [1, 31]");
+        }
+        this.tables = tables;
+        this.bits = bits;
+        this.seed = seed;
+        for (int t = 0; t < tables; t++) {
+            buckets.add(new ConcurrentHashMap<>());
+        }
+    }
+
+    public void add(K key, float[] vector) {
+        remove(key);
+        float[] unit = normalize(vector);
+        int[] signatures = signatures(unit);
+        entries.put(key, new Entry(unit, signatures));
+        for (int t = 0; t < tables; t++) {
+            buckets.get(t).computeIfAbsent(signatures[t], s -> ConcurrentHashMap.newKeySet()).add(key);
+        }
+    }
+
+    public void remove(K key) {
+        Entry entry = entries.remove(key);
+        if (entry == null) {
+            return;
+        }
+        for (int t = 0; t < tables; t++) {
+            buckets.get(t).computeIfPresent(entry.signatures()[t], (s, keys) -> {
+                keys.remove(key);
+                return keys.isEmpty() ? null : keys;
+            });
+        }
+    }
+
+    public void clear() {
+        entries.clear();
+        buckets.forEach(Map::clear);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Up to k most similar entries accepted by the filter, best first
+     */
+    public List<Neighbor<K>> nearest(float[] query, int k, Predicate<K> filter) {
+        if (entries.isEmpty() || k <= 0) {
+            return List.of();
+        }
+        float[] unit = normalize(query);
+
+        Collection<K> candidates;
+        if (entries.size() < EXACT_SCAN_BELOW) {
+            candidates = entries.keySet();
+        } else {
+            int[] signatures = signatures(unit);
+            Set<K> union = new HashSet<>();
+            for (int t = 0; t < tables; t++) {
+                Set<K> bucket = buckets.get(t).get(signatures[t]);
+                if (bucket != null) {
+                    union.addAll(bucket);
+                }
+            }
+            candidates = union;
+        }
+
+        PriorityQueue<Neighbor<K>> best = new PriorityQueue<>(Comparator.comparingDouble(Neighbor::similarity));
+        for (K key : candidates) {
+            Entry entry = entries.get(key);
+            if (entry == null || entry.unitVector().length != unit.length || !filter.test(key)) {
+                continue;
+            }
+            best.add(new Neighbor<>(key, dot(unit, entry.unitVector())));
+            if (best.size() > k) {
+                best.poll();
+            }
+        }
+
+        List<Neighbor<K>> result = new ArrayList<>(best);
+        result.sort(Comparator.comparingDouble(Neighbor<K>::similarity).reversed());
+        return result;
+    }
+
+    private int[] signatures(float[] unit) {
+        float[][][] planes = hyperplanesFor(unit.length);
+        int[] signatures = new int[tables];
+        for (int t = 0; t < tables; t++) {
+            int signature = 0;
+            for (int b = 0; b < bits; b++) {
+                if (dot(unit, planes[t][b]) >= 0) {
+                    signature |= 1 << b;
+                }
+            }
+            signatures[t] = signature;
+        }
+        return signatures;
+    }
+
+    // Hyperplanes are drawn once the dimension is known (first vector)
+    private float[][][] hyperplanesFor(int dimension) {
+        float[][][] planes = hyperplanes;
+        if (planes != null && planes[0][0].length == dimension) {
+            return planes;
+        }
+        synchronized (this) {
+            if (hyperplanes == null || hyperplanes[0][0].length != dimension) {
+                Random random = new Random(seed);
+                float[][][] created = new float[tables][bits][dimension];
+                for (float[][] table : created) {
+                    for (float[] plane : table) {
+                        for (int d = 0; d < dimension; d++) {
+                            plane[d] = (float) random.nextGaussian();
+                        }
+                    }
+                }
+                hyperplanes = created;
+            }
+            return hyperplanes;
+        }
+    }
+
+    static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        norm = Math.sqrt(norm);
+        float[] unit = new float[vector.length];
+        if (norm == 0) {
+            return unit;
+        }
+        for (int i = 0; i < vector.length; i++) {
+            unit[i] = (float) (vector[i] / norm);
+        }
+        return unit;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+}
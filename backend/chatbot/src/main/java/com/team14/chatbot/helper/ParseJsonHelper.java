@@ -1,56 +1,107 @@
 package com.team14.chatbot.helper;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MapperFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Optional;
+import java.util.function.BiConsumer;
 
+/**
+ * Parses JSON out of LLM responses into typed objects.
+ *
+ * The JSON value is located with {@link JsonExtractor} and read with one shared
+ * mapper derived from the application ObjectMapper, made lenient for LLM output
+ * (unknown fields, enum casing, trailing commas, comments).
+ */
 @Component
+@Slf4j
 public class ParseJsonHelper {
 
-    private ObjectMapper objectMapper = new ObjectMapper();
+    // "[Ghi chú] {...}": when a candidate does not parse, try the next value in the text
+    private static final int MAX_CANDIDATES = 3;
+
+    private final ObjectMapper objectMapper;
+
+    public ParseJsonHelper(ObjectMapper objectMapper) {
+        ObjectMapper lenient = objectMapper.copy()
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+                .configure(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY, true)
+                .configure(JsonParser.Feature.ALLOW_COMMENTS, true)
+                .configure(JsonParser.Feature.ALLOW_TRAILING_COMMA, true);
+        lenient.setConfig(lenient.getDeserializationConfig().with(MapperFeature.ACCEPT_CASE_INSENSITIVE_ENUMS));
+        this.objectMapper = lenient;
+    }
 
     /**
      * Parse JSON response from LLM
      */
-    public <T> T parseJsonResponse(String rawResponse, Class<T> responseType) throws Exception {
-        // Extract JSON from response (in case LLM adds markdown or extra text)
-        String jsonContent = extractJson(rawResponse);
+    public <T> T parseJsonResponse(String rawResponse, Class<T> responseType) throws JsonProcessingException {
+        return parse(rawResponse, objectMapper.constructType(responseType));
+    }
 
-        // Parse using Jackson
-        return objectMapper.readValue(jsonContent, responseType);
+    /**
+     * Parse JSON response from LLM into a generic type (e.g. a list of records)
+     */
+    public <T> T parseJsonResponse(String rawResponse, TypeReference<T> responseType) throws JsonProcessingException {
+        return parse(rawResponse, objectMapper.getTypeFactory().constructType(responseType));
     }
 
     /**
-     * Extract JSON content from response (removes markdown code blocks if present)
+     * Same as {@link #parseJsonResponse(String, Class)}, empty when nothing parses
      */
-    private String extractJson(String response) {
-        // Try to find JSON in markdown code block
-        Pattern jsonBlockPattern = Pattern.compile("```json\\s*\\n(.+?)\\n```", Pattern.DOTALL);
-        Matcher matcher = jsonBlockPattern.matcher(response);
-        if (matcher.find()) {
-            return matcher.group(1).trim();
+    public <T> Optional<T> tryParse(String rawResponse, Class<T> responseType) {
+        try {
+            return Optional.ofNullable(parseJsonResponse(rawResponse, responseType));
+        } catch (JsonProcessingException e) {
+            log.debug("No parsable {} in LLM response: {}", responseType.getSimpleName(), e.getOriginalMessage());
+            return Optional.empty();
         }
+    }
+
+    /**
+     * Reader for a streamed JSON object, fields are reported as they complete
+     */
+    public IncrementalJsonObjectReader incrementalReader(BiConsumer<String, JsonNode> onField) {
+        return new IncrementalJsonObjectReader(objectMapper, onField);
+    }
 
-        // Try to find JSON in generic code block
-        Pattern codeBlockPattern = Pattern.compile("```\\s*\\n(.+?)\\n```", Pattern.DOTALL);
-        matcher = codeBlockPattern.matcher(response);
-        if (matcher.find()) {
-            String content = matcher.group(1).trim();
-            if (content.startsWith("{") || content.startsWith("[")) {
-                return content;
+    /**
+     * Convert a field reported by {@link #incrementalReader} into a typed value
+     */
+    public <T> T convert(JsonNode node, TypeReference<T> type) throws JsonProcessingException {
+        return objectMapper.treeToValue(node, objectMapper.getTypeFactory().constructType(type));
+    }
+
+    private <T> T parse(String rawResponse, JavaType type) throws JsonProcessingException {
+        String response = rawResponse != null ? rawResponse : "";
+
+        JsonProcessingException lastError = null;
+        int from = 0;
+        for (int attempt = 0; attempt < MAX_CANDIDATES; attempt++) {
+            Optional<JsonExtractor.Span> span = JsonExtractor.find(response, from);
+            if (span.isEmpty()) {
+                break;
+            }
+            try {
+                return objectMapper.readValue(response.substring(span.get().start(), span.get().end()), type);
+            } catch (JsonProcessingException e) {
+                lastError = e;
+                from = span.get().end();
             }
         }
-
-        // Try to find JSON object or array in the text
-        Pattern jsonPattern = Pattern.compile("(\\{.+?\\}|\\[.+?\\])", Pattern.DOTALL);
-        matcher = jsonPattern.matcher(response);
-        if (matcher.find()) {
-            return matcher.group(1).trim();
+        if (lastError != null) {
+            throw lastError;
         }
 
-        // If no JSON markers found, assume entire response is JSON
-        return response.trim();
+        // No JSON markers found, assume entire response is JSON (scalar or error from Jackson)
+        return objectMapper.readValue(response.trim(), type);
     }
 }
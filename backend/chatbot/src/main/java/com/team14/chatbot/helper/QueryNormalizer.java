@@ -0,0 +1,29 @@
+package com.team14.chatbot.helper;
+
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Normalize user queries for cache keys: Unicode NFC (Vietnamese diacritics can
+ * arrive composed or decomposed), lower case, collapsed whitespace and no
+ * trailing punctuation. "Lãi suất kép là gì ?" and "lãi suất kép là gì" map to
+ * the same key.
+ */
+public final class QueryNormalizer {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern TRAILING_PUNCTUATION = Pattern.compile("[\\s\\p{Punct}…]+$");
+
+    private QueryNormalizer() {
+    }
+
+    public static String normalize(String query) {
+        if (query == null) {
+            return "";
+        }
+        String normalized = Normalizer.normalize(query, Normalizer.Form.NFC).toLowerCase(Locale.ROOT);
+        normalized = WHITESPACE.matcher(normalized).replaceAll(" ").trim();
+        return TRAILING_PUNCTUATION.matcher(normalized).replaceAll("");
+    }
+}
@@ -0,0 +1,91 @@
+package com.team14.chatbot.helper;
+
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Time budget and cancellation token of the current chat request.
+ *
+ * Set once at the entry of the RAG pipeline; inherited by the virtual threads
+ * the pipeline forks, so downstream clients can size their timeouts on what is
+ * left of the budget instead of a fixed value, and skip calls whose answer
+ * nobody will read (client disconnected, sibling task failed).
+ */
+public final class RequestDeadline {
+
+    private static final InheritableThreadLocal<Long> DEADLINE = new InheritableThreadLocal<>();
+    private static final InheritableThreadLocal<CancellationToken> CANCELLATION = new InheritableThreadLocal<>();
+
+    private RequestDeadline() {
+    }
+
+    public static void start(Duration budget) {
+        start(budget, CancellationToken.NONE);
+    }
+
+    public static void start(Duration budget, CancellationToken cancellation) {
+        DEADLINE.set(System.currentTimeMillis() + budget.toMillis());
+        CANCELLATION.set(cancellation);
+    }
+
+    public static void clear() {
+        DEADLINE.remove();
+        CANCELLATION.remove();
+    }
+
+    /**
+     * Time left before the deadline, capped at {@code max} (also returned when no budget is set)
+     */
+    public static Duration remaining(Duration max) {
+        Long deadline = DEADLINE.get();
+        if (deadline == null) {
+            return max;
+        }
+        long left = Math.max(0, deadline - System.currentTimeMillis());
+        return left < max.toMillis() ? Duration.ofMillis(left) : max;
+    }
+
+    /**
+     * Cancellation token of the current request (or of the task scope this
+     * thread was forked in); {@link CancellationToken#NONE} outside a request
+     */
+    public static CancellationToken cancellation() {
+        CancellationToken token = CANCELLATION.get();
+        return token != null ? token : CancellationToken.NONE;
+    }
+
+    /**
+     * Bind a token to the current thread, returns the previous one
+     */
+    public static CancellationToken bindCancellation(CancellationToken cancellation) {
+        CancellationToken previous = cancellation();
+        CANCELLATION.set(cancellation);
+        return previous;
+    }
+
+    /**
+     * Checkpoint before an expensive call (LLM, rerank, embedding)
+     */
+    public static void throwIfCancelled() {
+        cancellation().throwIfCancelled();
+    }
+
+    /**
+     * For catch-all blocks that degrade to a fallback result: a cancellation is
+     * rethrown as is, an interrupt (possibly wrapped, e.g. by a blocking client)
+     * restores the interrupt flag and is rethrown as a cancellation
+     */
+    public static void rethrowIfCancellation(Throwable error) {
+        if (error instanceof CancellationException cancelled) {
+            throw cancelled;
+        }
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+                CancellationException cancelled = new CancellationException("Interrupted");
+                cancelled.initCause(cause);
+                throw cancelled;
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.team14.chatbot.helper;
+
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Fork/join scope on virtual threads with shutdown-on-failure semantics, the
+ * shape of {@code StructuredTaskScope.ShutdownOnFailure} (still a preview API
+ * on Java 21).
+ *
+ * Forks run with the scope's token bound as request cancellation. The first
+ * failing fork, a cancelled parent token or {@link #shutdown()} cancels that
+ * token and interrupts the forks still running; {@link #close()} never leaves
+ * a fork behind.
+ */
+public final class TaskScope<T> implements AutoCloseable {
+
+    private final CancellationToken token;
+    private final CancellationToken.Registration interruptRegistration;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final List<Future<T>> forks = new CopyOnWriteArrayList<>();
+    private final AtomicReference<Throwable> firstFailure = new AtomicReference<>();
+
+    public TaskScope(CancellationToken parent) {
+        this.token = parent.child();
+        this.interruptRegistration = token.onCancel(this::interruptForks);
+    }
+
+    public CancellationToken token() {
+        return token;
+    }
+
+    public Future<T> fork(Callable<T> task) {
+        token.throwIfCancelled();
+        Future<T> future = executor.submit(() -> {
+            CancellationToken previous = RequestDeadline.bindCancellation(token);
+            try {
+                return task.call();
+            } catch (Throwable e) {
+                if (!(e instanceof CancellationException || e instanceof InterruptedException)
+                        && firstFailure.compareAndSet(null, e)) {
+                    shutdown("fork failed: " + e);
+                }
+                throw e;
+            } finally {
+                RequestDeadline.bindCancellation(previous);
+            }
+        });
+        forks.add(future);
+        return future;
+    }
+
+    /**
+     * Wait until every fork is done, or the scope is shut down
+     */
+    public TaskScope<T> join() throws InterruptedException {
+        for (Future<T> fork : forks) {
+            try {
+                fork.get();
+            } catch (ExecutionException | CancellationException e) {
+                // reported by throwIfFailed()
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Rethrow the first failure, or a CancellationException when the scope was
+     * cancelled without one
+     */
+    public void throwIfFailed() throws ExecutionException {
+        Throwable failure = firstFailure.get();
+        if (failure != null) {
+            throw new ExecutionException(failure);
+        }
+        token.throwIfCancelled();
+    }
+
+    public void shutdown() {
+        shutdown("scope shut down");
+    }
+
+    private void shutdown(String reason) {
+        token.cancel(reason);
+    }
+
+    private void interruptForks() {
+        forks.forEach(fork -> fork.cancel(true));
+    }
+
+    @Override
+    public void close() {
+        if (forks.stream().anyMatch(fork -> !fork.isDone())) {
+            shutdown("scope closed");
+        }
+        interruptRegistration.close();
+        executor.close();
+    }
+}
@@ -4,9 +4,12 @@ import com.team14.chatbot.dto.request.MessageRequest;
 import com.team14.chatbot.dto.response.MessageResponse;
 import com.team14.chatbot.entity.Message;
 import org.mapstruct.Mapper;
+import org.mapstruct.Mapping;
 
 @Mapper(componentModel = "spring")
 public interface MessageMapper {
     Message toMessage (MessageRequest request);
+    // cached: only set on a fresh answer served from the answer cache, never stored
+    @Mapping(target = "cached", ignore = true)
     MessageResponse toMessageResponse (Message message);
 }
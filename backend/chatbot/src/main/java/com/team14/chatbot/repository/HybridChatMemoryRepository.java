@@ -41,8 +41,20 @@ public class HybridChatMemoryRepository implements ChatMemoryRepository {
 
     @Override
     public void saveAll(String conversationId, List<Message> messages) {
+        saveTurn(conversationId, messages);
+    }
+
+    /**
+     * Save the messages of a turn, returns their memory ids so that a message
+     * corrected later (output validation) can be replaced
+     */
+    public List<String> saveTurn(String conversationId, List<Message> messages) {
         inMemory.saveAll(conversationId, messages);
-        postgres.saveAll(conversationId, messages);
+        return postgres.saveAllWithIds(conversationId, messages);
+    }
+
+    public void replace(String conversationId, String memoryId, Message message) {
+        postgres.replace(conversationId, memoryId, message);
     }
 
     @Override
@@ -11,8 +11,10 @@ import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Repository;
 
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 import java.util.stream.Collectors;
 
 
@@ -48,17 +50,40 @@ public class PostgresChatMemoryRepository implements ChatMemoryRepository {
 
     @Override
     public void saveAll(String conversationId, List<Message> messages) {
+        saveAllWithIds(conversationId, messages);
+    }
+
+    /**
+     * Same as saveAll, returns the memory id of each message (see replace)
+     */
+    public List<String> saveAllWithIds(String conversationId, List<Message> messages) {
+        List<String> ids = new ArrayList<>();
         messages.forEach(msg -> {
-            Document doc = new Document(
-                    msg.toString(),
-                    Map.of(
-                            "conversationId", conversationId,
-                            "role", msg.getMessageType().name(),
-                            "timestamp", Instant.now().toString()
-                    )
-            );
+            Document doc = toDocument(UUID.randomUUID().toString(), conversationId, msg);
             chatMemoryStore.add(List.of(doc));
+            ids.add(doc.getId());
         });
+        return ids;
+    }
+
+    /**
+     * Replace a stored message in place (same memory id)
+     */
+    public void replace(String conversationId, String id, Message message) {
+        chatMemoryStore.delete(List.of(id));
+        chatMemoryStore.add(List.of(toDocument(id, conversationId, message)));
+    }
+
+    private Document toDocument(String id, String conversationId, Message msg) {
+        return new Document(
+                id,
+                msg.toString(),
+                Map.of(
+                        "conversationId", conversationId,
+                        "role", msg.getMessageType().name(),
+                        "timestamp", Instant.now().toString()
+                )
+        );
     }
 
     @Override
@@ -0,0 +1,196 @@
+package com.team14.chatbot.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.team14.chatbot.configuration.AnswerCacheConfig;
+import com.team14.chatbot.enums.QueryIntent;
+import com.team14.chatbot.helper.LshIndex;
+import com.team14.chatbot.helper.QueryNormalizer;
+import com.team14.chatbot.service.RagModules.retriever.KnowledgeBaseVersionService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of full answers to conversation-independent knowledge questions
+ * (empty conversation summary, every intent in answer-cache.intents).
+ *
+ * Exact tier: normalized query → answer, checked before query processing,
+ * so its key cannot hold the intents; an entry is served only while its
+ * stored intents are all cacheable, and dropped when the same query later
+ * resolves to other intents.
+ * Semantic tier (optional): looked up after the query-processing LLM call
+ * (intents are needed), so a hit saves retrieval, generation and validation,
+ * not that call; nearest cached query with the same intents above the
+ * similarity threshold (in-process LSH).
+ * Both are keyed by the knowledge base version and flushed when it changes;
+ * entries are bounded by size and age. Only validated (or corrected) answers
+ * are stored.
+ * Metrics: rag.answer_cache.lookups{tier,result}, rag.answer_cache.size.
+ */
+@Component
+@Slf4j
+public class AnswerCache {
+
+    private final AnswerCacheConfig config;
+    private final EmbeddingModel embeddingModel;
+    private final KnowledgeBaseVersionService knowledgeBaseVersionService;
+    private final MeterRegistry meterRegistry;
+    private final Cache<String, CachedAnswer> exact;
+    private final Cache<Long, SemanticEntry> semantic;
+    private final LshIndex<Long> index;
+    private final AtomicLong ids = new AtomicLong();
+
+    private record CachedAnswer(String answer, List<QueryIntent> intents) {
+    }
+
+    private record SemanticEntry(long kbVersion, List<QueryIntent> intents, String normalizedQuery,
+                                 String answer) {
+    }
+
+    /**
+     * Lookup state of one request; keeps the KB version it started on (an
+     * answer computed across a KB change is not stored) and the query
+     * embedding of the semantic tier
+     */
+    public static final class Lookup {
+        private final String normalizedQuery;
+        private final long kbVersion;
+        private final boolean cacheable;
+        private float[] vector;
+
+        private Lookup(String normalizedQuery, long kbVersion, boolean cacheable) {
+            this.normalizedQuery = normalizedQuery;
+            this.kbVersion = kbVersion;
+            this.cacheable = cacheable;
+        }
+    }
+
+    public AnswerCache(AnswerCacheConfig config, EmbeddingModel embeddingModel,
+                       KnowledgeBaseVersionService knowledgeBaseVersionService, MeterRegistry meterRegistry) {
+        this.config = config;
+        this.embeddingModel = embeddingModel;
+        this.knowledgeBaseVersionService = knowledgeBaseVersionService;
+        this.meterRegistry = meterRegistry;
+        this.exact = Caffeine.newBuilder()
+                .maximumSize(config.getMaxSize())
+                .expireAfterWrite(Duration.ofMinutes(config.getTtlMinutes()))
+                .build();
+        this.index = new LshIndex<>(config.getSemantic().getLshTables(), config.getSemantic().getLshBits(), 21L);
+        this.semantic = Caffeine.newBuilder()
+                .maximumSize(config.getMaxSize())
+                .expireAfterWrite(Duration.ofMinutes(config.getTtlMinutes()))
+                .removalListener((Long id, SemanticEntry value, RemovalCause cause) -> index.remove(id))
+                .build();
+
+        knowledgeBaseVersionService.addListener(version -> {
+            exact.invalidateAll();
+            semantic.invalidateAll();
+        });
+        Gauge.builder("rag.answer_cache.size", exact, Cache::estimatedSize).register(meterRegistry);
+    }
+
+    /**
+     * Exact tier lookup; answers of a personalized turn (conversation summary)
+     * are never served nor stored
+     */
+    public Lookup start(String query, String conversationHistory) {
+        boolean cacheable = config.isEnabled() && query != null
+                && (conversationHistory == null || conversationHistory.isBlank());
+        return new Lookup(QueryNormalizer.normalize(query), knowledgeBaseVersionService.currentVersion(), cacheable);
+    }
+
+    public Optional<String> findExact(Lookup lookup) {
+        if (!lookup.cacheable) {
+            return Optional.empty();
+        }
+        CachedAnswer cached = exact.getIfPresent(key(lookup));
+        if (cached != null && !config.getIntents().containsAll(cached.intents())) {
+            // answer-cache.intents changed since it was stored
+            exact.invalidate(key(lookup));
+            cached = null;
+        }
+        record("exact", cached != null);
+        return Optional.ofNullable(cached).map(CachedAnswer::answer);
+    }
+
+    /**
+     * Semantic tier lookup, once the intents are known
+     */
+    public Optional<String> findSimilar(Lookup lookup, List<QueryIntent> intents) {
+        if (!cacheable(lookup, intents) || !config.getSemantic().isEnabled()) {
+            return Optional.empty();
+        }
+        try {
+            lookup.vector = embeddingModel.embed(lookup.normalizedQuery);
+        } catch (Exception e) {
+            log.warn("Answer cache embedding failed, skipping semantic tier: {}", e.getMessage());
+            return Optional.empty();
+        }
+
+        List<QueryIntent> sortedIntents = sorted(intents);
+        List<LshIndex.Neighbor<Long>> nearest = index.nearest(lookup.vector, 1, id -> {
+            SemanticEntry entry = semantic.getIfPresent(id);
+            return entry != null && entry.kbVersion() == lookup.kbVersion && entry.intents().equals(sortedIntents);
+        });
+        SemanticEntry entry = nearest.isEmpty() ? null : semantic.getIfPresent(nearest.get(0).key());
+        boolean hit = entry != null && nearest.get(0).similarity() >= config.getSemantic().getSimilarityThreshold();
+        record("semantic", hit);
+        if (!hit) {
+            return Optional.empty();
+        }
+        log.info("Answer cache semantic hit ({}) for '{}' <- '{}'",
+                String.format("%.3f", nearest.get(0).similarity()), lookup.normalizedQuery, entry.normalizedQuery());
+        return Optional.of(entry.answer());
+    }
+
+    public boolean cacheable(Lookup lookup, Collection<QueryIntent> intents) {
+        return lookup.cacheable && !intents.isEmpty() && config.getIntents().containsAll(intents);
+    }
+
+    /**
+     * Store a validated answer (skipped when the KB changed meanwhile)
+     */
+    public void put(Lookup lookup, List<QueryIntent> intents, String answer) {
+        if (!cacheable(lookup, intents) || answer == null || answer.isBlank()
+                || lookup.kbVersion != knowledgeBaseVersionService.currentVersion()) {
+            return;
+        }
+        List<QueryIntent> sortedIntents = sorted(intents);
+        CachedAnswer previous = exact.getIfPresent(key(lookup));
+        if (previous != null && !previous.intents().equals(sortedIntents)) {
+            // Cùng câu hỏi nhưng intents khác lần trước: không phục vụ theo exact key nữa
+            log.info("Answer cache: '{}' resolved to {} after {}, dropping exact entry", lookup.normalizedQuery,
+                    sortedIntents, previous.intents());
+            exact.invalidate(key(lookup));
+        } else {
+            exact.put(key(lookup), new CachedAnswer(answer, sortedIntents));
+        }
+        if (lookup.vector != null) {
+            long id = ids.incrementAndGet();
+            semantic.put(id, new SemanticEntry(lookup.kbVersion, sortedIntents, lookup.normalizedQuery, answer));
+            index.add(id, lookup.vector);
+        }
+    }
+
+    private static String key(Lookup lookup) {
+        return lookup.kbVersion + "|" + lookup.normalizedQuery;
+    }
+
+    private static List<QueryIntent> sorted(Collection<QueryIntent> intents) {
+        return intents.stream().distinct().sorted().toList();
+    }
+
+    private void record(String tier, boolean hit) {
+        meterRegistry.counter("rag.answer_cache.lookups", "tier", tier, "result", hit ? "hit" : "miss").increment();
+    }
+}
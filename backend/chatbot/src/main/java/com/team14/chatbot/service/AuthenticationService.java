@@ -6,6 +6,7 @@ import com.nimbusds.jose.crypto.MACSigner;
 import com.nimbusds.jose.crypto.MACVerifier;
 import com.nimbusds.jwt.JWTClaimsSet;
 import com.nimbusds.jwt.SignedJWT;
+import com.team14.chatbot.configuration.AdminConfig;
 import com.team14.chatbot.dto.request.AuthenticateRequest;
 import com.team14.chatbot.dto.request.IntrospectRequest;
 import com.team14.chatbot.dto.request.LogoutRequest;
@@ -56,6 +57,7 @@ public class AuthenticationService {
 
     UserRepository userRepository;
     InvalidatedTokenRepository invalidatedTokenRepository;
+    AdminConfig adminConfig;
 
     public AuthenticateResponse authenticate (AuthenticateRequest request) throws AppException {
         User user = userRepository.findByUsername(request.getUsername()).orElseThrow(
@@ -134,6 +136,7 @@ public class AuthenticationService {
                         Instant.now().plus(ACCESS_TOKEN_DURATION, ChronoUnit.SECONDS).toEpochMilli()))
                 .jwtID(UUID.randomUUID().toString())
                 .claim("token_type", "access")
+                .claim("scope", buildScope(user))
                 .build();
         Payload payload = new Payload(jwtClaimsSet.toJSONObject());
 
@@ -148,6 +151,16 @@ public class AuthenticationService {
         }
     }
 
+    // Authorities of the access token (JwtGrantedAuthoritiesConverter đọc claim "scope")
+    private String buildScope(User user) {
+        StringJoiner stringJoiner = new StringJoiner(" ");
+        if (!CollectionUtils.isEmpty(adminConfig.getUsernames())
+                && adminConfig.getUsernames().contains(user.getUsername())) {
+            stringJoiner.add(AdminConfig.ADMIN_SCOPE);
+        }
+        return stringJoiner.toString();
+    }
+
     public String generateRefreshToken(User user) {
         JWSHeader jwsHeader = new JWSHeader(JWSAlgorithm.HS512);
 
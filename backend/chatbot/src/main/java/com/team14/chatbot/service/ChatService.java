@@ -1,13 +1,18 @@
 package com.team14.chatbot.service;
 
+import com.team14.chatbot.configuration.ContextBudgetConfig;
+import com.team14.chatbot.helper.CancellationToken;
 import com.team14.chatbot.repository.HybridChatMemoryRepository;
+import com.team14.chatbot.service.RagModules.generation.CompiledPrompt;
+import com.team14.chatbot.service.RagModules.generation.ContextAssembler;
+import com.team14.chatbot.service.RagModules.generation.PromptRegistry;
+import com.team14.chatbot.service.RagModules.pipeline.PipelineListener;
 import com.team14.chatbot.service.SummaryService;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.messages.AssistantMessage;
 import org.springframework.ai.chat.messages.Message;
 import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.ai.chat.prompt.Prompt;
-import org.springframework.ai.chat.prompt.SystemPromptTemplate;
 import org.springframework.ai.document.Document;
 import org.springframework.ai.vectorstore.VectorStore;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -18,7 +23,6 @@ import lombok.extern.slf4j.Slf4j;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 @Service
 @Slf4j
@@ -29,6 +33,8 @@ public class ChatService {
     private final HybridChatMemoryRepository hybridChatMemoryRepository;
     private final RagService ragService;
     private final SummaryService summaryService;
+    private final ContextAssembler contextAssembler;
+    private final ContextBudgetConfig contextBudgetConfig;
 
     @Autowired
     public ChatService(
@@ -36,18 +42,18 @@ public class ChatService {
             @Qualifier("geminiFlashClient") ChatClient chatClient,
             HybridChatMemoryRepository hybridChatMemoryRepository,
             RagService ragService,
-            SummaryService summaryService) {
+            SummaryService summaryService,
+            ContextAssembler contextAssembler,
+            ContextBudgetConfig contextBudgetConfig) {
         this.knowledgeBaseStore = knowledgeBaseStore;
         this.chatClient = chatClient;
         this.hybridChatMemoryRepository = hybridChatMemoryRepository;
         this.ragService = ragService;
         this.summaryService = summaryService;
+        this.contextAssembler = contextAssembler;
+        this.contextBudgetConfig = contextBudgetConfig;
     }
 
-    // K_TOKENS is reserved for future token limiting
-    @SuppressWarnings("unused")
-    private static final int K_TOKENS = 3;
-
     private static final String PROMPT_TEMPLATE = """
             [PHẦN HƯỚNG DẪN HỆ THỐNG - SYSTEMCONTEXT]
             Bạn là một Trợ lý Tài chính AI chuyên nghiệp.
@@ -96,6 +102,9 @@ public class ChatService {
 
             """;
 
+    private static final CompiledPrompt SYSTEM_PROMPT = PromptRegistry.register("chat.system", 1, PROMPT_TEMPLATE,
+            "KNOWLEDGE_BASE_CONTEXT", "CONVERSATION_CONTEXT", "SUMMARY_CONTEXT");
+
     public Message oneTimeResponse(Prompt prompt) {
         return AssistantMessage.builder()
                 .content(chatClient.prompt(prompt).call().content())
@@ -108,16 +117,15 @@ public class ChatService {
 
         System.out.println(">>> Similar documents: " + similarDocuments.size());
 
-        String knowledgeBaseContext = similarDocuments.stream()
-                .map(Document::getText)
-                .collect(Collectors.joining("\n---\n"));
-
-        // Get recent messages for context
+        // Get recent messages for context (one "role: text" line per turn, newest last)
         List<Message> messageList = hybridChatMemoryRepository.findByConversationId(conversationId);
-        String conversationContext = messageList.isEmpty() ? "" : messageList.toString();
-        
+        List<String> recentTurns = messageList.stream()
+                .skip(Math.max(0, messageList.size() - contextBudgetConfig.getMaxRecentTurns()))
+                .map(message -> message.getMessageType().getValue() + ": " + message.getText())
+                .toList();
+
         // Get conversation summary
-        String summaryContext = "Chưa có tóm tắt hội thoại.";
+        String summaryContext = "";
         try {
             String summary = summaryService.getSummary(conversationId);
             if (summary != null && !summary.trim().isEmpty()) {
@@ -127,12 +135,27 @@ public class ChatService {
             log.error("Error getting conversation summary", e);
         }
 
+        // Fit knowledge, recent turns and summary into the prompt token budget
+        ContextAssembler.Assembly assembly = contextAssembler.start("chat")
+                .fixed("instructions", SYSTEM_PROMPT)
+                .fixed("user_message", userMessage.getText())
+                .section("knowledge", similarDocuments.stream().map(Document::getText).toList(),
+                        ContextAssembler.Keep.FIRST)
+                .section("recent-turns", recentTurns, ContextAssembler.Keep.LAST)
+                .section("summary", List.of(summaryContext), ContextAssembler.Keep.FIRST)
+                .assemble();
+        String knowledgeBaseContext = assembly.join("knowledge", "\n---\n");
+        String conversationContext = assembly.join("recent-turns", "\n");
+        if (assembly.items("summary").isEmpty()) {
+            summaryContext = "Chưa có tóm tắt hội thoại.";
+        } else {
+            summaryContext = assembly.join("summary", "");
+        }
+
         System.out.println("Conversation context: " + conversationContext);
         System.out.println("Summary context: " + summaryContext);
 
-        SystemPromptTemplate systemPromptTemplate = new SystemPromptTemplate(PROMPT_TEMPLATE);
-
-        Message systemMessage = systemPromptTemplate.createMessage(
+        Message systemMessage = SYSTEM_PROMPT.systemMessage(
                 Map.of("KNOWLEDGE_BASE_CONTEXT", knowledgeBaseContext,
                        "CONVERSATION_CONTEXT", conversationContext,
                        "SUMMARY_CONTEXT", summaryContext));
@@ -147,6 +170,24 @@ public class ChatService {
     }
 
     public String generatePrompt_new(UserMessage userMessage, String conversationId) {
+        return generatePrompt_new(userMessage, conversationId, CancellationToken.NONE);
+    }
+
+    public String generatePrompt_new(UserMessage userMessage, String conversationId,
+            CancellationToken cancellation) {
+        return generatePrompt_new(userMessage, conversationId, cancellation, PipelineListener.NONE);
+    }
+
+    public String generatePrompt_new(UserMessage userMessage, String conversationId,
+            CancellationToken cancellation, PipelineListener listener) {
+        return generateRag(userMessage, conversationId, cancellation, listener).validation().join().answer();
+    }
+
+    /**
+     * RAG answer, possibly returned before its (ASYNC) output validation
+     */
+    public RagResult generateRag(UserMessage userMessage, String conversationId,
+            CancellationToken cancellation, PipelineListener listener) {
         List<Message> messageList = hybridChatMemoryRepository.findByConversationId(conversationId);
         String conversationContext = messageList.isEmpty() ? "" : messageList.toString();
         
@@ -157,7 +198,7 @@ public class ChatService {
             : "";
         log.info("\nconversationId: {}, \n summary: {} \n fullContext: {}", conversationId, summary, fullContext);
             
-        return ragService.generate(userMessage.getText(), fullContext);
+        return ragService.generateResult(userMessage.getText(), fullContext, cancellation, listener);
     }
 
 }
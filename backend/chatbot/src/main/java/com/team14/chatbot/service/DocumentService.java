@@ -2,6 +2,7 @@ package com.team14.chatbot.service;
 
 import com.team14.chatbot.entity.Document;
 import com.team14.chatbot.repository.DocumentRepository;
+import com.team14.chatbot.service.RagModules.retriever.KnowledgeBaseVersionService;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
@@ -34,6 +35,8 @@ public class DocumentService {
     @Qualifier("knowledgeVectorStore")
     VectorStore vectorStore;
 
+    KnowledgeBaseVersionService knowledgeBaseVersionService;
+
     private static final String UPLOAD_DIR = "uploads/documents";
     private static final int CHUNK_SIZE = 800;
     private static final int CHUNK_OVERLAP = 200;
@@ -133,7 +136,7 @@ public class DocumentService {
         // - Generates embeddings using the configured embedding model (OpenAI)
         // - Stores the embeddings in pgvector
         vectorStore.add(chunks);
-
+        knowledgeBaseVersionService.bump("ingested document " + documentId);
 
         // Update chunk count in document metadata
         Document document = documentRepository.findById(documentId).orElseThrow();
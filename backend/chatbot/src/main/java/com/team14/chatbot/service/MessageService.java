@@ -8,14 +8,18 @@ import com.team14.chatbot.entity.Message;
 import com.team14.chatbot.entity.User;
 import com.team14.chatbot.exception.AppException;
 import com.team14.chatbot.exception.ErrorCode;
+import com.team14.chatbot.helper.CancellationToken;
 import com.team14.chatbot.mapper.MessageMapper;
 import com.team14.chatbot.repository.ConversationRepository;
 import com.team14.chatbot.repository.HybridChatMemoryRepository;
 import com.team14.chatbot.repository.MessageRepository;
 import com.team14.chatbot.repository.UserRepository;
+import com.team14.chatbot.service.RagModules.pipeline.PipelineListener;
+import com.team14.chatbot.service.RagModules.validator.ValidationOutcome;
 import com.team14.chatbot.service.SummaryService;
 import lombok.AccessLevel;
 import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.messages.AssistantMessage;
 import org.springframework.ai.chat.messages.MessageType;
@@ -26,15 +30,23 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.scheduler.Schedulers;
 
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Service
 // @RequiredArgsConstructor
 @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+@Slf4j
 public class MessageService {
         final MessageMapper messageMapper;
         final MessageRepository messageRepository;
@@ -115,7 +127,24 @@ public class MessageService {
                                 });
         }
 
-        public Flux<String> streamingCreateNew(MessageRequest request) throws AppException {
+        public Flux<ServerSentEvent<String>> streamingCreateNew(MessageRequest request) throws AppException {
+                return streamingCreateNew(request, CancellationToken.NONE);
+        }
+
+        /**
+         * RAG answer streamed as SSE events: "stage" events (retrieving,
+         * calculating, generating...) while the pipelines run, then the tokens of
+         * the final generation / fusion as plain data events. "replace" carries
+         * the whole answer when blocking validation changed the streamed one,
+         * "done" the id of the saved message, "cached" precedes an answer served
+         * from the answer cache. With ASYNC validation the stream stays open
+         * until the answer is validated: "correction" (corrected answer) or
+         * "retraction" (notice replacing it) is sent only when it fails.
+         * Cancelling the subscription (client disconnected) cancels the
+         * request through the token and saves nothing.
+         */
+        public Flux<ServerSentEvent<String>> streamingCreateNew(MessageRequest request,
+                        CancellationToken cancellation) throws AppException {
                 Conversation conversation = conversationRepository.findById(request.getConversationId()).orElseThrow(
                                 () -> new AppException(ErrorCode.CONVERSATION_NOT_EXISTED));
                 String username = SecurityContextHolder.getContext().getAuthentication().getName();
@@ -126,8 +155,99 @@ public class MessageService {
                 }
 
                 UserMessage userQuery = new UserMessage(request.getText());
-                String aiText = chatService.generatePrompt_new(userQuery, request.getConversationId());
+                return Flux.<ServerSentEvent<String>>create(sink -> {
+                        try {
+                                streamAndSave(request, userQuery, cancellation, sink);
+                        } catch (Exception e) {
+                                sink.error(e);
+                        }
+                }).subscribeOn(Schedulers.boundedElastic());
+        }
+
+        private void streamAndSave(MessageRequest request, UserMessage userQuery, CancellationToken cancellation,
+                        FluxSink<ServerSentEvent<String>> sink) {
+                SsePipelineListener listener = new SsePipelineListener(sink);
+                RagResult result = chatService.generateRag(userQuery, request.getConversationId(), cancellation,
+                                listener);
+                if (cancellation.isCancelled()) {
+                        sink.complete();
+                        return;
+                }
+                String aiText = result.answer();
+                if (result.cached()) {
+                        sink.next(ServerSentEvent.builder("true").event("cached").build());
+                }
+
+                // Fast path / cached answer / error message: nothing streamed yet, send it as a single chunk
+                String streamed = listener.streamed();
+                if (streamed.isEmpty()) {
+                        sink.next(ServerSentEvent.builder(aiText).build());
+                } else if (!streamed.equals(aiText)) {
+                        sink.next(ServerSentEvent.builder(aiText).event("replace").build());
+                }
+
+                Message aiMessage = save(request, aiText);
+                // Memory written now (next turn sees it), replaced if the validation fails
+                List<String> memoryIds = saveMemory(request, userQuery, aiText);
+                sink.next(ServerSentEvent.builder(aiMessage.getId() != null ? aiMessage.getId() : "")
+                                .event("done")
+                                .build());
+
+                result.validation().whenComplete((outcome, error) -> {
+                        if (error != null) {
+                                log.error("Post-hoc validation failed for conversation {}",
+                                                request.getConversationId(), error);
+                                sink.complete();
+                                return;
+                        }
+                        try {
+                                applyValidation(request, aiMessage, memoryIds, outcome);
+                                if (outcome.failed()) {
+                                        String event = outcome.status() == ValidationOutcome.Status.RETRACTED
+                                                        ? "retraction"
+                                                        : "correction";
+                                        sink.next(ServerSentEvent.builder(outcome.replacement()).event(event).build());
+                                }
+                                sink.complete();
+                        } catch (Exception e) {
+                                log.error("Applying validation outcome failed for conversation {}",
+                                                request.getConversationId(), e);
+                                sink.error(e);
+                        }
+                });
+        }
 
+        /**
+         * Chat memory entries of a turn (and summarization), written as soon as the
+         * answer is saved
+         *
+         * @return memory ids of the user and assistant messages
+         */
+        private List<String> saveMemory(MessageRequest request, UserMessage userQuery, String aiText) {
+                List<String> memoryIds = hybridChatMemoryRepository.saveTurn(request.getConversationId(),
+                                List.of(userQuery, new AssistantMessage(aiText)));
+                // Trigger async summarization
+                summaryService.updateSummaryAsync(request.getConversationId());
+                return memoryIds;
+        }
+
+        /**
+         * Correction / retraction of a saved answer: the message and its chat
+         * memory entry are replaced by the final text
+         */
+        private void applyValidation(MessageRequest request, Message aiMessage, List<String> memoryIds,
+                        ValidationOutcome outcome) {
+                if (!outcome.failed()) {
+                        return;
+                }
+                aiMessage.setText(outcome.replacement());
+                messageRepository.save(aiMessage);
+                hybridChatMemoryRepository.replace(request.getConversationId(), memoryIds.get(1),
+                                new AssistantMessage(outcome.replacement()));
+                summaryService.updateSummaryAsync(request.getConversationId());
+        }
+
+        private Message save(MessageRequest request, String aiText) {
                 Message userMessage = Message.builder()
                                 .text(request.getText())
                                 .conversationId(request.getConversationId())
@@ -141,10 +261,52 @@ public class MessageService {
                                 .build();
 
                 messageRepository.saveAll(List.of(userMessage, aiMessage));
-                AssistantMessage aiMessageMem = new AssistantMessage(aiText);
-                hybridChatMemoryRepository.saveAll(request.getConversationId(), List.of(userQuery, aiMessageMem));
+                return aiMessage;
+        }
+
+        /**
+         * Pushes pipeline progress and answer tokens to the SSE stream. Stage
+         * names are mapped to the progress steps shown to the user, each step
+         * sent once.
+         */
+        private static final class SsePipelineListener implements PipelineListener {
+                private final FluxSink<ServerSentEvent<String>> sink;
+                private final Set<String> sentSteps = ConcurrentHashMap.newKeySet();
+                private final StringBuffer streamed = new StringBuffer();
+
+                SsePipelineListener(FluxSink<ServerSentEvent<String>> sink) {
+                        this.sink = sink;
+                }
+
+                @Override
+                public void onStage(String stage) {
+                        String step = switch (stage) {
+                                case "query-processing" -> "analyzing";
+                                case "retrieval" -> "retrieving";
+                                case "calculation-planning", "calculation" -> "calculating";
+                                case "generation", "fusion" -> "generating";
+                                case "validation" -> "validating";
+                                default -> null;
+                        };
+                        if (step != null && sentSteps.add(step)) {
+                                sink.next(ServerSentEvent.builder(step).event("stage").build());
+                        }
+                }
+
+                @Override
+                public void onToken(String token) {
+                        streamed.append(token);
+                        sink.next(ServerSentEvent.builder(token).build());
+                }
+
+                @Override
+                public boolean streamsAnswer() {
+                        return true;
+                }
 
-                return Flux.just(aiText);
+                String streamed() {
+                        return streamed.toString();
+                }
         }
 
         public MessageResponse create(MessageRequest request) throws AppException {
@@ -188,6 +350,11 @@ public class MessageService {
         }
 
         public MessageResponse createNew(MessageRequest request) throws AppException {
+                return createNew(request, CancellationToken.NONE);
+        }
+
+        public MessageResponse createNew(MessageRequest request, CancellationToken cancellation)
+                        throws AppException {
                 Conversation conversation = conversationRepository.findById(request.getConversationId()).orElseThrow(
                                 () -> new AppException(ErrorCode.CONVERSATION_NOT_EXISTED));
                 String username = SecurityContextHolder.getContext().getAuthentication().getName();
@@ -198,33 +365,43 @@ public class MessageService {
                 }
 
                 UserMessage userQuery = new UserMessage(request.getText());
-                String aiText = chatService.generatePrompt_new(userQuery, request.getConversationId());
-
-                hybridChatMemoryRepository.saveAll(request.getConversationId(),
-                                List.of(userQuery, new AssistantMessage(aiText)));
+                RagResult result = chatService.generateRag(userQuery, request.getConversationId(), cancellation,
+                                PipelineListener.NONE);
+                // No channel to push a later correction here: wait for the validation (blocking mode)
+                String aiText = validatedAnswer(request, result);
+                if (cancellation.isCancelled()) {
+                        // Client already gone: nobody reads the answer, keep the history unchanged
+                        return MessageResponse.builder()
+                                        .role(MessageType.ASSISTANT.name())
+                                        .text(aiText)
+                                        .conversationId(request.getConversationId())
+                                        .build();
+                }
 
-                Message userMessage = Message.builder()
-                                .text(request.getText())
-                                .conversationId(request.getConversationId())
-                                .role(MessageType.USER.name())
-                                .build();
-                Message aiMessage = Message.builder()
-                                .text(aiText)
-                                .conversationId(request.getConversationId())
-                                .role(MessageType.ASSISTANT.name())
-                                .build();
-                messageRepository.saveAll(List.of(userMessage, aiMessage));
-                // Trigger async summarization
-                summaryService.updateSummaryAsync(request.getConversationId());
+                Message aiMessage = save(request, aiText);
+                saveMemory(request, userQuery, aiText);
                 return MessageResponse.builder()
                                 .id(aiMessage.getId())
                                 .role(MessageType.ASSISTANT.name())
-                                .text(aiMessage.getText())
+                                .text(aiText)
                                 .conversationId(aiMessage.getConversationId())
                                 .createdAt(aiMessage.getCreatedAt())
+                                .cached(result.cached())
                                 .build();
         }
 
+        private String validatedAnswer(MessageRequest request, RagResult result) {
+                try {
+                        // Nothing was shown yet: same as blocking mode, the corrected answer or, when
+                        // retracted, the last candidate (the retraction notice is for streamed answers)
+                        return result.validation().join().answer();
+                } catch (CompletionException | CancellationException e) {
+                        log.error("Validation failed for conversation {}, returning the unvalidated answer",
+                                        request.getConversationId(), e);
+                        return result.answer();
+                }
+        }
+
         public PageResponse<MessageResponse> findAll(String conversationId, int page, int size) {
                 Sort sort = Sort.by("createdAt").descending();
                 Pageable pageable = PageRequest.of(page - 1, size, sort);
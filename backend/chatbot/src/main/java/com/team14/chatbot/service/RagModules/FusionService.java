@@ -1,6 +1,9 @@
 package com.team14.chatbot.service.RagModules;
 
+import com.team14.chatbot.service.RagModules.fusion.FusionSection;
+
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Service interface for fusing multiple responses into a single coherent
@@ -22,6 +25,19 @@ public interface FusionService {
     String fuse(String originalQuery, List<String> responses,
             com.team14.chatbot.service.RagModules.generation.Model model);
 
+    /**
+     * Fuse the answers of several intent pipelines. Disjoint answers are
+     * concatenated locally (headings, duplicate sentences removed); only
+     * overlapping ones are merged by the LLM.
+     *
+     * @param onToken Receives the fused answer as it is generated (a local
+     *                fusion or a single answer as one chunk); null when not
+     *                streamed
+     * @return Fused response
+     */
+    String fuseSections(String originalQuery, List<FusionSection> sections,
+            com.team14.chatbot.service.RagModules.generation.Model model, Consumer<String> onToken);
+
     /**
      * Fuse with self-correction mode (used when validation fails).
      * 
@@ -2,6 +2,8 @@ package com.team14.chatbot.service.RagModules;
 
 import com.team14.chatbot.service.RagModules.generation.GenerationRequest;
 
+import java.util.function.Consumer;
+
 /**
  * Unified service interface for all AI generation tasks.
  * Acts as a communication gateway, abstracting AI invocation, prompt
@@ -38,4 +40,15 @@ public interface GenerationService {
      */
     String generate(GenerationRequest request);
 
+    /**
+     * Generate content, streaming the response.
+     * Blocks until the stream completes; each chunk is passed to
+     * {@code onToken} as soon as the model emits it.
+     *
+     * @param request The generation request
+     * @param onToken Receives the response chunks, in order
+     * @return The whole response
+     */
+    String generate(GenerationRequest request, Consumer<String> onToken);
+
 }
@@ -1,9 +1,18 @@
 package com.team14.chatbot.service.RagModules;
 
+import com.team14.chatbot.service.RagModules.pipeline.PipelineListener;
 import com.team14.chatbot.service.RagModules.pipeline.PipelinePlan;
 
 public interface PipelineExecutorService {
 
-    String execute(PipelinePlan plan);
+    default String execute(PipelinePlan plan) {
+        return execute(plan, PipelineListener.NONE);
+    }
+
+    /**
+     * @param listener Receives the stage progress, and the answer tokens of
+     *                 the generation stage when it streams the answer
+     */
+    String execute(PipelinePlan plan, PipelineListener listener);
 
 }
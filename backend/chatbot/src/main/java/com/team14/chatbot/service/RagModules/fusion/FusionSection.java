@@ -0,0 +1,12 @@
+package com.team14.chatbot.service.RagModules.fusion;
+
+/**
+ * Answer of one intent pipeline, with the intent and (sub-)query it answers
+ * (used for the section headings of a local fusion)
+ */
+public record FusionSection(String intent, String query, String answer) {
+
+    public static FusionSection of(String answer) {
+        return new FusionSection(null, null, answer);
+    }
+}
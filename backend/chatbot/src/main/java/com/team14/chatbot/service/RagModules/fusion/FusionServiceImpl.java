@@ -2,17 +2,20 @@ package com.team14.chatbot.service.RagModules.fusion;
 
 import com.team14.chatbot.service.RagModules.FusionService;
 import com.team14.chatbot.service.RagModules.GenerationService;
+import com.team14.chatbot.service.RagModules.generation.CompiledPrompt;
 import com.team14.chatbot.service.RagModules.generation.GenerationRequest;
 import com.team14.chatbot.service.RagModules.generation.Model;
+import com.team14.chatbot.service.RagModules.generation.PromptRegistry;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.prompt.Prompt;
-import org.springframework.ai.chat.prompt.PromptTemplate;
 import org.springframework.stereotype.Service;
 
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 @Service
 @RequiredArgsConstructor
@@ -20,6 +23,8 @@ import java.util.Map;
 public class FusionServiceImpl implements FusionService {
 
     private final GenerationService generationService;
+    private final LocalFusion localFusion;
+    private final MeterRegistry meterRegistry;
 
     private static final String FUSION_PROMPT = """
             Merge multiple responses into one coherent answer. Remove duplicates, organize logically, ensure accuracy.
@@ -43,26 +48,57 @@ public class FusionServiceImpl implements FusionService {
             Return corrected merged answer in Vietnamese only.
             """;
 
+    private static final CompiledPrompt FUSION = PromptRegistry.register(
+            "fusion.merge", 1, FUSION_PROMPT, "query", "answers");
+    private static final CompiledPrompt FUSION_SELF_CORRECT = PromptRegistry.register(
+            "fusion.self-correct", 1, FUSION_SELF_CORRECT_PROMPT, "query", "answers", "validatorReason", "mode");
+
     @Override
     public String fuse(String originalQuery, List<String> responses, Model model) {
         if (responses == null || responses.isEmpty()) {
             return "Không có thông tin để tổng hợp.";
         }
-        if (responses.size() == 1) {
-            return responses.get(0);
+        return fuseSections(originalQuery, responses.stream().map(FusionSection::of).toList(), model, null);
+    }
+
+    @Override
+    public String fuseSections(String originalQuery, List<FusionSection> sections, Model model,
+            Consumer<String> onToken) {
+        String fused;
+        if (sections == null || sections.isEmpty()) {
+            fused = "Không có thông tin để tổng hợp.";
+        } else if (sections.size() == 1) {
+            fused = sections.get(0).answer();
+        } else if (localFusion.applies(sections)) {
+            // Câu trả lời rời nhau (VD: CALCULATION + KNOWLEDGE_QUERY): ghép tại chỗ, không gọi LLM
+            log.info("Fusing {} disjoint responses locally for query: {}", sections.size(), originalQuery);
+            meterRegistry.counter("rag.fusion", "strategy", "local").increment();
+            fused = localFusion.fuse(sections);
+        } else {
+            meterRegistry.counter("rag.fusion", "strategy", "llm").increment();
+            List<String> responses = sections.stream().map(FusionSection::answer).toList();
+            GenerationRequest fusionReq = fusionRequest(originalQuery, responses, model);
+            return onToken != null
+                    ? generationService.generate(fusionReq, onToken)
+                    : generationService.generate(fusionReq);
         }
+        if (onToken != null) {
+            onToken.accept(fused);
+        }
+        return fused;
+    }
 
+    private GenerationRequest fusionRequest(String originalQuery, List<String> responses, Model model) {
         StringBuilder ctx = new StringBuilder();
         for (int i = 0; i < responses.size(); i++) {
             ctx.append("### RESPONSE ").append(i + 1).append("\n");
             ctx.append(responses.get(i)).append("\n\n");
         }
 
-        PromptTemplate fusionTemplate = new PromptTemplate(FUSION_PROMPT);
         Map<String, Object> fusionVars = Map.of(
                 "query", originalQuery,
                 "answers", ctx.toString());
-        Prompt fusionPrompt = fusionTemplate.create(fusionVars);
+        Prompt fusionPrompt = FUSION.prompt(fusionVars);
 
         GenerationRequest fusionReq = GenerationRequest.builder()
                 .prompt(fusionPrompt)
@@ -70,7 +106,7 @@ public class FusionServiceImpl implements FusionService {
                 .build();
 
         log.info("Fusing {} responses for query: {}", responses.size(), originalQuery);
-        return generationService.generate(fusionReq);
+        return fusionReq;
     }
 
     @Override
@@ -86,13 +122,12 @@ public class FusionServiceImpl implements FusionService {
             ctx.append(responses.get(i)).append("\n\n");
         }
 
-        PromptTemplate fusionTemplate = new PromptTemplate(FUSION_SELF_CORRECT_PROMPT);
         Map<String, Object> fusionVars = new HashMap<>();
         fusionVars.put("query", originalQuery);
         fusionVars.put("answers", ctx.toString());
         fusionVars.put("validatorReason", validatorReason != null ? validatorReason : "Không có lý do cụ thể");
         fusionVars.put("mode", mode != null ? mode : "self-correct");
-        Prompt fusionPrompt = fusionTemplate.create(fusionVars);
+        Prompt fusionPrompt = FUSION_SELF_CORRECT.prompt(fusionVars);
 
         GenerationRequest fusionReq = GenerationRequest.builder()
                 .prompt(fusionPrompt)
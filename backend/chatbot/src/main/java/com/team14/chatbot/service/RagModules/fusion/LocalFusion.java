@@ -0,0 +1,150 @@
+package com.team14.chatbot.service.RagModules.fusion;
+
+import com.team14.chatbot.enums.QueryIntent;
+import com.team14.chatbot.helper.QueryNormalizer;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Deterministic fusion of multi-intent answers without an LLM call: sections
+ * concatenated in plan order under a heading, sentences already written by an
+ * earlier section dropped (normalized sentence hash).
+ *
+ * Only used when the answers are disjoint (e.g. CALCULATION + KNOWLEDGE_QUERY):
+ * overlap = max pairwise containment of word 3-shingles, above
+ * fusion.local.max-overlap the answers repeat each other and need a real merge.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class LocalFusion {
+
+    private static final Pattern SENTENCE_END = Pattern.compile("(?<=[.!?…])\\s+");
+    private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final int SHINGLE_SIZE = 3;
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${fusion.local.enabled:true}")
+    private boolean enabled;
+
+    @Value("${fusion.local.max-overlap:0.35}")
+    private double maxOverlap;
+
+    // Câu ngắn ("Có.", "Ví dụ:") không bị coi là trùng
+    @Value("${fusion.local.min-dedup-length:20}")
+    private int minDedupLength;
+
+    public boolean applies(List<FusionSection> sections) {
+        if (!enabled || sections.size() < 2) {
+            return false;
+        }
+        double overlap = overlap(sections.stream().map(FusionSection::answer).toList());
+        log.info("[Fusion] Answer overlap {} (local fusion up to {})", String.format("%.2f", overlap), maxOverlap);
+        return overlap <= maxOverlap;
+    }
+
+    public String fuse(List<FusionSection> sections) {
+        List<String> headings = headings(sections);
+        Set<String> seenSentences = new HashSet<>();
+        int dropped = 0;
+
+        StringBuilder fused = new StringBuilder();
+        for (int i = 0; i < sections.size(); i++) {
+            StringBuilder body = new StringBuilder();
+            for (String line : sections.get(i).answer().strip().split("\n", -1)) {
+                StringBuilder kept = new StringBuilder();
+                String[] sentences = SENTENCE_END.split(line);
+                for (String sentence : sentences) {
+                    String key = QueryNormalizer.normalize(sentence);
+                    if (key.length() >= minDedupLength && !seenSentences.add(key)) {
+                        dropped++;
+                        continue;
+                    }
+                    if (!kept.isEmpty()) {
+                        kept.append(' ');
+                    }
+                    kept.append(sentence);
+                }
+                // Dòng chỉ gồm câu trùng -> bỏ hẳn, giữ dòng trống (ngắt đoạn)
+                if (!kept.isEmpty() || line.isBlank()) {
+                    body.append(kept).append('\n');
+                }
+            }
+            if (body.toString().isBlank()) {
+                continue;
+            }
+            if (!fused.isEmpty()) {
+                fused.append('\n');
+            }
+            if (headings.get(i) != null) {
+                fused.append("### ").append(headings.get(i)).append("\n\n");
+            }
+            fused.append(body.toString().strip()).append('\n');
+        }
+
+        meterRegistry.counter("rag.fusion.deduplicated_sentences").increment(dropped);
+        return fused.toString().strip();
+    }
+
+    /**
+     * Max pairwise containment |A ∩ B| / min(|A|, |B|) of the answers' word 3-shingles
+     */
+    double overlap(List<String> answers) {
+        List<Set<String>> shingles = answers.stream().map(LocalFusion::shingles).toList();
+        double max = 0;
+        for (int i = 0; i < shingles.size(); i++) {
+            for (int j = i + 1; j < shingles.size(); j++) {
+                Set<String> a = shingles.get(i);
+                Set<String> b = shingles.get(j);
+                if (a.isEmpty() || b.isEmpty()) {
+                    continue;
+                }
+                Set<String> smaller = a.size() <= b.size() ? a : b;
+                Set<String> larger = smaller == a ? b : a;
+                long common = smaller.stream().filter(larger::contains).count();
+                max = Math.max(max, (double) common / smaller.size());
+            }
+        }
+        return max;
+    }
+
+    private static Set<String> shingles(String text) {
+        String[] words = NON_WORD.split(QueryNormalizer.normalize(text));
+        Set<String> shingles = new HashSet<>();
+        for (int i = 0; i + SHINGLE_SIZE <= words.length; i++) {
+            shingles.add(String.join(" ", Arrays.copyOfRange(words, i, i + SHINGLE_SIZE)));
+        }
+        return shingles;
+    }
+
+    /**
+     * Intent headings; the sub-query when several sections share an intent
+     */
+    private static List<String> headings(List<FusionSection> sections) {
+        long distinctIntents = sections.stream().map(FusionSection::intent).filter(Objects::nonNull).distinct().count();
+        boolean byIntent = distinctIntents == sections.size();
+        return sections.stream()
+                .map(section -> byIntent ? intentHeading(section.intent()) : section.query())
+                .toList();
+    }
+
+    private static String intentHeading(String intent) {
+        try {
+            return switch (QueryIntent.valueOf(intent)) {
+                case KNOWLEDGE_QUERY -> "Kiến thức";
+                case CALCULATION -> "Kết quả tính toán";
+                case ADVISORY -> "Góc nhìn tư vấn";
+                default -> null;
+            };
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
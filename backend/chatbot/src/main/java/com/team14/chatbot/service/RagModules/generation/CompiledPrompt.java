@@ -0,0 +1,256 @@
+package com.team14.chatbot.service.RagModules.generation;
+
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.stringtemplate.v4.AutoIndentWriter;
+import org.stringtemplate.v4.ST;
+import org.stringtemplate.v4.STWriter;
+
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A prompt template compiled once by {@link PromptRegistry}; renders the same
+ * text as the per-call construction it replaces (Spring AI PromptTemplate for
+ * {@code {name}} templates, String.format for {@code %s} templates).
+ * Thread-safe.
+ */
+public abstract sealed class CompiledPrompt permits CompiledPrompt.StTemplate, CompiledPrompt.FormatTemplate {
+
+    private final String id;
+    private final int version;
+
+    CompiledPrompt(String id, int version) {
+        this.id = id;
+        this.version = version;
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public int version() {
+        return version;
+    }
+
+    /**
+     * Versioned prompt id ("fusion.merge@v1"), for caches of LLM outputs
+     */
+    public String key() {
+        return id + "@v" + version;
+    }
+
+    /**
+     * Variables the template uses (extra entries passed to render are ignored)
+     */
+    public abstract Set<String> variables();
+
+    abstract String source();
+
+    abstract void renderInto(StringBuilder out, Map<String, ?> variables);
+
+    public String render(Map<String, ?> variables) {
+        for (String name : variables()) {
+            if (!variables.containsKey(name)) {
+                throw new IllegalStateException("Prompt " + key() + ": missing variable '" + name + "'");
+            }
+        }
+        StringBuilder out = PromptRegistry.acquireBuilder();
+        try {
+            renderInto(out, variables);
+            return out.toString();
+        } finally {
+            PromptRegistry.releaseBuilder(out);
+        }
+    }
+
+    public Prompt prompt(Map<String, ?> variables) {
+        return new Prompt(render(variables));
+    }
+
+    public SystemMessage systemMessage(Map<String, ?> variables) {
+        return new SystemMessage(render(variables));
+    }
+
+    /**
+     * StringTemplate with '{' '}' delimiters, as Spring AI's StTemplateRenderer;
+     * each render copies the compiled prototype instead of reparsing the source
+     */
+    static final class StTemplate extends CompiledPrompt {
+        private final String source;
+        private final ST prototype;
+        private final Set<String> variables;
+
+        StTemplate(String id, int version, String source, ST prototype, Set<String> variables) {
+            super(id, version);
+            this.source = source;
+            this.prototype = prototype;
+            this.variables = variables;
+        }
+
+        @Override
+        public Set<String> variables() {
+            return variables;
+        }
+
+        @Override
+        String source() {
+            return source;
+        }
+
+        @Override
+        void renderInto(StringBuilder out, Map<String, ?> values) {
+            ST st = new ST(prototype);
+            for (String name : variables) {
+                st.add(name, values.get(name));
+            }
+            // Giống ST.render(): AutoIndentWriter, không ngắt dòng
+            STWriter writer = new AutoIndentWriter(new BuilderWriter(out));
+            writer.setLineWidth(STWriter.NO_WRAP);
+            st.write(writer, Locale.getDefault());
+        }
+    }
+
+    /**
+     * String.format template restricted to %s, %d, %n and %%, split once into
+     * literal segments and positional arguments
+     */
+    public static final class FormatTemplate extends CompiledPrompt {
+        private final String source;
+        private final List<String> literals;
+        private final List<String> arguments;
+        private final List<Character> conversions;
+        private final Set<String> variables;
+
+        FormatTemplate(String id, int version, String source, List<String> literals, List<String> arguments,
+                List<Character> conversions) {
+            super(id, version);
+            this.source = source;
+            this.literals = literals;
+            this.arguments = arguments;
+            this.conversions = conversions;
+            this.variables = Set.copyOf(arguments);
+        }
+
+        @Override
+        public Set<String> variables() {
+            return variables;
+        }
+
+        @Override
+        String source() {
+            return source;
+        }
+
+        @Override
+        void renderInto(StringBuilder out, Map<String, ?> values) {
+            renderInto(out, arguments.stream().map(values::get).toArray());
+        }
+
+        /**
+         * Positional render, same arguments as String.format(source, args)
+         */
+        public String format(Object... args) {
+            if (args.length != arguments.size()) {
+                throw new IllegalArgumentException("Prompt " + key() + " expects " + arguments.size()
+                        + " arguments " + arguments + ", got " + args.length);
+            }
+            StringBuilder out = PromptRegistry.acquireBuilder();
+            try {
+                renderInto(out, args);
+                return out.toString();
+            } finally {
+                PromptRegistry.releaseBuilder(out);
+            }
+        }
+
+        private void renderInto(StringBuilder out, Object[] args) {
+            for (int i = 0; i < args.length; i++) {
+                out.append(literals.get(i));
+                if (conversions.get(i) == 'd' && !(args[i] instanceof Integer || args[i] instanceof Long
+                        || args[i] instanceof Short || args[i] instanceof Byte)) {
+                    throw new IllegalArgumentException("Prompt " + key() + ": '" + arguments.get(i)
+                            + "' must be an integer, got " + args[i]);
+                }
+                out.append(args[i]);
+            }
+            out.append(literals.get(args.length));
+        }
+
+        /**
+         * Split a format string; positional names map each specifier, in order
+         */
+        static FormatTemplate compile(String id, int version, String source, List<String> positional) {
+            List<String> literals = new ArrayList<>();
+            List<Character> conversions = new ArrayList<>();
+            StringBuilder literal = new StringBuilder();
+            for (int i = 0; i < source.length(); i++) {
+                char c = source.charAt(i);
+                if (c != '%') {
+                    literal.append(c);
+                    continue;
+                }
+                char conversion = i + 1 < source.length() ? source.charAt(++i) : ' ';
+                switch (conversion) {
+                    case '%' -> literal.append('%');
+                    case 'n' -> literal.append(System.lineSeparator());
+                    case 's', 'd' -> {
+                        literals.add(literal.toString());
+                        literal.setLength(0);
+                        conversions.add(conversion);
+                    }
+                    default -> throw new IllegalStateException("Prompt " + id
+                            + ": unsupported format specifier '%" + conversion + "'");
+                }
+            }
+            literals.add(literal.toString());
+            if (conversions.size() != positional.size()) {
+                throw new IllegalStateException("Prompt " + id + ": template has " + conversions.size()
+                        + " placeholders but " + positional.size() + " variables were declared " + positional);
+            }
+            return new FormatTemplate(id, version, source, List.copyOf(literals), List.copyOf(positional),
+                    List.copyOf(conversions));
+        }
+    }
+
+    // Writer ghi thẳng vào builder lấy từ pool (StringWriter cấp buffer mới mỗi lần)
+    private static final class BuilderWriter extends Writer {
+        private final StringBuilder out;
+
+        BuilderWriter(StringBuilder out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+            out.append(buffer, offset, length);
+        }
+
+        @Override
+        public void write(int c) {
+            out.append((char) c);
+        }
+
+        @Override
+        public void write(String text) {
+            out.append(text);
+        }
+
+        @Override
+        public void write(String text, int offset, int length) {
+            out.append(text, offset, offset + length);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
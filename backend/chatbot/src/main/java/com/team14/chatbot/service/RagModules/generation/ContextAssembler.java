@@ -0,0 +1,221 @@
+package com.team14.chatbot.service.RagModules.generation;
+
+import com.team14.chatbot.configuration.ContextBudgetConfig;
+import com.team14.chatbot.helper.TokenEstimator;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Fits the context of a generation prompt into the token budget
+ * (context-budget.max-prompt-tokens).
+ *
+ * Fixed parts (instructions, question, calculation...) are counted first and
+ * never cut. The rest goes to the sections in priority order: each section
+ * first gets its reserved minimum, then the higher priorities take what is
+ * left. A section over its share loses its lowest-ranked items (knowledge
+ * chunks) or its oldest ones (recent turns); the last item kept may be cut.
+ * Reserved minimums hold even when the fixed parts leave no room: the prompt
+ * then goes over budget, with a warning, rather than losing its knowledge.
+ * Metrics: rag.context.tokens{profile,section}, rag.context.truncated{profile,section},
+ * rag.context.over_budget{profile}.
+ */
+@Component
+@Slf4j
+public class ContextAssembler {
+
+    /**
+     * Which items of a section survive truncation
+     */
+    public enum Keep {
+        // Ranked items (best first): drop from the end
+        FIRST,
+        // Chronological items: drop the oldest
+        LAST
+    }
+
+    private final ContextBudgetConfig config;
+    private final TokenEstimator tokenEstimator;
+    private final MeterRegistry meterRegistry;
+    // Instruction tokens of each compiled prompt, counted once
+    private final Map<String, Integer> promptTokens = new ConcurrentHashMap<>();
+
+    public ContextAssembler(ContextBudgetConfig config, TokenEstimator tokenEstimator, MeterRegistry meterRegistry) {
+        this.config = config;
+        this.tokenEstimator = tokenEstimator;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * @param profile prompt being assembled, tag of the metrics ("generation", "chat")
+     */
+    public Builder start(String profile) {
+        return new Builder(profile);
+    }
+
+    public final class Builder {
+        private final String profile;
+        private final Map<String, Integer> fixed = new LinkedHashMap<>();
+        private final List<Section> sections = new ArrayList<>();
+
+        private Builder(String profile) {
+            this.profile = profile;
+        }
+
+        public Builder fixed(String name, String text) {
+            fixed.merge(name, tokenEstimator.estimate(text), Integer::sum);
+            return this;
+        }
+
+        /**
+         * Instructions of a prompt template (its text without the variables)
+         */
+        public Builder fixed(String name, CompiledPrompt prompt) {
+            fixed.merge(name, promptTokens.computeIfAbsent(prompt.key(),
+                    key -> tokenEstimator.estimate(prompt.source())), Integer::sum);
+            return this;
+        }
+
+        public Builder section(String name, List<String> items, Keep keep) {
+            List<String> present = items.stream().filter(item -> item != null && !item.isBlank()).toList();
+            sections.add(new Section(name, present, keep));
+            return this;
+        }
+
+        public Assembly assemble() {
+            int fixedTokens = fixed.values().stream().mapToInt(Integer::intValue).sum();
+            int available = config.isEnabled() ? config.getMaxPromptTokens() - fixedTokens
+                    : Integer.MAX_VALUE;
+
+            List<Section> ordered = new ArrayList<>(sections);
+            ordered.sort(Comparator.comparingInt(section -> priority(section.name)));
+            // 1. Phần tối thiểu của từng section, 2. phần còn lại theo thứ tự ưu tiên
+            for (Section section : ordered) {
+                section.granted = Math.min(section.needed(), config.getMinTokens().getOrDefault(section.name, 0));
+                available -= section.granted;
+            }
+            if (available < 0) {
+                meterRegistry.counter("rag.context.over_budget", "profile", profile).increment();
+                log.warn("[Context] {}: fixed parts take {} of {} tokens, reserved sections {} kept anyway"
+                        + " (prompt over budget by {})", profile, fixedTokens, config.getMaxPromptTokens(),
+                        ordered.stream().filter(section -> section.granted > 0)
+                                .map(section -> section.name + "=" + section.granted).toList(), -available);
+            }
+            for (Section section : ordered) {
+                int extra = Math.max(0, Math.min(section.needed() - section.granted, available));
+                section.granted += extra;
+                available -= extra;
+            }
+
+            Map<String, List<String>> kept = new LinkedHashMap<>();
+            Map<String, Integer> tokens = new LinkedHashMap<>(fixed);
+            for (Section section : sections) {
+                int used = section.fit();
+                kept.put(section.name, section.kept);
+                tokens.put(section.name, used);
+                if (section.truncated) {
+                    meterRegistry.counter("rag.context.truncated", "profile", profile, "section", section.name)
+                            .increment();
+                    log.debug("[Context] {}: {} cut to {} tokens ({} of {} items kept)", profile, section.name,
+                            used, section.kept.size(), section.items.size());
+                }
+            }
+            tokens.forEach((section, count) -> DistributionSummary.builder("rag.context.tokens")
+                    .description("Estimated prompt tokens per context section")
+                    .baseUnit("tokens")
+                    .tags("profile", profile, "section", section)
+                    .register(meterRegistry)
+                    .record(count));
+            return new Assembly(kept, tokens);
+        }
+    }
+
+    /**
+     * Items kept per section and estimated tokens per part (fixed and sections)
+     */
+    public record Assembly(Map<String, List<String>> sections, Map<String, Integer> tokens) {
+
+        public List<String> items(String section) {
+            return sections.getOrDefault(section, List.of());
+        }
+
+        public String join(String section, String separator) {
+            return String.join(separator, items(section));
+        }
+
+        public int total() {
+            return tokens.values().stream().mapToInt(Integer::intValue).sum();
+        }
+    }
+
+    private int priority(String section) {
+        int index = config.getPriority().indexOf(section);
+        return index < 0 ? Integer.MAX_VALUE : index;
+    }
+
+    private final class Section {
+        private final String name;
+        private final List<String> items;
+        private final Keep keep;
+        private final int[] costs;
+        private int granted;
+        private List<String> kept = List.of();
+        private boolean truncated;
+
+        Section(String name, List<String> items, Keep keep) {
+            this.name = name;
+            this.items = items;
+            this.keep = keep;
+            // +1: dòng phân cách giữa các item
+            this.costs = items.stream().mapToInt(item -> tokenEstimator.estimate(item) + 1).toArray();
+        }
+
+        int needed() {
+            int sum = 0;
+            for (int cost : costs) {
+                sum += cost;
+            }
+            return sum;
+        }
+
+        /**
+         * @return tokens used by the kept items
+         */
+        int fit() {
+            List<String> result = new ArrayList<>();
+            int used = 0;
+            for (int n = 0; n < items.size(); n++) {
+                int i = keep == Keep.FIRST ? n : items.size() - 1 - n;
+                if (used + costs[i] <= granted) {
+                    result.add(items.get(i));
+                    used += costs[i];
+                    continue;
+                }
+                truncated = true;
+                int left = granted - used - 2;
+                if (left >= config.getMinTruncatedTokens()) {
+                    String cut = tokenEstimator.truncate(items.get(i), left);
+                    if (!cut.isEmpty()) {
+                        result.add(cut + " …");
+                        used += tokenEstimator.estimate(cut) + 2;
+                    }
+                }
+                break;
+            }
+            if (keep == Keep.LAST) {
+                Collections.reverse(result);
+            }
+            kept = List.copyOf(result);
+            return used;
+        }
+    }
+}
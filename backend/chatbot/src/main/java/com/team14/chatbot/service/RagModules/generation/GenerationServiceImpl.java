@@ -1,7 +1,9 @@
 package com.team14.chatbot.service.RagModules.generation;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.team14.chatbot.helper.CancellationToken;
 import com.team14.chatbot.helper.ParseJsonHelper;
+import com.team14.chatbot.helper.RequestDeadline;
 import com.team14.chatbot.service.RagModules.GenerationService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClient;
@@ -11,8 +13,10 @@ import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.ai.chat.prompt.Prompt;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
 
 import java.util.List;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -41,27 +45,14 @@ public class GenerationServiceImpl implements GenerationService {
 
     @Override
     public <T> T generate(GenerationRequest request, Class<T> responseType) {
+        RequestDeadline.throwIfCancelled();
         try {
             Model model = request.getSpecificModel();
             Prompt prompt = request.getPrompt();
 
             log.info("Generating...");
 
-            ChatClient chatClient;
-
-            switch (model) {
-                case GEMINI_2_5_FLASH:
-                    chatClient = geminiFlashClient;
-                    break;
-                case GEMINI_2_5_FLASH_LITE:
-                    chatClient = geminiFlashLiteClient;
-                    break;
-                default:
-                    chatClient = llamaCollabClient;
-                    ;
-            }
-
-//            chatClient = geminiFlashClient;
+            ChatClient chatClient = clientFor(model);
 
             String rawResponse = chatClient.prompt(prompt).call().content();
 
@@ -78,27 +69,14 @@ public class GenerationServiceImpl implements GenerationService {
 
     @Override
     public String generate(GenerationRequest request) {
+        RequestDeadline.throwIfCancelled();
         Model model = request.getSpecificModel();
         Prompt prompt = request.getPrompt();
 
         log.info("Generating...");
 
         try {
-            ChatClient chatClient;
-
-            switch (model) {
-                case GEMINI_2_5_FLASH:
-                    chatClient = geminiFlashClient;
-                    break;
-                case GEMINI_2_5_FLASH_LITE:
-                    chatClient = geminiFlashLiteClient;
-                    break;
-                default:
-                    chatClient = llamaCollabClient;
-                    ;
-            }
-
-//            chatClient = geminiFlashClient;
+            ChatClient chatClient = clientFor(model);
 
             String rawResponse = chatClient.prompt(prompt).call().content();
 
@@ -112,4 +90,46 @@ public class GenerationServiceImpl implements GenerationService {
         }
 
     }
+
+    @Override
+    public String generate(GenerationRequest request, Consumer<String> onToken) {
+        RequestDeadline.throwIfCancelled();
+        CancellationToken cancellation = RequestDeadline.cancellation();
+        ChatClient chatClient = clientFor(request.getSpecificModel());
+
+        log.info("Generating (streaming)...");
+
+        // Request cancelled -> stop consuming, the subscription to the model is cancelled
+        Mono<Void> cancelled = Mono.create(sink -> {
+            CancellationToken.Registration registration = cancellation.onCancel(sink::success);
+            sink.onDispose(registration::close);
+        });
+        StringBuilder response = new StringBuilder();
+        try {
+            chatClient.prompt(request.getPrompt())
+                    .stream()
+                    .content()
+                    .takeUntilOther(cancelled)
+                    .doOnNext(chunk -> {
+                        response.append(chunk);
+                        onToken.accept(chunk);
+                    })
+                    .blockLast();
+        } catch (Exception e) {
+            log.error("Error streaming response: {}", e.getMessage());
+            throw new RuntimeException("Failed to generate response: " + e.getMessage(), e);
+        }
+        cancellation.throwIfCancelled();
+
+        log.info("Successfully generated ({} chars streamed)", response.length());
+        return response.toString();
+    }
+
+    private ChatClient clientFor(Model model) {
+        return switch (model) {
+            case GEMINI_2_5_FLASH -> geminiFlashClient;
+            case GEMINI_2_5_FLASH_LITE -> geminiFlashLiteClient;
+            default -> llamaCollabClient;
+        };
+    }
 }
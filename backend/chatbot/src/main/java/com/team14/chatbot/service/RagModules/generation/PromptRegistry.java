@@ -0,0 +1,114 @@
+package com.team14.chatbot.service.RagModules.generation;
+
+import lombok.extern.slf4j.Slf4j;
+import org.antlr.runtime.Token;
+import org.antlr.runtime.TokenStream;
+import org.stringtemplate.v4.ST;
+import org.stringtemplate.v4.compiler.Compiler;
+import org.stringtemplate.v4.compiler.STLexer;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Central registry of the LLM prompt templates.
+ *
+ * Owners register their templates in static fields, so every template is
+ * parsed once when its service is created at startup, and its variables are
+ * checked against the declared ones (a typo fails the startup, not a request).
+ * Renders go into pooled StringBuilders. Each prompt has a versioned id
+ * ({@link CompiledPrompt#key()}): bump the version when the text changes, so
+ * caches of LLM outputs keyed on it are invalidated.
+ */
+@Slf4j
+public final class PromptRegistry {
+
+    private static final int POOL_SIZE = 64;
+    // Builder phình quá ngưỡng này thì bỏ, không giữ lại trong pool
+    private static final int MAX_POOLED_CAPACITY = 64 * 1024;
+
+    private static final Map<String, CompiledPrompt> PROMPTS = new ConcurrentHashMap<>();
+    // Virtual threads: ThreadLocal cache would allocate per request, so a shared bounded pool
+    private static final BlockingQueue<StringBuilder> BUILDERS = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    private PromptRegistry() {
+    }
+
+    /**
+     * StringTemplate prompt ({name} placeholders, Spring AI PromptTemplate
+     * syntax); the template must use exactly the declared variables
+     */
+    public static CompiledPrompt register(String id, int version, String source, String... variables) {
+        ST prototype = new ST(source, '{', '}');
+        Set<String> used = inputVariables(prototype.impl.tokens);
+        Set<String> declared = Set.of(variables);
+        if (!used.equals(declared)) {
+            throw new IllegalStateException("Prompt " + id + ": template uses " + used
+                    + " but declares " + declared);
+        }
+        return add(new CompiledPrompt.StTemplate(id, version, source, prototype, declared));
+    }
+
+    /**
+     * String.format prompt (%s / %d placeholders); one variable name per
+     * placeholder, in order (a name may repeat)
+     */
+    public static CompiledPrompt.FormatTemplate registerFormat(String id, int version, String source,
+            String... positional) {
+        return (CompiledPrompt.FormatTemplate) add(
+                CompiledPrompt.FormatTemplate.compile(id, version, source, Arrays.asList(positional)));
+    }
+
+    public static CompiledPrompt get(String id) {
+        CompiledPrompt prompt = PROMPTS.get(id);
+        if (prompt == null) {
+            throw new IllegalArgumentException("Unknown prompt: " + id);
+        }
+        return prompt;
+    }
+
+    private static CompiledPrompt add(CompiledPrompt prompt) {
+        CompiledPrompt existing = PROMPTS.putIfAbsent(prompt.id(), prompt);
+        if (existing != null) {
+            if (existing.version() == prompt.version() && existing.source().equals(prompt.source())) {
+                return existing;
+            }
+            throw new IllegalStateException("Prompt " + prompt.id() + " registered twice ("
+                    + existing.key() + ", " + prompt.key() + "), bump the version instead");
+        }
+        log.debug("Registered prompt {} ({} variables)", prompt.key(), prompt.variables().size());
+        return prompt;
+    }
+
+    // Như StTemplateRenderer: mọi {ID} không phải hàm của ST
+    private static Set<String> inputVariables(TokenStream tokens) {
+        Set<String> names = new HashSet<>();
+        for (int i = 0; i + 1 < tokens.size(); i++) {
+            Token token = tokens.get(i);
+            Token next = tokens.get(i + 1);
+            if (token.getType() == STLexer.LDELIM && next.getType() == STLexer.ID
+                    && !Compiler.funcs.containsKey(next.getText())) {
+                names.add(next.getText());
+            }
+        }
+        return names;
+    }
+
+    static StringBuilder acquireBuilder() {
+        StringBuilder builder = BUILDERS.poll();
+        return builder != null ? builder : new StringBuilder(4096);
+    }
+
+    static void releaseBuilder(StringBuilder builder) {
+        if (builder.capacity() > MAX_POOLED_CAPACITY) {
+            return;
+        }
+        builder.setLength(0);
+        BUILDERS.offer(builder);
+    }
+}
@@ -1,23 +1,36 @@
 package com.team14.chatbot.service.RagModules.pipeline;
 
+import com.team14.chatbot.helper.CancellationToken;
+import com.team14.chatbot.helper.RequestDeadline;
 import com.team14.chatbot.service.RagModules.generation.GenerationRequest;
 import com.team14.chatbot.service.RagModules.CalculatorService;
 import com.team14.chatbot.service.RagModules.GenerationService;
 import com.team14.chatbot.service.RagModules.calculator.CalculationResult;
 import com.team14.chatbot.service.RagModules.PipelineExecutorService;
+import com.team14.chatbot.service.RagModules.generation.CompiledPrompt;
+import com.team14.chatbot.service.RagModules.generation.ContextAssembler;
 import com.team14.chatbot.service.RagModules.generation.Model;
+import com.team14.chatbot.service.RagModules.generation.PromptRegistry;
 import com.team14.chatbot.service.RagModules.query_processor.QueryProcessingService;
 import com.team14.chatbot.service.RagModules.retriever.QueryRetrievalService;
+import com.team14.chatbot.service.RagModules.retriever.QueryVariant;
 import com.team14.chatbot.service.RagModules.retriever.RetrievalRequest;
 import com.team14.chatbot.service.RagModules.retriever.RetrievalResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
 import org.springframework.ai.chat.prompt.Prompt;
-import org.springframework.ai.chat.prompt.PromptTemplate;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 import java.util.HashMap;
 import java.util.Map;
@@ -36,6 +49,14 @@ public class PipelineExecutorImpl implements PipelineExecutorService {
     private final QueryRetrievalService queryRetrievalService;
     private final QueryProcessingService queryProcessingService;
     private final ObjectMapper objectMapper;
+    private final StageScheduler stageScheduler;
+    private final ContextAssembler contextAssembler;
+
+    // Multi-query expansion runs beside the retrieval legs
+    private final ExecutorService variantExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    @Value("${retrieval.fan-out.enabled:true}")
+    private boolean fanOutEnabled;
 
     // Prompt templates
     private static final String CALCULATION_PLANNING_PROMPT = """
@@ -122,250 +143,464 @@ public class PipelineExecutorImpl implements PipelineExecutorService {
             - Be neutral and informative, not directive.
             """;
 
+    private static final CompiledPrompt CALCULATION_PLANNING = PromptRegistry.register(
+            "pipeline.calculation-planning", 1, CALCULATION_PLANNING_PROMPT, "query");
+    private static final CompiledPrompt INTERPRET_CALCULATION = PromptRegistry.register(
+            "pipeline.interpret-calculation", 1, INTERPRET_CALCULATION_PROMPT, "query", "calculationReasoning");
+    private static final CompiledPrompt KB_EXPLANATION = PromptRegistry.register(
+            "pipeline.kb-explanation", 1, KB_EXPLANATION_PROMPT, "query", "documents");
+    private static final String ADVISORY_ANALYSIS_VAR = "analysis_json";
+    private static final CompiledPrompt ADVISORY_GENERATION = PromptRegistry.register(
+            "pipeline.advisory-generation", 1, ADVISORY_GENERATION_PROMPT, "query", "documents",
+            ADVISORY_ANALYSIS_VAR);
+
+    // Values exchanged between the stages of an intent pipeline
+    private static final StageContext.Key<String> QUERY = new StageContext.Key<>("query");
+    private static final StageContext.Key<AdvisoryAnalysisResult> ADVISORY_ANALYSIS =
+            new StageContext.Key<>("advisory_analysis");
+    // Retrieved chunk texts, best ranked first
+    private static final StageContext.Key<List<String>> KNOWLEDGE_CHUNKS =
+            new StageContext.Key<>("knowledge_chunks");
+    private static final StageContext.Key<Map<String, Object>> CALCULATION_PLAN =
+            new StageContext.Key<>("calculation_plan");
+    private static final StageContext.Key<String> CALCULATION_PLAN_ERROR =
+            new StageContext.Key<>("calculation_plan_error");
+    private static final StageContext.Key<String> CALCULATION_CONTEXT = new StageContext.Key<>("calculation_context");
+    private static final StageContext.Key<String> CALCULATION_REASONING =
+            new StageContext.Key<>("calculation_reasoning");
+    private static final StageContext.Key<String> ANSWER = new StageContext.Key<>("answer");
+
     @Override
-    public String execute(PipelinePlan plan) {
+    public String execute(PipelinePlan plan, PipelineListener listener) {
 
         // 0. Check Fast Path
         if (plan.getDirectResponse() != null) {
             return plan.getDirectResponse();
         }
 
-            // intentPipeline: xử lý tuần tự 1 query duy nhất theo cấu hình trong
-        // PipelinePlan.
-        // Các bước intent routing, step-back, HyDE, multi-query... đã được xử lý
-        // trước ở QueryProcessing / Planner.
+        // intentPipeline: xử lý 1 query theo cấu hình trong PipelinePlan.
+        // Các bước intent routing, step-back, HyDE... đã được xử lý trước ở QueryProcessing / Planner.
         String pipelineQuery = plan.getPipelineQuery() != null ? plan.getPipelineQuery() : plan.getQuery();
         if ("CALCULATION".equalsIgnoreCase(plan.getIntent()) || "NON_FINANCIAL".equalsIgnoreCase(plan.getIntent())) {
             pipelineQuery = plan.getQuery();
         }
-        AdvisoryAnalysisResult advisoryAnalysis = null;
+
+        log.info("Executing single-query pipeline | intent={} | query={}", plan.getIntent(), pipelineQuery);
+        StageContext context = new StageContext(RequestDeadline.cancellation().child(), listener);
+        context.put(QUERY, pipelineQuery);
+        stageScheduler.run(StageGraph.of(buildStages(plan), Set.of(QUERY)), context);
+
+        if (context.has(ANSWER)) {
+            return context.get(ANSWER);
+        }
+        log.debug("[Pipeline] No generation config, returning context only | Query: {}", pipelineQuery);
+        return assembleContext(context);
+    }
+
+    /**
+     * Stage graph of a plan. Retrieval, calculation planning and advisory
+     * analysis only need the query, so they run concurrently; generation waits
+     * for all of them. A new stage only declares the keys it reads and writes.
+     */
+    private List<PipelineStage> buildStages(PipelinePlan plan) {
+        List<PipelineStage> stages = new ArrayList<>();
+        PipelineStage.PipelineStageBuilder generation = PipelineStage.builder()
+                .name("generation")
+                .input(QUERY)
+                .output(ANSWER);
 
         // For ADVISORY intent we still run structured analysis, but without changing
         // the pipeline query here. The analysis result is used only in generation.
         if ("ADVISORY".equalsIgnoreCase(plan.getIntent())) {
-            advisoryAnalysis = queryProcessingService.analyzeAdvisoryQuery(plan.getQuery());
-            if (advisoryAnalysis != null) {
-                log.info("Advisory analysis completed | advisory_type: {} | confidence_level: {}",
-                        advisoryAnalysis.advisory_type(), advisoryAnalysis.confidence_level());
-            } else {
-                log.warn("Advisory analysis returned null, proceeding without analysis");
-            }
+            stages.add(PipelineStage.builder()
+                    .name("advisory-analysis")
+                    .output(ADVISORY_ANALYSIS)
+                    .optional(true)
+                    .action(context -> analyzeAdvisory(plan, context))
+                    .build());
+            generation.input(ADVISORY_ANALYSIS);
         }
 
-        log.info("Executing single-query pipeline | intent={} | query={}", plan.getIntent(), pipelineQuery);
-        return runSinglePipeline(plan, pipelineQuery, advisoryAnalysis);
-    }
+        if (plan.getRetrievalConfig() != null) {
+            // Optional: failed or timed out retrieval = no documents found, generation still answers
+            stages.add(PipelineStage.builder()
+                    .name("retrieval")
+                    .input(QUERY)
+                    .output(KNOWLEDGE_CHUNKS)
+                    .optional(true)
+                    .action(context -> retrieve(plan, context))
+                    .build());
+            generation.input(KNOWLEDGE_CHUNKS);
+        }
 
-    // Multi-query, step-back, HyDE đã được xử lý ở QueryProcessing / Planner.
-    // Executor chỉ chạy tuần tự: Retrieval -> Calculation -> Generation cho 1
-    // query.
-    private String runSinglePipeline(PipelinePlan plan, String query,
-            AdvisoryAnalysisResult advisoryAnalysis) {
-        StringBuilder ctx = new StringBuilder();
-        StringBuilder reasoning = new StringBuilder();
-        long stepStartTime;
+        if (plan.getCalculationConfig() != null && plan.getCalculationConfig().isCalculationNeeded()) {
+            stages.add(PipelineStage.builder()
+                    .name("calculation-planning")
+                    .input(QUERY)
+                    .output(CALCULATION_PLAN)
+                    .output(CALCULATION_PLAN_ERROR)
+                    .optional(true)
+                    .action(this::planCalculation)
+                    .build());
+            stages.add(PipelineStage.builder()
+                    .name("calculation")
+                    .input(QUERY)
+                    .input(CALCULATION_PLAN)
+                    .input(CALCULATION_PLAN_ERROR)
+                    .output(CALCULATION_CONTEXT)
+                    .output(CALCULATION_REASONING)
+                    .optional(true)
+                    .action(this::calculate)
+                    .build());
+            generation.input(CALCULATION_CONTEXT).input(CALCULATION_REASONING);
+        }
 
-        // Retrieval
-        if (plan.getRetrievalConfig() != null) {
-            stepStartTime = System.currentTimeMillis();
-            var rCfg = plan.getRetrievalConfig();
-            log.debug("[Pipeline] Starting retrieval for: {} | topK: {}", query, rCfg.getTopK());
+        if (plan.getGenerationConfig() != null) {
+            stages.add(generation.action(context -> generate(plan, context)).build());
+        }
+        return stages;
+    }
 
+    private void analyzeAdvisory(PipelinePlan plan, StageContext context) {
+        // Speculative analysis started beside query processing when available
+        AdvisoryAnalysisResult advisoryAnalysis = (plan.getAdvisorySpeculation() != null
+                ? plan.getAdvisorySpeculation().adopt()
+                : Optional.<AdvisoryAnalysisResult>empty())
+                .orElseGet(() -> queryProcessingService.analyzeAdvisoryQuery(plan.getQuery()));
+        if (advisoryAnalysis != null) {
+            log.info("Advisory analysis completed | advisory_type: {} | confidence_level: {}",
+                    advisoryAnalysis.advisory_type(), advisoryAnalysis.confidence_level());
+        } else {
+            log.warn("Advisory analysis returned null, proceeding without analysis");
+        }
+        context.put(ADVISORY_ANALYSIS, advisoryAnalysis);
+    }
+
+    private void retrieve(PipelinePlan plan, StageContext context) {
+        String query = context.get(QUERY);
+        long stepStartTime = System.currentTimeMillis();
+        var rCfg = plan.getRetrievalConfig();
+        log.debug("[Pipeline] Starting retrieval for: {} | topK: {}", query, rCfg.getTopK());
+
+        // Original question + step-back + HyDE + expanded queries as concurrent legs,
+        // one fused pool re-ranked against the original question. Variants still
+        // being produced join only if they arrive before the other legs finish.
+        QueryVariants variants = queryVariants(plan, query);
+        RetrievalResponse docs;
+        try {
             RetrievalRequest req = RetrievalRequest.builder()
-                    .query(query)
+                    .query(variants.isEmpty() ? query : plan.getQuery())
+                    .queryVariants(variants.ready())
+                    .lateVariants(variants.late())
                     .topK(rCfg.getTopK())
+                    .retrievalType(rCfg.getRetrievalType())
+                    .enableMmr(rCfg.isEnableMmr())
+                    .mmrLambda(rCfg.getMmrLambda())
+                    .tokenBudget(rCfg.getContextTokenBudget())
                     .build();
-            RetrievalResponse docs = queryRetrievalService.retrieveDocuments(req.getQuery(), rCfg.getRetrievalType(),
-                    null);
-
-            long retrievalDuration = System.currentTimeMillis() - stepStartTime;
-            if (!docs.getDocuments().isEmpty()) {
-                ctx.append("=== KNOWLEDGE BASE ===\n");
-                ctx.append("[Query] ").append(query).append("\n");
-                String docsStr = docs.getDocuments().stream()
-                        .map(d -> "- " + d.getText())
-                        .collect(Collectors.joining("\n"));
-                ctx.append(docsStr).append("\n\n");
-                log.debug("[Pipeline] Retrieval completed in {}ms | Documents found: {} | Query: {}",
-                        retrievalDuration, docs.getDocuments().size(), query);
-            } else {
-                log.debug("[Pipeline] Retrieval completed in {}ms | No documents found | Query: {}",
-                        retrievalDuration, query);
-            }
+            docs = queryRetrievalService.retrieveDocuments(req);
+        } finally {
+            // Expansion not back yet: nobody reads it any more
+            variants.expansion().cancel("retrieval done");
         }
 
-        // Calculation
-        if (plan.getCalculationConfig() != null && plan.getCalculationConfig().isCalculationNeeded()) {
-            stepStartTime = System.currentTimeMillis();
-            log.debug("[Pipeline] Starting calculation step | Query: {}", query);
+        long retrievalDuration = System.currentTimeMillis() - stepStartTime;
+        if (!docs.getDocuments().isEmpty()) {
+            context.put(KNOWLEDGE_CHUNKS, docs.getDocuments().stream().map(d -> d.getText()).toList());
+            log.debug("[Pipeline] Retrieval completed in {}ms | Documents found: {} | Query: {}",
+                    retrievalDuration, docs.getDocuments().size(), query);
+        } else {
+            log.debug("[Pipeline] Retrieval completed in {}ms | No documents found | Query: {}",
+                    retrievalDuration, query);
+        }
+    }
 
-            String expression = null;
+    private void planCalculation(StageContext context) {
+        String query = context.get(QUERY);
+        long planningStartTime = System.currentTimeMillis();
+        try {
+            log.debug("[Pipeline] No expression provided, extracting from query using LLM");
 
-            try {
-                log.debug("[Pipeline] No expression provided, extracting from query using LLM");
-                long planningStartTime = System.currentTimeMillis();
-
-                // Create prompt for calculation planning
-                PromptTemplate planningTemplate = new PromptTemplate(CALCULATION_PLANNING_PROMPT);
-                Map<String, Object> planningVars = Map.of("query", query);
-                Prompt planningPrompt = planningTemplate.create(planningVars);
-
-                GenerationRequest planReq = GenerationRequest.builder()
-                        .prompt(planningPrompt)
-                        .specificModel(Model.GEMINI_2_5_FLASH)
-                        .build();
-
-                @SuppressWarnings("unchecked")
-                Map<String, Object> analysisResult = generationService.generate(planReq, Map.class);
-                long planningDuration = System.currentTimeMillis() - planningStartTime;
-                log.debug("[Pipeline] Calculation planning completed in {}ms | Result: {}",
-                        planningDuration, analysisResult);
-
-                if (analysisResult != null) {
-                    String extractedExpr = (String) analysisResult.get("expression");
-                    if (extractedExpr != null && !extractedExpr.isBlank()) {
-                        expression = extractedExpr;
-
-                        // Add reasoning steps if available
-                        if (analysisResult.containsKey("reasoningSteps")) {
-                            @SuppressWarnings("unchecked")
-                            List<String> steps = (List<String>) analysisResult.get("reasoningSteps");
-                            if (steps != null && !steps.isEmpty()) {
-                                reasoning.append("Problem analysis:\n");
-                                reasoning.append(String.join("\n", steps)).append("\n");
-                            }
-                        }
-                    }
-                }
+            // Create prompt for calculation planning
+            Prompt planningPrompt = CALCULATION_PLANNING.prompt(Map.of("query", query));
+
+            GenerationRequest planReq = GenerationRequest.builder()
+                    .prompt(planningPrompt)
+                    .specificModel(Model.GEMINI_2_5_FLASH)
+                    .build();
+
+            @SuppressWarnings("unchecked")
+            Map<String, Object> analysisResult = generationService.generate(planReq, Map.class);
+            long planningDuration = System.currentTimeMillis() - planningStartTime;
+            log.debug("[Pipeline] Calculation planning completed in {}ms | Result: {}",
+                    planningDuration, analysisResult);
+            context.put(CALCULATION_PLAN, analysisResult);
+        } catch (Exception e) {
+            long planningDuration = System.currentTimeMillis() - planningStartTime;
+            log.error("[Pipeline] Calculation planning error in {}ms | Query: {}", planningDuration, query, e);
+            context.put(CALCULATION_PLAN_ERROR, String.valueOf(e.getMessage()));
+        }
+    }
+
+    private void calculate(StageContext context) {
+        String query = context.get(QUERY);
+        StringBuilder ctx = new StringBuilder();
+        StringBuilder reasoning = new StringBuilder();
+        long stepStartTime = System.currentTimeMillis();
+        log.debug("[Pipeline] Starting calculation step | Query: {}", query);
+
+        Map<String, Object> analysisResult = context.get(CALCULATION_PLAN);
+        if (analysisResult == null) {
+            // Planning failed or timed out
+            String error = context.find(CALCULATION_PLAN_ERROR).orElse("calculation planning did not complete");
+            ctx.append("=== CALCULATION PLANNING ERROR ===\n");
+            ctx.append("Error analyzing query: ").append(error).append("\n\n");
+            reasoning.append("Analysis error: ").append(error).append("\n");
+            context.put(CALCULATION_CONTEXT, ctx.toString());
+            context.put(CALCULATION_REASONING, reasoning.toString());
+            return;
+        }
+
+        String expression = null;
+        String extractedExpr = analysisResult.get("expression") instanceof String s ? s : null;
+        if (extractedExpr != null && !extractedExpr.isBlank()) {
+            expression = extractedExpr;
+
+            // Add reasoning steps if available
+            if (analysisResult.get("reasoningSteps") instanceof List<?> steps && !steps.isEmpty()) {
+                reasoning.append("Problem analysis:\n");
+                reasoning.append(steps.stream().map(String::valueOf).collect(Collectors.joining("\n")))
+                        .append("\n");
+            }
+        }
+
+        // If we have a valid expression, perform the calculation
+        if (expression != null) {
+            ctx.append("=== CALCULATION ANALYSIS ===\n");
+            ctx.append("Query: ").append(query).append("\n");
+            ctx.append("Expression: ").append(expression).append("\n\n");
 
-                // If we have a valid expression, perform the calculation
-                if (expression != null && !expression.isBlank()) {
-                    ctx.append("=== CALCULATION ANALYSIS ===\n");
-                    ctx.append("Query: ").append(query).append("\n");
-                    ctx.append("Expression: ").append(expression).append("\n\n");
-
-                    long calcStartTime = System.currentTimeMillis();
-                    try {
-                        // Call calculator service with the expression string directly
-                        log.debug("[Pipeline] Evaluating expression: {}", expression);
-                        CalculationResult result = calculatorService.calculate(expression);
-                        long calcDuration = System.currentTimeMillis() - calcStartTime;
-
-                        if (result.isSuccess()) {
-                            ctx.append("=== CALCULATION RESULT ===\n");
-                            ctx.append("Expression: ").append(expression).append("\n");
-                            ctx.append("Result: ").append(result.getValue()).append("\n\n");
-
-                            // Add to reasoning if not already added
-                            if (reasoning.length() == 0) {
-                                reasoning.append("1. Query analysis: ").append(query).append("\n");
-                                reasoning.append("2. Mathematical expression: ").append(expression).append("\n");
-                            }
-                            reasoning.append("3. Calculation result: ").append(result.getValue()).append("\n");
-                            log.debug("[Pipeline] Calculation successful in {}ms | Expression: {} | Result: {}",
-                                    calcDuration, expression, result.getValue());
-                        } else {
-                            ctx.append("=== CALCULATION ERROR ===\n");
-                            ctx.append("Cannot evaluate expression: ").append(expression).append("\n\n");
-                            reasoning.append("Error: Cannot evaluate expression: ").append(expression).append("\n");
-                            log.warn("[Pipeline] Calculation failed in {}ms | Expression: {}", expression);
-                        }
-                    } catch (Exception e) {
-                        long calcDuration = System.currentTimeMillis() - calcStartTime;
-                        log.error("[Pipeline] Calculation exception in {}ms | Expression: {} | Duration: {}ms",
-                                expression, calcDuration, e);
-                        ctx.append("=== CALCULATION EXECUTION ERROR ===\n");
-                        ctx.append("Error occurred: ").append(e.getMessage()).append("\n\n");
-                        reasoning.append("Error: ").append(e.getMessage()).append("\n");
+            long calcStartTime = System.currentTimeMillis();
+            try {
+                // Call calculator service with the expression string directly
+                log.debug("[Pipeline] Evaluating expression: {}", expression);
+                CalculationResult result = calculatorService.calculate(expression);
+                long calcDuration = System.currentTimeMillis() - calcStartTime;
+
+                if (result.isSuccess()) {
+                    ctx.append("=== CALCULATION RESULT ===\n");
+                    ctx.append("Expression: ").append(expression).append("\n");
+                    ctx.append("Result: ").append(result.getValue()).append("\n\n");
+
+                    // Add to reasoning if not already added
+                    if (reasoning.length() == 0) {
+                        reasoning.append("1. Query analysis: ").append(query).append("\n");
+                        reasoning.append("2. Mathematical expression: ").append(expression).append("\n");
                     }
+                    reasoning.append("3. Calculation result: ").append(result.getValue()).append("\n");
+                    log.debug("[Pipeline] Calculation successful in {}ms | Expression: {} | Result: {}",
+                            calcDuration, expression, result.getValue());
                 } else {
-                    ctx.append("=== CANNOT DETERMINE EXPRESSION ===\n\n");
-                    reasoning.append("Cannot determine calculation expression from query.\n");
-                    log.warn("[Pipeline] Cannot determine calculation expression from query");
+                    ctx.append("=== CALCULATION ERROR ===\n");
+                    ctx.append("Cannot evaluate expression: ").append(expression).append("\n\n");
+                    reasoning.append("Error: Cannot evaluate expression: ").append(expression).append("\n");
+                    log.warn("[Pipeline] Calculation failed in {}ms | Expression: {}", calcDuration, expression);
                 }
-
-                long calculationTotalDuration = System.currentTimeMillis() - stepStartTime;
-                log.debug("[Pipeline] Calculation step completed in {}ms | Query: {}", calculationTotalDuration,
-                        query);
             } catch (Exception e) {
-                long calculationTotalDuration = System.currentTimeMillis() - stepStartTime;
-                log.error("[Pipeline] Calculation planning error in {}ms | Query: {}", calculationTotalDuration,
-                        query,
-                        e);
-                ctx.append("=== CALCULATION PLANNING ERROR ===\n");
-                ctx.append("Error analyzing query: ").append(e.getMessage()).append("\n\n");
-                reasoning.append("Analysis error: ").append(e.getMessage()).append("\n");
+                long calcDuration = System.currentTimeMillis() - calcStartTime;
+                log.error("[Pipeline] Calculation exception in {}ms | Expression: {}",
+                        calcDuration, expression, e);
+                ctx.append("=== CALCULATION EXECUTION ERROR ===\n");
+                ctx.append("Error occurred: ").append(e.getMessage()).append("\n\n");
+                reasoning.append("Error: ").append(e.getMessage()).append("\n");
             }
+        } else {
+            ctx.append("=== CANNOT DETERMINE EXPRESSION ===\n\n");
+            reasoning.append("Cannot determine calculation expression from query.\n");
+            log.warn("[Pipeline] Cannot determine calculation expression from query");
         }
 
-        // Generation
+        log.debug("[Pipeline] Calculation step completed in {}ms | Query: {}",
+                System.currentTimeMillis() - stepStartTime, query);
+        context.put(CALCULATION_CONTEXT, ctx.toString());
+        context.put(CALCULATION_REASONING, reasoning.toString());
+    }
+
+    private void generate(PipelinePlan plan, StageContext context) {
+        String query = context.get(QUERY);
         var generationConfig = plan.getGenerationConfig();
-        if (generationConfig != null) {
-            stepStartTime = System.currentTimeMillis();
-            log.debug("[Pipeline] Starting generation step | Query: {} | Model: {}",
-                    query, generationConfig.getModel());
-
-            String finalContext = ctx.toString();
-            if (finalContext.isEmpty()) {
-                finalContext = "No additional data. Answer based on your knowledge.";
-                log.debug("[Pipeline] No context from retrieval/calculation, using default");
-            } else {
-                log.debug("[Pipeline] Context length: {} chars", finalContext.length());
+        long stepStartTime = System.currentTimeMillis();
+        log.debug("[Pipeline] Starting generation step | Query: {} | Model: {}",
+                query, generationConfig.getModel());
+
+        // Build prompt based on whether we have calculation, advisory analysis, or
+        // standard KB
+        CompiledPrompt promptTemplate;
+        Map<String, Object> promptVars = new HashMap<>();
+        promptVars.put("query", query);
+
+        String reasoning = context.find(CALCULATION_REASONING).orElse("");
+        AdvisoryAnalysisResult advisoryAnalysis = context.get(ADVISORY_ANALYSIS);
+        boolean hasCalculation = plan.getCalculationConfig() != null && !reasoning.isEmpty();
+        boolean hasAdvisoryAnalysis = advisoryAnalysis != null && "ADVISORY".equalsIgnoreCase(plan.getIntent());
+
+        if (hasCalculation) {
+            // Use INTERPRET_CALCULATION prompt
+            promptTemplate = INTERPRET_CALCULATION;
+            promptVars.put("calculationReasoning", reasoning);
+            log.debug("[Pipeline] Using INTERPRET_CALCULATION prompt | Reasoning length: {}", reasoning.length());
+        } else if (hasAdvisoryAnalysis) {
+            // Use ADVISORY_GENERATION prompt with analysis JSON
+            try {
+                String analysisJson = objectMapper.writeValueAsString(advisoryAnalysis);
+                promptTemplate = ADVISORY_GENERATION;
+                promptVars.put(ADVISORY_ANALYSIS_VAR, analysisJson);
+                log.debug("[Pipeline] Using ADVISORY_GENERATION prompt | Analysis JSON length: {}",
+                        analysisJson.length());
+            } catch (Exception e) {
+                log.error(
+                        "[Pipeline] Failed to serialize advisory analysis to JSON, falling back to KB_EXPLANATION",
+                        e);
+                promptTemplate = KB_EXPLANATION;
             }
+        } else {
+            // Use SUMMARIZE_DOCS prompt
+            promptTemplate = KB_EXPLANATION;
+            log.debug("[Pipeline] Using KB_EXPLANATION prompt");
+        }
 
-            // Build prompt based on whether we have calculation, advisory analysis, or
-            // standard KB
-            PromptTemplate promptTemplate;
-            Map<String, Object> promptVars = new HashMap<>();
-            promptVars.put("query", query);
-            promptVars.put("documents", finalContext);
-
-            boolean hasCalculation = plan.getCalculationConfig() != null && reasoning.length() > 0;
-            boolean hasAdvisoryAnalysis = advisoryAnalysis != null && "ADVISORY".equalsIgnoreCase(plan.getIntent());
-
-            if (hasCalculation) {
-                // Use INTERPRET_CALCULATION prompt
-                promptTemplate = new PromptTemplate(INTERPRET_CALCULATION_PROMPT);
-                promptVars.put("calculationReasoning", reasoning.toString());
-                log.debug("[Pipeline] Using INTERPRET_CALCULATION prompt | Reasoning length: {}", reasoning.length());
-            } else if (hasAdvisoryAnalysis) {
-                // Use ADVISORY_GENERATION prompt with analysis JSON
-                try {
-                    String analysisJson = objectMapper.writeValueAsString(advisoryAnalysis);
-                    promptTemplate = new PromptTemplate(ADVISORY_GENERATION_PROMPT);
-                    promptVars.put("analysis_json", analysisJson);
-                    log.debug("[Pipeline] Using ADVISORY_GENERATION prompt | Analysis JSON length: {}",
-                            analysisJson.length());
-                } catch (Exception e) {
-                    log.error(
-                            "[Pipeline] Failed to serialize advisory analysis to JSON, falling back to KB_EXPLANATION",
-                            e);
-                    promptTemplate = new PromptTemplate(KB_EXPLANATION_PROMPT);
-                }
-            } else {
-                // Use SUMMARIZE_DOCS prompt
-                promptTemplate = new PromptTemplate(KB_EXPLANATION_PROMPT);
-                log.debug("[Pipeline] Using KB_EXPLANATION prompt");
+        String finalContext = budgetedContext(context, promptTemplate, promptVars);
+        if (finalContext.isEmpty()) {
+            finalContext = "No additional data. Answer based on your knowledge.";
+            log.debug("[Pipeline] No context from retrieval/calculation, using default");
+        } else {
+            log.debug("[Pipeline] Context length: {} chars", finalContext.length());
+        }
+        promptVars.put("documents", finalContext);
+
+        Prompt prompt = promptTemplate.prompt(promptVars);
+
+        GenerationRequest genReq = GenerationRequest.builder()
+                .prompt(prompt)
+                .specificModel(Model.GEMINI_2_5_FLASH)
+                .temperature(generationConfig.getTemperature())
+                .build();
+
+        // Streaming client: forward the tokens as soon as the model produces them
+        PipelineListener listener = context.listener();
+        String result = listener.streamsAnswer()
+                ? generationService.generate(genReq, listener::onToken)
+                : generationService.generate(genReq);
+        long generationDuration = System.currentTimeMillis() - stepStartTime;
+        log.debug("[Pipeline] Generation completed in {}ms | Query: {} | Result length: {}",
+                generationDuration, query, result != null ? result.length() : 0);
+        context.put(ANSWER, result);
+    }
+
+    // Knowledge base section first, then calculation analysis / result
+    private String assembleContext(StageContext context) {
+        return knowledgeSection(context.get(QUERY), context.find(KNOWLEDGE_CHUNKS).orElse(List.of()))
+                + context.find(CALCULATION_CONTEXT).orElse("");
+    }
+
+    /**
+     * Same context within the prompt token budget: instructions, query,
+     * calculation and analysis are kept whole, knowledge chunks are dropped
+     * from the lowest ranked (see ContextAssembler)
+     */
+    private String budgetedContext(StageContext context, CompiledPrompt promptTemplate,
+            Map<String, Object> promptVars) {
+        // Prompt không dùng {documents} (INTERPRET_CALCULATION): không cần cắt
+        if (!promptTemplate.variables().contains("documents")) {
+            return assembleContext(context);
+        }
+        List<String> chunks = context.find(KNOWLEDGE_CHUNKS).orElse(List.of());
+        String calculation = context.find(CALCULATION_CONTEXT).orElse("");
+
+        ContextAssembler.Builder budget = contextAssembler.start("generation")
+                .fixed("instructions", promptTemplate)
+                .fixed("calculation", calculation);
+        promptVars.forEach((name, value) -> {
+            if (!ADVISORY_ANALYSIS_VAR.equals(name)) {
+                budget.fixed(name, String.valueOf(value));
             }
+        });
+        // Phân tích advisory có thể dài: là một section (cắt được), không phải phần cố định
+        Object analysis = promptVars.get(ADVISORY_ANALYSIS_VAR);
+        ContextAssembler.Assembly assembly = budget
+                .section("knowledge", chunks, ContextAssembler.Keep.FIRST)
+                .section("analysis", analysis != null ? List.of(analysis.toString()) : List.of(),
+                        ContextAssembler.Keep.FIRST)
+                .assemble();
+        if (analysis != null) {
+            promptVars.put(ADVISORY_ANALYSIS_VAR, assembly.join("analysis", ""));
+        }
+        if (!chunks.isEmpty() && assembly.items("knowledge").isEmpty()) {
+            log.warn("[Pipeline] All {} retrieved chunks dropped by the context budget (min-tokens.knowledge = 0?)",
+                    chunks.size());
+        }
+        return knowledgeSection(context.get(QUERY), assembly.items("knowledge")) + calculation;
+    }
 
-            Prompt prompt = promptTemplate.create(promptVars);
+    private static String knowledgeSection(String query, List<String> chunks) {
+        if (chunks.isEmpty()) {
+            return "";
+        }
+        return "=== KNOWLEDGE BASE ===\n[Query] " + query + "\n"
+                + chunks.stream().map(chunk -> "- " + chunk).collect(Collectors.joining("\n")) + "\n\n";
+    }
 
-            GenerationRequest genReq = GenerationRequest.builder()
-                    .prompt(prompt)
-                    .specificModel(Model.GEMINI_2_5_FLASH)
-                    .temperature(generationConfig.getTemperature())
-                    .build();
+    /**
+     * Retrieval variants besides the original question: ready ones (step-back,
+     * HyDE already streamed) and late ones (HyDE still streaming, query
+     * expansion started here). Retrieval does not wait for the late ones.
+     */
+    private QueryVariants queryVariants(PipelinePlan plan, String pipelineQuery) {
+        if (!fanOutEnabled || plan.getQuery() == null || plan.getQuery().isBlank()) {
+            return QueryVariants.NONE;
+        }
+        var qpCfg = plan.getQueryProcessingConfig();
 
-            String result = generationService.generate(genReq);
-            long generationDuration = System.currentTimeMillis() - stepStartTime;
-            log.debug("[Pipeline] Generation completed in {}ms | Query: {} | Result length: {}",
-                    generationDuration, query, result != null ? result.length() : 0);
+        List<QueryVariant> ready = new ArrayList<>();
+        Map<String, CompletableFuture<List<QueryVariant>>> late = new LinkedHashMap<>();
+        if (pipelineQuery != null && !pipelineQuery.equals(plan.getQuery())) {
+            ready.add(QueryVariant.of(QueryVariant.STEP_BACK, pipelineQuery));
+        }
 
-            return result;
+        if (qpCfg != null && qpCfg.isEnableHyde()) {
+            if (plan.getHydeDocument() != null && !plan.getHydeDocument().isBlank()) {
+                ready.add(QueryVariant.of(QueryVariant.HYDE, plan.getHydeDocument()));
+            } else if (plan.getPendingHydeDocument() != null) {
+                late.put(QueryVariant.HYDE, plan.getPendingHydeDocument().thenApply(hyde ->
+                        hyde == null || hyde.isBlank() ? List.of() : List.of(QueryVariant.of(QueryVariant.HYDE, hyde))));
+            }
         }
 
-        log.debug("[Pipeline] No generation config, returning context only | Query: {}", query);
-        return ctx.toString();
+        CancellationToken expansionToken = RequestDeadline.cancellation().child();
+        if (qpCfg != null && qpCfg.isEnableMultiQuery() && qpCfg.getMultiQueryCount() > 0) {
+            late.put(QueryVariant.MULTI_QUERY, CompletableFuture.supplyAsync(() -> {
+                RequestDeadline.bindCancellation(expansionToken);
+                return queryProcessingService.expandQueryForExecutor(plan.getQuery(), qpCfg.getMultiQueryCount())
+                        .stream()
+                        .limit(qpCfg.getMultiQueryCount())
+                        .map(expanded -> QueryVariant.of(QueryVariant.MULTI_QUERY, expanded))
+                        .toList();
+            }, variantExecutor));
+        }
+        return new QueryVariants(ready, late, expansionToken);
+    }
+
+    /**
+     * @param expansion cancels the query expansion call once retrieval is done
+     */
+    private record QueryVariants(List<QueryVariant> ready, Map<String, CompletableFuture<List<QueryVariant>>> late,
+            CancellationToken expansion) {
+
+        static final QueryVariants NONE = new QueryVariants(List.of(), Map.of(), CancellationToken.NONE);
+
+        boolean isEmpty() {
+            return ready.isEmpty() && late.isEmpty();
+        }
     }
 
 }
@@ -0,0 +1,56 @@
+package com.team14.chatbot.service.RagModules.pipeline;
+
+import com.team14.chatbot.enums.QueryIntent;
+
+import java.util.List;
+
+/**
+ * Progress of a RAG request, pushed to streaming clients (SSE) while the
+ * request runs. Called from the pipeline threads, implementations must be
+ * thread-safe.
+ */
+public interface PipelineListener {
+
+    PipelineListener NONE = new PipelineListener() {
+    };
+
+    /**
+     * Intents of the request, known once query processing is done
+     */
+    default void onIntents(List<QueryIntent> intents) {
+    }
+
+    /**
+     * A step started: query-processing, a pipeline stage (retrieval,
+     * calculation, generation...), fusion or validation
+     */
+    default void onStage(String stage) {
+    }
+
+    /**
+     * Next chunk of the final answer (only when {@link #streamsAnswer()})
+     */
+    default void onToken(String token) {
+    }
+
+    /**
+     * Whether the final generation (or fusion) should stream its tokens here
+     */
+    default boolean streamsAnswer() {
+        return false;
+    }
+
+    /**
+     * Same listener without the answer tokens: for pipelines whose answers are
+     * fused afterwards, only the fusion is streamed
+     */
+    default PipelineListener stagesOnly() {
+        PipelineListener self = this;
+        return new PipelineListener() {
+            @Override
+            public void onStage(String stage) {
+                self.onStage(stage);
+            }
+        };
+    }
+}
@@ -1,12 +1,15 @@
 package com.team14.chatbot.service.RagModules.pipeline;
 
 import com.team14.chatbot.service.RagModules.generation.Model;
+import com.team14.chatbot.service.RagModules.query_processor.SpeculativeAdvisoryAnalysis;
 import com.team14.chatbot.service.RagModules.retriever.RetrievalType;
 import lombok.Builder;
 import lombok.Getter;
 import lombok.ToString;
 
-@Builder
+import java.util.concurrent.CompletableFuture;
+
+@Builder(toBuilder = true)
 @Getter
 @ToString
 public class PipelinePlan {
@@ -24,6 +27,13 @@ public class PipelinePlan {
     // Tài liệu HyDE tương ứng với query (nếu có)
     private String hydeDocument;
 
+    // HyDE còn đang stream khi plan được tạo (streaming query processing)
+    private CompletableFuture<String> pendingHydeDocument;
+
+    // Advisory analysis started in parallel with query processing (ADVISORY only)
+    @ToString.Exclude
+    private SpeculativeAdvisoryAnalysis.Speculation advisorySpeculation;
+
     // 2. Cấu hình các Module (Nullable - Null nghĩa là không chạy)
     private QueryProcessingConfig queryProcessingConfig;
 
@@ -54,6 +64,11 @@ public class PipelinePlan {
         private RetrievalType retrievalType;
         private String query;
         private int topK;
+
+        // MMR: chọn tập tài liệu đa dạng trong giới hạn token cho prompt sinh câu trả lời
+        private boolean enableMmr;
+        private double mmrLambda; // 1.0 = chỉ xét độ liên quan, 0.0 = chỉ xét độ đa dạng
+        private int contextTokenBudget; // <= 0 nghĩa là không giới hạn
     }
 
     @Builder
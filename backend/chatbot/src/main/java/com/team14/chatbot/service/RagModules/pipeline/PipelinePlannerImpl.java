@@ -11,7 +11,9 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 @Service
@@ -19,6 +21,19 @@ import org.springframework.stereotype.Service;
 @RequiredArgsConstructor
 public class PipelinePlannerImpl implements PlannerService {
 
+  @Value("${retrieval.mmr.enabled:false}")
+  private boolean mmrEnabled;
+
+  @Value("${retrieval.mmr.lambda:0.7}")
+  private double mmrLambda;
+
+  @Value("${retrieval.mmr.token-budget:2000}")
+  private int mmrTokenBudget;
+
+  // Expanded queries retrieved beside original / step-back / HyDE (0 = off)
+  @Value("${retrieval.fan-out.multi-query-count:0}")
+  private int multiQueryCount;
+
   @Override
   public List<PipelinePlan> createPlans(QueryProcessingResult processingResult) {
     List<IntentTask> tasks = processingResult.intents();
@@ -39,7 +54,8 @@ public class PipelinePlannerImpl implements PlannerService {
 
     try {
       return switch (intent) {
-        case KNOWLEDGE_QUERY -> buildKnowledgePlan(intent, userQuery, pipelineQuery, hydeDocument);
+        case KNOWLEDGE_QUERY -> buildKnowledgePlan(intent, userQuery, pipelineQuery, hydeDocument,
+            processingResult.pendingHydeDocument());
         case ADVISORY -> buildAdvisoryPlan(intent, userQuery, pipelineQuery, hydeDocument);
         case CALCULATION -> buildCalculationPlan(intent, userQuery, pipelineQuery, hydeDocument);
         case MALICIOUS_CONTENT -> {
@@ -78,25 +94,29 @@ public class PipelinePlannerImpl implements PlannerService {
   }
 
   private PipelinePlan buildKnowledgePlan(QueryIntent intent, String userQuery,
-      String pipelineQuery, String hydeDocument) {
+      String pipelineQuery, String hydeDocument, CompletableFuture<String> pendingHydeDocument) {
     return PipelinePlan.builder()
         .intent(intent.name())
         .query(userQuery)
         .pipelineQuery(pipelineQuery)
         .hydeDocument(hydeDocument)
+        .pendingHydeDocument(pendingHydeDocument)
         .queryProcessingConfig(
             PipelinePlan.QueryProcessingConfig.builder()
                 .enableStepBack(true)
                 .enableHyde(true)
-                .enableMultiQuery(false)
-                .multiQueryCount(0)
+                .enableMultiQuery(multiQueryCount > 0)
+                .multiQueryCount(multiQueryCount)
                 .build())
-        // For knowledge queries: keep pipeline simple -> 1 retrieve, 1 gen, 1 validate
+        // For knowledge queries: 1 fused retrieval over all query variants, 1 gen, 1 validate
 
         .retrievalConfig(PipelinePlan.RetrievalConfig.builder()
             .query(pipelineQuery)
             .topK(5)
             .retrievalType(RetrievalType.KNOWLEDGE_RETRIEVE)
+            .enableMmr(mmrEnabled)
+            .mmrLambda(mmrLambda)
+            .contextTokenBudget(mmrTokenBudget)
             .build())
         .calculationConfig(null)
         .generationConfig(PipelinePlan.GenerationConfig.builder()
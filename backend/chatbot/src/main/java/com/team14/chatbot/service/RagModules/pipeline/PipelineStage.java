@@ -0,0 +1,29 @@
+package com.team14.chatbot.service.RagModules.pipeline;
+
+import lombok.Builder;
+import lombok.Singular;
+
+import java.util.Set;
+
+/**
+ * One node of a pipeline stage graph: the keys it reads and writes decide
+ * its dependencies (a stage runs once every producer of its inputs is done).
+ *
+ * @param name     Stage name, also the metric tag and the key of its timeout
+ *                 (pipeline.stage-timeout-ms)
+ * @param optional Failure or timeout is logged and dependents run without
+ *                 its outputs; a required stage failing aborts the pipeline
+ */
+@Builder
+public record PipelineStage(
+        String name,
+        @Singular Set<StageContext.Key<?>> inputs,
+        @Singular Set<StageContext.Key<?>> outputs,
+        boolean optional,
+        Action action) {
+
+    @FunctionalInterface
+    public interface Action {
+        void run(StageContext context) throws Exception;
+    }
+}
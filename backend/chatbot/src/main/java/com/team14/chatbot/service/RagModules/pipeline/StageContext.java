@@ -0,0 +1,65 @@
+package com.team14.chatbot.service.RagModules.pipeline;
+
+import com.team14.chatbot.helper.CancellationToken;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Values exchanged between pipeline stages. A stage reads the keys it
+ * declared as inputs and writes the keys it declared as outputs; an output of
+ * a failed optional stage is simply absent.
+ */
+public class StageContext {
+
+    /**
+     * Typed name of a value (equality by name)
+     */
+    public record Key<T>(String name) {
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private final Map<Key<?>, Object> values = new ConcurrentHashMap<>();
+    private final CancellationToken cancellation;
+    private final PipelineListener listener;
+
+    public StageContext(CancellationToken cancellation) {
+        this(cancellation, PipelineListener.NONE);
+    }
+
+    public StageContext(CancellationToken cancellation, PipelineListener listener) {
+        this.cancellation = cancellation;
+        this.listener = listener;
+    }
+
+    public CancellationToken cancellation() {
+        return cancellation;
+    }
+
+    public PipelineListener listener() {
+        return listener;
+    }
+
+    public <T> void put(Key<T> key, T value) {
+        if (value != null) {
+            values.put(key, value);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> Optional<T> find(Key<T> key) {
+        return Optional.ofNullable((T) values.get(key));
+    }
+
+    public <T> T get(Key<T> key) {
+        return find(key).orElse(null);
+    }
+
+    public boolean has(Key<?> key) {
+        return values.containsKey(key);
+    }
+}
@@ -0,0 +1,88 @@
+package com.team14.chatbot.service.RagModules.pipeline;
+
+import java.util.*;
+
+/**
+ * Validated stage DAG: every input is seeded or produced by exactly one
+ * stage, and there is no cycle. Stages are kept in a topological order.
+ */
+public class StageGraph {
+
+    private final List<PipelineStage> stages;
+    private final Map<String, Set<String>> dependencies;
+
+    private StageGraph(List<PipelineStage> stages, Map<String, Set<String>> dependencies) {
+        this.stages = stages;
+        this.dependencies = dependencies;
+    }
+
+    /**
+     * @param seeded Keys put in the context before the graph runs
+     */
+    public static StageGraph of(Collection<PipelineStage> stages, Set<StageContext.Key<?>> seeded) {
+        Map<StageContext.Key<?>, String> producers = new HashMap<>();
+        Map<String, PipelineStage> byName = new LinkedHashMap<>();
+        for (PipelineStage stage : stages) {
+            if (byName.putIfAbsent(stage.name(), stage) != null) {
+                throw new IllegalStateException("Duplicate pipeline stage: " + stage.name());
+            }
+            for (StageContext.Key<?> output : stage.outputs()) {
+                String previous = producers.putIfAbsent(output, stage.name());
+                if (previous != null || seeded.contains(output)) {
+                    throw new IllegalStateException("Key " + output + " is produced more than once ("
+                            + stage.name() + ", " + (previous != null ? previous : "seed") + ")");
+                }
+            }
+        }
+
+        Map<String, Set<String>> dependencies = new HashMap<>();
+        for (PipelineStage stage : byName.values()) {
+            Set<String> deps = new LinkedHashSet<>();
+            for (StageContext.Key<?> input : stage.inputs()) {
+                String producer = producers.get(input);
+                if (producer != null) {
+                    deps.add(producer);
+                } else if (!seeded.contains(input)) {
+                    throw new IllegalStateException("Stage " + stage.name() + " needs " + input
+                            + " which no stage produces");
+                }
+            }
+            dependencies.put(stage.name(), deps);
+        }
+
+        return new StageGraph(topologicalOrder(byName, dependencies), dependencies);
+    }
+
+    // Kahn's algorithm, declaration order among ready stages
+    private static List<PipelineStage> topologicalOrder(Map<String, PipelineStage> byName,
+            Map<String, Set<String>> dependencies) {
+        Map<String, Integer> pending = new HashMap<>();
+        dependencies.forEach((name, deps) -> pending.put(name, deps.size()));
+
+        List<PipelineStage> ordered = new ArrayList<>();
+        Deque<String> ready = new ArrayDeque<>();
+        byName.keySet().stream().filter(name -> pending.get(name) == 0).forEach(ready::add);
+        while (!ready.isEmpty()) {
+            String name = ready.poll();
+            ordered.add(byName.get(name));
+            for (String other : byName.keySet()) {
+                if (dependencies.get(other).contains(name) && pending.merge(other, -1, Integer::sum) == 0) {
+                    ready.add(other);
+                }
+            }
+        }
+
+        if (ordered.size() != byName.size()) {
+            throw new IllegalStateException("Pipeline stage graph has a cycle");
+        }
+        return ordered;
+    }
+
+    public List<PipelineStage> stages() {
+        return stages;
+    }
+
+    public Set<String> dependencies(PipelineStage stage) {
+        return dependencies.get(stage.name());
+    }
+}
@@ -0,0 +1,159 @@
+package com.team14.chatbot.service.RagModules.pipeline;
+
+import com.team14.chatbot.configuration.PipelineConfig;
+import com.team14.chatbot.helper.CancellationToken;
+import com.team14.chatbot.helper.RequestDeadline;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs a {@link StageGraph} on virtual threads: each stage starts as soon as
+ * the stages producing its inputs are done, so independent stages overlap.
+ *
+ * Every stage gets its own timeout (pipeline.stage-timeout-ms, capped by
+ * the request deadline). A failed or timed out required stage, or a
+ * cancelled context token, cancels the token and interrupts the stages still
+ * running.
+ * The start of each stage is reported to the context listener (SSE progress).
+ * Metric: rag.pipeline.stage{stage,outcome=ok|failed|timeout|cancelled}.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class StageScheduler {
+
+    private final PipelineConfig pipelineConfig;
+    private final MeterRegistry meterRegistry;
+
+    public record StageTiming(String stage, String outcome, long startOffsetMs, long durationMs) {
+    }
+
+    /**
+     * A required stage failed, timed out or was cancelled
+     */
+    public static class StageFailedException extends RuntimeException {
+        private final String stage;
+
+        public StageFailedException(String stage, String outcome, Throwable cause) {
+            super("Pipeline stage " + stage + " " + outcome, cause);
+            this.stage = stage;
+        }
+
+        public String getStage() {
+            return stage;
+        }
+    }
+
+    /**
+     * Run all stages, return their timings (in completion order)
+     */
+    public List<StageTiming> run(StageGraph graph, StageContext context) {
+        long runStart = System.nanoTime();
+        List<StageTiming> timings = Collections.synchronizedList(new ArrayList<>());
+        Set<Future<?>> running = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+        // Request cancelled (client gone, sibling pipeline failed): interrupt running stages
+        CancellationToken.Registration interruptOnCancel = context.cancellation()
+                .onCancel(() -> running.forEach(task -> task.cancel(true)));
+
+        CompletableFuture<Void> failure = new CompletableFuture<>();
+        Map<String, CompletableFuture<Void>> done = new HashMap<>();
+        for (PipelineStage stage : graph.stages()) {
+            CompletableFuture<?>[] dependencies = graph.dependencies(stage).stream()
+                    .map(done::get)
+                    .toArray(CompletableFuture[]::new);
+            CompletableFuture<Void> stageDone = CompletableFuture.allOf(dependencies)
+                    .thenRunAsync(() -> execute(stage, context, executor, running, timings, runStart), executor);
+            stageDone.whenComplete((ignored, error) -> {
+                if (error != null) {
+                    failure.completeExceptionally(error);
+                }
+            });
+            done.put(stage.name(), stageDone);
+        }
+
+        CompletableFuture<Void> all = CompletableFuture.allOf(done.values().toArray(CompletableFuture[]::new));
+        boolean failed = true;
+        try {
+            CompletableFuture.anyOf(all, failure).join();
+            failed = false;
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof StageFailedException stageFailed
+                    ? stageFailed
+                    : new StageFailedException("graph", "failed", e.getCause());
+        } finally {
+            interruptOnCancel.close();
+            if (failed) {
+                context.cancellation().cancel();
+                running.forEach(task -> task.cancel(true));
+                done.values().forEach(stageDone -> stageDone.cancel(false));
+                executor.shutdownNow();
+            } else {
+                executor.shutdown();
+            }
+            log.info("[Pipeline] Stage timings: {}", timings);
+        }
+        return List.copyOf(timings);
+    }
+
+    private void execute(PipelineStage stage, StageContext context, ExecutorService executor,
+            Set<Future<?>> running, List<StageTiming> timings, long runStart) {
+        context.cancellation().throwIfCancelled();
+
+        Duration timeout = RequestDeadline.remaining(pipelineConfig.stageTimeout(stage.name()));
+        context.listener().onStage(stage.name());
+        long start = System.nanoTime();
+        Future<?> task = executor.submit(() -> {
+            stage.action().run(context);
+            return null;
+        });
+        running.add(task);
+
+        String outcome = "ok";
+        Throwable error = null;
+        try {
+            task.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            task.cancel(true);
+            outcome = "timeout";
+            error = e;
+        } catch (ExecutionException e) {
+            outcome = e.getCause() instanceof CancellationException ? "cancelled" : "failed";
+            error = e.getCause();
+        } catch (InterruptedException | CancellationException e) {
+            task.cancel(true);
+            Thread.currentThread().interrupt();
+            outcome = "cancelled";
+            error = e;
+        } finally {
+            running.remove(task);
+        }
+
+        long nanos = System.nanoTime() - start;
+        timings.add(new StageTiming(stage.name(), outcome,
+                TimeUnit.NANOSECONDS.toMillis(start - runStart), TimeUnit.NANOSECONDS.toMillis(nanos)));
+        Timer.builder("rag.pipeline.stage")
+                .tag("stage", stage.name())
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+
+        if (error == null) {
+            return;
+        }
+        if (stage.optional()) {
+            log.warn("[Pipeline] Optional stage {} {} after {}ms, continuing without its outputs: {}",
+                    stage.name(), outcome, TimeUnit.NANOSECONDS.toMillis(nanos), error.toString());
+            return;
+        }
+        throw new StageFailedException(stage.name(), outcome, error);
+    }
+}
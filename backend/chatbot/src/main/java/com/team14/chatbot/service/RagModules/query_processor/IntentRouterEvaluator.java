@@ -0,0 +1,149 @@
+package com.team14.chatbot.service.RagModules.query_processor;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.team14.chatbot.configuration.IntentRouterConfig;
+import com.team14.chatbot.enums.QueryIntent;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Component;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the labelled evaluation set (resources/intent/intent-eval.json) through
+ * the local router and optionally the LLM router: coverage and accuracy of
+ * local decisions at the current threshold, and latency of both paths.
+ * The LLM routing prompt only sees the query, also for follow-up cases.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class IntentRouterEvaluator {
+
+    private final IntentRouterConfig config;
+    private final LocalIntentRouter localIntentRouter;
+    private final QueryProcessingService queryProcessingService;
+    private final ResourceLoader resourceLoader;
+    private final ObjectMapper objectMapper;
+
+    // history: earlier turns for follow-up cases (null otherwise)
+    private record EvalCase(String text, String history, List<QueryIntent> intents) {
+    }
+
+    private record EvalFile(String version, List<EvalCase> cases) {
+    }
+
+    public record CaseResult(
+            String text,
+            List<QueryIntent> expected,
+            QueryIntent local,
+            double confidence,
+            boolean decidedLocally,
+            List<QueryIntent> llm) {
+    }
+
+    public record LatencyStats(double meanMs, double p50Ms, double p95Ms) {
+    }
+
+    /**
+     * Accuracies are null when not measurable (no local decision, LLM not run)
+     */
+    public record Report(
+            String version,
+            int cases,
+            double confidenceThreshold,
+            double localCoverage,
+            Double localAccuracy,
+            Double llmAccuracy,
+            Double routedAccuracy,
+            LatencyStats localLatency,
+            LatencyStats llmLatency,
+            List<CaseResult> errors) {
+    }
+
+    public Report evaluate(boolean includeLlm) throws Exception {
+        EvalFile file;
+        try (InputStream in = resourceLoader.getResource(config.getEvaluationPath()).getInputStream()) {
+            file = objectMapper.readValue(in, EvalFile.class);
+        }
+        double threshold = config.getRouting().getConfidenceThreshold();
+
+        List<CaseResult> results = new ArrayList<>();
+        List<Long> localNanos = new ArrayList<>();
+        List<Long> llmNanos = new ArrayList<>();
+        for (EvalCase evalCase : file.cases()) {
+            long start = System.nanoTime();
+            // Follow-ups are left to the LLM, like routeConfident does
+            LocalIntentRouter.Decision decision = localIntentRouter.isFollowUp(evalCase.text(), evalCase.history())
+                    ? new LocalIntentRouter.Decision(null, 0.0, "FOLLOW_UP")
+                    : localIntentRouter.classify(evalCase.text());
+            localNanos.add(System.nanoTime() - start);
+
+            List<QueryIntent> llm = null;
+            if (includeLlm) {
+                start = System.nanoTime();
+                llm = queryProcessingService.analyzeIntentWithLlm(evalCase.text()).stream()
+                        .map(IntentTask::intent)
+                        .toList();
+                llmNanos.add(System.nanoTime() - start);
+            }
+
+            boolean decided = decision.intent() != null && decision.confidence() >= threshold;
+            results.add(new CaseResult(evalCase.text(), evalCase.intents(), decision.intent(),
+                    decision.confidence(), decided, llm));
+        }
+
+        List<CaseResult> decided = results.stream().filter(CaseResult::decidedLocally).toList();
+        Double localAccuracy = decided.isEmpty() ? null
+                : (double) decided.stream().filter(this::localCorrect).count() / decided.size();
+        Double llmAccuracy = includeLlm
+                ? (double) results.stream().filter(this::llmCorrect).count() / results.size()
+                : null;
+        Double routedAccuracy = includeLlm
+                ? (double) results.stream().filter(r -> r.decidedLocally() ? localCorrect(r) : llmCorrect(r)).count()
+                        / results.size()
+                : null;
+
+        List<CaseResult> errors = results.stream()
+                .filter(r -> r.decidedLocally() ? !localCorrect(r) : includeLlm && !llmCorrect(r))
+                .toList();
+
+        Report report = new Report(file.version(), results.size(), threshold,
+                results.isEmpty() ? 0.0 : (double) decided.size() / results.size(),
+                localAccuracy, llmAccuracy, routedAccuracy,
+                latency(localNanos), includeLlm ? latency(llmNanos) : null, errors);
+        log.info("Intent router evaluation: cases={}, coverage={}, localAccuracy={}, llmAccuracy={}, "
+                        + "local p50={} ms, llm p50={} ms",
+                report.cases(), report.localCoverage(), report.localAccuracy(), report.llmAccuracy(),
+                report.localLatency().p50Ms(), report.llmLatency() != null ? report.llmLatency().p50Ms() : null);
+        return report;
+    }
+
+    // A single local intent is only right for single-intent cases
+    private boolean localCorrect(CaseResult result) {
+        return result.expected().size() == 1 && result.expected().get(0) == result.local();
+    }
+
+    private boolean llmCorrect(CaseResult result) {
+        return result.llm() != null
+                && result.llm().stream().distinct().sorted().toList()
+                        .equals(result.expected().stream().distinct().sorted().toList());
+    }
+
+    private LatencyStats latency(List<Long> nanos) {
+        if (nanos.isEmpty()) {
+            return new LatencyStats(0, 0, 0);
+        }
+        double[] ms = nanos.stream().mapToDouble(n -> n / 1_000_000.0).sorted().toArray();
+        return new LatencyStats(Arrays.stream(ms).average().orElse(0), percentile(ms, 0.5), percentile(ms, 0.95));
+    }
+
+    private double percentile(double[] sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+}
@@ -4,9 +4,15 @@ import com.team14.chatbot.enums.QueryIntent;
 
 /**
  * Record to hold routing result data
+ * (confidence is set by the local router, null for LLM routing)
  */
 public record IntentTask(
                 QueryIntent intent,
                 String query,
-                String explanation) {
-}
\ No newline at end of file
+                String explanation,
+                Double confidence) {
+
+        public IntentTask(QueryIntent intent, String query, String explanation) {
+                this(intent, query, explanation, null);
+        }
+}
@@ -0,0 +1,305 @@
+package com.team14.chatbot.service.RagModules.query_processor;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.team14.chatbot.configuration.IntentRouterConfig;
+import com.team14.chatbot.enums.QueryIntent;
+import com.team14.chatbot.helper.LshIndex;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Component;
+
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Routes obvious queries without the LLM: rules for calculations (numbers +
+ * a calculation cue; dates and years are not counted) and a
+ * similarity-weighted kNN vote over embeddings of labelled examples
+ * (resources/intent/intent-examples.json).
+ *
+ * Every decision carries a confidence; callers use it only at or above
+ * {@code intent-router.routing.confidence-threshold} and otherwise fall back
+ * to the LLM. Queries that look multi-intent, and follow-ups of a
+ * conversation, are never decided locally.
+ * Decisions are memoized for a short time, so the callers of one request
+ * (advisory pre-signal, local routing) share a single query embedding.
+ */
+@Component
+@Slf4j
+public class LocalIntentRouter {
+
+    /**
+     * Local routing outcome (intent null = no opinion)
+     */
+    public record Decision(QueryIntent intent, double confidence, String source) {
+        static Decision none(String source) {
+            return new Decision(null, 0.0, source);
+        }
+    }
+
+    private record Example(String text, QueryIntent intent) {
+    }
+
+    private record ExampleFile(String version, List<Example> examples) {
+    }
+
+    // The kNN vote depends on k and minSimilarity (tunable at runtime)
+    private record DecisionKey(String query, int k, double minSimilarity) {
+    }
+
+    private static final int FLAGS = Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE | Pattern.UNICODE_CHARACTER_CLASS;
+    private static final Pattern NUMBER = Pattern.compile("\\d+(?:[.,]\\d+)*");
+    // Ngày tháng, năm, quý...: không phải số liệu để tính
+    private static final Pattern DATE_OR_PERIOD = Pattern.compile(
+            "\\b\\d{1,2}[/-]\\d{1,2}(?:[/-]\\d{2,4})?\\b"
+                    + "|\\b(?:ngày|tháng|quý|năm|kỳ|year|q)\\s*\\d{1,4}\\b"
+                    + "|\\b(?:19|20)\\d{2}\\b(?!\\s*(?:%|triệu|tỷ|nghìn|ngàn|đồng|đ\\b|usd|\\$|đô))", FLAGS);
+    private static final Pattern PERCENT = Pattern.compile("\\d\\s*(?:%|phần trăm)", FLAGS);
+    private static final Pattern CALCULATION_CUE = Pattern.compile(
+            "\\b(?:tính|bao nhiêu|mấy phần trăm|how much|calculate)\\b", FLAGS);
+    private static final Pattern DEFINITION_CUE = Pattern.compile(
+            "\\b(?:là gì|nghĩa là gì|khái niệm|định nghĩa|what is)\\b", FLAGS);
+    private static final Pattern ADVISORY_CUE = Pattern.compile(
+            "\\b(?:có nên|nên .{1,40} không|nên chọn|should i)\\b", FLAGS);
+    // Câu hỏi nối tiếp, chỉ hiểu được cùng lịch sử hội thoại
+    private static final Pattern FOLLOW_UP_CUE = Pattern.compile(
+            "^\\s*(?:còn|vậy|thế|thế còn|vậy còn|và|nhưng|rồi|what about|and)\\b"
+                    + "|\\b(?:nó|cái đó|cái này|điều đó|khoản đó|như trên|ở trên|thì sao|vậy thì|it|that one)\\b",
+            FLAGS);
+    private static final int FOLLOW_UP_MAX_WORDS = 3;
+
+    private static final long RELOAD_BACKOFF_MS = 60_000;
+    private static final int EMBED_BATCH_SIZE = 64;
+    // Vài chục giây: đủ cho các bước của một request
+    private static final Duration DECISION_TTL = Duration.ofSeconds(30);
+
+    private final IntentRouterConfig config;
+    private final EmbeddingModel embeddingModel;
+    private final ResourceLoader resourceLoader;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    private final Timer latencyTimer;
+    private final Cache<DecisionKey, Decision> decisions = Caffeine.newBuilder()
+            .maximumSize(1000)
+            .expireAfterWrite(DECISION_TTL)
+            .build();
+
+    private volatile LshIndex<Integer> index;
+    private volatile List<QueryIntent> labels = List.of();
+    private volatile long nextLoadAttempt;
+
+    public LocalIntentRouter(IntentRouterConfig config, EmbeddingModel embeddingModel, ResourceLoader resourceLoader,
+                             ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this.config = config;
+        this.embeddingModel = embeddingModel;
+        this.resourceLoader = resourceLoader;
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+        this.latencyTimer = Timer.builder("rag.intent_router.latency")
+                .description("Local intent routing time (rules + kNN)")
+                .publishPercentiles(0.5, 0.95)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Intent tasks decided locally, empty when the LLM should route this query
+     * (also for follow-ups of a conversation, which need its history)
+     */
+    public Optional<List<IntentTask>> routeConfident(String query, String conversationHistory) {
+        if (!config.getRouting().isEnabled()) {
+            return Optional.empty();
+        }
+        if (isFollowUp(query, conversationHistory)) {
+            log.debug("Follow-up query, routing left to the LLM with the history: {}", query);
+            Counter.builder("rag.intent_router.decisions")
+                    .tag("source", "follow_up")
+                    .register(meterRegistry)
+                    .increment();
+            return Optional.empty();
+        }
+
+        Decision decision = classify(query);
+        boolean confident = decision.intent() != null
+                && decision.confidence() >= config.getRouting().getConfidenceThreshold();
+        Counter.builder("rag.intent_router.decisions")
+                .tag("source", confident ? decision.source() : "llm")
+                .register(meterRegistry)
+                .increment();
+        if (!confident) {
+            return Optional.empty();
+        }
+
+        log.info("Local intent routing: {} ({}, confidence {})", decision.intent(), decision.source(),
+                String.format("%.2f", decision.confidence()));
+        return Optional.of(List.of(new IntentTask(decision.intent(), query,
+                "Local router (" + decision.source().toLowerCase(Locale.ROOT) + ")", decision.confidence())));
+    }
+
+    /**
+     * Local decision with its confidence, whatever the threshold. Concurrent
+     * calls for the same query wait for one classification.
+     */
+    public Decision classify(String query) {
+        if (query == null || query.isBlank()) {
+            return Decision.none("RULE");
+        }
+        IntentRouterConfig.Routing routing = config.getRouting();
+        return decisions.get(new DecisionKey(query, routing.getK(), routing.getMinSimilarity()), key -> {
+            long start = System.nanoTime();
+            try {
+                return doClassify(query);
+            } finally {
+                latencyTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        });
+    }
+
+    /**
+     * Query that refers to earlier turns ("còn vàng thì sao?", a few words
+     * only): classified alone, it would get the wrong intent
+     */
+    public boolean isFollowUp(String query, String conversationHistory) {
+        if (query == null || conversationHistory == null || conversationHistory.isBlank()) {
+            return false;
+        }
+        return FOLLOW_UP_CUE.matcher(query).find() || query.trim().split("\\s+").length <= FOLLOW_UP_MAX_WORDS;
+    }
+
+    /**
+     * Cheap advisory hint (keywords only, no embedding)
+     */
+    public boolean hasAdvisoryCue(String query) {
+        return query != null && ADVISORY_CUE.matcher(query).find();
+    }
+
+    private Decision doClassify(String query) {
+        if (query == null || query.isBlank()) {
+            return Decision.none("RULE");
+        }
+        if (looksMultiIntent(query)) {
+            return Decision.none("RULE");
+        }
+        if (isCalculation(query)) {
+            return new Decision(QueryIntent.CALCULATION, 0.95, "RULE");
+        }
+
+        LshIndex<Integer> currentIndex = examplesIndex();
+        if (currentIndex == null) {
+            return Decision.none("KNN");
+        }
+
+        float[] vector;
+        try {
+            vector = embeddingModel.embed(query);
+        } catch (Exception e) {
+            log.warn("Local intent routing embedding failed: {}", e.getMessage());
+            return Decision.none("KNN");
+        }
+        return vote(currentIndex.nearest(vector, config.getRouting().getK(), i -> true));
+    }
+
+    /**
+     * Similarity-weighted vote; confidence = share of the winning intent
+     */
+    private Decision vote(List<LshIndex.Neighbor<Integer>> neighbours) {
+        if (neighbours.isEmpty() || neighbours.get(0).similarity() < config.getRouting().getMinSimilarity()) {
+            return Decision.none("KNN");
+        }
+
+        Map<QueryIntent, Double> weights = new EnumMap<>(QueryIntent.class);
+        double total = 0;
+        for (LshIndex.Neighbor<Integer> neighbour : neighbours) {
+            double weight = Math.max(0, neighbour.similarity());
+            weights.merge(labels.get(neighbour.key()), weight, Double::sum);
+            total += weight;
+        }
+        if (total == 0) {
+            return Decision.none("KNN");
+        }
+
+        Map.Entry<QueryIntent, Double> best = Collections.max(weights.entrySet(), Map.Entry.comparingByValue());
+        return new Decision(best.getKey(), best.getValue() / total, "KNN");
+    }
+
+    private boolean isCalculation(String query) {
+        if (!CALCULATION_CUE.matcher(query).find()) {
+            return false;
+        }
+        int numbers = 0;
+        Matcher matcher = NUMBER.matcher(DATE_OR_PERIOD.matcher(query).replaceAll(" "));
+        while (matcher.find()) {
+            numbers++;
+        }
+        return numbers >= 2 || (numbers == 1 && PERCENT.matcher(query).find());
+    }
+
+    // Several questions or cues of different intents: leave the split to the LLM
+    private boolean looksMultiIntent(String query) {
+        if (query.chars().filter(c -> c == '?').count() > 1) {
+            return true;
+        }
+        int cues = 0;
+        cues += DEFINITION_CUE.matcher(query).find() ? 1 : 0;
+        cues += ADVISORY_CUE.matcher(query).find() ? 1 : 0;
+        cues += isCalculation(query) ? 1 : 0;
+        return cues > 1;
+    }
+
+    /**
+     * Embedded examples, loaded on first use (the embedding service may not be
+     * up at startup); retried after a backoff when loading fails
+     */
+    private LshIndex<Integer> examplesIndex() {
+        LshIndex<Integer> current = index;
+        if (current != null || System.currentTimeMillis() < nextLoadAttempt) {
+            return current;
+        }
+        synchronized (this) {
+            if (index == null && System.currentTimeMillis() >= nextLoadAttempt) {
+                try {
+                    loadExamples();
+                } catch (Exception e) {
+                    nextLoadAttempt = System.currentTimeMillis() + RELOAD_BACKOFF_MS;
+                    log.warn("Could not load intent examples from {}, retrying in {} ms: {}",
+                            config.getExamplesPath(), RELOAD_BACKOFF_MS, e.getMessage());
+                }
+            }
+            return index;
+        }
+    }
+
+    private void loadExamples() throws Exception {
+        Resource resource = resourceLoader.getResource(config.getExamplesPath());
+        ExampleFile file;
+        try (InputStream in = resource.getInputStream()) {
+            file = objectMapper.readValue(in, ExampleFile.class);
+        }
+
+        List<String> texts = file.examples().stream().map(Example::text).toList();
+        List<QueryIntent> exampleLabels = file.examples().stream().map(Example::intent).toList();
+
+        LshIndex<Integer> built = new LshIndex<>(4, 8, 39L);
+        for (int from = 0; from < texts.size(); from += EMBED_BATCH_SIZE) {
+            List<String> batch = texts.subList(from, Math.min(texts.size(), from + EMBED_BATCH_SIZE));
+            List<float[]> vectors = embeddingModel.embed(batch);
+            for (int i = 0; i < vectors.size(); i++) {
+                built.add(from + i, vectors.get(i));
+            }
+        }
+
+        labels = exampleLabels;
+        index = built;
+        log.info("Intent examples {} loaded: {} examples", file.version(), texts.size());
+    }
+}
@@ -0,0 +1,235 @@
+package com.team14.chatbot.service.RagModules.query_processor;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.team14.chatbot.configuration.QueryCacheConfig;
+import com.team14.chatbot.helper.LshIndex;
+import com.team14.chatbot.helper.QueryNormalizer;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Semantic cache of {@link QueryProcessingResult}: a paraphrase of a recent
+ * question in the same conversation context reuses its intents, step-back
+ * question and HyDE document instead of another LLM call.
+ *
+ * Key = embedding of the normalized query + hash of the normalized
+ * conversation history (must match exactly). Neighbours are found with an
+ * in-process LSH index; entries are bounded by size and TTL.
+ * Metrics: rag.query_cache.lookups{result}, rag.query_cache.hit_rate,
+ * rag.query_cache.size, rag.query_cache.similarity.
+ */
+@Component
+@Slf4j
+public class QueryProcessingCache {
+
+    // (similarity, cached result still correct?) pairs for data/tune_query_cache_threshold.py
+    private static final Logger SAMPLES = LoggerFactory.getLogger("query.cache.samples");
+
+    private final QueryCacheConfig config;
+    private final EmbeddingModel embeddingModel;
+    private final ObjectMapper objectMapper;
+    private final Cache<Long, CachedResult> cache;
+    private final LshIndex<Long> index;
+    private final AtomicLong ids = new AtomicLong();
+
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final DistributionSummary similaritySummary;
+
+    private record CachedResult(String normalizedQuery, String contextHash, QueryProcessingResult result) {
+    }
+
+    /**
+     * Outcome of a lookup; keeps the query embedding so a miss can be stored
+     * without embedding again
+     */
+    public record Lookup(
+            String normalizedQuery,
+            String contextHash,
+            float[] vector,
+            QueryProcessingResult result,
+            QueryProcessingResult nearestResult,
+            double nearestSimilarity) {
+
+        public boolean isHit() {
+            return result != null;
+        }
+    }
+
+    public QueryProcessingCache(QueryCacheConfig config, EmbeddingModel embeddingModel, ObjectMapper objectMapper,
+                                MeterRegistry meterRegistry) {
+        this.config = config;
+        this.embeddingModel = embeddingModel;
+        this.objectMapper = objectMapper;
+        this.index = new LshIndex<>(config.getLshTables(), config.getLshBits(), 14L);
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(config.getMaxSize())
+                .expireAfterWrite(Duration.ofMinutes(config.getTtlMinutes()))
+                .removalListener((Long id, CachedResult value, RemovalCause cause) -> index.remove(id))
+                .build();
+
+        this.hitCounter = Counter.builder("rag.query_cache.lookups").tag("result", "hit").register(meterRegistry);
+        this.missCounter = Counter.builder("rag.query_cache.lookups").tag("result", "miss").register(meterRegistry);
+        this.similaritySummary = DistributionSummary.builder("rag.query_cache.similarity")
+                .description("Similarity of the nearest cached query")
+                .publishPercentiles(0.5, 0.9)
+                .register(meterRegistry);
+        Gauge.builder("rag.query_cache.hit_rate", this, QueryProcessingCache::hitRate).register(meterRegistry);
+        Gauge.builder("rag.query_cache.size", index, LshIndex::size).register(meterRegistry);
+    }
+
+    /**
+     * Find a cached result for a query similar to this one in the same context
+     */
+    public Lookup lookup(String query, String conversationHistory) {
+        String normalizedQuery = QueryNormalizer.normalize(query);
+        String contextHash = contextHash(conversationHistory);
+        if (!config.getMatching().isEnabled()) {
+            return new Lookup(normalizedQuery, contextHash, null, null, null, 0);
+        }
+
+        float[] vector;
+        try {
+            vector = embeddingModel.embed(normalizedQuery);
+        } catch (Exception e) {
+            log.warn("Query cache embedding failed, skipping cache: {}", e.getMessage());
+            missCounter.increment();
+            return new Lookup(normalizedQuery, contextHash, null, null, null, 0);
+        }
+
+        List<LshIndex.Neighbor<Long>> nearest = index.nearest(vector, 1, id -> {
+            CachedResult cached = cache.getIfPresent(id);
+            return cached != null && cached.contextHash().equals(contextHash);
+        });
+        if (nearest.isEmpty()) {
+            missCounter.increment();
+            return new Lookup(normalizedQuery, contextHash, vector, null, null, 0);
+        }
+
+        LshIndex.Neighbor<Long> best = nearest.get(0);
+        CachedResult cached = cache.getIfPresent(best.key());
+        if (cached == null) {
+            missCounter.increment();
+            return new Lookup(normalizedQuery, contextHash, vector, null, null, 0);
+        }
+        similaritySummary.record(best.similarity());
+
+        if (best.similarity() >= config.getMatching().getSimilarityThreshold()) {
+            hitCounter.increment();
+            log.info("Query cache hit ({}) for '{}' <- '{}'", String.format("%.3f", best.similarity()),
+                    normalizedQuery, cached.normalizedQuery());
+            return new Lookup(normalizedQuery, contextHash, vector, forQuery(cached.result(), query),
+                    cached.result(), best.similarity());
+        }
+
+        missCounter.increment();
+        return new Lookup(normalizedQuery, contextHash, vector, null, cached.result(), best.similarity());
+    }
+
+    /**
+     * Store the freshly computed result of a missed lookup
+     */
+    public void put(Lookup lookup, QueryProcessingResult result) {
+        if (lookup.vector() == null || result == null || result.intents() == null) {
+            return;
+        }
+
+        // A near miss tells whether the neighbour's result would have been right
+        if (lookup.nearestResult() != null
+                && lookup.nearestSimilarity() >= config.getMatching().getSampleMinSimilarity()) {
+            logSample("miss", lookup.nearestSimilarity(), sameIntents(lookup.nearestResult(), result));
+        }
+
+        // Intent-only fallback results (no step-back) are not worth reusing
+        if (result.stepBackQuestion() == null) {
+            return;
+        }
+
+        long id = ids.incrementAndGet();
+        cache.put(id, new CachedResult(lookup.normalizedQuery(), lookup.contextHash(), result));
+        index.add(id, lookup.vector());
+    }
+
+    /**
+     * For a sample of hits, recompute the result in background and log
+     * whether the cached one was still right (threshold drift check)
+     */
+    public void maybeShadowCheck(Lookup lookup, Supplier<QueryProcessingResult> fresh) {
+        if (!lookup.isHit() || ThreadLocalRandom.current().nextDouble() >= config.getMatching().getShadowSampleRate()) {
+            return;
+        }
+        Thread.ofVirtual().name("query-cache-shadow").start(() -> {
+            try {
+                logSample("hit", lookup.nearestSimilarity(), sameIntents(lookup.nearestResult(), fresh.get()));
+            } catch (Exception e) {
+                log.debug("Query cache shadow check failed", e);
+            }
+        });
+    }
+
+    private double hitRate() {
+        double total = hitCounter.count() + missCounter.count();
+        return total == 0 ? 0.0 : hitCounter.count() / total;
+    }
+
+    /**
+     * Cached result adapted to the current wording (single intent: its query
+     * becomes the user's question)
+     */
+    private QueryProcessingResult forQuery(QueryProcessingResult cached, String query) {
+        List<IntentTask> intents = cached.intents();
+        if (intents.size() == 1) {
+            IntentTask task = intents.get(0);
+            intents = List.of(new IntentTask(task.intent(), query, task.explanation()));
+        }
+        return new QueryProcessingResult(intents, cached.stepBackQuestion(), cached.hydeDocument());
+    }
+
+    private boolean sameIntents(QueryProcessingResult a, QueryProcessingResult b) {
+        return intentNames(a).equals(intentNames(b));
+    }
+
+    private List<String> intentNames(QueryProcessingResult result) {
+        return result.intents().stream()
+                .map(task -> String.valueOf(task.intent()))
+                .sorted()
+                .toList();
+    }
+
+    private static String contextHash(String conversationHistory) {
+        String normalized = QueryNormalizer.normalize(conversationHistory);
+        return DigestUtils.md5DigestAsHex(normalized.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void logSample(String source, double similarity, boolean sameIntents) {
+        try {
+            Map<String, Object> sample = new LinkedHashMap<>();
+            sample.put("source", source);
+            sample.put("similarity", similarity);
+            sample.put("same_intents", sameIntents);
+            SAMPLES.info("QUERY_CACHE_SAMPLE {}", objectMapper.writeValueAsString(sample));
+        } catch (Exception e) {
+            log.debug("Could not log query cache sample", e);
+        }
+    }
+}
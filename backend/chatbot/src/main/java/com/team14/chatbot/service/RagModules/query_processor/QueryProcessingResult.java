@@ -1,17 +1,24 @@
 package com.team14.chatbot.service.RagModules.query_processor;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Aggregated result of query processing, combining:
  * - intent routing
  * - step-back rewritten question
  * - HyDE hypothetical document
+ *
+ * In streaming mode the result is handed out before HyDE has finished:
+ * hydeDocument is then null and pendingHydeDocument completes later.
  */
 public record QueryProcessingResult(
         List<IntentTask> intents,
         String stepBackQuestion,
-        String hydeDocument) {
-}
-
+        String hydeDocument,
+        CompletableFuture<String> pendingHydeDocument) {
 
+    public QueryProcessingResult(List<IntentTask> intents, String stepBackQuestion, String hydeDocument) {
+        this(intents, stepBackQuestion, hydeDocument, CompletableFuture.completedFuture(hydeDocument));
+    }
+}
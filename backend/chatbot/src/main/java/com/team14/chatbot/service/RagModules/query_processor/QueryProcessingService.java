@@ -1,17 +1,35 @@
 package com.team14.chatbot.service.RagModules.query_processor;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.team14.chatbot.enums.QueryIntent;
+import com.team14.chatbot.helper.CancellationToken;
+import com.team14.chatbot.helper.IncrementalJsonObjectReader;
+import com.team14.chatbot.helper.ParseJsonHelper;
+import com.team14.chatbot.helper.RequestDeadline;
+import com.team14.chatbot.service.RagModules.generation.CompiledPrompt;
+import com.team14.chatbot.service.RagModules.generation.PromptRegistry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.AccessLevel;
 import lombok.experimental.FieldDefaults;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * Query Processing Service - Core component for intelligent query handling
@@ -29,15 +47,26 @@ public class QueryProcessingService {
 
     ChatClient chatClient;
     ChatClient geminiFlashClient;
-    ObjectMapper objectMapper;
+    ParseJsonHelper parseJsonHelper;
+    MeterRegistry meterRegistry;
+    LocalIntentRouter localIntentRouter;
+
+    // Pipelines of these intents use the original query only (see PipelinePlannerImpl)
+    private static final Set<QueryIntent> LOCAL_ONLY_INTENTS = EnumSet.of(
+            QueryIntent.CALCULATION, QueryIntent.NON_FINANCIAL, QueryIntent.MALICIOUS_CONTENT,
+            QueryIntent.UNSUPPORTED);
 
     public QueryProcessingService(
             @Qualifier("geminiFlashLiteClient") ChatClient chatClient,
             @Qualifier("geminiFlashClient") ChatClient geminiFlashClient,
-            ObjectMapper objectMapper) {
+            ParseJsonHelper parseJsonHelper,
+            MeterRegistry meterRegistry,
+            LocalIntentRouter localIntentRouter) {
         this.chatClient = chatClient;
         this.geminiFlashClient = geminiFlashClient;
-        this.objectMapper = objectMapper;
+        this.parseJsonHelper = parseJsonHelper;
+        this.meterRegistry = meterRegistry;
+        this.localIntentRouter = localIntentRouter;
     }
 
     // ==================== HIGH LEVEL ORCHESTRATION ====================
@@ -51,7 +80,12 @@ public class QueryProcessingService {
     public QueryProcessingResult execute(String query, String conversationHistory) {
         log.info("Executing combined query processing for: {}", query);
 
-        String prompt = String.format(EXECUTE_COMBINED_PROMPT, query,
+        Optional<QueryProcessingResult> local = routeLocally(query, conversationHistory);
+        if (local.isPresent()) {
+            return local.get();
+        }
+
+        String prompt = EXECUTE_COMBINED.format(query,
                 conversationHistory != null ? conversationHistory : "");
 
         try {
@@ -60,33 +94,176 @@ public class QueryProcessingService {
                     .call()
                     .content();
 
-            String clean = response.trim()
-                    .replace("```json", "")
-                    .replace("```", "")
-                    .trim();
+            return toResult(response, query, conversationHistory);
+        } catch (Exception e) {
+            log.error("Error in combined execute, falling back to intent-only", e);
+            List<IntentTask> intents = analyzeIntent(query, conversationHistory);
+            return new QueryProcessingResult(intents, null, null);
+        }
+    }
+
+    /**
+     * Streaming variant of {@link #execute}: the combined JSON is parsed while
+     * the LLM is still generating it. The plan can be built (and retrieval
+     * started) once intents and step_back_question are known, HyDE - the
+     * longest and last field - keeps streaming in the background.
+     */
+    public StreamingQueryProcessing executeStreaming(String query, String conversationHistory) {
+        log.info("Executing streaming query processing for: {}", query);
+        long start = System.nanoTime();
+
+        Optional<QueryProcessingResult> local = routeLocally(query, conversationHistory);
+        if (local.isPresent()) {
+            CompletableFuture<QueryProcessingResult> done = CompletableFuture.completedFuture(local.get());
+            return new StreamingQueryProcessing(done, done);
+        }
+
+        String prompt = EXECUTE_COMBINED.format(query,
+                conversationHistory != null ? conversationHistory : "");
 
-            if (clean.isEmpty()) {
-                log.warn("Combined execute returned empty response, falling back to simple intent routing only");
-                // Fallback: just run intent analysis, no step-back / HyDE
-                List<IntentTask> intents = analyzeIntent(query, conversationHistory);
-                return new QueryProcessingResult(intents, null, null);
+        CompletableFuture<QueryProcessingResult> planReady = new CompletableFuture<>();
+        CompletableFuture<QueryProcessingResult> completed = new CompletableFuture<>();
+        CompletableFuture<String> pendingHyde = completed.thenApply(QueryProcessingResult::hydeDocument);
+
+        StreamState state = new StreamState();
+        IncrementalJsonObjectReader reader = parseJsonHelper.incrementalReader((field, value) -> {
+            switch (field) {
+                case "intents" -> state.intents = toIntents(value);
+                case "step_back_question" -> {
+                    state.stepBackReceived = true;
+                    state.stepBack = value.isNull() ? null : value.asText();
+                }
+                case "hyde_document" -> state.hyde = value.isNull() ? null : value.asText();
+                default -> {
+                }
+            }
+            if (!planReady.isDone() && state.intents != null && state.stepBackReceived) {
+                recordStreamStage("plan_ready", start);
+                log.info("Intents and step-back received, planning before HyDE is complete");
+                planReady.complete(new QueryProcessingResult(state.intents, state.stepBack, null, pendingHyde));
             }
+        });
+
+        // Fallback (blocking intent routing) runs off the reactor thread
+        geminiFlashClient.prompt()
+                .user(prompt)
+                .stream()
+                .content()
+                .subscribe(
+                        chunk -> state.append(reader, chunk),
+                        error -> Thread.ofVirtual().name("query-processing-stream").start(
+                                () -> finishStreaming(query, conversationHistory, state, reader, error,
+                                        planReady, completed, start)),
+                        () -> Thread.ofVirtual().name("query-processing-stream").start(
+                                () -> finishStreaming(query, conversationHistory, state, reader, null,
+                                        planReady, completed, start)));
+
+        return new StreamingQueryProcessing(planReady, completed);
+    }
+
+    /**
+     * Confident local routing to an intent whose pipeline needs neither
+     * step-back nor HyDE: no LLM call at all
+     */
+    private Optional<QueryProcessingResult> routeLocally(String query, String conversationHistory) {
+        return localIntentRouter.routeConfident(query, conversationHistory)
+                .filter(tasks -> tasks.stream().allMatch(task -> LOCAL_ONLY_INTENTS.contains(task.intent())))
+                .map(tasks -> new QueryProcessingResult(tasks, null, null));
+    }
 
-            // Parse to a lightweight DTO (inner class) and then map to
-            // QueryProcessingResult
-            CombinedExecuteRaw raw = objectMapper.readValue(clean, CombinedExecuteRaw.class);
+    private void finishStreaming(String query, String conversationHistory, StreamState state,
+            IncrementalJsonObjectReader reader, Throwable error,
+            CompletableFuture<QueryProcessingResult> planReady, CompletableFuture<QueryProcessingResult> completed,
+            long start) {
+        QueryProcessingResult result;
+        if (error != null) {
+            log.error("Error in streaming query processing, falling back to intent-only", error);
+            result = new QueryProcessingResult(analyzeIntent(query, conversationHistory), null, null);
+        } else if (reader.isComplete() && state.intents != null) {
+            result = new QueryProcessingResult(state.intents, state.stepBack, state.hyde);
+        } else {
+            // Stream ended without a readable object: same parsing as the blocking path
+            try {
+                result = toResult(state.fullText.toString(), query, conversationHistory);
+            } catch (Exception e) {
+                log.error("Error parsing streamed query processing, falling back to intent-only", e);
+                result = new QueryProcessingResult(analyzeIntent(query, conversationHistory), null, null);
+            }
+        }
 
-            List<IntentTask> intents = raw.intents() != null ? raw.intents()
-                    : analyzeIntent(query, conversationHistory);
-            String stepBack = raw.step_back_question();
-            String hydeDoc = raw.hyde_document();
+        recordStreamStage("complete", start);
+        if (!planReady.isDone()) {
+            planReady.complete(result);
+        }
+        completed.complete(result);
+    }
 
-            return new QueryProcessingResult(intents, stepBack, hydeDoc);
-        } catch (Exception e) {
-            log.error("Error in combined execute, falling back to intent-only", e);
+    private QueryProcessingResult toResult(String response, String query, String conversationHistory)
+            throws JsonProcessingException {
+        if (response == null || response.isBlank()) {
+            log.warn("Combined execute returned empty response, falling back to simple intent routing only");
+            // Fallback: just run intent analysis, no step-back / HyDE
             List<IntentTask> intents = analyzeIntent(query, conversationHistory);
             return new QueryProcessingResult(intents, null, null);
         }
+
+        // Parse to a lightweight DTO (inner class) and then map to
+        // QueryProcessingResult
+        CombinedExecuteRaw raw = parseJsonHelper.parseJsonResponse(response, CombinedExecuteRaw.class);
+
+        List<IntentTask> intents = raw.intents() != null ? raw.intents()
+                : analyzeIntent(query, conversationHistory);
+        String stepBack = raw.step_back_question();
+        String hydeDoc = raw.hyde_document();
+
+        return new QueryProcessingResult(intents, stepBack, hydeDoc);
+    }
+
+    private List<IntentTask> toIntents(JsonNode value) {
+        if (value == null || value.isNull()) {
+            return null;
+        }
+        try {
+            return parseJsonHelper.convert(value, new TypeReference<List<IntentTask>>() {
+            });
+        } catch (JsonProcessingException e) {
+            log.warn("Streamed intents are not valid, waiting for the full response: {}", e.getOriginalMessage());
+            return null;
+        }
+    }
+
+    private void recordStreamStage(String stage, long startNanos) {
+        Timer.builder("rag.query_processing.stream")
+                .description("Time from request to streamed query-processing milestones")
+                .tag("stage", stage)
+                .register(meterRegistry)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Fields of the combined JSON seen so far (written by the stream subscriber)
+     */
+    private static final class StreamState {
+        private final StringBuilder fullText = new StringBuilder();
+        private List<IntentTask> intents;
+        private boolean stepBackReceived;
+        private String stepBack;
+        private String hyde;
+        private boolean readerFailed;
+
+        private void append(IncrementalJsonObjectReader reader, String chunk) {
+            fullText.append(chunk);
+            if (readerFailed) {
+                return;
+            }
+            try {
+                reader.feed(chunk);
+            } catch (IOException e) {
+                // Malformed stream: the full text is parsed leniently at the end
+                readerFailed = true;
+                log.debug("Incremental parse failed, waiting for full response: {}", e.getMessage());
+            }
+        }
     }
 
     /**
@@ -260,15 +437,40 @@ public class QueryProcessingService {
             }
             """;
 
+    // Format templates, split once instead of String.format parsing them per call
+    private static final CompiledPrompt.FormatTemplate QUERY_ROUTING = PromptRegistry.registerFormat(
+            "query.routing", 1, QUERY_ROUTING_PROMPT, "query");
+    private static final CompiledPrompt.FormatTemplate STEP_BACK = PromptRegistry.registerFormat(
+            "query.step-back", 1, STEP_BACK_PROMPT, "query");
+    private static final CompiledPrompt.FormatTemplate HYDE = PromptRegistry.registerFormat(
+            "query.hyde", 1, HYDE_PROMPT, "query");
+    private static final CompiledPrompt.FormatTemplate MULTI_QUERY = PromptRegistry.registerFormat(
+            "query.multi-query", 1, MULTI_QUERY_PROMPT, "count", "query");
+    private static final CompiledPrompt.FormatTemplate ADVISORY_PLANNING = PromptRegistry.registerFormat(
+            "query.advisory-planning", 1, ADVISORY_PLANNING_PROMPT, "query", "count", "count");
+    private static final CompiledPrompt.FormatTemplate ADVISORY_ANALYSIS = PromptRegistry.registerFormat(
+            "query.advisory-analysis", 1, ADVISORY_ANALYSIS_PROMPT, "query");
+    private static final CompiledPrompt.FormatTemplate EXECUTE_COMBINED = PromptRegistry.registerFormat(
+            "query.combined", 1, EXECUTE_COMBINED_PROMPT, "query", "conversationHistory");
+
     /**
      * Routes the query by classifying user intent.
      * Determines whether RAG pipeline is needed or direct LLM response is
-     * sufficient.
+     * sufficient. Obvious queries are routed locally, the LLM only below the
+     * local confidence threshold.
      */
     public List<IntentTask> analyzeIntent(String query, String conversationHistory) {
+        return localIntentRouter.routeConfident(query, conversationHistory)
+                .orElseGet(() -> analyzeIntentWithLlm(query));
+    }
+
+    /**
+     * LLM routing call (also the baseline of the local router evaluation)
+     */
+    public List<IntentTask> analyzeIntentWithLlm(String query) {
         log.debug("Routing query: {}", query);
 
-        String prompt = String.format(QUERY_ROUTING_PROMPT, query);
+        String prompt = QUERY_ROUTING.format(query);
 
         try {
             String response = chatClient.prompt()
@@ -289,16 +491,10 @@ public class QueryProcessingService {
      */
     private List<IntentTask> parseRoutingResponse(String response, String query) {
         try {
-            // 1. Clean markdown
-            String cleanResponse = response.trim()
-                    .replace("```json", "")
-                    .replace("```", "")
-                    .trim();
-
-            if (cleanResponse.isEmpty() || cleanResponse.equals("[]"))
+            if (response == null || response.isBlank())
                 return List.of();
 
-            return objectMapper.readValue(cleanResponse, new TypeReference<List<IntentTask>>() {
+            return parseJsonHelper.parseJsonResponse(response, new TypeReference<List<IntentTask>>() {
             });
         } catch (Exception e) {
             log.error("Failed to parse routing response, defaulting to NON_FINANCIAL", e);
@@ -315,7 +511,7 @@ public class QueryProcessingService {
     public String transformWithStepBack(String query) {
         log.info("Applying step-back prompting to: {}", query);
 
-        String prompt = String.format(STEP_BACK_PROMPT, query);
+        String prompt = STEP_BACK.format(query);
 
         try {
             String response = chatClient.prompt()
@@ -338,7 +534,7 @@ public class QueryProcessingService {
     public String generateHypotheticalDocument(String query) {
         log.info("Generating hypothetical document for: {}", query);
 
-        String prompt = String.format(HYDE_PROMPT, query);
+        String prompt = HYDE.format(query);
 
         try {
             String response = chatClient.prompt()
@@ -358,19 +554,33 @@ public class QueryProcessingService {
     /**
      * Expands the query into multiple variations using Multi-Query technique.
      * Each variation emphasizes different aspects or uses alternative keywords.
+     * Streamed, so cancelling the request token (retrieval no longer needs the
+     * variants) closes the model call instead of letting it run to the end.
      */
     public List<String> expandQueryForExecutor(String query, int count) {
         log.info("Expanding query: {} into {} variations", query, count);
 
-        String prompt = String.format(MULTI_QUERY_PROMPT, count, query);
+        String prompt = MULTI_QUERY.format(count, query);
+        CancellationToken cancellation = RequestDeadline.cancellation();
+        Mono<Void> cancelled = Mono.create(sink -> {
+            CancellationToken.Registration registration = cancellation.onCancel(sink::success);
+            sink.onDispose(registration::close);
+        });
 
         try {
             String response = chatClient.prompt()
                     .user(prompt)
-                    .call()
-                    .content();
+                    .stream()
+                    .content()
+                    .takeUntilOther(cancelled)
+                    .collect(Collectors.joining())
+                    .block();
+            cancellation.throwIfCancelled();
 
             return parseExpandedQueries(response);
+        } catch (CancellationException e) {
+            log.debug("Query expansion cancelled: {}", e.getMessage());
+            return List.of();
         } catch (Exception e) {
             log.error("Error in query expansion", e);
             return List.of(query); // Return original query on error
@@ -413,7 +623,7 @@ public class QueryProcessingService {
         log.info("Planning advisory query for: {} | multiQueryCount={}", query, multiQueryCount);
 
         int safeCount = Math.max(1, multiQueryCount);
-        String prompt = String.format(ADVISORY_PLANNING_PROMPT, query, safeCount, safeCount);
+        String prompt = ADVISORY_PLANNING.format(query, safeCount, safeCount);
 
         try {
             String response = geminiFlashClient.prompt()
@@ -421,17 +631,12 @@ public class QueryProcessingService {
                     .call()
                     .content();
 
-            String cleanResponse = response.trim()
-                    .replace("```json", "")
-                    .replace("```", "")
-                    .trim();
-
-            if (cleanResponse.isEmpty()) {
+            if (response == null || response.isBlank()) {
                 log.warn("Advisory planning returned empty response, falling back to null");
                 return null;
             }
 
-            AdvisoryPlanningResult result = objectMapper.readValue(cleanResponse, AdvisoryPlanningResult.class);
+            AdvisoryPlanningResult result = parseJsonHelper.parseJsonResponse(response, AdvisoryPlanningResult.class);
             log.debug("Advisory planning result: {}", result);
             return result;
         } catch (Exception e) {
@@ -450,7 +655,7 @@ public class QueryProcessingService {
     public AdvisoryAnalysisResult analyzeAdvisoryQuery(String query) {
         log.info("Analyzing advisory query: {}", query);
 
-        String prompt = String.format(ADVISORY_ANALYSIS_PROMPT, query);
+        String prompt = advisoryAnalysisPrompt(query);
 
         try {
             String response = geminiFlashClient.prompt()
@@ -458,17 +663,12 @@ public class QueryProcessingService {
                     .call()
                     .content();
 
-            String cleanResponse = response.trim()
-                    .replace("```json", "")
-                    .replace("```", "")
-                    .trim();
-
-            if (cleanResponse.isEmpty()) {
+            if (response == null || response.isBlank()) {
                 log.warn("Advisory analysis returned empty response, falling back to null");
                 return null;
             }
 
-            AdvisoryAnalysisResult result = objectMapper.readValue(cleanResponse, AdvisoryAnalysisResult.class);
+            AdvisoryAnalysisResult result = parseJsonHelper.parseJsonResponse(response, AdvisoryAnalysisResult.class);
             log.debug("Advisory analysis result: {}", result);
             return result;
         } catch (Exception e) {
@@ -477,4 +677,8 @@ public class QueryProcessingService {
         }
     }
 
+    String advisoryAnalysisPrompt(String query) {
+        return ADVISORY_ANALYSIS.format(query);
+    }
+
 }
@@ -0,0 +1,191 @@
+package com.team14.chatbot.service.RagModules.query_processor;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.team14.chatbot.enums.QueryIntent;
+import com.team14.chatbot.helper.TokenEstimator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Starts the advisory analysis (a Gemini Flash call) in parallel with query
+ * processing when a cheap pre-signal suggests an advisory question: advisory
+ * keywords, or the local router's kNN vote for ADVISORY above
+ * {@code rag.speculative-advisory.min-confidence}.
+ *
+ * The kNN vote is the router's own decision for the query, shared with local
+ * routing (no extra embedding). Once intents are known the pipeline of a
+ * single ADVISORY intent adopts the result, otherwise it is discarded
+ * (interrupting the call if still running).
+ * Metrics: rag.advisory.speculative{outcome=adopted|wasted|missed},
+ * rag.advisory.speculative.saved (overlapped latency of adopted analyses),
+ * rag.advisory.speculative.wasted_tokens (estimated tokens of discarded ones).
+ */
+@Component
+@Slf4j
+public class SpeculativeAdvisoryAnalysis {
+
+    private final QueryProcessingService queryProcessingService;
+    private final LocalIntentRouter localIntentRouter;
+    private final TokenEstimator tokenEstimator;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    private final Timer savedTimer;
+    private final DistributionSummary wastedTokens;
+
+    @Value("${rag.speculative-advisory.enabled:true}")
+    private boolean enabled;
+
+    @Value("${rag.speculative-advisory.min-confidence:0.5}")
+    private double minConfidence;
+
+    public SpeculativeAdvisoryAnalysis(QueryProcessingService queryProcessingService,
+                                       LocalIntentRouter localIntentRouter, TokenEstimator tokenEstimator,
+                                       ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this.queryProcessingService = queryProcessingService;
+        this.localIntentRouter = localIntentRouter;
+        this.tokenEstimator = tokenEstimator;
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+        this.savedTimer = Timer.builder("rag.advisory.speculative.saved")
+                .description("Advisory analysis time overlapped with query processing")
+                .publishPercentiles(0.5, 0.95)
+                .register(meterRegistry);
+        this.wastedTokens = DistributionSummary.builder("rag.advisory.speculative.wasted_tokens")
+                .description("Estimated tokens of discarded speculative advisory analyses")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Speculation for one request; the pre-signal itself runs in background so
+     * the request path never waits for it
+     */
+    public Speculation start(String query) {
+        if (!enabled || query == null || query.isBlank()) {
+            return new Speculation(query, CompletableFuture.completedFuture(null));
+        }
+        Speculation speculation = new Speculation(query, new CompletableFuture<>());
+        speculation.thread = Thread.ofVirtual().name("advisory-speculation").start(() -> speculation.run());
+        return speculation;
+    }
+
+    private boolean looksAdvisory(String query) {
+        if (localIntentRouter.hasAdvisoryCue(query)) {
+            return true;
+        }
+        LocalIntentRouter.Decision decision = localIntentRouter.classify(query);
+        return decision.intent() == QueryIntent.ADVISORY && decision.confidence() >= minConfidence;
+    }
+
+    private void count(String outcome) {
+        Counter.builder("rag.advisory.speculative")
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    public final class Speculation {
+
+        private final String query;
+        private final CompletableFuture<AdvisoryAnalysisResult> result;
+        private final AtomicBoolean resolved = new AtomicBoolean();
+        private volatile Thread thread;
+        private volatile boolean llmStarted;
+        private volatile long llmStartNanos;
+        private volatile long llmEndNanos;
+
+        private Speculation(String query, CompletableFuture<AdvisoryAnalysisResult> result) {
+            this.query = query;
+            this.result = result;
+        }
+
+        private void run() {
+            try {
+                if (!looksAdvisory(query)) {
+                    result.complete(null);
+                    return;
+                }
+                // Flag first, then check: a concurrent discard() sees one or the other
+                llmStartNanos = System.nanoTime();
+                llmStarted = true;
+                if (resolved.get()) {
+                    llmEndNanos = llmStartNanos;
+                    result.complete(null);
+                    return;
+                }
+                log.info("Speculative advisory analysis started");
+                AdvisoryAnalysisResult analysis = queryProcessingService.analyzeAdvisoryQuery(query);
+                llmEndNanos = System.nanoTime();
+                result.complete(analysis);
+            } catch (Exception e) {
+                llmEndNanos = System.nanoTime();
+                result.complete(null);
+            }
+        }
+
+        /**
+         * Speculative analysis for the advisory pipeline of this query (the
+         * only ADVISORY intent, whatever text the router gave it); empty when
+         * nothing was speculated (or it failed) and the caller should analyze
+         * sequentially
+         */
+        public Optional<AdvisoryAnalysisResult> adopt() {
+            if (!resolved.compareAndSet(false, true)) {
+                return Optional.empty();
+            }
+
+            long adoptNanos = System.nanoTime();
+            AdvisoryAnalysisResult analysis = result.join();
+            if (!llmStarted) {
+                if (enabled) {
+                    count("missed");
+                }
+                return Optional.empty();
+            }
+
+            // Part of the call that ran before the pipeline needed it
+            long overlapNanos = Math.max(0, Math.min(adoptNanos, llmEndNanos) - llmStartNanos);
+            savedTimer.record(overlapNanos, TimeUnit.NANOSECONDS);
+            count("adopted");
+            log.info("Speculative advisory analysis adopted, saved {} ms", overlapNanos / 1_000_000);
+            return Optional.ofNullable(analysis);
+        }
+
+        /**
+         * Not needed (no ADVISORY intent, request ended): cancel and account the
+         * tokens spent. No-op once adopted.
+         */
+        public void discard() {
+            if (!resolved.compareAndSet(false, true) || !llmStarted) {
+                return;
+            }
+            boolean finished = result.isDone();
+            if (!finished && thread != null) {
+                thread.interrupt();
+            }
+
+            int tokens = tokenEstimator.estimate(queryProcessingService.advisoryAnalysisPrompt(query));
+            AdvisoryAnalysisResult analysis = finished ? result.getNow(null) : null;
+            if (analysis != null) {
+                try {
+                    tokens += tokenEstimator.estimate(objectMapper.writeValueAsString(analysis));
+                } catch (Exception e) {
+                    log.debug("Could not estimate advisory analysis tokens", e);
+                }
+            }
+            wastedTokens.record(tokens);
+            count("wasted");
+            log.info("Speculative advisory analysis discarded ({}, ~{} tokens wasted)",
+                    finished ? "completed" : "cancelled", tokens);
+        }
+    }
+}
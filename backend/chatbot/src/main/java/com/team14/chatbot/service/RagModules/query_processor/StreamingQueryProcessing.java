@@ -0,0 +1,15 @@
+package com.team14.chatbot.service.RagModules.query_processor;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Handle of a streamed combined query-processing call.
+ *
+ * planReady completes as soon as intents and step_back_question have been
+ * streamed (HyDE may still be generating), completed once the whole JSON has
+ * arrived. Both always complete, falling back like the blocking execute().
+ */
+public record StreamingQueryProcessing(
+        CompletableFuture<QueryProcessingResult> planReady,
+        CompletableFuture<QueryProcessingResult> completed) {
+}
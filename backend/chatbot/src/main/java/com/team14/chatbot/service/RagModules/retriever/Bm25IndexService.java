@@ -2,7 +2,9 @@ package com.team14.chatbot.service.RagModules.retriever;
 
 import lombok.extern.slf4j.Slf4j;
 import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
@@ -24,9 +26,12 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 @Service
 @Slf4j
@@ -38,9 +43,11 @@ public class Bm25IndexService {
     private IndexSearcher indexSearcher;
     private IndexReader indexReader;
     private final Object indexLock = new Object();
+    private final KnowledgeBaseVersionService knowledgeBaseVersionService;
 
-    public Bm25IndexService(JdbcTemplate jdbcTemplate) {
+    public Bm25IndexService(JdbcTemplate jdbcTemplate, KnowledgeBaseVersionService knowledgeBaseVersionService) {
         this.jdbcTemplate = jdbcTemplate;
+        this.knowledgeBaseVersionService = knowledgeBaseVersionService;
     }
 
     @PostConstruct
@@ -89,8 +96,11 @@ public class Bm25IndexService {
                             "\n" +
                             "    c.name as doc_type  FROM langchain_pg_embedding e JOIN langchain_pg_collection c ON e.collection_id = c.uuid";
                     List<Map<String, Object>> rows = jdbcTemplate.queryForList(sql);
+                    // Order-independent fingerprint of the indexed chunks (KB version check)
+                    long fingerprint = rows.size();
 
                     for (Map<String, Object> row : rows) {
+                        fingerprint += 31L * row.get("id").hashCode() + row.get("content").hashCode();
                         org.apache.lucene.document.Document doc = new org.apache.lucene.document.Document();
                         doc.add(new StringField("id", row.get("id").toString(), Field.Store.YES));
                         doc.add(new TextField("content", row.get("content").toString(), Field.Store.YES));
@@ -105,6 +115,7 @@ public class Bm25IndexService {
 
                     writer.commit();
                     log.info("Indexed {} documents", rows.size());
+                    knowledgeBaseVersionService.updateFingerprint(fingerprint, "BM25 index");
                 }
 
                 // Create new searcher
@@ -169,58 +180,168 @@ public class Bm25IndexService {
             }
 
             try {
-                String docTypeFilter = "";
-                switch (retrievalType) {
-                    case KNOWLEDGE_RETRIEVE:
-                        docTypeFilter = "gemini_knowledge_base";
-                        break;
-                    case CASE_STUDIES_RETRIEVE:
-                        docTypeFilter = "advisory_case_studies";
-                        break;
-                    default:
-                        break;
-                }
                 QueryParser parser = new QueryParser("content", analyzer);
                 Query contentQuery = parser.parse(QueryParser.escape(queryText));
-                Query typeQuery = new TermQuery(new org.apache.lucene.index.Term("doc_type", docTypeFilter));
-                BooleanQuery.Builder booleanQueryBuilder = new BooleanQuery.Builder();
-                booleanQueryBuilder.add(contentQuery, org.apache.lucene.search.BooleanClause.Occur.MUST);   // Phải khớp nội dung
-                booleanQueryBuilder.add(typeQuery, org.apache.lucene.search.BooleanClause.Occur.FILTER);    // VÀ phải đúng loại này
+                Query finalQuery = withTypeFilter(contentQuery, retrievalType);
+
+                TopDocs topDocs = indexSearcher.search(finalQuery, topK);
+                List<org.springframework.ai.document.Document> results = toDocuments(topDocs.scoreDocs);
+
+                log.debug("BM25 search returned {} results for query: {}", results.size(), queryText);
+                return results;
+            } catch (ParseException | IOException e) {
+                log.error("Error during BM25 search", e);
+                return Collections.emptyList();
+            }
+        }
+    }
+
+    /**
+     * Search with a weighted term query (e.g. an RM3 expanded query model)
+     *
+     * @param weightedTerms Analyzed term -> weight
+     */
+    public List<org.springframework.ai.document.Document> searchWeighted(Map<String, Float> weightedTerms,
+            RetrievalType retrievalType, int topK) {
+        synchronized (indexLock) {
+            if (indexSearcher == null || weightedTerms.isEmpty()) {
+                return Collections.emptyList();
+            }
 
-                Query finalQuery = booleanQueryBuilder.build();
+            try {
+                BooleanQuery.Builder termsQuery = new BooleanQuery.Builder();
+                weightedTerms.forEach((term, weight) -> termsQuery.add(
+                        new BoostQuery(new TermQuery(new org.apache.lucene.index.Term("content", term)), weight),
+                        org.apache.lucene.search.BooleanClause.Occur.SHOULD));
+                Query finalQuery = withTypeFilter(termsQuery.build(), retrievalType);
 
                 TopDocs topDocs = indexSearcher.search(finalQuery, topK);
-                ScoreDoc[] hits = topDocs.scoreDocs;
+                return toDocuments(topDocs.scoreDocs);
+            } catch (IOException e) {
+                log.error("Error during weighted BM25 search", e);
+                return Collections.emptyList();
+            }
+        }
+    }
+
+    /**
+     * RM3 pseudo-relevance feedback: expand the query with the terms that best
+     * characterize its top BM25 hits (no LLM call).
+     *
+     * RM1(w) = sum over feedback docs D of P(D|q) * P(w|D), damped by idf(w) since
+     * the analyzer keeps Vietnamese stop words; the query model interpolates the
+     * original terms (weight {@code originalWeight}) with the top expansion terms.
+     *
+     * @return Term -> weight, empty if the query has no BM25 hits
+     */
+    public Map<String, Float> rm3Expansion(String queryText, RetrievalType retrievalType, int feedbackDocs,
+            int expansionTerms, float originalWeight) {
+        synchronized (indexLock) {
+            if (indexSearcher == null) {
+                return Collections.emptyMap();
+            }
+
+            try {
+                QueryParser parser = new QueryParser("content", analyzer);
+                Query finalQuery = withTypeFilter(parser.parse(QueryParser.escape(queryText)), retrievalType);
+                ScoreDoc[] hits = indexSearcher.search(finalQuery, feedbackDocs).scoreDocs;
+                if (hits.length == 0) {
+                    return Collections.emptyMap();
+                }
 
-                List<org.springframework.ai.document.Document> results = new ArrayList<>();
+                double scoreSum = 0;
                 for (ScoreDoc hit : hits) {
-                    org.apache.lucene.document.Document luceneDoc = indexSearcher.storedFields().document(hit.doc);
-                    String content = luceneDoc.get("content");
-                    String id = luceneDoc.get("id");
-                    String metadataStr = luceneDoc.get("metadata");
+                    scoreSum += hit.score;
+                }
 
-                    // Convert to Spring AI Document
-                    Map<String, Object> metadata = new HashMap<>();
-                    metadata.put("id", id);
-                    if (metadataStr != null && !metadataStr.isEmpty()) {
-                        // Parse JSONB metadata if needed
-                        metadata.put("bm25_score", hit.score);
+                // Relevance model over the feedback documents
+                Map<String, Double> relevanceModel = new HashMap<>();
+                for (ScoreDoc hit : hits) {
+                    List<String> docTerms = analyzeTerms(indexSearcher.storedFields().document(hit.doc).get("content"));
+                    if (docTerms.isEmpty()) {
+                        continue;
                     }
+                    double docWeight = hit.score / scoreSum;
+                    Map<String, Integer> termFrequencies = new HashMap<>();
+                    docTerms.forEach(term -> termFrequencies.merge(term, 1, Integer::sum));
+                    termFrequencies.forEach((term, tf) -> relevanceModel.merge(term,
+                            docWeight * tf / docTerms.size(), Double::sum));
+                }
 
-                    org.springframework.ai.document.Document springDoc = new org.springframework.ai.document.Document(
-                            content, metadata);
-                    results.add(springDoc);
+                Set<String> queryTerms = new LinkedHashSet<>(analyzeTerms(queryText));
+                int numDocs = indexReader.numDocs();
+                List<Map.Entry<String, Double>> expansion = new ArrayList<>();
+                for (Map.Entry<String, Double> entry : relevanceModel.entrySet()) {
+                    String term = entry.getKey();
+                    if (queryTerms.contains(term) || term.length() < 2 || term.chars().allMatch(Character::isDigit)) {
+                        continue;
+                    }
+                    int df = indexReader.docFreq(new org.apache.lucene.index.Term("content", term));
+                    double idf = Math.log(1.0 + (double) numDocs / Math.max(1, df));
+                    expansion.add(Map.entry(term, entry.getValue() * idf));
+                }
+                expansion.sort(Map.Entry.<String, Double>comparingByValue().reversed());
+                expansion = expansion.subList(0, Math.min(expansionTerms, expansion.size()));
+                double expansionSum = expansion.stream().mapToDouble(Map.Entry::getValue).sum();
+
+                // RM3 interpolation
+                Map<String, Float> queryModel = new LinkedHashMap<>();
+                for (String term : queryTerms) {
+                    queryModel.put(term, originalWeight / queryTerms.size());
+                }
+                for (Map.Entry<String, Double> entry : expansion) {
+                    queryModel.merge(entry.getKey(),
+                            (float) ((1 - originalWeight) * entry.getValue() / expansionSum), Float::sum);
                 }
 
-                log.debug("BM25 search returned {} results for query: {}", results.size(), queryText);
-                return results;
+                log.debug("RM3 expanded query model: {}", queryModel);
+                return queryModel;
             } catch (ParseException | IOException e) {
-                log.error("Error during BM25 search", e);
-                return Collections.emptyList();
+                log.error("Error during RM3 expansion", e);
+                return Collections.emptyMap();
             }
         }
     }
 
+    private Query withTypeFilter(Query contentQuery, RetrievalType retrievalType) {
+        String docTypeFilter = "";
+        switch (retrievalType) {
+            case KNOWLEDGE_RETRIEVE:
+                docTypeFilter = "gemini_knowledge_base";
+                break;
+            case CASE_STUDIES_RETRIEVE:
+                docTypeFilter = "advisory_case_studies";
+                break;
+            default:
+                break;
+        }
+        Query typeQuery = new TermQuery(new org.apache.lucene.index.Term("doc_type", docTypeFilter));
+        BooleanQuery.Builder booleanQueryBuilder = new BooleanQuery.Builder();
+        booleanQueryBuilder.add(contentQuery, org.apache.lucene.search.BooleanClause.Occur.MUST);   // Phải khớp nội dung
+        booleanQueryBuilder.add(typeQuery, org.apache.lucene.search.BooleanClause.Occur.FILTER);    // VÀ phải đúng loại này
+        return booleanQueryBuilder.build();
+    }
+
+    private List<org.springframework.ai.document.Document> toDocuments(ScoreDoc[] hits) throws IOException {
+        List<org.springframework.ai.document.Document> results = new ArrayList<>();
+        for (ScoreDoc hit : hits) {
+            org.apache.lucene.document.Document luceneDoc = indexSearcher.storedFields().document(hit.doc);
+            String content = luceneDoc.get("content");
+            String id = luceneDoc.get("id");
+
+            // Convert to Spring AI Document
+            Map<String, Object> metadata = new HashMap<>();
+            metadata.put("id", id);
+            // Score of every hit, also for chunks stored without metadata
+            metadata.put("bm25_score", hit.score);
+
+            org.springframework.ai.document.Document springDoc = new org.springframework.ai.document.Document(
+                    content, metadata);
+            results.add(springDoc);
+        }
+        return results;
+    }
+
     /**
      * Get document by ID from index
      */
@@ -255,4 +376,26 @@ public class Bm25IndexService {
             return Optional.empty();
         }
     }
+
+    /**
+     * Tokenize text with the same analyzer used by the BM25 index
+     * (lower-cased terms, in order of appearance)
+     */
+    public List<String> analyzeTerms(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return terms;
+        }
+        try (TokenStream tokenStream = analyzer.tokenStream("content", text)) {
+            CharTermAttribute termAttribute = tokenStream.addAttribute(CharTermAttribute.class);
+            tokenStream.reset();
+            while (tokenStream.incrementToken()) {
+                terms.add(termAttribute.toString());
+            }
+            tokenStream.end();
+        } catch (IOException e) {
+            log.error("Error analyzing text", e);
+        }
+        return terms;
+    }
 }
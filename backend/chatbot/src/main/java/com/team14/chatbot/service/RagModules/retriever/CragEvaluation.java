@@ -24,5 +24,6 @@ public class CragEvaluation {
     private String action;
     private List<Document> evaluatedDocuments;
     private String newQuery; // For AMBIGUOUS case
+    private String decidedBy; // LOCAL (pre-classifier), LLM or FALLBACK
 }
 
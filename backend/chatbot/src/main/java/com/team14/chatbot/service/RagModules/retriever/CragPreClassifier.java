@@ -0,0 +1,111 @@
+package com.team14.chatbot.service.RagModules.retriever;
+
+import com.team14.chatbot.configuration.CragConfig;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Local CRAG pre-classifier: labels the retrieved documents GOOD / BAD /
+ * AMBIGUOUS from rerank scores, dense/BM25 agreement and lexical coverage of the
+ * query. Only AMBIGUOUS results need the LLM grader. Rerank score thresholds
+ * only apply to the rerankers they were calibrated on (calibrated-rerankers).
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class CragPreClassifier {
+
+    private final CragConfig cragConfig;
+    private final Bm25IndexService bm25IndexService;
+
+    /**
+     * Signals the decision is based on (also logged with LLM verdicts for calibration)
+     *
+     * @param topRerankScore best rerank score, or -1 when the documents were not reranked
+     * @param reranker       reranker that gave the best score (metadata "reranker"), null if none
+     */
+    public record Features(double topRerankScore, String reranker, double agreement, double coverage) {
+    }
+
+    public Features extractFeatures(String query, List<Document> documents) {
+        double topRerank = -1;
+        String reranker = null;
+        int bothLegs = 0;
+        for (Document doc : documents) {
+            if (doc.getMetadata().get("rerank_score") instanceof Number n && n.doubleValue() > topRerank) {
+                topRerank = n.doubleValue();
+                reranker = doc.getMetadata().get("reranker") instanceof String name ? name : null;
+            }
+            if (number(doc.getMetadata().get("dense_score")) > 0 && number(doc.getMetadata().get("sparse_score")) > 0) {
+                bothLegs++;
+            }
+        }
+        double agreement = documents.isEmpty() ? 0.0 : (double) bothLegs / documents.size();
+
+        // Best share of query terms found in a single document
+        Set<String> queryTerms = new HashSet<>(bm25IndexService.analyzeTerms(query));
+        double coverage = 0.0;
+        if (!queryTerms.isEmpty()) {
+            for (Document doc : documents) {
+                Set<String> covered = new HashSet<>(bm25IndexService.analyzeTerms(doc.getText()));
+                covered.retainAll(queryTerms);
+                coverage = Math.max(coverage, (double) covered.size() / queryTerms.size());
+            }
+        }
+        return new Features(topRerank, reranker, agreement, coverage);
+    }
+
+    /**
+     * Local label; AMBIGUOUS means "ask the LLM grader"
+     */
+    public CragEvaluation.DocumentQuality classify(Features features) {
+        CragConfig.PreClassifier config = cragConfig.getPreClassifier();
+        if (!config.isEnabled()) {
+            return CragEvaluation.DocumentQuality.AMBIGUOUS;
+        }
+
+        boolean reranked = features.topRerankScore() >= 0;
+        if (reranked && !isCalibrated(config, features.reranker())) {
+            // Thang điểm khác (vd. sigmoid của GBDT local): ngưỡng rerank không áp dụng được
+            log.debug("Rerank scores from uncalibrated reranker {}, leaving CRAG to the LLM", features.reranker());
+            return CragEvaluation.DocumentQuality.AMBIGUOUS;
+        }
+        boolean strongScore = reranked
+                ? features.topRerankScore() >= config.getGoodMinRerankScore()
+                : features.agreement() >= config.getGoodMinAgreement();
+        if (strongScore && features.coverage() >= config.getGoodMinCoverage()) {
+            return CragEvaluation.DocumentQuality.GOOD;
+        }
+
+        boolean weakScore = reranked
+                ? features.topRerankScore() <= config.getBadMaxRerankScore()
+                : features.agreement() == 0.0;
+        if (weakScore && features.coverage() <= config.getBadMaxCoverage()) {
+            return CragEvaluation.DocumentQuality.BAD;
+        }
+
+        return CragEvaluation.DocumentQuality.AMBIGUOUS;
+    }
+
+    public double auditSampleRate() {
+        return cragConfig.getPreClassifier().isEnabled() ? cragConfig.getPreClassifier().getAuditSampleRate() : 0.0;
+    }
+
+    private static boolean isCalibrated(CragConfig.PreClassifier config, String reranker) {
+        if (reranker == null) {
+            return false;
+        }
+        int colon = reranker.indexOf(':');
+        return config.getCalibratedRerankers().contains(colon < 0 ? reranker : reranker.substring(0, colon));
+    }
+
+    private double number(Object value) {
+        return value instanceof Number n ? n.doubleValue() : 0.0;
+    }
+}
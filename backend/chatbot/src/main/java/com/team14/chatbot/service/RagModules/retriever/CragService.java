@@ -1,6 +1,15 @@
 package com.team14.chatbot.service.RagModules.retriever;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.team14.chatbot.helper.ParseJsonHelper;
+import com.team14.chatbot.helper.RequestDeadline;
+import com.team14.chatbot.service.RagModules.generation.CompiledPrompt;
+import com.team14.chatbot.service.RagModules.generation.PromptRegistry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.messages.Message;
 import org.springframework.ai.chat.messages.UserMessage;
@@ -10,19 +19,42 @@ import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
 
 @Service
 @Slf4j
 //@RequiredArgsConstructor
 public class CragService {
 
+    // LLM verdicts + local features, for offline calibration of the pre-classifier
+    private static final Logger SAMPLES = LoggerFactory.getLogger("crag.samples");
+
+    private static final List<String> KNOWN_ACTIONS = List.of("SEND_TO_GENERATION", "ACTIVE_RETRIEVAL", "SKIP_RAG");
+
     private final ChatClient chatClient;
+    private final CragPreClassifier preClassifier;
+    private final CragVerdictCache verdictCache;
+    private final MeterRegistry meterRegistry;
+    private final ObjectMapper objectMapper;
+    private final ParseJsonHelper parseJsonHelper;
 
-    public CragService(@Qualifier("geminiFlashClient") ChatClient chatClient) {
+    public CragService(@Qualifier("geminiFlashClient") ChatClient chatClient,
+                       CragPreClassifier preClassifier,
+                       CragVerdictCache verdictCache,
+                       MeterRegistry meterRegistry,
+                       ObjectMapper objectMapper,
+                       ParseJsonHelper parseJsonHelper) {
         this.chatClient = chatClient;
+        this.preClassifier = preClassifier;
+        this.verdictCache = verdictCache;
+        this.meterRegistry = meterRegistry;
+        this.objectMapper = objectMapper;
+        this.parseJsonHelper = parseJsonHelper;
     }
 
     @Value("${crag.max-depth:2}")
@@ -69,6 +101,12 @@ public class CragService {
         - Chỉ đánh giá BAD khi chắc chắn không có tài liệu nào liên quan
         """;
 
+    // Bump the version when CRAG_PROMPT_BASE changes (invalidates cached verdicts)
+    private static final CompiledPrompt.FormatTemplate CRAG_PROMPT = PromptRegistry.registerFormat(
+            "crag.evaluate", 1, CRAG_PROMPT_BASE + "\n\nCâu hỏi: %s\n\nTài liệu cần đánh giá:\n%s",
+            "query", "documents");
+    static final String CRAG_PROMPT_VERSION = CRAG_PROMPT.key();
+
     /**
      * Evaluate documents using CRAG (Corrective Retrieval Augmented Generation)
      * @param query The original user query
@@ -85,16 +123,66 @@ public class CragService {
                     .build();
         }
 
+        // Same query + same documents already graded (this request or cached)
+        Optional<CragEvaluation> known = verdictCache.get(query, documents, CRAG_PROMPT_VERSION);
+        if (known.isPresent()) {
+            log.info("CRAG verdict reused: quality={}, source={}", known.get().getQuality(), known.get().getDecidedBy());
+            return known.get();
+        }
+
+        // Local pre-classifier first, LLM grader only for the uncertain band
+        CragPreClassifier.Features features = preClassifier.extractFeatures(query, documents);
+        CragEvaluation.DocumentQuality localQuality = preClassifier.classify(features);
+        if (localQuality != CragEvaluation.DocumentQuality.AMBIGUOUS) {
+            log.info("CRAG decided locally: quality={}, features={}", localQuality, features);
+            recordDecision("local", localQuality);
+            maybeAudit(query, documents, features, localQuality);
+            CragEvaluation local = CragEvaluation.builder()
+                    .quality(localQuality)
+                    .reasoning("Phân loại local: " + features)
+                    .action(mapQualityToAction(localQuality))
+                    .evaluatedDocuments(documents)
+                    .decidedBy("LOCAL")
+                    .build();
+            verdictCache.put(query, documents, CRAG_PROMPT_VERSION, local);
+            return local;
+        }
+
+        CragEvaluation evaluation = evaluateWithLlm(query, documents);
+        boolean graded = "LLM".equals(evaluation.getDecidedBy());
+        recordDecision(graded ? "llm" : "fallback", evaluation.getQuality());
+        if (graded) {
+            logSample(features, evaluation.getQuality(), "llm");
+            verdictCache.put(query, documents, CRAG_PROMPT_VERSION, evaluation);
+        }
+        return evaluation;
+    }
+
+    /**
+     * Whether evaluating these documents will cost an LLM round trip: no
+     * memoized/cached verdict and the local pre-classifier cannot decide
+     */
+    public boolean needsLlmGrading(String query, List<Document> documents) {
+        if (documents.isEmpty() || verdictCache.get(query, documents, CRAG_PROMPT_VERSION).isPresent()) {
+            return false;
+        }
+        return preClassifier.classify(preClassifier.extractFeatures(query, documents))
+                == CragEvaluation.DocumentQuality.AMBIGUOUS;
+    }
+
+    /**
+     * Grade documents with the LLM (full CRAG prompt)
+     */
+    private CragEvaluation evaluateWithLlm(String query, List<Document> documents) {
         log.info("Evaluating {} documents with CRAG for query: {}", documents.size(), query);
+        RequestDeadline.throwIfCancelled();
 
         try {
             // Format documents for prompt
             String documentsText = formatDocumentsForPrompt(documents);
 
             // Build prompt string directly to avoid template parsing issues
-            String promptText = CRAG_PROMPT_BASE + "\n\n" +
-                    "Câu hỏi: " + query + "\n\n" +
-                    "Tài liệu cần đánh giá:\n" + documentsText;
+            String promptText = CRAG_PROMPT.format(query, documentsText);
 
             // Create prompt without template
             Message systemMessage = new org.springframework.ai.chat.messages.SystemMessage(promptText);
@@ -108,6 +196,7 @@ public class CragService {
 
             // Parse response
             CragEvaluation evaluation = parseCragResponse(response, documents);
+            evaluation.setDecidedBy("LLM");
             
             log.info("CRAG evaluation: quality={}, action={}, reasoning={}", 
                     evaluation.getQuality(), evaluation.getAction(), evaluation.getReasoning());
@@ -115,6 +204,7 @@ public class CragService {
             return evaluation;
 
         } catch (Exception e) {
+            RequestDeadline.rethrowIfCancellation(e);
             log.error("Error in CRAG evaluation", e);
             // Fallback: assume documents are good
             return CragEvaluation.builder()
@@ -122,10 +212,59 @@ public class CragService {
                     .reasoning("Lỗi trong quá trình đánh giá, mặc định coi là tốt")
                     .action("SEND_TO_GENERATION")
                     .evaluatedDocuments(documents)
+                    .decidedBy("FALLBACK")
                     .build();
         }
     }
 
+    /**
+     * Share decided locally = rag.crag.decisions{source=local} / all decisions
+     */
+    private void recordDecision(String source, CragEvaluation.DocumentQuality quality) {
+        Counter.builder("rag.crag.decisions")
+                .tag("source", source)
+                .tag("quality", quality.name())
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * For a sample of local decisions, still ask the LLM in background and log
+     * both verdicts (detects threshold drift)
+     */
+    private void maybeAudit(String query, List<Document> documents, CragPreClassifier.Features features,
+            CragEvaluation.DocumentQuality localQuality) {
+        if (ThreadLocalRandom.current().nextDouble() >= preClassifier.auditSampleRate()) {
+            return;
+        }
+        Thread.ofVirtual().name("crag-audit").start(() -> {
+            CragEvaluation llm = evaluateWithLlm(query, documents);
+            if ("LLM".equals(llm.getDecidedBy())) {
+                Counter.builder("rag.crag.local.audit")
+                        .tag("agreement", llm.getQuality() == localQuality ? "match" : "mismatch")
+                        .register(meterRegistry)
+                        .increment();
+                logSample(features, llm.getQuality(), "audit_" + localQuality.name());
+            }
+        });
+    }
+
+    private void logSample(CragPreClassifier.Features features, CragEvaluation.DocumentQuality llmQuality,
+            String source) {
+        try {
+            Map<String, Object> sample = new LinkedHashMap<>();
+            sample.put("source", source);
+            sample.put("top_rerank_score", features.topRerankScore());
+            sample.put("reranker", features.reranker());
+            sample.put("agreement", features.agreement());
+            sample.put("coverage", features.coverage());
+            sample.put("llm_quality", llmQuality.name());
+            SAMPLES.info("CRAG_SAMPLE {}", objectMapper.writeValueAsString(sample));
+        } catch (Exception e) {
+            log.debug("Could not log CRAG sample", e);
+        }
+    }
+
     /**
      * Format documents for prompt
      */
@@ -140,30 +279,25 @@ public class CragService {
         return sb.toString();
     }
 
+    /**
+     * JSON verdict of the CRAG prompt
+     */
+    record CragVerdictJson(
+            CragEvaluation.DocumentQuality quality,
+            String reasoning,
+            String action,
+            String newQuery) {
+    }
+
     /**
      * Parse CRAG LLM response
      */
     private CragEvaluation parseCragResponse(String response, List<Document> documents) {
-        try {
-            // Try to extract JSON from response
-            String json = extractJsonFromResponse(response);
-            
-            // Simple JSON parsing (for production, use proper JSON parser)
-            CragEvaluation.DocumentQuality quality = extractQuality(json);
-            String reasoning = extractField(json, "reasoning");
-            String action = extractAction(json);
-            String newQuery = extractField(json, "newQuery");
+        Optional<CragVerdictJson> verdict = parseJsonHelper.tryParse(response, CragVerdictJson.class)
+                .filter(v -> v.quality() != null);
 
-            return CragEvaluation.builder()
-                    .quality(quality)
-                    .reasoning(reasoning)
-                    .action(action)
-                    .newQuery(newQuery)
-                    .evaluatedDocuments(documents)
-                    .build();
-
-        } catch (Exception e) {
-            log.warn("Failed to parse CRAG response, using fallback", e);
+        if (verdict.isEmpty()) {
+            log.warn("Failed to parse CRAG response, using fallback: {}", response);
             // Fallback parsing
             CragEvaluation.DocumentQuality quality = inferQualityFromText(response);
             return CragEvaluation.builder()
@@ -173,153 +307,30 @@ public class CragService {
                     .evaluatedDocuments(documents)
                     .build();
         }
-    }
-
-    /**
-     * Extract JSON from response (handles cases where LLM adds extra text)
-     */
-    private String extractJsonFromResponse(String response) {
-        // Try to find JSON object - match from first { to last }
-        Pattern pattern = Pattern.compile("\\{[^{}]*(?:\\{[^{}]*\\}[^{}]*)*\\}", Pattern.DOTALL);
-        Matcher matcher = pattern.matcher(response);
-        if (matcher.find()) {
-            String json = matcher.group();
-            log.debug("Extracted JSON from response: {}", json);
-            return json;
-        }
-        
-        // Fallback: try simpler pattern
-        pattern = Pattern.compile("\\{.*?\\}", Pattern.DOTALL);
-        matcher = pattern.matcher(response);
-        if (matcher.find()) {
-            String json = matcher.group();
-            log.debug("Extracted JSON (simple pattern): {}", json);
-            return json;
-        }
-        
-        log.warn("Could not extract JSON from response, using full response: {}", response);
-        return response;
-    }
-
-    /**
-     * Extract quality from JSON
-     */
-    private CragEvaluation.DocumentQuality extractQuality(String json) {
-        // Try multiple patterns to catch different JSON formats
-        String lowerJson = json.toLowerCase();
-        
-        // Check for GOOD
-        if (json.contains("\"quality\":\"GOOD\"") || 
-            json.contains("'quality':'GOOD'") ||
-            json.contains("\"quality\" : \"GOOD\"") ||
-            json.contains("\"quality\": \"GOOD\"") ||
-            lowerJson.contains("\"quality\":\"good\"") ||
-            lowerJson.contains("quality: good") ||
-            lowerJson.contains("\"quality\": good")) {
-            log.debug("Extracted quality: GOOD");
-            return CragEvaluation.DocumentQuality.GOOD;
-        } 
-        
-        // Check for AMBIGUOUS
-        if (json.contains("\"quality\":\"AMBIGUOUS\"") || 
-            json.contains("'quality':'AMBIGUOUS'") ||
-            json.contains("\"quality\" : \"AMBIGUOUS\"") ||
-            json.contains("\"quality\": \"AMBIGUOUS\"") ||
-            lowerJson.contains("\"quality\":\"ambiguous\"") ||
-            lowerJson.contains("quality: ambiguous") ||
-            lowerJson.contains("\"quality\": ambiguous")) {
-            log.debug("Extracted quality: AMBIGUOUS");
-            return CragEvaluation.DocumentQuality.AMBIGUOUS;
-        } 
-        
-        // Check for BAD
-        if (json.contains("\"quality\":\"BAD\"") || 
-            json.contains("'quality':'BAD'") ||
-            json.contains("\"quality\" : \"BAD\"") ||
-            json.contains("\"quality\": \"BAD\"") ||
-            lowerJson.contains("\"quality\":\"bad\"") ||
-            lowerJson.contains("quality: bad") ||
-            lowerJson.contains("\"quality\": bad")) {
-            log.debug("Extracted quality: BAD");
-            return CragEvaluation.DocumentQuality.BAD;
-        }
-        
-        // If no match found, log warning and try fallback
-        log.warn("Could not extract quality from JSON, trying fallback. JSON: {}", json);
-        return inferQualityFromText(json);
-    }
 
-    /**
-     * Extract field value from JSON
-     */
-    private String extractField(String json, String fieldName) {
-        Pattern pattern = Pattern.compile("\"" + fieldName + "\"\\s*:\\s*\"([^\"]+)\"");
-        Matcher matcher = pattern.matcher(json);
-        if (matcher.find()) {
-            return matcher.group(1);
-        }
-        return "";
+        CragVerdictJson json = verdict.get();
+        return CragEvaluation.builder()
+                .quality(json.quality())
+                .reasoning(json.reasoning() != null ? json.reasoning() : "")
+                .action(normalizeAction(json.action(), json.quality()))
+                .newQuery(json.newQuery())
+                .evaluatedDocuments(documents)
+                .build();
     }
 
     /**
-     * Extract action from JSON
+     * Known action name contained in the LLM value, otherwise derived from quality
      */
-    private String extractAction(String json) {
-        // Try to extract using regex pattern (more reliable)
-        String action = extractField(json, "action");
-        if (!action.isEmpty()) {
-            String upperAction = action.toUpperCase();
-            if (upperAction.contains("SEND_TO_GENERATION") || upperAction.equals("SEND_TO_GENERATION")) {
-                log.debug("Extracted action: SEND_TO_GENERATION");
-                return "SEND_TO_GENERATION";
-            } else if (upperAction.contains("ACTIVE_RETRIEVAL") || upperAction.equals("ACTIVE_RETRIEVAL")) {
-                log.debug("Extracted action: ACTIVE_RETRIEVAL");
-                return "ACTIVE_RETRIEVAL";
-            } else if (upperAction.contains("SKIP_RAG") || upperAction.equals("SKIP_RAG")) {
-                log.debug("Extracted action: SKIP_RAG");
-                return "SKIP_RAG";
+    private String normalizeAction(String action, CragEvaluation.DocumentQuality quality) {
+        if (action != null) {
+            String upperAction = action.toUpperCase(Locale.ROOT);
+            for (String known : KNOWN_ACTIONS) {
+                if (upperAction.contains(known)) {
+                    return known;
+                }
             }
         }
-        
-        // Fallback: try contains() method
-        String lowerJson = json.toLowerCase();
-        
-        // Check for SEND_TO_GENERATION with various formats
-        if (json.contains("\"action\":\"SEND_TO_GENERATION\"") || 
-            json.contains("'action':'SEND_TO_GENERATION'") ||
-            json.contains("\"action\" : \"SEND_TO_GENERATION\"") ||
-            json.contains("\"action\": \"SEND_TO_GENERATION\"") ||
-            lowerJson.contains("\"action\":\"send_to_generation\"") ||
-            lowerJson.contains("action: send_to_generation")) {
-            log.debug("Extracted action: SEND_TO_GENERATION (fallback)");
-            return "SEND_TO_GENERATION";
-        } 
-        
-        // Check for ACTIVE_RETRIEVAL with various formats
-        if (json.contains("\"action\":\"ACTIVE_RETRIEVAL\"") || 
-            json.contains("'action':'ACTIVE_RETRIEVAL'") ||
-            json.contains("\"action\" : \"ACTIVE_RETRIEVAL\"") ||
-            json.contains("\"action\": \"ACTIVE_RETRIEVAL\"") ||
-            lowerJson.contains("\"action\":\"active_retrieval\"") ||
-            lowerJson.contains("action: active_retrieval")) {
-            log.debug("Extracted action: ACTIVE_RETRIEVAL (fallback)");
-            return "ACTIVE_RETRIEVAL";
-        } 
-        
-        // Check for SKIP_RAG with various formats
-        if (json.contains("\"action\":\"SKIP_RAG\"") || 
-            json.contains("'action':'SKIP_RAG'") ||
-            json.contains("\"action\" : \"SKIP_RAG\"") ||
-            json.contains("\"action\": \"SKIP_RAG\"") ||
-            lowerJson.contains("\"action\":\"skip_rag\"") ||
-            lowerJson.contains("action: skip_rag")) {
-            log.debug("Extracted action: SKIP_RAG (fallback)");
-            return "SKIP_RAG";
-        }
-        
-        // Default: safer to send to generation than skip
-        log.warn("Could not extract action from JSON, defaulting to SEND_TO_GENERATION. JSON: {}", json);
-        return "SEND_TO_GENERATION";
+        return mapQualityToAction(quality);
     }
 
     /**
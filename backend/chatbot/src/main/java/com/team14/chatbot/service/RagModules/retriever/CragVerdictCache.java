@@ -0,0 +1,147 @@
+package com.team14.chatbot.service.RagModules.retriever;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.team14.chatbot.configuration.CragConfig;
+import com.team14.chatbot.helper.QueryNormalizer;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * CRAG verdicts, at two levels:
+ * - cache: LLM verdicts keyed by KB version + prompt version + normalized query +
+ *   sorted document IDs, flushed when the knowledge base changes;
+ * - request memo: every verdict (local or LLM) of the current retrieval, so
+ *   CRAG recursion never grades the same query and document set twice.
+ */
+@Component
+@Slf4j
+public class CragVerdictCache {
+
+    // Shared with the virtual threads forked by the request (speculative refinement)
+    private static final InheritableThreadLocal<Map<String, Verdict>> REQUEST_MEMO = new InheritableThreadLocal<>();
+
+    private final CragConfig cragConfig;
+    private final KnowledgeBaseVersionService knowledgeBaseVersionService;
+    private final Cache<String, Verdict> cache;
+    private final Counter memoHits;
+
+    public CragVerdictCache(CragConfig cragConfig,
+                            KnowledgeBaseVersionService knowledgeBaseVersionService,
+                            MeterRegistry meterRegistry) {
+        this.cragConfig = cragConfig;
+        this.knowledgeBaseVersionService = knowledgeBaseVersionService;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(cragConfig.getCache().getMaxSize())
+                .expireAfterWrite(Duration.ofMinutes(cragConfig.getCache().getTtlMinutes()))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "crag_verdict");
+        this.memoHits = Counter.builder("rag.crag.memo.hits")
+                .description("CRAG gradings avoided inside a request")
+                .register(meterRegistry);
+        knowledgeBaseVersionService.addListener(version -> cache.invalidateAll());
+    }
+
+    /**
+     * Verdict stored without the graded documents (re-attached on lookup)
+     */
+    private record Verdict(CragEvaluation.DocumentQuality quality, String reasoning, String action,
+                           String newQuery, String decidedBy) {
+
+        static Verdict of(CragEvaluation evaluation) {
+            return new Verdict(evaluation.getQuality(), evaluation.getReasoning(), evaluation.getAction(),
+                    evaluation.getNewQuery(), evaluation.getDecidedBy());
+        }
+
+        CragEvaluation toEvaluation(List<Document> documents, String source) {
+            return CragEvaluation.builder()
+                    .quality(quality)
+                    .reasoning(reasoning)
+                    .action(action)
+                    .newQuery(newQuery)
+                    .evaluatedDocuments(documents)
+                    .decidedBy(decidedBy + "_" + source)
+                    .build();
+        }
+    }
+
+    public interface MemoScope extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    /**
+     * Request memo scope; nested calls reuse the outer memo
+     */
+    public MemoScope openRequestScope() {
+        if (REQUEST_MEMO.get() != null) {
+            return () -> {
+            };
+        }
+        REQUEST_MEMO.set(new ConcurrentHashMap<>());
+        return REQUEST_MEMO::remove;
+    }
+
+    public Optional<CragEvaluation> get(String query, List<Document> documents, String promptVersion) {
+        String key = key(query, documents);
+
+        Map<String, Verdict> memo = REQUEST_MEMO.get();
+        if (memo != null && memo.containsKey(key)) {
+            memoHits.increment();
+            return Optional.of(memo.get(key).toEvaluation(documents, "MEMO"));
+        }
+
+        if (!cragConfig.getCache().isEnabled()) {
+            return Optional.empty();
+        }
+        Verdict verdict = cache.getIfPresent(versionedKey(key, promptVersion));
+        if (verdict == null) {
+            return Optional.empty();
+        }
+        if (memo != null) {
+            memo.put(key, verdict);
+        }
+        log.debug("CRAG verdict cache hit: {}", verdict.quality());
+        return Optional.of(verdict.toEvaluation(documents, "CACHE"));
+    }
+
+    /**
+     * Store a verdict; only LLM verdicts go to the shared cache (local ones are
+     * cheap and depend on thresholds that can change at runtime)
+     */
+    public void put(String query, List<Document> documents, String promptVersion, CragEvaluation evaluation) {
+        String key = key(query, documents);
+        Verdict verdict = Verdict.of(evaluation);
+
+        Map<String, Verdict> memo = REQUEST_MEMO.get();
+        if (memo != null) {
+            memo.put(key, verdict);
+        }
+        if (cragConfig.getCache().isEnabled() && "LLM".equals(evaluation.getDecidedBy())) {
+            cache.put(versionedKey(key, promptVersion), verdict);
+        }
+    }
+
+    private String key(String query, List<Document> documents) {
+        List<String> ids = documents.stream()
+                .map(HybridSearchService::getDocumentId)
+                .sorted()
+                .toList();
+        return QueryNormalizer.normalize(query) + "|" + String.join(",", ids);
+    }
+
+    private String versionedKey(String key, String promptVersion) {
+        return knowledgeBaseVersionService.currentVersion() + "|" + promptVersion + "|" + key;
+    }
+}
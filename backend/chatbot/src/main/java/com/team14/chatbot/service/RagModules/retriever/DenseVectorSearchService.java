@@ -0,0 +1,143 @@
+package com.team14.chatbot.service.RagModules.retriever;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pgvector.PGvector;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Dense retrieval directly against the pgvector views.
+ *
+ * Unlike {@code PgVectorStore.similaritySearch}, the stored chunk embedding is
+ * returned together with each hit so later stages (MMR, ...) can reuse it
+ * instead of embedding the chunk text again.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class DenseVectorSearchService {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final EmbeddingModel embeddingModel;
+    private final ObjectMapper objectMapper;
+
+    private static final String SEARCH_SQL = """
+            SELECT id, content, metadata::text AS metadata, embedding::text AS embedding,
+                   embedding <=> ?::vector AS distance
+            FROM %s
+            ORDER BY embedding <=> ?::vector
+            LIMIT ?
+            """;
+
+    private static final String EMBEDDINGS_BY_ID_SQL = """
+            SELECT id, embedding::text AS embedding
+            FROM langchain_pg_embedding
+            WHERE id = ANY (?)
+            """;
+
+    /**
+     * A dense hit together with its stored embedding
+     */
+    public record DenseHit(Document document, float[] embedding) {
+    }
+
+    /**
+     * Embed the query and search the view of the given retrieval type
+     */
+    public List<DenseHit> search(String query, RetrievalType retrievalType, int topK) {
+        if (retrievalType == null) {
+            return Collections.emptyList();
+        }
+        return search(embeddingModel.embed(query), retrievalType, topK);
+    }
+
+    /**
+     * Search with an already computed query vector
+     */
+    public List<DenseHit> search(float[] queryVector, RetrievalType retrievalType, int topK) {
+        if (retrievalType == null) {
+            return Collections.emptyList();
+        }
+
+        String vector = new PGvector(queryVector).getValue();
+        String sql = String.format(SEARCH_SQL, viewName(retrievalType));
+
+        return jdbcTemplate.query(sql, (rs, rowNum) -> {
+            String id = rs.getString("id");
+            double distance = rs.getDouble("distance");
+
+            Map<String, Object> metadata = parseMetadata(rs.getString("metadata"));
+            metadata.put("id", id);
+            metadata.put("distance", distance);
+
+            Document document = Document.builder()
+                    .id(id)
+                    .text(rs.getString("content"))
+                    .metadata(metadata)
+                    .score(1.0 - distance)
+                    .build();
+            return new DenseHit(document, parseVector(rs.getString("embedding")));
+        }, vector, vector, topK);
+    }
+
+    /**
+     * Load stored embeddings for chunks that were not returned by the dense leg
+     * (e.g. BM25-only hits). One round trip, nothing is re-embedded.
+     */
+    public Map<String, float[]> findEmbeddings(Collection<String> ids) {
+        if (ids == null || ids.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        Map<String, float[]> embeddings = new HashMap<>();
+        try {
+            jdbcTemplate.query(EMBEDDINGS_BY_ID_SQL,
+                    ps -> ps.setArray(1, ps.getConnection().createArrayOf("varchar", ids.toArray())),
+                    rs -> {
+                        embeddings.put(rs.getString("id"), parseVector(rs.getString("embedding")));
+                    });
+        } catch (Exception e) {
+            log.error("Error loading stored embeddings for {} chunks", ids.size(), e);
+        }
+        return embeddings;
+    }
+
+    private String viewName(RetrievalType retrievalType) {
+        return switch (retrievalType) {
+            case KNOWLEDGE_RETRIEVE -> "knowledge_embedding_view";
+            case CASE_STUDIES_RETRIEVE -> "case_studies_embedding_view";
+        };
+    }
+
+    private Map<String, Object> parseMetadata(String json) {
+        Map<String, Object> metadata = new HashMap<>();
+        if (json == null || json.isBlank()) {
+            return metadata;
+        }
+        try {
+            Map<String, Object> parsed = objectMapper.readValue(json, new TypeReference<Map<String, Object>>() {
+            });
+            // Document metadata does not accept null values
+            parsed.forEach((key, value) -> {
+                if (value != null) {
+                    metadata.put(key, value);
+                }
+            });
+        } catch (Exception e) {
+            log.warn("Could not parse chunk metadata: {}", json);
+        }
+        return metadata;
+    }
+
+    private float[] parseVector(String value) throws SQLException {
+        return value != null ? new PGvector(value).toArray() : null;
+    }
+}
@@ -1,14 +1,21 @@
 package com.team14.chatbot.service.RagModules.retriever;
 
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.document.Document;
-import org.springframework.ai.vectorstore.SearchRequest;
-import org.springframework.ai.vectorstore.VectorStore;
-import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.ai.embedding.EmbeddingModel;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 @Service
@@ -16,15 +23,17 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 public class HybridSearchService {
 
-    @Qualifier("knowledgeVectorStore")
-    private final VectorStore knowledgeVectorStore;
-    @Qualifier("caseStudiesVectorStore")
-    private final VectorStore caseStudiesVectorStore;
+    private final DenseVectorSearchService denseVectorSearchService;
     private final Bm25IndexService bm25IndexService;
+    private final EmbeddingModel embeddingModel;
+    private final MeterRegistry meterRegistry;
+
+    // Retrieval legs of a multi-query search run concurrently
+    private final ExecutorService legExecutor = Executors.newVirtualThreadPerTaskExecutor();
 
     private static final int DENSE_TOP_K = 10;
     private static final int SPARSE_TOP_K = 10;
-    private static final int RRF_K = 10; // RRF constant
+    public static final int RRF_K = 10; // RRF constant
 
     /**
      * Perform hybrid search: Dense + Sparse + RRF Fusion
@@ -34,10 +43,21 @@ public class HybridSearchService {
      * @return List of documents ranked by RRF score
      */
     public List<Document> hybridSearch(String query, RetrievalType retrievalType, int topK) {
+        return hybridSearchWithEmbeddings(query, retrievalType, topK).documents();
+    }
+
+    /**
+     * Same as {@link #hybridSearch} but also returns the stored embeddings of the
+     * dense hits, keyed by document ID
+     */
+    public HybridSearchResult hybridSearchWithEmbeddings(String query, RetrievalType retrievalType, int topK) {
         log.info("Performing hybrid search for query: {}", query);
 
         // Step 1: Dense Retrieval (Embeddings)
-        List<Document> denseResults = denseRetrieval(query, retrievalType, DENSE_TOP_K);
+        List<DenseVectorSearchService.DenseHit> denseHits = denseRetrieval(query, retrievalType, DENSE_TOP_K);
+        List<Document> denseResults = denseHits.stream()
+                .map(DenseVectorSearchService.DenseHit::document)
+                .collect(Collectors.toList());
         log.info("Dense retrieval returned {} documents", denseResults.size());
 
         // Step 2: Sparse Retrieval (BM25)
@@ -48,35 +68,258 @@ public class HybridSearchService {
         List<Document> fusedResults = rrfFusion(denseResults, sparseResults, topK);
         log.info("RRF fusion returned {} documents", fusedResults.size());
 
-        return fusedResults;
+        Map<String, float[]> embeddings = new HashMap<>();
+        for (DenseVectorSearchService.DenseHit hit : denseHits) {
+            if (hit.embedding() != null) {
+                embeddings.put(getDocumentId(hit.document()), hit.embedding());
+            }
+        }
+
+        return new HybridSearchResult(fusedResults, embeddings);
     }
 
     /**
-     * Dense retrieval using vector similarity search
+     * Multi-query hybrid search: each variant is a retrieval leg (dense, plus
+     * BM25 unless the variant is dense-only). Variant texts are embedded in one
+     * batched call, all legs run concurrently, and a single RRF fuses every
+     * ranked list, so a chunk found by several variants appears once and ranks
+     * higher.
+     *
+     * Metrics: rag.retrieval.variant.contribution{variant} (fused top-K chunks
+     * the variant found), rag.retrieval.variant.unique{variant} (found by no
+     * other variant), rag.retrieval.leg.latency{variant,leg}.
+     */
+    public HybridSearchResult multiQuerySearch(List<QueryVariant> variants, RetrievalType retrievalType, int topK) {
+        return multiQuerySearch(variants, Map.of(), retrievalType, topK);
+    }
+
+    /**
+     * Same as {@link #multiQuerySearch(List, RetrievalType, int)}, plus variants
+     * still being produced (streaming HyDE, query expansion), keyed by source.
+     * The ready legs start at once and are never held back: a late variant is
+     * searched as soon as it arrives and fused only if its legs are done when
+     * the ready legs are, otherwise it is dropped.
+     *
+     * Metric: rag.retrieval.variant.late{variant,outcome=merged|dropped}.
+     */
+    public HybridSearchResult multiQuerySearch(List<QueryVariant> variants,
+            Map<String, CompletableFuture<List<QueryVariant>>> lateVariants, RetrievalType retrievalType, int topK) {
+        List<QueryVariant> legs = distinctVariants(variants);
+        if (legs.isEmpty()) {
+            return new HybridSearchResult(Collections.emptyList(), Collections.emptyMap());
+        }
+        log.info("Performing multi-query hybrid search with {} variants: {} (late: {})", legs.size(),
+                legs.stream().map(QueryVariant::source).toList(), lateVariants.keySet());
+
+        LateLegs late = new LateLegs(legs, retrievalType);
+        lateVariants.forEach((source, future) -> future.thenAccept(arrived -> late.start(source, arrived)));
+
+        List<RankedList> rankedLists = new ArrayList<>(searchLegs(legs, retrievalType));
+        List<QueryVariant> searched = new ArrayList<>(legs);
+        late.close(lateVariants.keySet(), rankedLists, searched);
+
+        Map<String, float[]> embeddings = new HashMap<>();
+        rankedLists.forEach(list -> list.embeddings().forEach(embeddings::putIfAbsent));
+
+        List<RrfScore> fused = fuse(rankedLists, topK);
+        recordContributions(searched, fused);
+        List<Document> documents = fused.stream().map(RrfScore::getDocument).collect(Collectors.toList());
+        log.info("Multi-query RRF fusion of {} ranked lists returned {} documents", rankedLists.size(),
+                documents.size());
+        return new HybridSearchResult(documents, embeddings);
+    }
+
+    /**
+     * Embeds the variants in one call and runs their legs concurrently
+     */
+    private List<RankedList> searchLegs(List<QueryVariant> legs, RetrievalType retrievalType) {
+        List<float[]> vectors = embedVariants(legs, retrievalType);
+
+        List<Future<RankedList>> futures = new ArrayList<>();
+        for (int i = 0; i < legs.size(); i++) {
+            QueryVariant variant = legs.get(i);
+            float[] vector = vectors.get(i);
+            if (vector != null) {
+                futures.add(legExecutor.submit(() -> timedLeg(variant, "dense",
+                        () -> denseLeg(variant, vector, retrievalType))));
+            }
+            if (variant.sparse()) {
+                futures.add(legExecutor.submit(() -> timedLeg(variant, "sparse",
+                        () -> new RankedList(variant.source(), false,
+                                sparseRetrieval(variant.text(), retrievalType, SPARSE_TOP_K), Map.of()))));
+            }
+        }
+
+        List<RankedList> rankedLists = new ArrayList<>();
+        for (Future<RankedList> future : futures) {
+            try {
+                rankedLists.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.forEach(f -> f.cancel(true));
+                break;
+            } catch (Exception e) {
+                log.error("Retrieval leg failed", e);
+            }
+        }
+        return rankedLists;
+    }
+
+    /**
+     * Legs of the variants that arrive while the ready legs run
      */
-    private List<Document> denseRetrieval(String query, RetrievalType retrievalType, int topK) {
+    private final class LateLegs {
+        private final RetrievalType retrievalType;
+        private final Set<String> seen = new HashSet<>();
+        private final Map<String, Future<List<RankedList>>> started = new LinkedHashMap<>();
+        private final Map<String, List<QueryVariant>> variants = new HashMap<>();
+        private boolean closed;
+
+        LateLegs(List<QueryVariant> ready, RetrievalType retrievalType) {
+            this.retrievalType = retrievalType;
+            ready.forEach(variant -> seen.add(key(variant)));
+        }
+
+        synchronized void start(String source, List<QueryVariant> arrived) {
+            if (closed || arrived == null) {
+                return;
+            }
+            List<QueryVariant> fresh = distinctVariants(arrived).stream()
+                    .filter(variant -> seen.add(key(variant)))
+                    .toList();
+            if (!fresh.isEmpty()) {
+                variants.put(source, fresh);
+                started.put(source, legExecutor.submit(() -> searchLegs(fresh, retrievalType)));
+            }
+        }
+
+        /**
+         * Adds the finished late legs, drops the others
+         */
+        synchronized void close(Set<String> sources, List<RankedList> rankedLists, List<QueryVariant> searched) {
+            closed = true;
+            for (String source : sources) {
+                Future<List<RankedList>> legs = started.get(source);
+                boolean merged = false;
+                if (legs != null && legs.isDone() && !legs.isCancelled()) {
+                    try {
+                        rankedLists.addAll(legs.get());
+                        searched.addAll(variants.get(source));
+                        merged = true;
+                    } catch (Exception e) {
+                        log.warn("Late retrieval legs of {} failed: {}", source, e.getMessage());
+                    }
+                } else if (legs != null) {
+                    // Not interrupted: a running leg is a short DB query, let it end quietly
+                    legs.cancel(false);
+                }
+                log.debug("Late query variant {}: {}", source, merged ? "merged" : "dropped");
+                meterRegistry.counter("rag.retrieval.variant.late", "variant", source,
+                        "outcome", merged ? "merged" : "dropped").increment();
+            }
+        }
+
+        private String key(QueryVariant variant) {
+            return variant.text().trim().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    // Same text twice (e.g. step-back equal to the question) would only double its weight
+    private List<QueryVariant> distinctVariants(List<QueryVariant> variants) {
+        Map<String, QueryVariant> distinct = new LinkedHashMap<>();
+        for (QueryVariant variant : variants) {
+            if (variant != null && variant.text() != null && !variant.text().isBlank()) {
+                distinct.putIfAbsent(variant.text().trim().toLowerCase(Locale.ROOT), variant);
+            }
+        }
+        return new ArrayList<>(distinct.values());
+    }
+
+    /**
+     * One embedding call for all variants; null vectors (dense legs skipped)
+     * when embedding fails
+     */
+    private List<float[]> embedVariants(List<QueryVariant> legs, RetrievalType retrievalType) {
+        List<float[]> vectors = new ArrayList<>(Collections.nCopies(legs.size(), null));
+        if (retrievalType == null) {
+            return vectors;
+        }
+        try {
+            List<float[]> embedded = embeddingModel.embed(legs.stream().map(QueryVariant::text).toList());
+            for (int i = 0; i < Math.min(embedded.size(), legs.size()); i++) {
+                vectors.set(i, embedded.get(i));
+            }
+        } catch (Exception e) {
+            log.error("Batch embedding of {} query variants failed, using BM25 legs only", legs.size(), e);
+        }
+        return vectors;
+    }
+
+    private RankedList denseLeg(QueryVariant variant, float[] vector, RetrievalType retrievalType) {
+        List<DenseVectorSearchService.DenseHit> hits;
         try {
-            switch (retrievalType) {
-                case KNOWLEDGE_RETRIEVE:
-                    return knowledgeVectorStore.similaritySearch(
-                            SearchRequest.builder()
-                                    .query(query)
-                                    .topK(topK)
-//                                    .similarityThreshold(0.65)
-                                    .build());
-
-                case CASE_STUDIES_RETRIEVE:
-                    return caseStudiesVectorStore.similaritySearch(
-                            SearchRequest.builder()
-                                    .query(query)
-                                    .topK(topK)
-//                                    .similarityThreshold(0.65)
-
-                                    .build());
-
-                default:
-                    return Collections.emptyList();
+            hits = denseVectorSearchService.search(vector, retrievalType, DENSE_TOP_K);
+        } catch (Exception e) {
+            log.error("Error in dense retrieval for variant {}", variant.source(), e);
+            hits = Collections.emptyList();
+        }
+        Map<String, float[]> embeddings = new HashMap<>();
+        for (DenseVectorSearchService.DenseHit hit : hits) {
+            if (hit.embedding() != null) {
+                embeddings.put(getDocumentId(hit.document()), hit.embedding());
             }
+        }
+        return new RankedList(variant.source(), true,
+                hits.stream().map(DenseVectorSearchService.DenseHit::document).toList(), embeddings);
+    }
+
+    private RankedList timedLeg(QueryVariant variant, String leg, Supplier<RankedList> search) {
+        long start = System.nanoTime();
+        try {
+            return search.get();
+        } finally {
+            Timer.builder("rag.retrieval.leg.latency")
+                    .tag("variant", variant.source())
+                    .tag("leg", leg)
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void recordContributions(List<QueryVariant> legs, List<RrfScore> fused) {
+        Map<String, Integer> contribution = new LinkedHashMap<>();
+        Map<String, Integer> unique = new LinkedHashMap<>();
+        legs.forEach(variant -> {
+            contribution.putIfAbsent(variant.source(), 0);
+            unique.putIfAbsent(variant.source(), 0);
+        });
+        for (RrfScore score : fused) {
+            score.getVariants().forEach(source -> contribution.merge(source, 1, Integer::sum));
+            if (score.getVariants().size() == 1) {
+                unique.merge(score.getVariants().iterator().next(), 1, Integer::sum);
+            }
+        }
+
+        contribution.forEach((source, count) -> DistributionSummary.builder("rag.retrieval.variant.contribution")
+                .description("Fused top-K chunks retrieved by the query variant")
+                .tag("variant", source)
+                .register(meterRegistry)
+                .record(count));
+        unique.forEach((source, count) -> DistributionSummary.builder("rag.retrieval.variant.unique")
+                .description("Fused top-K chunks retrieved only by the query variant")
+                .tag("variant", source)
+                .register(meterRegistry)
+                .record(count));
+        log.info("Query variant contribution to fused top-{}: {} (unique: {})", fused.size(), contribution, unique);
+    }
+
+    /**
+     * Dense retrieval using vector similarity search
+     */
+    private List<DenseVectorSearchService.DenseHit> denseRetrieval(String query, RetrievalType retrievalType,
+            int topK) {
+        try {
+            return denseVectorSearchService.search(query, retrievalType, topK);
         } catch (Exception e) {
             log.error("Error in dense retrieval", e);
             return Collections.emptyList();
@@ -112,16 +355,14 @@ public class HybridSearchService {
         for (int rank = 0; rank < denseResults.size(); rank++) {
             Document doc = denseResults.get(rank);
             String docId = getDocumentId(doc);
-            documentScores.computeIfAbsent(docId, k -> new RrfScore(doc))
-                    .addDenseScore(1.0 / (RRF_K + rank + 1));
+            scoreOf(documentScores, docId, doc).addDenseScore(1.0 / (RRF_K + rank + 1));
         }
 
         // Process sparse results
         for (int rank = 0; rank < sparseResults.size(); rank++) {
             Document doc = sparseResults.get(rank);
             String docId = getDocumentId(doc);
-            documentScores.computeIfAbsent(docId, k -> new RrfScore(doc))
-                    .addSparseScore(1.0 / (RRF_K + rank + 1));
+            scoreOf(documentScores, docId, doc).addSparseScore(1.0 / (RRF_K + rank + 1));
         }
 
         // Sort by total RRF score and return top K
@@ -132,10 +373,52 @@ public class HybridSearchService {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * RRF over any number of ranked lists (each variant's dense / sparse leg).
+     * The dense and sparse sums are divided by the number of lists of their
+     * kind, so scores stay on the single-query scale (one dense + one sparse
+     * list) the rerank gate and CRAG pre-classifier thresholds were calibrated
+     * on; a chunk found by more variants still ranks higher.
+     */
+    private List<RrfScore> fuse(List<RankedList> rankedLists, int topK) {
+        int denseLists = (int) rankedLists.stream().filter(RankedList::dense).count();
+        int sparseLists = rankedLists.size() - denseLists;
+        Map<String, RrfScore> documentScores = new HashMap<>();
+        for (RankedList list : rankedLists) {
+            for (int rank = 0; rank < list.documents().size(); rank++) {
+                Document doc = list.documents().get(rank);
+                RrfScore score = scoreOf(documentScores, getDocumentId(doc), doc);
+                double contribution = 1.0 / (RRF_K + rank + 1);
+                if (list.dense()) {
+                    score.addDenseScore(contribution);
+                } else {
+                    score.addSparseScore(contribution);
+                }
+                score.addVariant(list.source());
+            }
+        }
+        documentScores.values().forEach(score -> score.normalize(denseLists, sparseLists));
+
+        return documentScores.values().stream()
+                .sorted(Comparator.comparingDouble(RrfScore::getTotalScore).reversed())
+                .limit(topK)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Score entry of a chunk; a chunk already found by another leg keeps the
+     * metadata of both (bm25_score from BM25, distance from the dense leg)
+     */
+    private static RrfScore scoreOf(Map<String, RrfScore> documentScores, String docId, Document doc) {
+        RrfScore score = documentScores.computeIfAbsent(docId, k -> new RrfScore(doc));
+        score.mergeMetadata(doc);
+        return score;
+    }
+
     /**
      * Get unique document ID from document metadata or content hash
      */
-    private String getDocumentId(Document doc) {
+    public static String getDocumentId(Document doc) {
         // Try to get ID from metadata
         Object id = doc.getMetadata().get("id");
         if (id != null) {
@@ -146,6 +429,19 @@ public class HybridSearchService {
         return String.valueOf(doc.getText().hashCode());
     }
 
+    /**
+     * Fused documents plus the stored embeddings returned by the dense leg
+     */
+    public record HybridSearchResult(List<Document> documents, Map<String, float[]> embeddings) {
+    }
+
+    /**
+     * Ranked hits of one retrieval leg
+     */
+    private record RankedList(String source, boolean dense, List<Document> documents,
+            Map<String, float[]> embeddings) {
+    }
+
     /**
      * Helper class to track RRF scores for a document
      */
@@ -153,6 +449,7 @@ public class HybridSearchService {
         private final Document document;
         private double denseScore = 0.0;
         private double sparseScore = 0.0;
+        private final Set<String> variants = new LinkedHashSet<>();
 
         public RrfScore(Document document) {
             this.document = document;
@@ -166,6 +463,43 @@ public class HybridSearchService {
             this.sparseScore += score;
         }
 
+        // Mean contribution per list of each kind
+        public void normalize(int denseLists, int sparseLists) {
+            if (denseLists > 1) {
+                denseScore /= denseLists;
+            }
+            if (sparseLists > 1) {
+                sparseScore /= sparseLists;
+            }
+        }
+
+        public void mergeMetadata(Document other) {
+            if (other == document) {
+                return;
+            }
+            Map<String, Object> metadata = document.getMetadata();
+            other.getMetadata().forEach((key, value) -> {
+                switch (key) {
+                    // Nhiều biến thể query: giữ điểm tốt nhất của chunk
+                    case "distance" -> metadata.merge(key, value, (a, b) -> number(b) < number(a) ? b : a);
+                    case "bm25_score" -> metadata.merge(key, value, (a, b) -> number(b) > number(a) ? b : a);
+                    default -> metadata.putIfAbsent(key, value);
+                }
+            });
+        }
+
+        private static double number(Object value) {
+            return value instanceof Number n ? n.doubleValue() : 0.0;
+        }
+
+        public void addVariant(String source) {
+            variants.add(source);
+        }
+
+        public Set<String> getVariants() {
+            return variants;
+        }
+
         public double getTotalScore() {
             return denseScore + sparseScore;
         }
@@ -175,6 +509,9 @@ public class HybridSearchService {
             document.getMetadata().put("rrf_score", getTotalScore());
             document.getMetadata().put("dense_score", denseScore);
             document.getMetadata().put("sparse_score", sparseScore);
+            if (!variants.isEmpty()) {
+                document.getMetadata().put("query_variants", String.join(",", variants));
+            }
             return document;
         }
     }
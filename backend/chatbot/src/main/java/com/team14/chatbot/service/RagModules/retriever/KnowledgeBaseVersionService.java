@@ -0,0 +1,71 @@
+package com.team14.chatbot.service.RagModules.retriever;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/**
+ * Version number of the knowledge base content.
+ *
+ * Bumped whenever indexed chunks change (document ingestion, BM25 rebuild that
+ * sees different content). Caches derived from retrieval results include the
+ * version in their keys and/or register a listener to be flushed on change.
+ */
+@Service
+@Slf4j
+public class KnowledgeBaseVersionService {
+
+    private final AtomicLong version = new AtomicLong(1);
+    private final AtomicLong lastFingerprint = new AtomicLong();
+    private final List<LongConsumer> listeners = new CopyOnWriteArrayList<>();
+
+    public KnowledgeBaseVersionService(MeterRegistry meterRegistry) {
+        Gauge.builder("rag.kb.version", version, AtomicLong::get)
+                .description("Current knowledge base version")
+                .register(meterRegistry);
+    }
+
+    public long currentVersion() {
+        return version.get();
+    }
+
+    /**
+     * Mark the knowledge base as changed
+     */
+    public long bump(String reason) {
+        long newVersion = version.incrementAndGet();
+        log.info("Knowledge base version -> {} ({})", newVersion, reason);
+        listeners.forEach(listener -> {
+            try {
+                listener.accept(newVersion);
+            } catch (Exception e) {
+                log.warn("Knowledge base version listener failed", e);
+            }
+        });
+        return newVersion;
+    }
+
+    /**
+     * Report a fingerprint of the indexed content; bumps the version only when
+     * it differs from the previous one (first report just records it)
+     */
+    public void updateFingerprint(long fingerprint, String source) {
+        long previous = lastFingerprint.getAndSet(fingerprint);
+        if (previous != 0 && previous != fingerprint) {
+            bump(source + " content changed");
+        }
+    }
+
+    /**
+     * Called with the new version every time the knowledge base changes
+     */
+    public void addListener(LongConsumer listener) {
+        listeners.add(listener);
+    }
+}
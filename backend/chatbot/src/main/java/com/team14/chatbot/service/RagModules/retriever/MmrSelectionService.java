@@ -0,0 +1,139 @@
+package com.team14.chatbot.service.RagModules.retriever;
+
+import com.team14.chatbot.helper.TokenEstimator;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+/**
+ * Maximal Marginal Relevance (MMR) selection of the generation context.
+ *
+ * Picks a diverse subset of the re-ranked chunks under a token budget:
+ * MMR(d) = lambda * relevance(d) - (1 - lambda) * max sim(d, selected)
+ * Similarity uses the chunk embeddings already stored in pgvector.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class MmrSelectionService {
+
+    private final DenseVectorSearchService denseVectorSearchService;
+    private final TokenEstimator tokenEstimator;
+
+    /**
+     * Select up to {@code maxDocuments} documents
+     *
+     * @param candidates  Re-ranked candidates (best first)
+     * @param embeddings  Stored embeddings keyed by document ID (missing ones are
+     *                    loaded from pgvector)
+     * @param lambda      Relevance/diversity trade-off in [0, 1]
+     * @param tokenBudget Max total tokens of selected chunks (<= 0 means no limit)
+     * @return Selected documents in selection order
+     */
+    public List<Document> select(List<Document> candidates, Map<String, float[]> embeddings,
+            double lambda, int tokenBudget, int maxDocuments) {
+        if (candidates.isEmpty() || maxDocuments <= 0) {
+            return Collections.emptyList();
+        }
+
+        Map<String, float[]> vectors = new HashMap<>(embeddings);
+        List<String> missing = candidates.stream()
+                .map(HybridSearchService::getDocumentId)
+                .filter(id -> !vectors.containsKey(id))
+                .toList();
+        if (!missing.isEmpty()) {
+            vectors.putAll(denseVectorSearchService.findEmbeddings(missing));
+        }
+
+        double[] relevance = normalizedRelevance(candidates);
+        int[] tokens = candidates.stream().mapToInt(d -> tokenEstimator.estimate(d.getText())).toArray();
+        float[][] candidateVectors = candidates.stream()
+                .map(d -> vectors.get(HybridSearchService.getDocumentId(d)))
+                .toArray(float[][]::new);
+
+        List<Integer> selected = new ArrayList<>();
+        double[] maxSimilarity = new double[candidates.size()];
+        boolean[] used = new boolean[candidates.size()];
+        int usedTokens = 0;
+
+        while (selected.size() < maxDocuments) {
+            int best = -1;
+            double bestScore = Double.NEGATIVE_INFINITY;
+
+            for (int i = 0; i < candidates.size(); i++) {
+                if (used[i]) {
+                    continue;
+                }
+                // Always keep the best chunk, even if it alone exceeds the budget
+                boolean fits = tokenBudget <= 0 || usedTokens + tokens[i] <= tokenBudget || selected.isEmpty();
+                if (!fits) {
+                    continue;
+                }
+                double score = lambda * relevance[i] - (1 - lambda) * maxSimilarity[i];
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = i;
+                }
+            }
+
+            if (best < 0) {
+                break;
+            }
+
+            used[best] = true;
+            selected.add(best);
+            usedTokens += tokens[best];
+
+            // Update redundancy of remaining candidates against the new pick
+            for (int i = 0; i < candidates.size(); i++) {
+                if (!used[i]) {
+                    maxSimilarity[i] = Math.max(maxSimilarity[i], cosine(candidateVectors[i], candidateVectors[best]));
+                }
+            }
+        }
+
+        log.debug("MMR selected {} of {} documents | lambda={} | tokens={}/{}",
+                selected.size(), candidates.size(), lambda, usedTokens, tokenBudget);
+
+        return selected.stream().map(candidates::get).toList();
+    }
+
+    /**
+     * Min-max normalized relevance: rerank score if present, RRF score otherwise,
+     * rank position as last resort
+     */
+    private double[] normalizedRelevance(List<Document> candidates) {
+        double[] scores = new double[candidates.size()];
+        for (int i = 0; i < candidates.size(); i++) {
+            Map<String, Object> metadata = candidates.get(i).getMetadata();
+            Object score = metadata.containsKey("rerank_score") ? metadata.get("rerank_score") : metadata.get("rrf_score");
+            scores[i] = score instanceof Number n ? n.doubleValue() : (double) (candidates.size() - i);
+        }
+
+        double min = Arrays.stream(scores).min().orElse(0);
+        double max = Arrays.stream(scores).max().orElse(0);
+        double range = max - min;
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = range > 0 ? (scores[i] - min) / range : 1.0;
+        }
+        return scores;
+    }
+
+    private double cosine(float[] a, float[] b) {
+        if (a == null || b == null || a.length != b.length) {
+            return 0.0;
+        }
+        double dot = 0;
+        double normA = 0;
+        double normB = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+        }
+        return normA == 0 || normB == 0 ? 0.0 : dot / (Math.sqrt(normA) * Math.sqrt(normB));
+    }
+}
@@ -1,23 +1,55 @@
 package com.team14.chatbot.service.RagModules.retriever;
 
+import com.team14.chatbot.helper.CancellationToken;
+import com.team14.chatbot.helper.RequestDeadline;
 import com.team14.chatbot.service.RagModules.RetrievalService;
+import com.team14.chatbot.service.RagModules.retriever.rerank.RerankGate;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.document.Document;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 @Service
 @Slf4j
 @RequiredArgsConstructor
 public class QueryRetrievalService implements RetrievalService {
 
+    /**
+     * Reranked documents by rerank score, then the ones without one (reranking
+     * skipped by the gate, failed, or past the reranker's 30 documents) by
+     * fusion score; BM25-only hits without either keep their pool order
+     */
+    private static final Comparator<Document> RERANKED_FIRST = Comparator
+            .comparing((Document doc) -> !(doc.getMetadata().get("rerank_score") instanceof Number))
+            .thenComparing(Comparator.comparingDouble((Document doc) -> score(doc, "rerank_score")).reversed())
+            .thenComparing(Comparator.comparingDouble((Document doc) -> score(doc, "rrf_score")).reversed());
+
     private final HybridSearchService hybridSearchService;
     private final MetadataFilterService metadataFilterService;
     private final ReRankerService reRankerService;
     private final CragService cragService;
+    private final MmrSelectionService mmrSelectionService;
+    private final RerankGate rerankGate;
+    private final Bm25IndexService bm25IndexService;
+    private final CragVerdictCache cragVerdictCache;
+    private final MeterRegistry meterRegistry;
+
+    // Speculative CRAG refinement runs beside the grading call
+    private final ExecutorService speculativeExecutor = Executors.newVirtualThreadPerTaskExecutor();
 
     @Value("${retrieval.hybrid-top-k:50}")
     private int hybridTopK;
@@ -34,6 +66,27 @@ public class QueryRetrievalService implements RetrievalService {
     @Value("${crag.max-depth:2}")
     private int maxDepth;
 
+    @Value("${retrieval.mmr.lambda:0.7}")
+    private double defaultMmrLambda;
+
+    @Value("${retrieval.prf.enabled:true}")
+    private boolean prfEnabled;
+
+    @Value("${retrieval.prf.feedback-docs:5}")
+    private int prfFeedbackDocs;
+
+    @Value("${retrieval.prf.expansion-terms:10}")
+    private int prfExpansionTerms;
+
+    @Value("${retrieval.prf.original-weight:0.6}")
+    private float prfOriginalWeight;
+
+    @Value("${retrieval.prf.speculative:true}")
+    private boolean speculativeRefinement;
+
+    @Value("${rag.request-budget-ms:30000}")
+    private long requestBudgetMs;
+
     /**
      * Main retrieval method - full pipeline
      * 
@@ -44,60 +97,27 @@ public class QueryRetrievalService implements RetrievalService {
     @Override
     public RetrievalResponse retrieveDocuments(String query, RetrievalType retrievalType,
             Map<String, Object> filterMetadata) {
+        return retrieveDocuments(RetrievalRequest.builder()
+                .query(query)
+                .retrievalType(retrievalType)
+                .filterMetadata(filterMetadata)
+                .build());
+    }
 
-        // Step 1: Hybrid Search → Top 50 candidates
-        List<Document> hybridResults = hybridSearchService.hybridSearch(query, retrievalType, hybridTopK);
-        log.info("Hybrid search returned {} documents", hybridResults.size());
-        log.info("Hybrid search returned {} documents", hybridResults);
-
-
-        // Step 2: Metadata Filter
-        List<Document> filteredResults = metadataFilterService.filterDocuments(hybridResults, filterMetadata);
-        log.info("After filtering: {} documents", filteredResults.size());
-
-        log.info("After filtering: {} documents", filteredResults);
-
-        // Step 3: Re-Ranker → Top 30 → Top 5
-        List<Document> rerankedResults;
-        if (filteredResults.size() > rerankTopK) {
-            // Take top 30 for re-ranking
-            List<Document> top30 = filteredResults.stream()
-                    .limit(rerankTopK)
-                    .toList();
-            rerankedResults = reRankerService.rerank(query, top30);
-        } else {
-            rerankedResults = reRankerService.rerank(query, filteredResults);
+    /**
+     * Retrieval driven by a request (top K, CRAG, MMR options)
+     *
+     * @param request The retrieval request
+     * @return RetrievalResponse with documents
+     */
+    public RetrievalResponse retrieveDocuments(RetrievalRequest request) {
+        boolean useCrag = enableCrag && Boolean.TRUE.equals(request.getEnableCrag());
+        // CRAG recursion never grades the same query + documents twice
+        try (CragVerdictCache.MemoScope memo = cragVerdictCache.openRequestScope()) {
+            return retrieveDocuments(request, useCrag, 0);
         }
-        log.info("After re-ranking: {} documents", rerankedResults.size());
-
-        // Step 4: CRAG Evaluation (if enabled)
-        CragEvaluation cragEvaluation = null;
-        List<Document> finalDocuments = rerankedResults;
-        // Without CRAG, just take top K
-        finalDocuments = rerankedResults.stream()
-                .limit(finalTopK)
-                .toList();
-
-        return RetrievalResponse.builder()
-                .documents(finalDocuments)
-                .totalRetrieved(finalDocuments.size())
-                .build();
     }
 
-
-    boolean shouldRerank(String query, List<Document> docs) {
-
-        if (docs.size() <= 5) return false;
-
-        double top1 = docs.get(0).getScore();
-        double top2 = docs.get(1).getScore();
-
-        // vector search đủ tự tin
-        if (top1 - top2 >= 0.15) return false;
-
-        // còn lại → rerank
-        return true;
-    }
     /**
      * Retrieve documents with CRAG evaluation
      * 
@@ -105,15 +125,13 @@ public class QueryRetrievalService implements RetrievalService {
      * @return RetrievalResponse with documents and CRAG evaluation
      */
     public RetrievalResponse retrieveWithCrag(String query) {
-        return retrieveDocuments(query, null, null, true, 0);
+        return retrieveDocuments(RetrievalRequest.builder().query(query).build(), true, 0);
     }
 
     /**
      * Internal retrieval method with depth tracking for recursive calls
      */
-    private RetrievalResponse retrieveDocuments(String query, Map<String, Object> filterMetadata,
-            RetrievalType retrievalType,
-            boolean useCrag, int depth) {
+    private RetrievalResponse retrieveDocuments(RetrievalRequest request, boolean useCrag, int depth) {
         if (depth > maxDepth) {
             log.warn("Max depth reached for retrieval, returning empty results");
             return RetrievalResponse.builder()
@@ -123,67 +141,113 @@ public class QueryRetrievalService implements RetrievalService {
                     .build();
         }
 
+        String query = request.getQuery();
+        int topK = request.getTopK() != null ? request.getTopK() : finalTopK;
+        boolean useMmr = Boolean.TRUE.equals(request.getEnableMmr());
+
         log.info("Retrieval pipeline - Step 1: Hybrid Search (depth={})", depth);
 
-        // Step 1: Hybrid Search → Top 50 candidates
-        List<Document> hybridResults = hybridSearchService.hybridSearch(query, retrievalType, hybridTopK);
+        // Step 1: Hybrid Search → Top 50 candidates (one fused pool over all query variants)
+        boolean fanOut = request.getQueryVariants() != null && !request.getQueryVariants().isEmpty()
+                || request.getLateVariants() != null && !request.getLateVariants().isEmpty();
+        HybridSearchService.HybridSearchResult hybridResult = fanOut
+                ? hybridSearchService.multiQuerySearch(withQuery(request),
+                        request.getLateVariants() != null ? request.getLateVariants() : Map.of(),
+                        request.getRetrievalType(), hybridTopK)
+                : hybridSearchService.hybridSearchWithEmbeddings(query, request.getRetrievalType(), hybridTopK);
+        List<Document> hybridResults = hybridResult.documents();
         log.info("Hybrid search returned {} documents", hybridResults.size());
 
         // Step 2: Metadata Filter
-        List<Document> filteredResults = metadataFilterService.filterDocuments(hybridResults, filterMetadata);
+        List<Document> filteredResults = metadataFilterService.filterDocuments(hybridResults,
+                request.getFilterMetadata());
         log.info("After filtering: {} documents", filteredResults.size());
 
         // Step 3: Re-Ranker → Top 30 → Top 5
+        // With MMR, keep the whole re-ranked list so the diversity stage has
+        // something to choose from
+        List<Document> top30 = filteredResults.stream()
+                .limit(rerankTopK)
+                .toList();
+        // Skip the reranker when the fused ranking is already confident
+        RerankGate.GateDecision gate = rerankGate.evaluate(top30);
         List<Document> rerankedResults;
-        if (filteredResults.size() > rerankTopK) {
-            // Take top 30 for re-ranking
-            List<Document> top30 = filteredResults.stream()
-                    .limit(rerankTopK)
-                    .toList();
-            rerankedResults = reRankerService.rerank(query, top30);
+        if (gate.rerank()) {
+            rerankedResults = useMmr
+                    ? reRankerService.rerank(query, top30, top30.size(), request.getRetrievalType())
+                    : reRankerService.rerank(query, top30, request.getRetrievalType());
+            rerankGate.recordReranked(gate, top30, rerankedResults);
+            log.info("After re-ranking: {} documents", rerankedResults.size());
         } else {
-            rerankedResults = reRankerService.rerank(query, filteredResults);
+            rerankedResults = top30;
+            rerankGate.maybeShadowCheck(query, gate, top30, request.getRetrievalType());
+            log.info("Re-ranking skipped (margin={}, topK agreement={})",
+                    gate.rankMargin(), gate.topKAgreement());
         }
-        log.info("After re-ranking: {} documents", rerankedResults.size());
+
+        // Step 3.5: select final context (top K or MMR under token budget)
+        List<Document> topDocuments = useMmr
+                ? mmrSelectionService.select(rerankedResults, hybridResult.embeddings(),
+                        request.getMmrLambda() != null ? request.getMmrLambda() : defaultMmrLambda,
+                        request.getTokenBudget() != null ? request.getTokenBudget() : 0,
+                        topK)
+                : rerankedResults.stream()
+                        .limit(topK)
+                        .toList();
 
         // Step 4: CRAG Evaluation (if enabled)
         CragEvaluation cragEvaluation = null;
-        List<Document> finalDocuments = rerankedResults;
+        List<Document> finalDocuments = topDocuments;
 
-        if (useCrag && !rerankedResults.isEmpty()) {
+        if (useCrag && !topDocuments.isEmpty()) {
             log.info("Retrieval pipeline - Step 4: CRAG Evaluation");
 
-            // Take top 5 for CRAG evaluation
-            List<Document> top5ForCrag = rerankedResults.stream()
-                    .limit(finalTopK)
-                    .toList();
+            // Start the refined retrieval while the LLM grades (only worth it when
+            // the local pre-classifier cannot decide)
+            SpeculativeRefinement speculative = speculativeRefinement && prfEnabled
+                    && cragService.needsLlmGrading(query, topDocuments)
+                    ? startSpeculativeRefinement(request, rerankedResults, depth + 1)
+                    : null;
 
-            cragEvaluation = cragService.evaluateDocuments(query, top5ForCrag);
+            long gradingStart = System.nanoTime();
+            cragEvaluation = cragService.evaluateDocuments(query, topDocuments);
+            long gradingNanos = System.nanoTime() - gradingStart;
             log.info("CRAG evaluation: quality={}, action={}",
                     cragEvaluation.getQuality(), cragEvaluation.getAction());
 
             // Handle CRAG decision
-            finalDocuments = handleCragDecision(query, cragEvaluation, top5ForCrag, depth);
-        } else {
-            // Without CRAG, just take top K
-            finalDocuments = rerankedResults.stream()
-                    .limit(finalTopK)
-                    .toList();
+            finalDocuments = speculative != null
+                    ? resolveSpeculative(speculative, request, cragEvaluation, topDocuments, rerankedResults,
+                            depth, gradingNanos)
+                    : handleCragDecision(request, cragEvaluation, topDocuments, rerankedResults, depth);
         }
 
+        String strategy = (gate.rerank() ? "HYBRID_FILTER_RERANK" : "HYBRID_FILTER")
+                + (useCrag ? "_CRAG" : "");
         return RetrievalResponse.builder()
                 .documents(finalDocuments)
                 .totalRetrieved(finalDocuments.size())
-                .retrievalStrategy(useCrag ? "HYBRID_FILTER_RERANK_CRAG" : "HYBRID_FILTER_RERANK")
+                .retrievalStrategy(useMmr ? strategy + "_MMR" : strategy)
                 .cragEvaluation(cragEvaluation)
                 .build();
     }
 
+    // The query itself is always the first leg
+    private List<QueryVariant> withQuery(RetrievalRequest request) {
+        List<QueryVariant> variants = new ArrayList<>();
+        variants.add(QueryVariant.of(QueryVariant.ORIGINAL, request.getQuery()));
+        if (request.getQueryVariants() != null) {
+            variants.addAll(request.getQueryVariants());
+        }
+        return variants;
+    }
+
     /**
      * Handle CRAG decision and return appropriate documents
      */
-    private List<Document> handleCragDecision(String query, CragEvaluation evaluation,
-            List<Document> documents, int depth) {
+    private List<Document> handleCragDecision(RetrievalRequest request, CragEvaluation evaluation,
+            List<Document> documents, List<Document> candidates, int depth) {
+        String query = request.getQuery();
         return switch (evaluation.getQuality()) {
             case GOOD -> {
                 // Send to generation
@@ -194,6 +258,11 @@ public class QueryRetrievalService implements RetrievalService {
                 // Active retrieval: create new query and search again
                 log.info("CRAG: Documents are AMBIGUOUS, performing active retrieval");
                 String newQuery = evaluation.getNewQuery();
+                if ((newQuery == null || newQuery.isEmpty()) && prfEnabled) {
+                    // No rewritten query: cheap local refinement instead of a full pipeline pass
+                    yield refineWithFeedback(request, request.getQuery(), candidates, depth + 1,
+                            RequestDeadline.cancellation());
+                }
                 if (newQuery == null || newQuery.isEmpty()) {
                     // Generate query from ambiguous document
                     newQuery = generateQueryFromDocument(query, documents.get(0));
@@ -201,14 +270,14 @@ public class QueryRetrievalService implements RetrievalService {
 
                 // Recursive retrieval with new query
                 RetrievalResponse recursiveResponse = retrieveDocuments(
-                        newQuery, null, null, true, depth + 1);
+                        request.toBuilder().query(newQuery).queryVariants(null).lateVariants(null).build(), true, depth + 1);
 
                 // Combine original and new results
                 List<Document> combined = new ArrayList<>(documents);
                 combined.addAll(recursiveResponse.getDocuments());
                 yield combined.stream()
                         .distinct()
-                        .limit(finalTopK)
+                        .limit(request.getTopK() != null ? request.getTopK() : finalTopK)
                         .toList();
             }
             case BAD -> {
@@ -219,6 +288,152 @@ public class QueryRetrievalService implements RetrievalService {
         };
     }
 
+    /**
+     * LLM-free CRAG refinement: RM3 pseudo-relevance feedback over the top BM25
+     * hits builds an expanded query, BM25 retrieves with it, and only documents
+     * not scored yet are re-ranked (first-round candidates keep their scores).
+     * Repeats while CRAG stays AMBIGUOUS and depth allows.
+     *
+     * @param feedbackQuery Query the feedback documents are retrieved with (the
+     *                      previous round's expanded terms after the first round)
+     * @param candidates    Re-ranked candidates of the previous round
+     */
+    private List<Document> refineWithFeedback(RetrievalRequest request, String feedbackQuery,
+            List<Document> candidates, int depth, CancellationToken cancellation) {
+        String query = request.getQuery();
+        int topK = request.getTopK() != null ? request.getTopK() : finalTopK;
+        List<Document> fallback = candidates.stream().limit(topK).toList();
+        if (depth > maxDepth) {
+            return fallback;
+        }
+
+        Map<String, Float> queryModel = bm25IndexService.rm3Expansion(feedbackQuery, request.getRetrievalType(),
+                prfFeedbackDocs, prfExpansionTerms, prfOriginalWeight);
+        if (queryModel.isEmpty()) {
+            log.info("PRF refinement: no BM25 feedback documents, keeping first-round results");
+            return fallback;
+        }
+
+        cancellation.throwIfCancelled();
+        List<Document> prfHits = metadataFilterService.filterDocuments(
+                bm25IndexService.searchWeighted(queryModel, request.getRetrievalType(), rerankTopK),
+                request.getFilterMetadata());
+
+        // Merge with previous candidates; only unscored documents go to the reranker
+        Map<String, Document> pool = new LinkedHashMap<>();
+        candidates.forEach(doc -> pool.put(HybridSearchService.getDocumentId(doc), doc));
+        prfHits.forEach(doc -> pool.putIfAbsent(HybridSearchService.getDocumentId(doc), doc));
+        List<Document> unscored = pool.values().stream()
+                .filter(doc -> !(doc.getMetadata().get("rerank_score") instanceof Number))
+                .toList();
+        if (!unscored.isEmpty()) {
+            cancellation.throwIfCancelled();
+            reRankerService.rerank(query, unscored, unscored.size(), request.getRetrievalType());
+        }
+
+        List<Document> merged = pool.values().stream()
+                .sorted(RERANKED_FIRST)
+                .toList();
+        List<Document> topDocuments = merged.stream().limit(topK).toList();
+        log.info("PRF refinement (depth={}): {} new documents, {} re-ranked, expanded terms={}",
+                depth, prfHits.size(), unscored.size(), queryModel.keySet());
+
+        cancellation.throwIfCancelled();
+        CragEvaluation evaluation = cragService.evaluateDocuments(query, topDocuments);
+        return switch (evaluation.getQuality()) {
+            case GOOD -> topDocuments;
+            case AMBIGUOUS -> refineWithFeedback(request, String.join(" ", queryModel.keySet()), merged, depth + 1,
+                    cancellation);
+            case BAD -> Collections.emptyList();
+        };
+    }
+
+    private record SpeculativeRefinement(Future<List<Document>> future, CancellationToken cancellation,
+            long startNanos) {
+    }
+
+    /**
+     * Run the PRF refinement in background on copies of the candidates (the
+     * grading call reads their metadata meanwhile)
+     */
+    private SpeculativeRefinement startSpeculativeRefinement(RetrievalRequest request, List<Document> candidates,
+            int depth) {
+        List<Document> copies = candidates.stream()
+                .map(doc -> Document.builder()
+                        .id(doc.getId())
+                        .text(doc.getText())
+                        .metadata(new HashMap<>(doc.getMetadata()))
+                        .score(doc.getScore())
+                        .build())
+                .toList();
+        // Child of the request token: client disconnect / deadline also stops the speculation
+        CancellationToken cancellation = RequestDeadline.cancellation().child();
+        Future<List<Document>> future = speculativeExecutor.submit(
+                () -> refineWithFeedback(request, request.getQuery(), copies, depth, cancellation));
+        return new SpeculativeRefinement(future, cancellation, System.nanoTime());
+    }
+
+    /**
+     * Use the speculative result on AMBIGUOUS (when CRAG gave no rewritten query),
+     * cancel it otherwise.
+     * Metrics: rag.crag.speculative{outcome=used|wasted} and the overlapped
+     * (saved) or thrown away (wasted) time.
+     */
+    private List<Document> resolveSpeculative(SpeculativeRefinement speculative, RetrievalRequest request,
+            CragEvaluation evaluation, List<Document> documents, List<Document> candidates, int depth,
+            long gradingNanos) {
+        boolean usable = evaluation.getQuality() == CragEvaluation.DocumentQuality.AMBIGUOUS
+                && (evaluation.getNewQuery() == null || evaluation.getNewQuery().isEmpty());
+
+        if (usable) {
+            try {
+                Duration wait = RequestDeadline.remaining(Duration.ofMillis(requestBudgetMs));
+                List<Document> refined = speculative.future().get(wait.toMillis(), TimeUnit.MILLISECONDS);
+                recordSpeculative("used", Math.min(gradingNanos, System.nanoTime() - speculative.startNanos()));
+                log.info("CRAG: Documents are AMBIGUOUS, using speculative refinement ({} documents)", refined.size());
+                return refined;
+            } catch (TimeoutException e) {
+                cancelSpeculative(speculative);
+                throw new CancellationException("Request budget exhausted waiting for speculative refinement");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancelSpeculative(speculative);
+                throw new CancellationException("Interrupted waiting for speculative refinement");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof CancellationException cancelled) {
+                    throw cancelled;
+                }
+                // Real failure: redo the refinement on the sequential path
+                log.warn("Speculative refinement failed, falling back to sequential path", e.getCause());
+            }
+        } else {
+            cancelSpeculative(speculative);
+            recordSpeculative("wasted", System.nanoTime() - speculative.startNanos());
+        }
+        return handleCragDecision(request, evaluation, documents, candidates, depth);
+    }
+
+    private static void cancelSpeculative(SpeculativeRefinement speculative) {
+        speculative.cancellation().cancel();
+        speculative.future().cancel(true);
+    }
+
+    private void recordSpeculative(String outcome, long nanos) {
+        Counter.builder("rag.crag.speculative")
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .increment();
+        Timer.builder("rag.crag.speculative.time")
+                .description("used: latency saved by overlapping with grading; wasted: discarded work")
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private static double score(Document doc, String key) {
+        return doc.getMetadata().get(key) instanceof Number n ? n.doubleValue() : Double.NEGATIVE_INFINITY;
+    }
+
     /**
      * Generate new query from ambiguous document
      */
@@ -247,7 +462,7 @@ public class QueryRetrievalService implements RetrievalService {
         String newQuery = generateQueryFromDocument(query, ambiguousDoc);
 
         // Perform retrieval with new query
-        return retrieveDocuments(newQuery, null, null, true, 0);
+        return retrieveDocuments(RetrievalRequest.builder().query(newQuery).build(), true, 0);
     }
 
     /**
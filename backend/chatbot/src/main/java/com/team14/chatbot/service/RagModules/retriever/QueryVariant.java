@@ -0,0 +1,20 @@
+package com.team14.chatbot.service.RagModules.retriever;
+
+/**
+ * One retrieval leg of a multi-query search: the text searched with and where
+ * it came from (used as metric tag, so keep sources low-cardinality).
+ *
+ * @param source original, step_back, hyde, multi_query
+ * @param sparse also run BM25 with this text (HyDE passages are dense-only)
+ */
+public record QueryVariant(String source, String text, boolean sparse) {
+
+    public static final String ORIGINAL = "original";
+    public static final String STEP_BACK = "step_back";
+    public static final String HYDE = "hyde";
+    public static final String MULTI_QUERY = "multi_query";
+
+    public static QueryVariant of(String source, String text) {
+        return new QueryVariant(source, text, !HYDE.equals(source));
+    }
+}
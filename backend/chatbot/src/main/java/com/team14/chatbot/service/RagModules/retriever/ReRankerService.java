@@ -1,18 +1,19 @@
 package com.team14.chatbot.service.RagModules.retriever;
 
-import com.fasterxml.jackson.annotation.JsonProperty;
-import lombok.Data;
+import com.team14.chatbot.helper.CancellationToken;
+import com.team14.chatbot.helper.RequestDeadline;
+import com.team14.chatbot.service.RagModules.retriever.rerank.RerankCache;
+import com.team14.chatbot.service.RagModules.retriever.rerank.Reranker;
+import com.team14.chatbot.service.RagModules.retriever.rerank.RerankerPolicy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.document.Document;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
-import org.springframework.web.reactive.function.client.WebClient;
-import reactor.util.retry.Retry;
+import reactor.core.publisher.Mono;
 
-import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CancellationException;
 import java.util.stream.Collectors;
 
 @Service
@@ -20,117 +21,209 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 public class ReRankerService {
 
-    private final WebClient.Builder webClientBuilder;
-
-    @Value("${cohere.api.key:}")
-    private String cohereApiKey;
-
-    @Value("${cohere.rerank.model:rerank-multilingual-v3.0}")
-    private String rerankModel;
+    private final RerankerPolicy rerankerPolicy;
+    private final RerankCache rerankCache;
 
     @Value("${cohere.rerank.top-n:5}")
     private int topN;
 
-    private static final String COHERE_RERANK_URL = "https://api.cohere.ai/v1/rerank";
     private static final int MAX_DOCUMENTS_TO_RERANK = 30;
 
     /**
-     * Re-rank documents using Cohere Rerank API
+     * Re-rank documents with the reranker chosen by the policy
      * @param query The search query
      * @param documents List of documents to re-rank (max 30)
      * @return Top N re-ranked documents
      */
     public List<Document> rerank(String query, List<Document> documents) {
+        return rerank(query, documents, topN);
+    }
+
+    /**
+     * Re-rank documents for a retrieval type, keeping the default number of results
+     */
+    public List<Document> rerank(String query, List<Document> documents, RetrievalType retrievalType) {
+        return rerank(query, documents, topN, retrievalType);
+    }
+
+    /**
+     * Re-rank documents and keep the given number of results
+     * @param query The search query
+     * @param documents List of documents to re-rank (max 30)
+     * @param topN Number of documents to return
+     * @return Top N re-ranked documents
+     */
+    public List<Document> rerank(String query, List<Document> documents, int topN) {
+        return rerank(query, documents, topN, null);
+    }
+
+    /**
+     * Re-rank documents for a retrieval type (some types are routed to the local reranker)
+     * @param query The search query
+     * @param documents List of documents to re-rank (max 30)
+     * @param topN Number of documents to return
+     * @param retrievalType Retrieval type of the request (nullable)
+     * @return Top N re-ranked documents
+     */
+    public List<Document> rerank(String query, List<Document> documents, int topN, RetrievalType retrievalType) {
         if (documents.isEmpty()) {
             return Collections.emptyList();
         }
 
-        if (cohereApiKey == null || cohereApiKey.isEmpty()) {
-            log.warn("Cohere API key not configured, returning original documents");
-            return documents.stream().limit(topN).collect(Collectors.toList());
-        }
-
         // Limit to max documents
         List<Document> documentsToRerank = documents.stream()
                 .limit(MAX_DOCUMENTS_TO_RERANK)
                 .collect(Collectors.toList());
 
+        Optional<Reranker> selected = rerankerPolicy.select(retrievalType);
+        if (selected.isEmpty()) {
+            log.warn("No reranker available, returning original documents");
+            return documentsToRerank.stream().limit(topN).collect(Collectors.toList());
+        }
+
+        Reranker reranker = selected.get();
+        RequestDeadline.throwIfCancelled();
         try {
-            log.debug("Re-ranking {} documents with Cohere", documentsToRerank.size());
-
-            // Prepare request
-            CohereRerankRequest request = new CohereRerankRequest();
-            request.setModel(rerankModel);
-            request.setQuery(query);
-            request.setDocuments(documentsToRerank.stream()
-                    .map(Document::getText)
-                    .collect(Collectors.toList()));
-            request.setTopN(topN);
-
-            // Call Cohere API
-            WebClient webClient = webClientBuilder
-                    .baseUrl(COHERE_RERANK_URL)
-                    .defaultHeader("Authorization", "Bearer " + cohereApiKey)
-                    .defaultHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE)
-                    .build();
-
-            CohereRerankResponse response = webClient.post()
-                    .bodyValue(request)
-                    .retrieve()
-                    .bodyToMono(CohereRerankResponse.class)
-//                    .retryWhen(Retry.backoff(3, Duration.ofSeconds(1))
-//                            .filter(throwable -> throwable instanceof Exception))
-                    .block(Duration.ofSeconds(10));
-
-            if (response == null || response.getResults() == null) {
-                log.warn("Cohere rerank returned null response, returning original documents");
-                return documentsToRerank.stream().limit(topN).collect(Collectors.toList());
-            }
+            return callReranker(reranker, query, documentsToRerank, topN);
+        } catch (Exception e) {
+            RequestDeadline.rethrowIfCancellation(e);
+            log.error("Error calling reranker {}", reranker.name(), e);
+        }
 
-            // Map results back to documents
-            List<Document> rerankedDocuments = new ArrayList<>();
-            for (CohereRerankResult result : response.getResults()) {
-                int index = result.getIndex();
-                if (index >= 0 && index < documentsToRerank.size()) {
-                    Document doc = documentsToRerank.get(index);
-                    // Update metadata with rerank score
-                    doc.getMetadata().put("rerank_score", result.getRelevanceScore());
-                    doc.getMetadata().put("rerank_index", result.getIndex());
-                    rerankedDocuments.add(doc);
+        // Remote reranker failed: local model if allowed
+        if (reranker.isRemote()) {
+            Optional<Reranker> fallback = rerankerPolicy.fallback();
+            if (fallback.isPresent()) {
+                try {
+                    log.info("Falling back to local reranker {}", fallback.get().name());
+                    return callReranker(fallback.get(), query, documentsToRerank, topN);
+                } catch (Exception e) {
+                    RequestDeadline.rethrowIfCancellation(e);
+                    log.error("Error calling fallback reranker {}", fallback.get().name(), e);
                 }
             }
+        }
 
-            log.debug("Re-ranked {} documents, returning top {}", rerankedDocuments.size(), topN);
-            return rerankedDocuments;
+        // Fallback: return original documents
+        return documentsToRerank.stream().limit(topN).collect(Collectors.toList());
+    }
 
-        } catch (Exception e) {
-            log.error("Error calling Cohere rerank API", e);
-            // Fallback: return original documents
-            return documentsToRerank.stream().limit(topN).collect(Collectors.toList());
-        }
+    /**
+     * Non-blocking variant of {@link #rerank(String, List, RetrievalType)} for reactive callers
+     */
+    public Mono<List<Document>> rerankAsync(String query, List<Document> documents, RetrievalType retrievalType) {
+        return rerankAsync(query, documents, topN, retrievalType);
     }
 
-    // DTOs for Cohere API
-    @Data
-    private static class CohereRerankRequest {
-        private String model;
-        private String query;
-        private List<String> documents;
-        @JsonProperty("top_n")
-        private Integer topN;
+    /**
+     * Non-blocking variant of {@link #rerank(String, List, int, RetrievalType)}: same reranker
+     * choice, cache and fallbacks, the subscriber thread is never blocked. The deadline and
+     * cancellation of the calling request are captured when the Mono is created.
+     * @return Top N re-ranked documents (original order when no reranker succeeded)
+     */
+    public Mono<List<Document>> rerankAsync(String query, List<Document> documents, int topN,
+                                            RetrievalType retrievalType) {
+        if (documents.isEmpty()) {
+            return Mono.just(Collections.emptyList());
+        }
+
+        List<Document> documentsToRerank = documents.stream()
+                .limit(MAX_DOCUMENTS_TO_RERANK)
+                .collect(Collectors.toList());
+        List<Document> original = documentsToRerank.stream().limit(topN).collect(Collectors.toList());
+
+        Optional<Reranker> selected = rerankerPolicy.select(retrievalType);
+        if (selected.isEmpty()) {
+            log.warn("No reranker available, returning original documents");
+            return Mono.just(original);
+        }
+
+        Reranker reranker = selected.get();
+        CancellationToken cancellation = RequestDeadline.cancellation();
+        if (cancellation.isCancelled()) {
+            return Mono.error(new CancellationException("Operation cancelled before rerank"));
+        }
+        Mono<Void> cancelled = Mono.create(sink -> {
+            CancellationToken.Registration registration = cancellation.onCancel(sink::success);
+            sink.onDispose(registration::close);
+        });
+
+        return callRerankerAsync(reranker, query, documentsToRerank, topN)
+                .onErrorResume(e -> {
+                    if (e instanceof CancellationException) {
+                        return Mono.error(e);
+                    }
+                    log.error("Error calling reranker {}", reranker.name(), e);
+                    // Remote reranker failed: local model if allowed
+                    Optional<Reranker> fallback = reranker.isRemote() ? rerankerPolicy.fallback() : Optional.empty();
+                    if (fallback.isEmpty()) {
+                        return Mono.just(original);
+                    }
+                    log.info("Falling back to local reranker {}", fallback.get().name());
+                    return callRerankerAsync(fallback.get(), query, documentsToRerank, topN)
+                            .onErrorResume(fallbackError -> {
+                                log.error("Error calling fallback reranker {}", fallback.get().name(), fallbackError);
+                                return Mono.just(original);
+                            });
+                })
+                .takeUntilOther(cancelled)
+                .switchIfEmpty(Mono.error(() -> new CancellationException("Operation cancelled during rerank")));
     }
 
-    @Data
-    private static class CohereRerankResponse {
-        private String id;
-        private List<CohereRerankResult> results;
+    private Mono<List<Document>> callRerankerAsync(Reranker reranker, String query, List<Document> documents,
+                                                   int topN) {
+        Optional<List<Document>> cached = rerankCache.get(query, reranker, documents, topN);
+        if (cached.isPresent()) {
+            return Mono.just(cached.get());
+        }
+
+        Mono<List<Document>> call;
+        try {
+            call = reranker.rerankAsync(query, documents, topN);
+        } catch (RuntimeException e) {
+            return Mono.error(e);
+        }
+        return Mono.defer(() -> {
+            long start = System.currentTimeMillis();
+            return call
+                    .doOnNext(result -> {
+                        long latency = System.currentTimeMillis() - start;
+                        if (reranker.isRemote()) {
+                            rerankerPolicy.recordRemoteCall(latency, true);
+                        }
+                        rerankCache.put(query, reranker, documents, topN, result);
+                        log.debug("Reranker {} took {} ms for {} documents", reranker.name(), latency, documents.size());
+                    })
+                    .doOnError(e -> {
+                        if (reranker.isRemote()) {
+                            rerankerPolicy.recordRemoteCall(System.currentTimeMillis() - start, false);
+                        }
+                    });
+        });
     }
 
-    @Data
-    private static class CohereRerankResult {
-        private Integer index;
-        @JsonProperty("relevance_score")
-        private Double relevanceScore;
+    private List<Document> callReranker(Reranker reranker, String query, List<Document> documents, int topN) {
+        // Same query + same candidates + same model: skip the (remote) call
+        Optional<List<Document>> cached = rerankCache.get(query, reranker, documents, topN);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+
+        long start = System.currentTimeMillis();
+        try {
+            List<Document> result = reranker.rerank(query, documents, topN);
+            long latency = System.currentTimeMillis() - start;
+            if (reranker.isRemote()) {
+                rerankerPolicy.recordRemoteCall(latency, true);
+            }
+            rerankCache.put(query, reranker, documents, topN, result);
+            log.debug("Reranker {} took {} ms for {} documents", reranker.name(), latency, documents.size());
+            return result;
+        } catch (RuntimeException e) {
+            if (reranker.isRemote()) {
+                rerankerPolicy.recordRemoteCall(System.currentTimeMillis() - start, false);
+            }
+            throw e;
+        }
     }
 }
-
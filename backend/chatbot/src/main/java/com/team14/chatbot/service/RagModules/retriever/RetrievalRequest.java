@@ -5,10 +5,12 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 @Data
-@Builder
+@Builder(toBuilder = true)
 @NoArgsConstructor
 @AllArgsConstructor
 public class RetrievalRequest {
@@ -17,5 +19,18 @@ public class RetrievalRequest {
     private Integer topK;
     private Boolean enableCrag;
     private RetrievalType retrievalType;
+
+    // MMR diversification of the final context (null/false = plain top K)
+    private Boolean enableMmr;
+    private Double mmrLambda;
+    private Integer tokenBudget;
+
+    // Extra retrieval legs fused with the query (null/empty = single-query search);
+    // re-ranking and CRAG still use the query
+    private List<QueryVariant> queryVariants;
+
+    // Variants still being produced, by source (streaming HyDE, query expansion):
+    // fused only if they arrive in time, retrieval never waits for them
+    private Map<String, CompletableFuture<List<QueryVariant>>> lateVariants;
 }
 
@@ -0,0 +1,271 @@
+package com.team14.chatbot.service.RagModules.retriever.rerank;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.team14.chatbot.configuration.RerankConfig;
+import com.team14.chatbot.helper.RequestDeadline;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.netty.channel.ChannelOption;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Remote reranker backed by the Cohere Rerank API.
+ *
+ * One shared WebClient over a pooled connection provider. Each call gets a
+ * deadline from the remaining request budget, in-flight calls are capped, and
+ * a hedged second request is sent when the first one exceeds the observed p95.
+ */
+@Component
+@Slf4j
+public class CohereReranker implements Reranker {
+
+    private final WebClient.Builder webClientBuilder;
+    private final RerankConfig rerankConfig;
+    private final MeterRegistry meterRegistry;
+    private final PassageWindowSelector passageWindowSelector;
+
+    @Value("${cohere.api.key:}")
+    private String cohereApiKey;
+
+    @Value("${cohere.rerank.model:rerank-multilingual-v3.0}")
+    private String rerankModel;
+
+    private static final String COHERE_RERANK_URL = "https://api.cohere.ai/v1/rerank";
+
+    private ConnectionProvider connectionProvider;
+    private WebClient webClient;
+    private Semaphore concurrencyLimit;
+    private LatencyWindow latencyWindow;
+    private Timer latencyTimer;
+    private Counter hedgeCounter;
+    private Counter rejectedCounter;
+
+    public CohereReranker(WebClient.Builder webClientBuilder, RerankConfig rerankConfig, MeterRegistry meterRegistry,
+                          PassageWindowSelector passageWindowSelector) {
+        this.webClientBuilder = webClientBuilder;
+        this.rerankConfig = rerankConfig;
+        this.meterRegistry = meterRegistry;
+        this.passageWindowSelector = passageWindowSelector;
+    }
+
+    @PostConstruct
+    public void init() {
+        RerankConfig.Remote remote = rerankConfig.getRemote();
+
+        connectionProvider = ConnectionProvider.builder("cohere-rerank")
+                .maxConnections(remote.getMaxConnections())
+                .pendingAcquireTimeout(Duration.ofSeconds(2))
+                .maxIdleTime(Duration.ofSeconds(30))
+                .build();
+        HttpClient httpClient = HttpClient.create(connectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 2000);
+
+        webClient = webClientBuilder.clone()
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .baseUrl(COHERE_RERANK_URL)
+                .defaultHeader("Authorization", "Bearer " + cohereApiKey)
+                .defaultHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE)
+                .build();
+
+        concurrencyLimit = new Semaphore(remote.getMaxConcurrency());
+        latencyWindow = new LatencyWindow(remote.getLatencyWindow());
+        latencyTimer = Timer.builder("rag.rerank.remote.latency")
+                .tag("model", rerankModel)
+                .publishPercentiles(0.5, 0.95)
+                .register(meterRegistry);
+        hedgeCounter = Counter.builder("rag.rerank.remote.hedges")
+                .description("Hedged second requests sent to Cohere")
+                .register(meterRegistry);
+        rejectedCounter = Counter.builder("rag.rerank.remote.rejected")
+                .description("Rerank calls rejected by the concurrency limit")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (connectionProvider != null) {
+            connectionProvider.dispose();
+        }
+    }
+
+    @Override
+    public String name() {
+        return "cohere:" + rerankModel;
+    }
+
+    @Override
+    public String cacheKey() {
+        return "window=" + passageWindowSelector.budget(rerankModel);
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return cohereApiKey != null && !cohereApiKey.isEmpty();
+    }
+
+    @Override
+    public boolean isRemote() {
+        return true;
+    }
+
+    /**
+     * Re-rank documents using Cohere Rerank API (blocks the caller, bounded by the deadline)
+     */
+    @Override
+    public List<Document> rerank(String query, List<Document> documents, int topN) {
+        return rerankAsync(query, documents, topN).block();
+    }
+
+    @Override
+    public Mono<List<Document>> rerankAsync(String query, List<Document> documents, int topN) {
+        Duration deadline = RequestDeadline.remaining(Duration.ofMillis(rerankConfig.getRemote().getTimeoutMs()));
+        return rerankAsync(query, documents, topN, deadline);
+    }
+
+    /**
+     * Non-blocking rerank with an explicit deadline
+     * @throws TimeoutException (in the Mono) if no answer before the deadline
+     */
+    public Mono<List<Document>> rerankAsync(String query, List<Document> documents, int topN, Duration deadline) {
+        if (deadline.isZero() || deadline.isNegative()) {
+            return Mono.error(new TimeoutException("Request budget exhausted before rerank"));
+        }
+        log.debug("Re-ranking {} documents with Cohere (deadline {} ms)", documents.size(), deadline.toMillis());
+
+        // Prepare request (query-relevant window of each chunk, results map back by index)
+        CohereRerankRequest request = new CohereRerankRequest();
+        request.setModel(rerankModel);
+        request.setQuery(query);
+        request.setDocuments(passageWindowSelector.windows(query, documents, rerankModel));
+        request.setTopN(topN);
+
+        Mono<CohereRerankResponse> response = call(request, true);
+
+        // Hedge: second request once the first one is slower than the observed p95
+        long p95 = latencyP95();
+        if (rerankConfig.getRemote().isHedgeEnabled() && p95 >= 0) {
+            long hedgeDelayMs = Math.max(p95, rerankConfig.getRemote().getHedgeMinDelayMs());
+            if (hedgeDelayMs < deadline.toMillis()) {
+                Mono<CohereRerankResponse> hedge = Mono.delay(Duration.ofMillis(hedgeDelayMs))
+                        .then(Mono.defer(() -> {
+                            hedgeCounter.increment();
+                            log.debug("Cohere rerank slower than p95 ({} ms), sending hedged request", hedgeDelayMs);
+                            return call(request, false);
+                        }));
+                response = Mono.firstWithValue(response, hedge);
+            }
+        }
+
+        return response
+                .timeout(deadline)
+                .map(r -> toDocuments(r, documents, topN));
+    }
+
+    /**
+     * One HTTP call, counted against the concurrency limit.
+     * A first call cancelled by a winning hedge or the deadline still records
+     * its elapsed time (a lower bound of its latency), otherwise slow calls
+     * never reach the window and the p95 only sees the fast ones
+     */
+    private Mono<CohereRerankResponse> call(CohereRerankRequest request, boolean first) {
+        return Mono.defer(() -> {
+            if (!concurrencyLimit.tryAcquire()) {
+                rejectedCounter.increment();
+                return Mono.error(new RejectedExecutionException("Cohere rerank concurrency limit reached"));
+            }
+            long start = System.nanoTime();
+            return webClient.post()
+                    .bodyValue(request)
+                    .retrieve()
+                    .bodyToMono(CohereRerankResponse.class)
+                    .switchIfEmpty(Mono.error(new IllegalStateException("Cohere rerank returned null response")))
+                    .doOnSuccess(r -> recordLatency(start))
+                    .doOnCancel(() -> {
+                        if (first) {
+                            recordLatency(start);
+                        }
+                    })
+                    .doFinally(signal -> concurrencyLimit.release());
+        });
+    }
+
+    private void recordLatency(long startNanos) {
+        long latencyNanos = System.nanoTime() - startNanos;
+        latencyWindow.record(TimeUnit.NANOSECONDS.toMillis(latencyNanos));
+        latencyTimer.record(latencyNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Current p95 of the remote call latency in ms, -1 until enough calls were observed
+     */
+    long latencyP95() {
+        return latencyWindow.percentile(0.95);
+    }
+
+    private List<Document> toDocuments(CohereRerankResponse response, List<Document> documents, int topN) {
+        if (response.getResults() == null) {
+            throw new IllegalStateException("Cohere rerank returned null response");
+        }
+
+        // Map results back to documents
+        List<Document> rerankedDocuments = new ArrayList<>();
+        for (CohereRerankResult result : response.getResults()) {
+            int index = result.getIndex();
+            if (index >= 0 && index < documents.size()) {
+                Document doc = documents.get(index);
+                // Update metadata with rerank score
+                doc.getMetadata().put("rerank_score", result.getRelevanceScore());
+                doc.getMetadata().put("rerank_index", result.getIndex());
+                doc.getMetadata().put("reranker", name());
+                rerankedDocuments.add(doc);
+            }
+        }
+
+        log.debug("Re-ranked {} documents, returning top {}", rerankedDocuments.size(), topN);
+        return rerankedDocuments;
+    }
+
+    // DTOs for Cohere API
+    @Data
+    private static class CohereRerankRequest {
+        private String model;
+        private String query;
+        private List<String> documents;
+        @JsonProperty("top_n")
+        private Integer topN;
+    }
+
+    @Data
+    private static class CohereRerankResponse {
+        private String id;
+        private List<CohereRerankResult> results;
+    }
+
+    @Data
+    private static class CohereRerankResult {
+        private Integer index;
+        @JsonProperty("relevance_score")
+        private Double relevanceScore;
+    }
+}
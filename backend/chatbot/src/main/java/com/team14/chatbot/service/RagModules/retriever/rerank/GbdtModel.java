@@ -0,0 +1,58 @@
+package com.team14.chatbot.service.RagModules.retriever.rerank;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Gradient-boosted regression trees loaded from a JSON model file.
+ *
+ * Each tree is a flat node list; node 0 is the root. An internal node sends
+ * the sample to {@code left} when {@code x[feature] < threshold}, otherwise to
+ * {@code right}. Leaves only carry {@code leaf}. The raw margin is
+ * {@code base_score + sum(leaf)}, squashed with a sigmoid into [0, 1].
+ *
+ * Models exported by data/train_local_reranker.py carry their test metrics
+ * in {@code evaluation}; {@code placeholder} marks hand-written trees that
+ * were never trained (not to be used for ranking).
+ */
+public record GbdtModel(
+        String name,
+        List<String> features,
+        @JsonProperty("base_score") double baseScore,
+        List<Tree> trees,
+        boolean placeholder,
+        Map<String, Object> evaluation) {
+
+    public record Tree(List<Node> nodes) {
+    }
+
+    public record Node(
+            Integer feature,
+            Double threshold,
+            Integer left,
+            Integer right,
+            Double leaf) {
+
+        boolean isLeaf() {
+            return leaf != null;
+        }
+    }
+
+    /**
+     * Score a feature vector (same order as {@link #features()})
+     */
+    public double predict(double[] x) {
+        double margin = baseScore;
+        for (Tree tree : trees) {
+            Node node = tree.nodes().get(0);
+            while (!node.isLeaf()) {
+                double value = node.feature() < x.length ? x[node.feature()] : 0.0;
+                node = tree.nodes().get(value < node.threshold() ? node.left() : node.right());
+            }
+            margin += node.leaf();
+        }
+        return 1.0 / (1.0 + Math.exp(-margin));
+    }
+}
@@ -0,0 +1,39 @@
+package com.team14.chatbot.service.RagModules.retriever.rerank;
+
+import java.util.Arrays;
+
+/**
+ * Sliding window of the last N call latencies, used to compute percentiles
+ * (e.g. the hedge delay = observed p95).
+ */
+public class LatencyWindow {
+
+    private static final int MIN_SAMPLES = 20;
+
+    private final long[] samples;
+    private int next;
+    private int count;
+
+    public LatencyWindow(int size) {
+        this.samples = new long[Math.max(size, MIN_SAMPLES)];
+    }
+
+    public synchronized void record(long latencyMs) {
+        samples[next] = latencyMs;
+        next = (next + 1) % samples.length;
+        count = Math.min(count + 1, samples.length);
+    }
+
+    /**
+     * Percentile in ms (e.g. 0.95), or -1 when not enough calls were observed yet
+     */
+    public synchronized long percentile(double p) {
+        if (count < MIN_SAMPLES) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(p * count) - 1;
+        return sorted[Math.max(0, Math.min(index, count - 1))];
+    }
+}
@@ -0,0 +1,134 @@
+package com.team14.chatbot.service.RagModules.retriever.rerank;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.team14.chatbot.configuration.RerankConfig;
+import com.team14.chatbot.service.RagModules.retriever.Bm25IndexService;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Component;
+
+import java.io.InputStream;
+import java.util.*;
+
+/**
+ * In-process reranker: a small gradient-boosted tree model over retrieval
+ * features (BM25, dense, RRF scores, query term overlap, chunk length).
+ * No network call, re-ranks 30 candidates in a few milliseconds.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class LocalFeatureReranker implements Reranker {
+
+    private final RerankConfig rerankConfig;
+    private final ResourceLoader resourceLoader;
+    private final ObjectMapper objectMapper;
+    private final Bm25IndexService bm25IndexService;
+
+    private volatile GbdtModel model;
+
+    @PostConstruct
+    public void loadModel() {
+        Resource resource = resourceLoader.getResource(rerankConfig.getLocalModelPath());
+        try (InputStream in = resource.getInputStream()) {
+            this.model = objectMapper.readValue(in, GbdtModel.class);
+            log.info("Local reranker model {} loaded: {} trees, features={}, evaluation={}",
+                    model.name(), model.trees().size(), model.features(), model.evaluation());
+            if (model.placeholder() && rerankConfig.getStrategy() != RerankStrategy.REMOTE_ONLY) {
+                log.warn("Local reranker model {} is an untrained placeholder but rerank.strategy={} uses it;"
+                        + " train one with data/train_local_reranker.py", model.name(), rerankConfig.getStrategy());
+            }
+        } catch (Exception e) {
+            log.error("Failed to load local reranker model from {}", rerankConfig.getLocalModelPath(), e);
+        }
+    }
+
+    @Override
+    public String name() {
+        return model != null ? "local:" + model.name() : "local";
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return model != null;
+    }
+
+    @Override
+    public List<Document> rerank(String query, List<Document> documents, int topN) {
+        GbdtModel currentModel = model;
+        if (currentModel == null) {
+            throw new IllegalStateException("Local reranker model not loaded");
+        }
+
+        Set<String> queryTerms = new HashSet<>(bm25IndexService.analyzeTerms(query));
+
+        List<ScoredDocument> scored = new ArrayList<>(documents.size());
+        for (int i = 0; i < documents.size(); i++) {
+            Document doc = documents.get(i);
+            double[] x = extractFeatures(currentModel.features(), queryTerms, doc);
+            scored.add(new ScoredDocument(doc, i, currentModel.predict(x)));
+        }
+
+        scored.sort(Comparator.comparingDouble(ScoredDocument::score).reversed());
+
+        List<Document> rerankedDocuments = new ArrayList<>();
+        for (ScoredDocument sd : scored.subList(0, Math.min(topN, scored.size()))) {
+            sd.document().getMetadata().put("rerank_score", sd.score());
+            sd.document().getMetadata().put("rerank_index", sd.index());
+            sd.document().getMetadata().put("reranker", name());
+            rerankedDocuments.add(sd.document());
+        }
+
+        log.debug("Locally re-ranked {} documents, returning top {}", documents.size(), rerankedDocuments.size());
+        return rerankedDocuments;
+    }
+
+    /**
+     * Build the feature vector in the order declared by the model file
+     */
+    private double[] extractFeatures(List<String> featureNames, Set<String> queryTerms, Document doc) {
+        List<String> docTerms = bm25IndexService.analyzeTerms(doc.getText());
+        Map<String, Object> metadata = doc.getMetadata();
+
+        double[] x = new double[featureNames.size()];
+        for (int i = 0; i < featureNames.size(); i++) {
+            x[i] = switch (featureNames.get(i)) {
+                case "bm25_score" -> number(metadata.get("bm25_score"));
+                case "dense_similarity" -> denseSimilarity(doc);
+                case "rrf_score" -> number(metadata.get("rrf_score"));
+                case "term_overlap" -> termOverlap(queryTerms, docTerms);
+                case "log_length" -> Math.log1p(docTerms.size());
+                default -> 0.0;
+            };
+        }
+        return x;
+    }
+
+    private double denseSimilarity(Document doc) {
+        Object distance = doc.getMetadata().get("distance");
+        if (distance instanceof Number d) {
+            return 1.0 - d.doubleValue();
+        }
+        return 0.0;
+    }
+
+    private double termOverlap(Set<String> queryTerms, List<String> docTerms) {
+        if (queryTerms.isEmpty()) {
+            return 0.0;
+        }
+        Set<String> matched = new HashSet<>(docTerms);
+        matched.retainAll(queryTerms);
+        return (double) matched.size() / queryTerms.size();
+    }
+
+    private double number(Object value) {
+        return value instanceof Number n ? n.doubleValue() : 0.0;
+    }
+
+    private record ScoredDocument(Document document, int index, double score) {
+    }
+}
@@ -0,0 +1,157 @@
+package com.team14.chatbot.service.RagModules.retriever.rerank;
+
+import com.team14.chatbot.configuration.RerankConfig;
+import com.team14.chatbot.helper.TokenEstimator;
+import com.team14.chatbot.service.RagModules.retriever.Bm25IndexService;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Picks the most query-relevant window of each chunk under a token budget, so
+ * the rerank payload stays small. Windows are runs of whole sentences; the
+ * window with the most query term hits (BM25 analyzer terms) wins.
+ * Only the rerank request uses the windows, full chunks go downstream.
+ */
+@Component
+@Slf4j
+public class PassageWindowSelector {
+
+    private static final Pattern SENTENCE_BOUNDARY = Pattern.compile("(?<=[.!?…;:])\\s+|\\n+");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final RerankConfig rerankConfig;
+    private final Bm25IndexService bm25IndexService;
+    private final TokenEstimator tokenEstimator;
+    private final DistributionSummary originalTokens;
+    private final DistributionSummary windowedTokens;
+    private final DistributionSummary reductionRatio;
+
+    public PassageWindowSelector(RerankConfig rerankConfig, Bm25IndexService bm25IndexService,
+                                 TokenEstimator tokenEstimator, MeterRegistry meterRegistry) {
+        this.rerankConfig = rerankConfig;
+        this.bm25IndexService = bm25IndexService;
+        this.tokenEstimator = tokenEstimator;
+        this.originalTokens = DistributionSummary.builder("rag.rerank.payload.tokens")
+                .description("Estimated tokens of chunk text per rerank request")
+                .tag("stage", "original")
+                .register(meterRegistry);
+        this.windowedTokens = DistributionSummary.builder("rag.rerank.payload.tokens")
+                .description("Estimated tokens of chunk text per rerank request")
+                .tag("stage", "windowed")
+                .register(meterRegistry);
+        this.reductionRatio = DistributionSummary.builder("rag.rerank.payload.reduction")
+                .description("Share of rerank payload tokens removed by windowing")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Token budget per chunk for the model, -1 when windowing is off (full chunks)
+     */
+    public int budget(String model) {
+        RerankConfig.Windowing windowing = rerankConfig.getWindowing();
+        return windowing.isEnabled()
+                ? windowing.getModelTokenBudgets().getOrDefault(model, windowing.getDefaultTokenBudget())
+                : -1;
+    }
+
+    /**
+     * Texts to send to the reranker, same order as the documents
+     */
+    public List<String> windows(String query, List<Document> documents, String model) {
+        int budget = budget(model);
+        if (budget < 0) {
+            return documents.stream().map(Document::getText).toList();
+        }
+
+        Set<String> queryTerms = new HashSet<>(bm25IndexService.analyzeTerms(query));
+
+        int before = 0;
+        int after = 0;
+        List<String> windows = new ArrayList<>(documents.size());
+        for (Document doc : documents) {
+            String text = doc.getText();
+            int tokens = tokenEstimator.estimate(text);
+            String window = tokens <= budget ? text : bestWindow(text, queryTerms, budget);
+            before += tokens;
+            after += window == text ? tokens : tokenEstimator.estimate(window);
+            windows.add(window);
+        }
+
+        originalTokens.record(before);
+        windowedTokens.record(after);
+        if (before > 0) {
+            reductionRatio.record(1.0 - (double) after / before);
+        }
+        log.debug("Rerank payload windowed: {} -> {} tokens (budget {} per chunk)", before, after, budget);
+        return windows;
+    }
+
+    /**
+     * Contiguous sentences with the most query term hits that fit the budget
+     */
+    private String bestWindow(String text, Set<String> queryTerms, int budget) {
+        String[] sentences = SENTENCE_BOUNDARY.split(text.trim());
+        int[] tokens = new int[sentences.length];
+        int[] hits = new int[sentences.length];
+        for (int i = 0; i < sentences.length; i++) {
+            tokens[i] = tokenEstimator.estimate(sentences[i]);
+            hits[i] = (int) bm25IndexService.analyzeTerms(sentences[i]).stream()
+                    .filter(queryTerms::contains)
+                    .count();
+        }
+
+        // Two pointers: best-scoring run of sentences within the budget
+        int bestStart = 0;
+        int bestEnd = 0;
+        int bestHits = -1;
+        int start = 0;
+        int windowTokens = 0;
+        int windowHits = 0;
+        for (int end = 0; end < sentences.length; end++) {
+            windowTokens += tokens[end];
+            windowHits += hits[end];
+            while (windowTokens > budget && start <= end) {
+                windowTokens -= tokens[start];
+                windowHits -= hits[start];
+                start++;
+            }
+            if (start <= end && windowHits > bestHits) {
+                bestHits = windowHits;
+                bestStart = start;
+                bestEnd = end + 1;
+            }
+        }
+
+        if (bestHits < 0) {
+            // Every sentence alone exceeds the budget: cut the best one by words
+            int best = 0;
+            for (int i = 1; i < sentences.length; i++) {
+                if (hits[i] > hits[best]) {
+                    best = i;
+                }
+            }
+            return truncate(sentences[best], budget);
+        }
+        return String.join(" ", Arrays.copyOfRange(sentences, bestStart, bestEnd));
+    }
+
+    private String truncate(String sentence, int budget) {
+        String[] words = WHITESPACE.split(sentence);
+        StringBuilder sb = new StringBuilder();
+        for (String word : words) {
+            String candidate = sb.isEmpty() ? word : sb + " " + word;
+            if (tokenEstimator.estimate(candidate) > budget) {
+                break;
+            }
+            sb.setLength(0);
+            sb.append(candidate);
+        }
+        return sb.toString();
+    }
+}
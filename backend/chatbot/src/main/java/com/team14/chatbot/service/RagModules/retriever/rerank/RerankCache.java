@@ -0,0 +1,126 @@
+package com.team14.chatbot.service.RagModules.retriever.rerank;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.team14.chatbot.configuration.RerankConfig;
+import com.team14.chatbot.helper.QueryNormalizer;
+import com.team14.chatbot.service.RagModules.retriever.HybridSearchService;
+import com.team14.chatbot.service.RagModules.retriever.KnowledgeBaseVersionService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * Cache of rerank results keyed by normalized query + ordered candidate IDs +
+ * reranker name and settings (passage window budget) + top N. Only (id, score)
+ * pairs are stored; on a hit the scores are applied to the current candidate
+ * documents. Candidates with duplicate IDs are neither cached nor served, and
+ * an entry naming a document that is not among the candidates is a miss.
+ *
+ * Flushed when the knowledge base version changes (the version is also part of
+ * the key, so a result computed during a change is never served afterwards).
+ * Metrics: cache.gets{cache=rerank,result=hit|miss}, cache.size, cache.evictions.
+ */
+@Component
+@Slf4j
+public class RerankCache {
+
+    private final RerankConfig rerankConfig;
+    private final KnowledgeBaseVersionService knowledgeBaseVersionService;
+    private final Cache<String, List<RankedId>> cache;
+
+    public RerankCache(RerankConfig rerankConfig,
+                       KnowledgeBaseVersionService knowledgeBaseVersionService,
+                       MeterRegistry meterRegistry) {
+        this.rerankConfig = rerankConfig;
+        this.knowledgeBaseVersionService = knowledgeBaseVersionService;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(rerankConfig.getCache().getMaxSize())
+                .expireAfterWrite(Duration.ofMinutes(rerankConfig.getCache().getTtlMinutes()))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "rerank");
+        knowledgeBaseVersionService.addListener(version -> cache.invalidateAll());
+    }
+
+    /**
+     * Cached rerank result for these candidates, scores applied to the documents
+     */
+    public Optional<List<Document>> get(String query, Reranker reranker, List<Document> candidates, int topN) {
+        if (!rerankConfig.getCache().isEnabled()) {
+            return Optional.empty();
+        }
+        Map<String, Integer> indexById = indexById(candidates);
+        if (indexById == null) {
+            return Optional.empty();
+        }
+
+        List<RankedId> ranked = cache.getIfPresent(key(query, reranker, candidates, topN));
+        if (ranked == null) {
+            return Optional.empty();
+        }
+        Set<String> seen = new HashSet<>();
+        for (RankedId rankedId : ranked) {
+            if (!indexById.containsKey(rankedId.id()) || !seen.add(rankedId.id())) {
+                log.warn("Rerank cache entry for query '{}' does not match its candidates ({}), ignored",
+                        query, rankedId.id());
+                return Optional.empty();
+            }
+        }
+
+        List<Document> result = new ArrayList<>(ranked.size());
+        for (RankedId rankedId : ranked) {
+            int index = indexById.get(rankedId.id());
+            Document doc = candidates.get(index);
+            doc.getMetadata().put("rerank_score", rankedId.score());
+            doc.getMetadata().put("rerank_index", index);
+            doc.getMetadata().put("reranker", reranker.name());
+            result.add(doc);
+        }
+
+        log.debug("Rerank cache hit for query '{}' ({} documents)", query, result.size());
+        return Optional.of(result);
+    }
+
+    public void put(String query, Reranker reranker, List<Document> candidates, int topN, List<Document> reranked) {
+        if (!rerankConfig.getCache().isEnabled() || indexById(candidates) == null) {
+            return;
+        }
+
+        List<RankedId> ranked = reranked.stream()
+                .map(doc -> new RankedId(HybridSearchService.getDocumentId(doc),
+                        doc.getMetadata().get("rerank_score") instanceof Number n ? n.doubleValue() : 0.0))
+                .toList();
+        cache.put(key(query, reranker, candidates, topN), ranked);
+    }
+
+    // Vị trí của từng ID trong candidates, null khi có ID trùng
+    private static Map<String, Integer> indexById(List<Document> candidates) {
+        Map<String, Integer> indexById = new HashMap<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            if (indexById.putIfAbsent(HybridSearchService.getDocumentId(candidates.get(i)), i) != null) {
+                return null;
+            }
+        }
+        return indexById;
+    }
+
+    private String key(String query, Reranker reranker, List<Document> candidates, int topN) {
+        StringJoiner key = new StringJoiner("|");
+        key.add(String.valueOf(knowledgeBaseVersionService.currentVersion()));
+        key.add(reranker.name());
+        key.add(reranker.cacheKey());
+        key.add(String.valueOf(topN));
+        key.add(QueryNormalizer.normalize(query));
+        candidates.forEach(doc -> key.add(HybridSearchService.getDocumentId(doc)));
+        return key.toString();
+    }
+
+    private record RankedId(String id, double score) {
+    }
+}
@@ -0,0 +1,223 @@
+package com.team14.chatbot.service.RagModules.retriever.rerank;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.team14.chatbot.configuration.RerankConfig;
+import com.team14.chatbot.service.RagModules.retriever.HybridSearchService;
+import com.team14.chatbot.service.RagModules.retriever.ReRankerService;
+import com.team14.chatbot.service.RagModules.retriever.RetrievalType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Score-margin gating: decides whether the fused (RRF) ranking is confident
+ * enough to skip the reranker.
+ *
+ * Signals: RRF margin between the two best candidates (in rank steps), whether the
+ * top-1 was found by both dense and BM25 legs, and the share of the top-K found
+ * by both legs. Every reranked request and every shadow-checked skipped request
+ * is logged as a JSON sample (logger "rerank.gating.samples") for offline
+ * calibration of the thresholds.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class RerankGate {
+
+    private static final Logger SAMPLES = LoggerFactory.getLogger("rerank.gating.samples");
+
+    /**
+     * Score the fused top-1 loses when it drops one rank in both legs. With
+     * RRF_K = 10 fused scores are compressed (two chunks ranked 1st and 2nd by
+     * both legs are only 8% apart), so the margin is measured in these steps
+     */
+    private static final double RANK_STEP =
+            2.0 / ((HybridSearchService.RRF_K + 1) * (HybridSearchService.RRF_K + 2));
+
+    private final RerankConfig rerankConfig;
+    private final ReRankerService reRankerService;
+    private final MeterRegistry meterRegistry;
+    private final ObjectMapper objectMapper;
+
+    public record GateDecision(
+            boolean rerank,
+            String reason,
+            double rankMargin,
+            boolean top1Agreement,
+            double topKAgreement) {
+    }
+
+    /**
+     * Evaluate the fused candidates (best first)
+     */
+    public GateDecision evaluate(List<Document> candidates) {
+        RerankConfig.Gating gating = rerankConfig.getGating();
+
+        double margin = rankMargin(candidates);
+        boolean top1Agreement = !candidates.isEmpty() && foundByBothLegs(candidates.get(0));
+        double topKAgreement = topKAgreement(candidates, gating.getAgreementK());
+
+        String reason;
+        boolean rerank;
+        if (!gating.isEnabled()) {
+            rerank = true;
+            reason = "disabled";
+        } else if (candidates.size() < Math.max(2, gating.getMinCandidates())) {
+            rerank = true;
+            reason = "few_candidates";
+        } else if (margin < gating.getMinRankMargin()) {
+            rerank = true;
+            reason = "low_margin";
+        } else if (gating.isRequireTop1Agreement() && !top1Agreement) {
+            rerank = true;
+            reason = "top1_disagreement";
+        } else if (topKAgreement < gating.getMinTopKAgreement()) {
+            rerank = true;
+            reason = "topk_disagreement";
+        } else {
+            rerank = false;
+            reason = "confident";
+        }
+
+        Counter.builder("rag.rerank.gating.decisions")
+                .tag("decision", rerank ? "rerank" : "skip")
+                .tag("reason", reason)
+                .register(meterRegistry)
+                .increment();
+
+        GateDecision decision = new GateDecision(rerank, reason, margin, top1Agreement, topKAgreement);
+        log.debug("Rerank gate: {}", decision);
+        return decision;
+    }
+
+    /**
+     * Record the outcome of a reranked request (quality baseline + calibration sample)
+     */
+    public void recordReranked(GateDecision decision, List<Document> fused, List<Document> reranked) {
+        recordComparison("rerank", decision, fused, reranked);
+    }
+
+    /**
+     * For a sample of skipped requests, rerank in background and compare with the
+     * fused order that was actually used
+     */
+    public void maybeShadowCheck(String query, GateDecision decision, List<Document> fused,
+            RetrievalType retrievalType) {
+        if (decision.rerank()
+                || ThreadLocalRandom.current().nextDouble() >= rerankConfig.getGating().getShadowSampleRate()) {
+            return;
+        }
+
+        // Copies: the reranker writes its scores into the document metadata
+        List<Document> copies = fused.stream()
+                .map(doc -> Document.builder()
+                        .id(doc.getId())
+                        .text(doc.getText())
+                        .metadata(new HashMap<>(doc.getMetadata()))
+                        .score(doc.getScore())
+                        .build())
+                .toList();
+
+        Thread.ofVirtual().name("rerank-shadow").start(() -> {
+            try {
+                List<Document> reranked = reRankerService.rerank(query, copies, retrievalType);
+                recordComparison("skip", decision, copies, reranked);
+            } catch (Exception e) {
+                log.warn("Shadow rerank failed", e);
+            }
+        });
+    }
+
+    private void recordComparison(String decisionTag, GateDecision decision, List<Document> fused,
+            List<Document> reranked) {
+        if (fused.isEmpty() || reranked.isEmpty()) {
+            return;
+        }
+
+        boolean top1Match = HybridSearchService.getDocumentId(fused.get(0))
+                .equals(HybridSearchService.getDocumentId(reranked.get(0)));
+        double overlap = overlap(fused, reranked);
+
+        Counter.builder("rag.rerank.gating.quality")
+                .description("Fused top-1 equals reranked top-1 (decision=skip: shadow-checked sample)")
+                .tag("decision", decisionTag)
+                .tag("top1", top1Match ? "match" : "mismatch")
+                .register(meterRegistry)
+                .increment();
+        DistributionSummary.builder("rag.rerank.gating.overlap")
+                .description("Overlap of fused and reranked top-N")
+                .tag("decision", decisionTag)
+                .register(meterRegistry)
+                .record(overlap);
+
+        try {
+            Map<String, Object> sample = new LinkedHashMap<>();
+            sample.put("decision", decisionTag);
+            sample.put("candidates", fused.size());
+            sample.put("rank_margin", decision.rankMargin());
+            sample.put("top1_agreement", decision.top1Agreement());
+            sample.put("topk_agreement", decision.topKAgreement());
+            sample.put("top1_match", top1Match);
+            sample.put("overlap", overlap);
+            SAMPLES.info("GATING_SAMPLE {}", objectMapper.writeValueAsString(sample));
+        } catch (Exception e) {
+            log.debug("Could not log gating sample", e);
+        }
+    }
+
+    /**
+     * (rrf1 - rrf2) / RANK_STEP of the two best fused candidates: 1.0 when the
+     * top-1 is one rank ahead of the runner-up in both legs, 0 when the legs
+     * swap them
+     */
+    private double rankMargin(List<Document> candidates) {
+        if (candidates.isEmpty()) {
+            return 0.0;
+        }
+        double top1 = rrfScore(candidates.get(0));
+        double top2 = candidates.size() > 1 ? rrfScore(candidates.get(1)) : 0.0;
+        return (top1 - top2) / RANK_STEP;
+    }
+
+    private double topKAgreement(List<Document> candidates, int k) {
+        List<Document> top = candidates.subList(0, Math.min(k, candidates.size()));
+        if (top.isEmpty()) {
+            return 0.0;
+        }
+        return (double) top.stream().filter(this::foundByBothLegs).count() / top.size();
+    }
+
+    private boolean foundByBothLegs(Document doc) {
+        return number(doc.getMetadata().get("dense_score")) > 0 && number(doc.getMetadata().get("sparse_score")) > 0;
+    }
+
+    /**
+     * Share of the reranked top-N that is also in the fused top-N
+     */
+    private double overlap(List<Document> fused, List<Document> reranked) {
+        int n = reranked.size();
+        Set<String> fusedTop = new HashSet<>();
+        fused.stream().limit(n).forEach(doc -> fusedTop.add(HybridSearchService.getDocumentId(doc)));
+        long common = reranked.stream()
+                .filter(doc -> fusedTop.contains(HybridSearchService.getDocumentId(doc)))
+                .count();
+        return (double) common / n;
+    }
+
+    private double rrfScore(Document doc) {
+        return number(doc.getMetadata().get("rrf_score"));
+    }
+
+    private double number(Object value) {
+        return value instanceof Number n ? n.doubleValue() : 0.0;
+    }
+}
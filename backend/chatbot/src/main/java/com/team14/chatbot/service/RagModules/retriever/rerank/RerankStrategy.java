@@ -0,0 +1,7 @@
+package com.team14.chatbot.service.RagModules.retriever.rerank;
+
+public enum RerankStrategy {
+    REMOTE_WITH_LOCAL_FALLBACK, // Cohere, local model khi Cohere lỗi / chậm / không cấu hình
+    REMOTE_ONLY,                // Chỉ Cohere (cắt top N khi lỗi - hành vi cũ)
+    LOCAL_ONLY                  // Chỉ dùng model local, không gọi mạng
+}
@@ -0,0 +1,60 @@
+package com.team14.chatbot.service.RagModules.retriever.rerank;
+
+import org.springframework.ai.document.Document;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.List;
+
+/**
+ * SPI for re-ranking retrieval candidates.
+ * Implementations put their score into the "rerank_score" metadata field and
+ * return documents best first.
+ */
+public interface Reranker {
+
+    /**
+     * Stable name of the reranker (used in logs, metadata and cache keys)
+     */
+    String name();
+
+    /**
+     * Settings that change the scores for the same query and candidates
+     * (e.g. passage window budget); part of the rerank cache key
+     */
+    default String cacheKey() {
+        return "";
+    }
+
+    /**
+     * Whether the reranker can be used right now (configured, model loaded...)
+     */
+    boolean isAvailable();
+
+    /**
+     * Whether the reranker calls a remote service (latency / cost / outages)
+     */
+    default boolean isRemote() {
+        return false;
+    }
+
+    /**
+     * Re-rank documents for the query
+     *
+     * @param query     The search query
+     * @param documents Candidates to re-rank
+     * @param topN      Number of documents to return
+     * @return Top N documents, best first
+     */
+    List<Document> rerank(String query, List<Document> documents, int topN);
+
+    /**
+     * Non-blocking variant for reactive callers. Default runs the blocking
+     * {@link #rerank} on the bounded elastic scheduler; remote rerankers should
+     * override it with a truly non-blocking call.
+     */
+    default Mono<List<Document>> rerankAsync(String query, List<Document> documents, int topN) {
+        return Mono.fromCallable(() -> rerank(query, documents, topN))
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+}
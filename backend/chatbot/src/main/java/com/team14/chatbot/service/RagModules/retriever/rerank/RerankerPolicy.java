@@ -0,0 +1,89 @@
+package com.team14.chatbot.service.RagModules.retriever.rerank;
+
+import com.team14.chatbot.configuration.RerankConfig;
+import com.team14.chatbot.service.RagModules.retriever.RetrievalType;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chooses which reranker serves a request, based on the configured strategy,
+ * the retrieval type and the observed health of the remote reranker.
+ *
+ * The remote reranker is considered unhealthy after {@code failureThreshold}
+ * consecutive failed or slow calls, and is skipped for {@code cooldownMs}.
+ */
+@Component
+@Slf4j
+public class RerankerPolicy {
+
+    private final RerankConfig rerankConfig;
+    private final Optional<Reranker> remoteReranker;
+    private final Optional<Reranker> localReranker;
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicLong unhealthyUntil = new AtomicLong();
+
+    public RerankerPolicy(RerankConfig rerankConfig, List<Reranker> rerankers) {
+        this.rerankConfig = rerankConfig;
+        this.remoteReranker = rerankers.stream().filter(Reranker::isRemote).findFirst();
+        this.localReranker = rerankers.stream().filter(r -> !r.isRemote()).findFirst();
+    }
+
+    /**
+     * Reranker to try first for this retrieval type (empty = no reranking possible)
+     */
+    public Optional<Reranker> select(RetrievalType retrievalType) {
+        Optional<Reranker> local = localReranker.filter(Reranker::isAvailable);
+        Optional<Reranker> remote = remoteReranker.filter(Reranker::isAvailable);
+
+        return switch (rerankConfig.getStrategy()) {
+            case LOCAL_ONLY -> local;
+            case REMOTE_ONLY -> remote;
+            case REMOTE_WITH_LOCAL_FALLBACK -> {
+                boolean forceLocal = retrievalType != null
+                        && rerankConfig.getLocalRetrievalTypes().contains(retrievalType);
+                if (forceLocal || !isRemoteHealthy()) {
+                    yield local.or(() -> remote);
+                }
+                yield remote.or(() -> local);
+            }
+        };
+    }
+
+    /**
+     * Local reranker to use when the remote one fails (only with fallback strategy)
+     */
+    public Optional<Reranker> fallback() {
+        if (rerankConfig.getStrategy() != RerankStrategy.REMOTE_WITH_LOCAL_FALLBACK) {
+            return Optional.empty();
+        }
+        return localReranker.filter(Reranker::isAvailable);
+    }
+
+    /**
+     * Record the outcome of a remote rerank call for the health check
+     */
+    public void recordRemoteCall(long latencyMs, boolean success) {
+        if (success && latencyMs <= rerankConfig.getSlowCallMs()) {
+            consecutiveFailures.set(0);
+            return;
+        }
+
+        int failures = consecutiveFailures.incrementAndGet();
+        if (failures >= rerankConfig.getFailureThreshold()) {
+            unhealthyUntil.set(System.currentTimeMillis() + rerankConfig.getCooldownMs());
+            consecutiveFailures.set(0);
+            log.warn("Remote reranker unhealthy after {} failed/slow calls, using local reranker for {} ms",
+                    failures, rerankConfig.getCooldownMs());
+        }
+    }
+
+    public boolean isRemoteHealthy() {
+        return System.currentTimeMillis() >= unhealthyUntil.get();
+    }
+}
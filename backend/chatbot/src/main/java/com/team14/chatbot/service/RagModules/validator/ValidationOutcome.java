@@ -0,0 +1,42 @@
+package com.team14.chatbot.service.RagModules.validator;
+
+/**
+ * Verdict of the output validation loop (validate, self-correct once, retry
+ * twice) on a generated answer.
+ *
+ * VALID: answer unchanged. CORRECTED: {@code answer} is the corrected one.
+ * RETRACTED: no candidate passed; {@code answer} is the last candidate (still
+ * returned in blocking mode), a post-hoc check retracts the answer instead.
+ */
+public record ValidationOutcome(Status status, String answer, String reason) {
+
+    public static final String RETRACTION_NOTICE =
+            "Câu trả lời trước chưa được xác thực là chính xác nên đã bị thu hồi. Vui lòng đặt lại câu hỏi.";
+
+    public enum Status {
+        VALID, CORRECTED, RETRACTED
+    }
+
+    public static ValidationOutcome valid(String answer) {
+        return new ValidationOutcome(Status.VALID, answer, null);
+    }
+
+    public static ValidationOutcome corrected(String answer, String reason) {
+        return new ValidationOutcome(Status.CORRECTED, answer, reason);
+    }
+
+    public static ValidationOutcome retracted(String lastCandidate, String reason) {
+        return new ValidationOutcome(Status.RETRACTED, lastCandidate, reason);
+    }
+
+    public boolean failed() {
+        return status != Status.VALID;
+    }
+
+    /**
+     * Text that should replace the answer already shown / saved
+     */
+    public String replacement() {
+        return status == Status.RETRACTED ? RETRACTION_NOTICE : answer;
+    }
+}
@@ -2,12 +2,13 @@ package com.team14.chatbot.service.RagModules.validator;
 
 import com.team14.chatbot.service.RagModules.GenerationService;
 import com.team14.chatbot.service.RagModules.ValidatorService;
+import com.team14.chatbot.service.RagModules.generation.CompiledPrompt;
 import com.team14.chatbot.service.RagModules.generation.GenerationRequest;
 import com.team14.chatbot.service.RagModules.generation.Model;
+import com.team14.chatbot.service.RagModules.generation.PromptRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.prompt.Prompt;
-import org.springframework.ai.chat.prompt.PromptTemplate;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
@@ -43,6 +44,9 @@ public class ValidatorServiceImpl implements ValidatorService {
         {{"isValid": true|false, "violationType": "HALLUCINATION" | "IRRELEVANT" | null, "reason": "string", "correctedContent": "string" | null}}
         """;
 
+    private static final CompiledPrompt OUTPUT_VALIDATE = PromptRegistry.register(
+            "validator.output", 1, OUTPUT_VALIDATE_PROMPT, "contexts", "userInput", "generatedOutput");
+
     // --- 1. INPUT VALIDATION ---
     @Override
     public ValidationResult validateInput(String userInput) {
@@ -141,8 +145,7 @@ public class ValidatorServiceImpl implements ValidatorService {
                 "generatedOutput", generatedOutput);
 
         // 3. Create Spring AI Prompt Object
-        PromptTemplate promptTemplate = new PromptTemplate(OUTPUT_VALIDATE_PROMPT);
-        Prompt prompt = promptTemplate.create(promptVariables);
+        Prompt prompt = OUTPUT_VALIDATE.prompt(promptVariables);
 
         // 4. Call Service (Assuming ModelEnum.JUDGE is your enum for the validator
         // model)
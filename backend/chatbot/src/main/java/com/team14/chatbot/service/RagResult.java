@@ -0,0 +1,27 @@
+package com.team14.chatbot.service;
+
+import com.team14.chatbot.service.RagModules.validator.ValidationOutcome;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Answer of a RAG request. In ASYNC validation mode the answer is returned
+ * before it is validated and {@code validation} completes later; a failed
+ * outcome carries the correction (or the retraction) to push to the client.
+ * Already completed with VALID otherwise.
+ * {@code cached}: served from the answer cache (validated when stored).
+ */
+public record RagResult(String answer, CompletableFuture<ValidationOutcome> validation, boolean cached) {
+
+    public RagResult(String answer, CompletableFuture<ValidationOutcome> validation) {
+        this(answer, validation, false);
+    }
+
+    public static RagResult of(String answer) {
+        return new RagResult(answer, CompletableFuture.completedFuture(ValidationOutcome.valid(answer)));
+    }
+
+    public static RagResult cached(String answer) {
+        return new RagResult(answer, CompletableFuture.completedFuture(ValidationOutcome.valid(answer)), true);
+    }
+}
@@ -1,26 +1,48 @@
 package com.team14.chatbot.service;
 
+import com.team14.chatbot.configuration.ValidationConfig;
+import com.team14.chatbot.enums.ValidationMode;
+import com.team14.chatbot.helper.CancellationToken;
+import com.team14.chatbot.helper.RequestDeadline;
+import com.team14.chatbot.helper.TaskScope;
 import com.team14.chatbot.service.RagModules.generation.Model;
+import com.team14.chatbot.service.RagModules.pipeline.PipelineListener;
 import com.team14.chatbot.service.RagModules.pipeline.PipelinePlan;
 import com.team14.chatbot.enums.QueryIntent;
 import com.team14.chatbot.service.RagModules.FusionService;
 import com.team14.chatbot.service.RagModules.PipelineExecutorService;
 import com.team14.chatbot.service.RagModules.PlannerService;
+import com.team14.chatbot.service.RagModules.fusion.FusionSection;
 import com.team14.chatbot.service.RagModules.ValidatorService;
+import com.team14.chatbot.service.RagModules.query_processor.QueryProcessingCache;
 import com.team14.chatbot.service.RagModules.query_processor.QueryProcessingService;
 import com.team14.chatbot.service.RagModules.query_processor.IntentTask;
 import com.team14.chatbot.service.RagModules.query_processor.QueryProcessingResult;
+import com.team14.chatbot.service.RagModules.query_processor.SpeculativeAdvisoryAnalysis;
+import com.team14.chatbot.service.RagModules.query_processor.StreamingQueryProcessing;
+import com.team14.chatbot.service.RagModules.validator.ValidationOutcome;
 import com.team14.chatbot.service.RagModules.validator.ValidationResult;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.util.ArrayList;
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Executors;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
 
 @Service
 @RequiredArgsConstructor
@@ -29,101 +51,312 @@ public class RagService {
 
     private final PipelineExecutorService pipelineExecutor;
     private final QueryProcessingService queryProcessor;
+    private final QueryProcessingCache queryProcessingCache;
     private final PlannerService planner;
     private final FusionService fusionService;
     private final ValidatorService validatorService;
+    private final SpeculativeAdvisoryAnalysis speculativeAdvisory;
+    private final ValidationConfig validationConfig;
+    private final MeterRegistry meterRegistry;
+    private final RequestCoalescer requestCoalescer;
+    private final AnswerCache answerCache;
+
+    @Value("${rag.request-budget-ms:30000}")
+    private long requestBudgetMs;
+
+    // Parse query-processing output while it streams, plan before HyDE is done
+    @Value("${rag.query-processing.streaming:true}")
+    private boolean streamingQueryProcessing;
 
     public String generate(String userQuery, String conversationHistory) {
+        return generate(userQuery, conversationHistory, CancellationToken.NONE);
+    }
+
+    /**
+     * @param cancellation Cancelled when the client goes away; propagated to
+     *                     every LLM / rerank / embedding call of the request
+     */
+    public String generate(String userQuery, String conversationHistory, CancellationToken cancellation) {
+        return generate(userQuery, conversationHistory, cancellation, PipelineListener.NONE);
+    }
+
+    /**
+     * Validated answer: waits for the output validation even in ASYNC mode
+     */
+    public String generate(String userQuery, String conversationHistory, CancellationToken cancellation,
+            PipelineListener listener) {
+        return generateResult(userQuery, conversationHistory, cancellation, listener).validation().join().answer();
+    }
+
+    /**
+     * @param listener Receives the progress of the request; when it streams the
+     *                 answer, the final generation (or the fusion of a
+     *                 multi-intent answer) is streamed to it token by token.
+     *                 The returned answer stays authoritative (blocking
+     *                 validation may still replace the streamed one)
+     * @return The answer, returned before its validation in ASYNC mode
+     */
+    public RagResult generateResult(String userQuery, String conversationHistory, CancellationToken cancellation,
+            PipelineListener listener) {
+        // Câu hỏi giống hệt đang được xử lý -> dùng chung kết quả / stream
+        return requestCoalescer.execute(userQuery, conversationHistory, cancellation, listener,
+                (token, flightListener) -> generateAlone(userQuery, conversationHistory, token, flightListener));
+    }
+
+    private RagResult generateAlone(String userQuery, String conversationHistory, CancellationToken cancellation,
+            PipelineListener listener) {
+        // Budget cho toàn bộ request, các client (rerank...) lấy timeout từ phần còn lại
+        RequestDeadline.start(Duration.ofMillis(requestBudgetMs), cancellation);
+        try {
+            return generateWithinBudget(userQuery, conversationHistory, listener);
+        } catch (CancellationException e) {
+            log.info("Request cancelled: {}", e.getMessage());
+            return RagResult.of("Yêu cầu đã bị huỷ.");
+        } finally {
+            RequestDeadline.clear();
+        }
+    }
+
+    private RagResult generateWithinBudget(String userQuery, String conversationHistory, PipelineListener listener) {
         log.info(">>> NEW REQUEST: {}", userQuery);
 
         // B0: validate input
         ValidationResult inputValidation = validatorService.validateInput(userQuery);
         if (!inputValidation.isValid()) {
-            return "Yêu cầu không hợp lệ: " + inputValidation.getReason();
+            return RagResult.of("Yêu cầu không hợp lệ: " + inputValidation.getReason());
         }
         log.info("Yêu cầu hợp lệ!");
 
-        // B1: xử lý query tổng hợp (intent + step-back + HyDE)
-        QueryProcessingResult processingResult = queryProcessor.execute(userQuery, conversationHistory);
+        // Câu hỏi kiến thức độc lập hội thoại đã trả lời với cùng phiên bản KB -> trả ngay
+        AnswerCache.Lookup cacheLookup = answerCache.start(userQuery, conversationHistory);
+        Optional<String> cachedAnswer = answerCache.findExact(cacheLookup);
+        if (cachedAnswer.isPresent()) {
+            log.info("Answer cache hit for: {}", userQuery);
+            return RagResult.cached(cachedAnswer.get());
+        }
+
+        // Phân tích advisory chạy song song với B1 nếu câu hỏi có dấu hiệu advisory
+        SpeculativeAdvisoryAnalysis.Speculation speculation = speculativeAdvisory.start(userQuery);
+        try {
+            return answer(userQuery, conversationHistory, speculation, listener, cacheLookup);
+        } finally {
+            // Không có pipeline ADVISORY nào dùng kết quả -> huỷ và tính phần lãng phí
+            speculation.discard();
+        }
+    }
+
+    private RagResult answer(String userQuery, String conversationHistory,
+            SpeculativeAdvisoryAnalysis.Speculation speculation, PipelineListener listener,
+            AnswerCache.Lookup cacheLookup) {
+        // B1: xử lý query tổng hợp (intent + step-back + HyDE), dùng lại kết quả của câu hỏi tương tự
+        listener.onStage("query-processing");
+        QueryProcessingResult processingResult = processQuery(userQuery, conversationHistory);
         List<IntentTask> tasks = processingResult.intents();
 
         if (tasks.stream().anyMatch(intentTask -> intentTask.intent() == QueryIntent.MALICIOUS_CONTENT)) {
-            return "Phát hiện nội dung độc hại, vui lòng đặt lại câu hỏi khác.";
+            return RagResult.of("Phát hiện nội dung độc hại, vui lòng đặt lại câu hỏi khác.");
         }
 
-        log.info("Intents: {}", tasks.stream().map(IntentTask::intent).toList());
+        List<QueryIntent> intents = tasks.stream().map(IntentTask::intent).toList();
+        log.info("Intents: {}", intents);
+        listener.onIntents(intents);
+
+        // Diễn đạt khác của câu hỏi đã cache, cùng intents
+        Optional<String> similarAnswer = answerCache.findSimilar(cacheLookup, intents);
+        if (similarAnswer.isPresent()) {
+            return RagResult.cached(similarAnswer.get());
+        }
         log.info("StepBack question: {}", processingResult.stepBackQuestion());
-        log.info("HyDE document length: {}", processingResult.hydeDocument() != null
-                ? processingResult.hydeDocument().length()
-                : 0);
+        processingResult.pendingHydeDocument().thenAccept(hyde ->
+                log.info("HyDE document length: {}", hyde != null ? hyde.length() : 0));
 
         // B3: tạo plan cho intent (hiện tại 1 intent; có thể mở rộng multi-intent sau)
-        List<PipelinePlan> plans = planner.createPlans(processingResult);
+        // Phân tích advisory chạy trước dùng cho pipeline ADVISORY duy nhất (nhiều câu hỏi
+        // advisory -> mỗi pipeline tự phân tích câu hỏi con của nó)
+        List<PipelinePlan> created = planner.createPlans(processingResult);
+        boolean singleAdvisory = created.stream()
+                .filter(plan -> QueryIntent.ADVISORY.name().equals(plan.getIntent()))
+                .count() == 1;
+        List<PipelinePlan> plans = created.stream()
+                .map(plan -> singleAdvisory && QueryIntent.ADVISORY.name().equals(plan.getIntent())
+                        ? plan.toBuilder().advisorySpeculation(speculation).build()
+                        : plan)
+                .toList();
         log.info("Plans: {}", plans.stream().map(PipelinePlan::toString));
 
-        // B4: thực thi song song từng intent pipeline
-        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+        // B4: thực thi song song từng intent pipeline; 1 pipeline lỗi hoặc client ngắt kết nối
+        // -> huỷ các pipeline còn lại
+        // Nhiều pipeline: chỉ stream câu trả lời khi fusion, không stream từng pipeline
+        RequestDeadline.throwIfCancelled();
+        PipelineListener pipelineListener = plans.size() == 1 ? listener : listener.stagesOnly();
+        try (TaskScope<String> scope = new TaskScope<>(RequestDeadline.cancellation())) {
             List<Future<String>> futures = plans.stream()
-                    .map(p -> executor.submit(() -> pipelineExecutor.execute(p)))
+                    .map(p -> scope.fork(() -> pipelineExecutor.execute(p, pipelineListener)))
                     .toList();
-            List<String> responses = new ArrayList<>();
-            for (Future<String> f : futures) {
-                try {
-                    String r = f.get();
-                    if (r != null && !r.isBlank()) {
-                        responses.add(r);
-                    }
-                } catch (Exception e) {
-                    log.error("Intent pipeline failed", e);
-                }
-            }
+            scope.join().throwIfFailed();
+
+            List<FusionSection> sections = IntStream.range(0, plans.size())
+                    .mapToObj(i -> new FusionSection(plans.get(i).getIntent(), plans.get(i).getQuery(),
+                            futures.get(i).resultNow()))
+                    .filter(section -> section.answer() != null && !section.answer().isBlank())
+                    .toList();
+            List<String> responses = sections.stream().map(FusionSection::answer).toList();
 
             if (responses.isEmpty())
-                return "Không có phản hồi từ các pipeline.";
-            String fusedAns = responses.size() == 1
-                    ? responses.get(0)
-                    : fusionService.fuse(userQuery, responses, Model.GEMINI_2_5_FLASH);
-            return validateAndRecover(fusedAns, userQuery, responses, tasks.stream().map(IntentTask::intent).toList());
+                return RagResult.of("Không có phản hồi từ các pipeline.");
+            String fusedAns = responses.size() == 1 ? responses.get(0) : fuse(userQuery, sections, listener);
+            return validate(fusedAns, userQuery, responses, intents, listener, cacheLookup);
+        } catch (CancellationException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Request interrupted");
         } catch (Exception e) {
             log.error("Pipeline execution failed", e);
-            return "Xin lỗi, hệ thống gặp lỗi khi xử lý yêu cầu.";
+            return RagResult.of("Xin lỗi, hệ thống gặp lỗi khi xử lý yêu cầu.");
         }
     }
 
+    private QueryProcessingResult processQuery(String userQuery, String conversationHistory) {
+        QueryProcessingCache.Lookup lookup = queryProcessingCache.lookup(userQuery, conversationHistory);
+        if (lookup.isHit()) {
+            queryProcessingCache.maybeShadowCheck(lookup, () -> queryProcessor.execute(userQuery, conversationHistory));
+            return lookup.result();
+        }
+
+        if (streamingQueryProcessing) {
+            StreamingQueryProcessing streaming = queryProcessor.executeStreaming(userQuery, conversationHistory);
+            streaming.completed().thenAccept(result -> queryProcessingCache.put(lookup, result));
+            return awaitPlan(streaming.planReady());
+        }
+        QueryProcessingResult result = queryProcessor.execute(userQuery, conversationHistory);
+        queryProcessingCache.put(lookup, result);
+        return result;
+    }
+
     /**
-     * Validate fused output; if fail, self-correct once, then retry regenerate
-     * twice, else fallback.
+     * Plan of the streamed query processing, waited for no longer than what is
+     * left of the request budget; given up when the request is cancelled
      */
-    private String validateAndRecover(String fused, String originalQuery, List<String> parts,
-            List<QueryIntent> intents) {
+    private QueryProcessingResult awaitPlan(CompletableFuture<QueryProcessingResult> planReady) {
+        // Bản sao: huỷ việc chờ không huỷ future dùng chung với stream
+        CompletableFuture<QueryProcessingResult> waiting = planReady.copy();
+        Duration left = RequestDeadline.remaining(Duration.ofMillis(requestBudgetMs));
+        try (CancellationToken.Registration registration = RequestDeadline.cancellation()
+                .onCancel(() -> waiting.cancel(false))) {
+            return waiting.get(left.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log.warn("No query processing plan within the request budget ({} ms left)", left.toMillis());
+            throw new CancellationException("Request budget exhausted during query processing");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Request interrupted");
+        } catch (ExecutionException e) {
+            throw new CompletionException(e.getCause());
+        }
+    }
+
+    private String fuse(String userQuery, List<FusionSection> sections, PipelineListener listener) {
+        listener.onStage("fusion");
+        return fusionService.fuseSections(userQuery, sections, Model.GEMINI_2_5_FLASH,
+                listener.streamsAnswer() ? listener::onToken : null);
+    }
+
+    /**
+     * Output validation of the fused answer, in the mode configured for its
+     * intents. BLOCKING: the (corrected) answer is returned once validated.
+     * ASYNC: the answer is returned right away, the validator loop runs on a
+     * virtual thread with its own budget (the client may already be gone, the
+     * saved message is still corrected).
+     */
+    private RagResult validate(String fused, String originalQuery, List<String> parts,
+            List<QueryIntent> intents, PipelineListener listener, AnswerCache.Lookup cacheLookup) {
         boolean hasCoreIntent = intents.stream().anyMatch(intent -> intent == QueryIntent.KNOWLEDGE_QUERY
                 || intent == QueryIntent.ADVISORY
                 || intent == QueryIntent.CALCULATION);
 
         if (!hasCoreIntent) {
-            return fused;
+            return RagResult.of(fused);
+        }
+
+        ValidationMode mode = validationConfig.mode(intents);
+        if (mode == ValidationMode.BLOCKING) {
+            listener.onStage("validation");
+            ValidationOutcome outcome = timedValidation(mode, () -> validateAndRecover(fused, originalQuery, parts));
+            cacheValidated(cacheLookup, intents, outcome);
+            return RagResult.of(outcome.answer());
         }
 
+        CompletableFuture<ValidationOutcome> validation = new CompletableFuture<>();
+        Thread.ofVirtual().name("post-hoc-validation").start(() -> {
+            RequestDeadline.start(Duration.ofMillis(requestBudgetMs));
+            try {
+                ValidationOutcome outcome = timedValidation(mode, () -> validateAndRecover(fused, originalQuery, parts));
+                cacheValidated(cacheLookup, intents, outcome);
+                validation.complete(outcome);
+            } catch (Exception e) {
+                // Validator không khả dụng: giữ câu trả lời đã gửi
+                log.warn("Post-hoc validation failed, keeping the answer: {}", e.toString());
+                validation.complete(ValidationOutcome.valid(fused));
+            } finally {
+                RequestDeadline.clear();
+            }
+        });
+        return new RagResult(fused, validation);
+    }
+
+    // Không cache câu trả lời bị thu hồi
+    private void cacheValidated(AnswerCache.Lookup cacheLookup, List<QueryIntent> intents, ValidationOutcome outcome) {
+        if (outcome.status() != ValidationOutcome.Status.RETRACTED) {
+            answerCache.put(cacheLookup, intents, outcome.answer());
+        }
+    }
+
+    private ValidationOutcome timedValidation(ValidationMode mode, Supplier<ValidationOutcome> validation) {
+        long start = System.nanoTime();
+        String outcome = "error";
+        try {
+            ValidationOutcome result = validation.get();
+            outcome = result.status().name().toLowerCase();
+            if (result.failed()) {
+                log.info("[Validation] {} answer {}: {}", mode, outcome, result.reason());
+            }
+            return result;
+        } finally {
+            Timer.builder("rag.validation")
+                    .tag("mode", mode.name().toLowerCase())
+                    .tag("outcome", outcome)
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Validate fused output; if fail, self-correct once, then retry regenerate
+     * twice, else fallback.
+     */
+    private ValidationOutcome validateAndRecover(String fused, String originalQuery, List<String> parts) {
         Map<String, String> emptyContexts = new HashMap<>();
         ValidationResult vr = validatorService.validateOutput(fused, originalQuery, emptyContexts);
         if (vr.isValid())
-            return fused;
+            return ValidationOutcome.valid(fused);
 
         // Self-correct once
+        String firstReason = vr.getReason();
         String candidate = regenerateFusion(originalQuery, parts, "self-correct", vr.getReason());
         vr = validatorService.validateOutput(candidate, originalQuery, emptyContexts);
         if (vr.isValid())
-            return candidate;
+            return ValidationOutcome.corrected(candidate, firstReason);
 
         // Retry regenerate up to 2 times
         for (int i = 1; i <= 2; i++) {
             candidate = regenerateFusion(originalQuery, parts, "retry_" + i, vr.getReason());
             vr = validatorService.validateOutput(candidate, originalQuery, emptyContexts);
             if (vr.isValid())
-                return candidate;
+                return ValidationOutcome.corrected(candidate, firstReason);
         }
 
-        return candidate;
+        return ValidationOutcome.retracted(candidate, vr.getReason());
     }
 
     private String regenerateFusion(String originalQuery, List<String> parts, String mode, String validatorReason) {
@@ -0,0 +1,245 @@
+package com.team14.chatbot.service;
+
+import com.team14.chatbot.enums.QueryIntent;
+import com.team14.chatbot.helper.CancellationToken;
+import com.team14.chatbot.helper.QueryNormalizer;
+import com.team14.chatbot.service.RagModules.pipeline.PipelineListener;
+import com.team14.chatbot.service.RagModules.query_processor.LocalIntentRouter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * Single-flight coalescing of identical in-flight chat requests (many users
+ * asking the same question within seconds during market events).
+ *
+ * The first request for a normalized query leads and runs the pipeline;
+ * identical requests arriving meanwhile attach to it: they get the stage
+ * events and answer tokens already emitted replayed, then live, and share its
+ * result. Followers wait at most {@code rag.coalescing.max-wait-ms}, then run
+ * on their own. The shared execution is cancelled only once every attached
+ * client, the leader included, is gone. Off by default (rag.coalescing.enabled).
+ *
+ * Only conversation-independent turns are coalesced: a non-empty conversation
+ * summary (personalized context) or an advisory cue bypasses it, and a flight
+ * whose intents turn out ADVISORY releases its followers to run alone.
+ * Metrics: rag.coalescing{role=leader|follower|bypass|timeout|unshareable},
+ * rag.coalescing.wait, rag.coalescing.in_flight.
+ */
+@Component
+@Slf4j
+public class RequestCoalescer {
+
+    /**
+     * The actual RAG execution, run with the flight's token and listener
+     */
+    @FunctionalInterface
+    public interface Execution {
+        RagResult run(CancellationToken cancellation, PipelineListener listener);
+    }
+
+    private final LocalIntentRouter localIntentRouter;
+    private final MeterRegistry meterRegistry;
+    private final Timer waitTimer;
+    private final ConcurrentMap<String, Flight> inFlight = new ConcurrentHashMap<>();
+
+    @Value("${rag.coalescing.enabled:false}")
+    private boolean enabled;
+
+    @Value("${rag.coalescing.max-wait-ms:20000}")
+    private long maxWaitMs;
+
+    public RequestCoalescer(LocalIntentRouter localIntentRouter, MeterRegistry meterRegistry) {
+        this.localIntentRouter = localIntentRouter;
+        this.meterRegistry = meterRegistry;
+        this.waitTimer = Timer.builder("rag.coalescing.wait")
+                .description("Time followers waited for the shared execution")
+                .publishPercentiles(0.5, 0.95)
+                .register(meterRegistry);
+        meterRegistry.gauge("rag.coalescing.in_flight", inFlight, ConcurrentMap::size);
+    }
+
+    public RagResult execute(String query, String conversationHistory, CancellationToken cancellation,
+            PipelineListener listener, Execution execution) {
+        if (!enabled || query == null || query.isBlank()
+                || (conversationHistory != null && !conversationHistory.isBlank())
+                || localIntentRouter.hasAdvisoryCue(query)) {
+            count("bypass");
+            return execution.run(cancellation, listener);
+        }
+
+        String key = QueryNormalizer.normalize(query);
+        while (true) {
+            // Leader gắn vào flight trước khi flight hiện ra cho follower: follower rời sớm
+            // (client ngắt) không thể huỷ flight khi leader chưa kịp gắn
+            Flight flight = new Flight(key);
+            Flight.Member leader = flight.attach(cancellation, listener);
+            if (leader == null) {
+                // Client đã ngắt trước khi bắt đầu
+                return execution.run(cancellation, listener);
+            }
+            Flight existing = inFlight.putIfAbsent(key, flight);
+            if (existing == null) {
+                return lead(flight, leader, execution);
+            }
+            flight.detach(leader);
+            Flight.Member member = existing.attach(cancellation, listener);
+            if (member != null) {
+                return follow(existing, member, cancellation, listener, execution);
+            }
+            // Flight đang kết thúc / không chia sẻ được: bỏ khỏi map rồi thử lại
+            inFlight.remove(key, existing);
+        }
+    }
+
+    private RagResult lead(Flight flight, Flight.Member leader, Execution execution) {
+        count("leader");
+        RagResult result = null;
+        try {
+            result = execution.run(flight.token, flight);
+            return result;
+        } finally {
+            inFlight.remove(flight.key, flight);
+            flight.finish(result);
+            flight.detach(leader);
+        }
+    }
+
+    private RagResult follow(Flight flight, Flight.Member member, CancellationToken cancellation,
+            PipelineListener listener, Execution execution) {
+        long start = System.nanoTime();
+        CompletableFuture<Optional<RagResult>> shared = flight.shared.copy();
+        CancellationToken.Registration registration = cancellation.onCancel(() -> shared.cancel(false));
+        try {
+            Optional<RagResult> result = shared.get(maxWaitMs, TimeUnit.MILLISECONDS);
+            if (result.isPresent()) {
+                count("follower");
+                return result.get();
+            }
+            count("unshareable");
+        } catch (TimeoutException e) {
+            log.info("[Coalescing] Waited {}ms for \"{}\", running alone", maxWaitMs, flight.key);
+            count("timeout");
+        } catch (CancellationException e) {
+            return RagResult.of("Yêu cầu đã bị huỷ.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return RagResult.of("Yêu cầu đã bị huỷ.");
+        } catch (ExecutionException e) {
+            count("unshareable");
+        } finally {
+            registration.close();
+            flight.detach(member);
+            waitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        return execution.run(cancellation, listener);
+    }
+
+    private void count(String role) {
+        meterRegistry.counter("rag.coalescing", "role", role).increment();
+    }
+
+    /**
+     * One shared execution; also the listener it runs with, recording its
+     * events to replay them to late followers
+     */
+    private final class Flight implements PipelineListener {
+        private final String key;
+        private final CancellationToken token = new CancellationToken();
+        // empty: not shareable (advisory turn), followers run alone
+        private final CompletableFuture<Optional<RagResult>> shared = new CompletableFuture<>();
+        private final List<Consumer<PipelineListener>> events = new ArrayList<>();
+        private final List<Member> members = new ArrayList<>();
+
+        /**
+         * One attached request (leader or follower)
+         */
+        private final class Member {
+            private final PipelineListener listener;
+            private CancellationToken.Registration registration;
+
+            private Member(PipelineListener listener) {
+                this.listener = listener;
+            }
+        }
+
+        Flight(String key) {
+            this.key = key;
+        }
+
+        /**
+         * @return null when the flight can no longer be joined
+         */
+        synchronized Member attach(CancellationToken cancellation, PipelineListener listener) {
+            if (shared.isDone() || token.isCancelled() || cancellation.isCancelled()) {
+                return null;
+            }
+            Member member = new Member(listener);
+            events.forEach(event -> event.accept(listener));
+            members.add(member);
+            member.registration = cancellation.onCancel(() -> leave(member));
+            return member;
+        }
+
+        void detach(Member member) {
+            synchronized (this) {
+                members.remove(member);
+            }
+            member.registration.close();
+        }
+
+        // Client của một member ngắt kết nối: chỉ huỷ khi không còn ai chờ kết quả,
+        // kể cả leader (gắn từ trước khi flight được công bố)
+        private void leave(Member member) {
+            boolean last;
+            synchronized (this) {
+                last = members.remove(member) && members.isEmpty();
+            }
+            if (last && !shared.isDone()) {
+                token.cancel("every coalesced client disconnected");
+            }
+        }
+
+        void finish(RagResult result) {
+            shared.complete(Optional.ofNullable(result));
+        }
+
+        @Override
+        public void onIntents(List<QueryIntent> intents) {
+            if (intents.contains(QueryIntent.ADVISORY)) {
+                inFlight.remove(key, this);
+                shared.complete(Optional.empty());
+            }
+            broadcast(listener -> listener.onIntents(intents));
+        }
+
+        @Override
+        public void onStage(String stage) {
+            broadcast(listener -> listener.onStage(stage));
+        }
+
+        @Override
+        public void onToken(String token) {
+            broadcast(listener -> listener.onToken(token));
+        }
+
+        // Bất kỳ follower nào cũng có thể đang stream
+        @Override
+        public boolean streamsAnswer() {
+            return true;
+        }
+
+        private synchronized void broadcast(Consumer<PipelineListener> event) {
+            events.add(event);
+            members.forEach(member -> event.accept(member.listener));
+        }
+    }
+}
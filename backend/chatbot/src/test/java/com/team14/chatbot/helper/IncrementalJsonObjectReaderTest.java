@@ -0,0 +1,129 @@
+package com.team14.chatbot.helper;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link IncrementalJsonObjectReader} on streamed LLM output: the same fields
+ * whatever the chunk boundaries, braces in the preamble skipped, garbage and
+ * truncated input never reported as fields. Seeds are fixed so failures
+ * reproduce.
+ */
+class IncrementalJsonObjectReaderTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final String JSON = """
+            {"intents": [{"intent": "KNOWLEDGE_QUERY", "query": "Lãi kép là gì {x}?", "explanation": "định nghĩa"}],
+             "step_back_question": "Các loại lãi suất",
+             "hyde_document": "Lãi kép là lãi tính trên cả gốc và lãi \\"tích lũy\\"."}""";
+
+    private static final String[] PREAMBLES = {
+            "", "```json\n", "Kết quả {ghi chú}: ```json\n", "Xem { phần dưới } và {\n```json\n", "{ không phải JSON\n",
+            // Trông như JSON tới khi parser gặp lỗi: đọc lại từ '{' sau
+            "Mẫu {\"ghi chú\" bên dưới}\n"
+    };
+
+    @Test
+    void sameFieldsForEverySplitPosition() throws IOException {
+        for (String preamble : PREAMBLES) {
+            String text = preamble + JSON + "\n```\nHy vọng hữu ích {";
+            Map<String, JsonNode> expected = expectedFields();
+            for (int split = 0; split <= text.length(); split++) {
+                Reader reader = new Reader();
+                reader.feed(text.substring(0, split));
+                reader.feed(text.substring(split));
+
+                assertTrue(reader.delegate.isComplete(), preamble + " split at " + split);
+                assertEquals(expected, reader.fields, preamble + " split at " + split);
+            }
+        }
+    }
+
+    @Test
+    void sameFieldsForRandomChunks() throws IOException {
+        Map<String, JsonNode> expected = expectedFields();
+        for (int seed = 0; seed < 200; seed++) {
+            Random random = new Random(seed);
+            String text = PREAMBLES[random.nextInt(PREAMBLES.length)] + JSON;
+            Reader reader = new Reader();
+            for (int from = 0; from < text.length(); ) {
+                int to = Math.min(text.length(), from + 1 + random.nextInt(8));
+                reader.feed(text.substring(from, to));
+                from = to;
+            }
+
+            assertTrue(reader.delegate.isComplete(), "seed " + seed);
+            assertEquals(expected, reader.fields, "seed " + seed);
+        }
+    }
+
+    @Test
+    void fieldsReportedBeforeObjectCloses() throws IOException {
+        Reader reader = new Reader();
+        reader.feed("```json\n{\"intents\": [], \"step_back_question\": \"abc\", \"hyde_");
+
+        assertFalse(reader.delegate.isComplete());
+        assertEquals(List.of("intents", "step_back_question"), List.copyOf(reader.fields.keySet()));
+    }
+
+    @Test
+    void garbageReportsNothing() throws IOException {
+        Random random = new Random(42);
+        String alphabet = "{}[]\":, abcđê\n`\\";
+        for (int n = 0; n < 200; n++) {
+            StringBuilder garbage = new StringBuilder("Không có JSON ");
+            for (int i = 0; i < 40; i++) {
+                char c = alphabet.charAt(random.nextInt(alphabet.length()));
+                // Không tạo object hợp lệ: '{' luôn đi kèm một chữ cái
+                garbage.append(c == '{' ? "{x" : String.valueOf(c));
+            }
+            Reader reader = new Reader();
+            reader.feed(garbage.toString());
+
+            assertFalse(reader.delegate.isComplete(), garbage.toString());
+            assertTrue(reader.fields.isEmpty(), garbage.toString());
+        }
+    }
+
+    @Test
+    void invalidAfterFirstFieldFails() throws IOException {
+        Reader reader = new Reader();
+        reader.feed("{\"intents\": [], ");
+
+        assertThrows(IOException.class, () -> reader.feed("step_back_question: abc}"));
+        assertEquals(List.of("intents"), List.copyOf(reader.fields.keySet()));
+    }
+
+    @Test
+    void findObjectStartSkipsProseBraces() {
+        assertEquals(13, JsonExtractor.findObjectStart("xem {ghi chú {\"a\": 1}", 0));
+        assertEquals(0, JsonExtractor.findObjectStart("{ }", 0));
+        assertEquals(-1, JsonExtractor.findObjectStart("kết quả: {  ", 0));
+        assertEquals(-1, JsonExtractor.findObjectStart("không có", 0));
+    }
+
+    private static Map<String, JsonNode> expectedFields() throws IOException {
+        Map<String, JsonNode> fields = new LinkedHashMap<>();
+        MAPPER.readTree(JSON).fields().forEachRemaining(field -> fields.put(field.getKey(), field.getValue()));
+        return fields;
+    }
+
+    private static final class Reader {
+        private final Map<String, JsonNode> fields = new LinkedHashMap<>();
+        private final IncrementalJsonObjectReader delegate = new IncrementalJsonObjectReader(MAPPER, fields::put);
+
+        void feed(String chunk) throws IOException {
+            delegate.feed(chunk);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.team14.chatbot.helper;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * JSON extraction from LLM responses: single-pass {@link JsonExtractor} vs the
+ * previous regex chain of ParseJsonHelper (three patterns compiled per call).
+ *
+ * Not part of the unit test run. Start with:
+ * mvn test-compile exec:java -Dexec.mainClass=com.team14.chatbot.helper.JsonExtractorBenchmark -Dexec.classpathScope=test
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonExtractorBenchmark {
+
+    @Param({"fenced", "prose", "large"})
+    public String shape;
+
+    private String response;
+
+    @Setup
+    public void setUp() {
+        String crag = "{\"quality\": \"AMBIGUOUS\", \"reasoning\": \"Tài liệu nói về {giá vàng}, không trả lời trực tiếp\","
+                + " \"action\": \"ACTIVE_RETRIEVAL\", \"newQuery\": \"lạm phát là gì\"}";
+        response = switch (shape) {
+            case "fenced" -> "```json\n" + crag + "\n```";
+            case "prose" -> "Dưới đây là đánh giá của tôi về các tài liệu.\n" + crag + "\nHy vọng hữu ích.";
+            default -> {
+                StringBuilder sb = new StringBuilder("Kết quả phân tích:\n```json\n{\"intents\": [");
+                for (int i = 0; i < 200; i++) {
+                    sb.append(i == 0 ? "" : ",")
+                            .append("{\"intent\": \"KNOWLEDGE_QUERY\", \"query\": \"câu hỏi số ").append(i)
+                            .append(" về lãi suất {kép}\", \"meta\": {\"score\": 0.").append(i).append("}}");
+                }
+                yield sb.append("], \"step_back_question\": \"Lãi suất là gì?\"}\n```").toString();
+            }
+        };
+    }
+
+    @Benchmark
+    public void singlePass(Blackhole blackhole) {
+        blackhole.consume(JsonExtractor.extract(response));
+    }
+
+    @Benchmark
+    public void legacyRegex(Blackhole blackhole) {
+        blackhole.consume(legacyExtractJson(response));
+    }
+
+    // Copy of the former ParseJsonHelper.extractJson, kept only as the baseline
+    private static String legacyExtractJson(String response) {
+        Pattern jsonBlockPattern = Pattern.compile("```json\\s*\\n(.+?)\\n```", Pattern.DOTALL);
+        Matcher matcher = jsonBlockPattern.matcher(response);
+        if (matcher.find()) {
+            return matcher.group(1).trim();
+        }
+
+        Pattern codeBlockPattern = Pattern.compile("```\\s*\\n(.+?)\\n```", Pattern.DOTALL);
+        matcher = codeBlockPattern.matcher(response);
+        if (matcher.find()) {
+            String content = matcher.group(1).trim();
+            if (content.startsWith("{") || content.startsWith("[")) {
+                return content;
+            }
+        }
+
+        Pattern jsonPattern = Pattern.compile("(\\{.+?\\}|\\[.+?\\])", Pattern.DOTALL);
+        matcher = jsonPattern.matcher(response);
+        if (matcher.find()) {
+            return matcher.group(1).trim();
+        }
+        return response.trim();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(JsonExtractorBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
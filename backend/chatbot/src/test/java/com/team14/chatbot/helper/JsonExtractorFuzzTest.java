@@ -0,0 +1,180 @@
+package com.team14.chatbot.helper;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.RepetitionInfo;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Randomized checks of {@link JsonExtractor}: generated JSON wrapped in LLM-like
+ * noise must come back byte for byte, and garbage / truncated input must never
+ * throw or take more than linear time. Seeds are fixed so failures reproduce.
+ */
+class JsonExtractorFuzzTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final String[] STRING_PIECES = {
+            "lãi suất", "{", "}", "[", "]", "\"", "\\", "\\n", "```", "a\"b{c}", "trái phiếu", " ", ":", ",", "😀"
+    };
+    private static final String[] PREFIXES = {
+            "", "```json\n", "Đây là kết quả:\n```json\n", "Kết quả đánh giá: ", "Sure! \"quoted\" text] then }\n",
+            "```\n"
+    };
+    private static final String[] SUFFIXES = {
+            "", "\n```", "\n```\nHy vọng hữu ích {", " -- hết }", "\n[ghi chú] {\"x\": 1}"
+    };
+
+    @RepeatedTest(200)
+    void extractsWrappedJsonExactly(RepetitionInfo repetition) throws Exception {
+        Random random = new Random(repetition.getCurrentRepetition());
+        String json = MAPPER.writeValueAsString(randomContainer(random, 0));
+        String text = PREFIXES[random.nextInt(PREFIXES.length)] + json + SUFFIXES[random.nextInt(SUFFIXES.length)];
+
+        assertEquals(Optional.of(json), JsonExtractor.extract(text), text);
+    }
+
+    @RepeatedTest(100)
+    void skipsUnmatchedOpenerInProse(RepetitionInfo repetition) throws Exception {
+        Random random = new Random(1000 + repetition.getCurrentRepetition());
+        String json = MAPPER.writeValueAsString(randomContainer(random, 0));
+        String text = "Xem {ghi chú bên dưới: " + json + "\n```";
+
+        assertEquals(Optional.of(json), JsonExtractor.extract(text), text);
+    }
+
+    @RepeatedTest(200)
+    void truncatedInputNeverThrowsAndOnlyReturnsValidJson(RepetitionInfo repetition) throws Exception {
+        Random random = new Random(5000 + repetition.getCurrentRepetition());
+        String json = MAPPER.writeValueAsString(randomContainer(random, 0));
+        String text = "```json\n" + json.substring(0, random.nextInt(json.length()));
+
+        Optional<String> extracted = JsonExtractor.extract(text);
+        if (extracted.isPresent()) {
+            assertTrue(text.contains(extracted.get()));
+            assertDoesNotThrow(() -> MAPPER.readTree(extracted.get()), extracted.get());
+        }
+    }
+
+    @RepeatedTest(200)
+    void randomGarbageNeverThrows(RepetitionInfo repetition) {
+        Random random = new Random(9000 + repetition.getCurrentRepetition());
+        char[] alphabet = "{}[]\"\\:, aăbc\n`".toCharArray();
+        StringBuilder sb = new StringBuilder();
+        int length = random.nextInt(400);
+        for (int i = 0; i < length; i++) {
+            sb.append(alphabet[random.nextInt(alphabet.length)]);
+        }
+        String text = sb.toString();
+
+        Optional<JsonExtractor.Span> span = assertDoesNotThrow(() -> JsonExtractor.find(text, 0));
+        span.ifPresent(s -> {
+            char open = text.charAt(s.start());
+            char close = text.charAt(s.end() - 1);
+            assertTrue((open == '{' && close == '}') || (open == '[' && close == ']'), text);
+        });
+    }
+
+    @Test
+    void pathologicalInputStaysLinear() {
+        // The old lazy regex backtracked on this shape; the scanner is one pass
+        String text = "{".repeat(200_000) + "\"a\":" + "[".repeat(200_000);
+
+        long start = System.nanoTime();
+        assertTrue(JsonExtractor.extract(text).isEmpty());
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        // Generous bound, only catches quadratic behaviour
+        assertTrue(elapsedMs < 2_000, "took " + elapsedMs + " ms");
+    }
+
+    @Test
+    void nestedObjectIsNotCutShort() {
+        String text = "Kết quả: {\"quality\": \"GOOD\", \"meta\": {\"score\": 0.9}, \"reasoning\": \"dùng {x}\"} xong";
+
+        assertEquals(Optional.of("{\"quality\": \"GOOD\", \"meta\": {\"score\": 0.9}, \"reasoning\": \"dùng {x}\"}"),
+                JsonExtractor.extract(text));
+    }
+
+    @Test
+    void helperTriesNextCandidateAndIsLenient() throws Exception {
+        ParseJsonHelper helper = new ParseJsonHelper(new ObjectMapper());
+
+        Verdict verdict = helper.parseJsonResponse(
+                "[Ghi chú] kết quả:\n```json\n{\"quality\": \"good\", \"extra\": 1, \"reasoning\": \"ok\",}\n```",
+                Verdict.class);
+
+        assertEquals(Quality.GOOD, verdict.quality());
+        assertEquals("ok", verdict.reasoning());
+        assertTrue(helper.tryParse("không có JSON", Verdict.class).isEmpty());
+    }
+
+    @Test
+    void helperParsesTopLevelArrays() throws Exception {
+        ParseJsonHelper helper = new ParseJsonHelper(new ObjectMapper());
+
+        List<Verdict> verdicts = helper.parseJsonResponse("```json\n[{\"quality\":\"BAD\"},{\"quality\":\"Good\"}]\n```",
+                new TypeReference<List<Verdict>>() {
+                });
+
+        assertEquals(List.of(Quality.BAD, Quality.GOOD), verdicts.stream().map(Verdict::quality).toList());
+    }
+
+    enum Quality { GOOD, BAD }
+
+    record Verdict(Quality quality, String reasoning) {
+    }
+
+    private static Object randomContainer(Random random, int depth) {
+        return random.nextBoolean() ? randomObject(random, depth) : randomArray(random, depth);
+    }
+
+    private static Map<String, Object> randomObject(Random random, int depth) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        int size = random.nextInt(5);
+        for (int i = 0; i < size; i++) {
+            map.put(randomString(random) + i, randomValue(random, depth + 1));
+        }
+        return map;
+    }
+
+    private static List<Object> randomArray(Random random, int depth) {
+        List<Object> list = new ArrayList<>();
+        int size = random.nextInt(5);
+        for (int i = 0; i < size; i++) {
+            list.add(randomValue(random, depth + 1));
+        }
+        return list;
+    }
+
+    private static Object randomValue(Random random, int depth) {
+        int kind = random.nextInt(depth > 4 ? 4 : 6);
+        return switch (kind) {
+            case 0 -> randomString(random);
+            case 1 -> random.nextInt(1000) - 500;
+            case 2 -> random.nextBoolean();
+            case 3 -> random.nextDouble();
+            case 4 -> randomObject(random, depth);
+            default -> randomArray(random, depth);
+        };
+    }
+
+    private static String randomString(Random random) {
+        StringBuilder sb = new StringBuilder();
+        int pieces = random.nextInt(4);
+        for (int i = 0; i < pieces; i++) {
+            sb.append(STRING_PIECES[random.nextInt(STRING_PIECES.length)]);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,130 @@
+package com.team14.chatbot.service.RagModules.generation;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.ai.chat.prompt.PromptTemplate;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prompt rendering: templates compiled once by {@link PromptRegistry} vs the
+ * per-call construction they replaced (new PromptTemplate(...).create(vars),
+ * which reparses the StringTemplate source, and String.format on the query
+ * processing templates).
+ *
+ * Not part of the unit test run. Start with:
+ * mvn test-compile exec:java -Dexec.mainClass=com.team14.chatbot.service.RagModules.generation.PromptRegistryBenchmark -Dexec.classpathScope=test
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PromptRegistryBenchmark {
+
+    // Same shape as KB_EXPLANATION_PROMPT of PipelineExecutorImpl
+    private static final String ST_SOURCE = """
+            You are a professional financial assistant.
+
+            Task:
+            - Answer the question by EXPLAINING the information in the knowledge base.
+            - Explain concepts, rules, and implications in detail, not just definitions.
+
+            Constraints:
+            - Use ONLY the provided knowledge base.
+            - If information is missing, clearly state that.
+
+            User question:
+            "{query}"
+
+            Knowledge base:
+            {documents}
+
+            Output:
+            - Vietnamese only.
+            - Prefer detailed, multi-paragraph explanation over brevity.
+            """;
+
+    // Multi-kilobyte format template with a JSON example, as EXECUTE_COMBINED_PROMPT
+    private static final String FORMAT_SOURCE;
+
+    static {
+        StringBuilder sb = new StringBuilder("You are a financial query analyzer.\n\nRules:\n");
+        for (int i = 1; i <= 40; i++) {
+            sb.append("- Rule ").append(i)
+                    .append(": classify the intent, keep Vietnamese wording, never invent numbers.\n");
+        }
+        FORMAT_SOURCE = sb.append("""
+
+                Conversation history:
+                "%s"
+
+                User query:
+                "%s"
+
+                Return JSON only:
+                {
+                  "intents": [{"intent": "INTENT_NAME", "query": "...", "explanation": "..."}],
+                  "step_back_question": "...",
+                  "hyde_document": "..."
+                }
+                """).toString();
+    }
+
+    @Param({"short", "long"})
+    public String documentsSize;
+
+    private CompiledPrompt compiled;
+    private CompiledPrompt.FormatTemplate compiledFormat;
+    private Map<String, Object> variables;
+    private String query;
+    private String history;
+
+    @Setup
+    public void setUp() {
+        compiled = PromptRegistry.register("benchmark.kb-explanation", 1, ST_SOURCE, "query", "documents");
+        compiledFormat = PromptRegistry.registerFormat("benchmark.combined", 1, FORMAT_SOURCE,
+                "conversationHistory", "query");
+
+        StringBuilder documents = new StringBuilder();
+        int chunks = "short".equals(documentsSize) ? 2 : 20;
+        for (int i = 0; i < chunks; i++) {
+            documents.append("Lãi suất kép là lãi được tính trên cả vốn gốc và lãi đã tích lũy của các kỳ trước. ")
+                    .append("Ví dụ gửi 100 triệu đồng với lãi suất 6%/năm trong 5 năm.\n\n");
+        }
+        query = "Lãi suất kép là gì và khác gì lãi suất đơn?";
+        history = "Người dùng hỏi về tiết kiệm ngân hàng.";
+        variables = Map.of("query", query, "documents", documents.toString());
+    }
+
+    @Benchmark
+    public void perCallPromptTemplate(Blackhole blackhole) {
+        blackhole.consume(new PromptTemplate(ST_SOURCE).create(variables));
+    }
+
+    @Benchmark
+    public void registryPrompt(Blackhole blackhole) {
+        blackhole.consume(compiled.prompt(variables));
+    }
+
+    @Benchmark
+    public void perCallStringFormat(Blackhole blackhole) {
+        blackhole.consume(String.format(FORMAT_SOURCE, history, query));
+    }
+
+    @Benchmark
+    public void registryFormat(Blackhole blackhole) {
+        blackhole.consume(compiledFormat.format(history, query));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(PromptRegistryBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,77 @@
+package com.team14.chatbot.service.RagModules.pipeline;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Validation and ordering of {@link StageGraph}: cycles, missing or doubly
+ * produced inputs are rejected when the graph is built, before any stage runs.
+ */
+class StageGraphTest {
+
+    private static final StageContext.Key<String> QUERY = new StageContext.Key<>("query");
+    private static final StageContext.Key<String> A = new StageContext.Key<>("a");
+    private static final StageContext.Key<String> B = new StageContext.Key<>("b");
+    private static final StageContext.Key<String> C = new StageContext.Key<>("c");
+
+    @Test
+    void ordersStagesAfterTheirProducers() {
+        StageGraph graph = StageGraph.of(List.of(
+                stage("generation", Set.of(A, B), Set.of(C)),
+                stage("analysis", Set.of(QUERY), Set.of(B)),
+                stage("retrieval", Set.of(QUERY), Set.of(A))), Set.of(QUERY));
+
+        assertEquals(List.of("analysis", "retrieval", "generation"),
+                graph.stages().stream().map(PipelineStage::name).toList());
+        assertEquals(Set.of("analysis", "retrieval"), graph.dependencies(graph.stages().get(2)));
+        assertTrue(graph.dependencies(graph.stages().get(0)).isEmpty());
+    }
+
+    @Test
+    void rejectsCycle() {
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> StageGraph.of(List.of(
+                stage("first", Set.of(QUERY, B), Set.of(A)),
+                stage("second", Set.of(A), Set.of(B))), Set.of(QUERY)));
+
+        assertTrue(e.getMessage().contains("cycle"), e.getMessage());
+    }
+
+    @Test
+    void rejectsInputNobodyProduces() {
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> StageGraph.of(List.of(
+                stage("generation", Set.of(QUERY, A), Set.of(C))), Set.of(QUERY)));
+
+        assertTrue(e.getMessage().contains("generation") && e.getMessage().contains("a"), e.getMessage());
+    }
+
+    @Test
+    void rejectsKeyProducedTwice() {
+        assertThrows(IllegalStateException.class, () -> StageGraph.of(List.of(
+                stage("first", Set.of(QUERY), Set.of(A)),
+                stage("second", Set.of(QUERY), Set.of(A))), Set.of(QUERY)));
+        assertThrows(IllegalStateException.class, () -> StageGraph.of(List.of(
+                stage("first", Set.of(), Set.of(QUERY))), Set.of(QUERY)));
+    }
+
+    @Test
+    void rejectsDuplicateStageName() {
+        assertThrows(IllegalStateException.class, () -> StageGraph.of(List.of(
+                stage("retrieval", Set.of(QUERY), Set.of(A)),
+                stage("retrieval", Set.of(QUERY), Set.of(B))), Set.of(QUERY)));
+    }
+
+    private static PipelineStage stage(String name, Set<StageContext.Key<?>> inputs,
+            Set<StageContext.Key<?>> outputs) {
+        return PipelineStage.builder()
+                .name(name)
+                .inputs(inputs)
+                .outputs(outputs)
+                .action(context -> {
+                })
+                .build();
+    }
+}
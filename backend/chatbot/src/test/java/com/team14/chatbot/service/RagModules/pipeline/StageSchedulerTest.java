@@ -0,0 +1,194 @@
+package com.team14.chatbot.service.RagModules.pipeline;
+
+import com.team14.chatbot.configuration.PipelineConfig;
+import com.team14.chatbot.helper.CancellationToken;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link StageScheduler}: dependencies, optional stage failure and timeout,
+ * required stage failure, cancellation.
+ */
+class StageSchedulerTest {
+
+    private static final StageContext.Key<String> QUERY = new StageContext.Key<>("query");
+    private static final StageContext.Key<String> CHUNKS = new StageContext.Key<>("chunks");
+    private static final StageContext.Key<String> ANALYSIS = new StageContext.Key<>("analysis");
+    private static final StageContext.Key<String> ANSWER = new StageContext.Key<>("answer");
+
+    private final PipelineConfig config = new PipelineConfig();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private StageScheduler scheduler;
+
+    @BeforeEach
+    void setUp() {
+        config.setDefaultStageTimeoutMs(2000);
+        scheduler = new StageScheduler(config, meterRegistry);
+    }
+
+    @Test
+    void runsIndependentStagesConcurrently() {
+        CountDownLatch bothStarted = new CountDownLatch(2);
+        PipelineStage.Action waitForSibling = context -> {
+            bothStarted.countDown();
+            assertTrue(bothStarted.await(1, TimeUnit.SECONDS), "sibling stage did not start");
+        };
+        StageContext context = context();
+
+        scheduler.run(graph(
+                PipelineStage.builder().name("retrieval").input(QUERY).output(CHUNKS)
+                        .action(c -> {
+                            waitForSibling.run(c);
+                            c.put(CHUNKS, "chunks");
+                        }).build(),
+                PipelineStage.builder().name("analysis").input(QUERY).output(ANALYSIS)
+                        .action(c -> {
+                            waitForSibling.run(c);
+                            c.put(ANALYSIS, "analysis");
+                        }).build(),
+                generation()), context);
+
+        assertEquals("q|chunks|analysis", context.get(ANSWER));
+    }
+
+    @Test
+    void optionalStageFailureLeavesItsOutputAbsent() {
+        StageContext context = context();
+
+        List<StageScheduler.StageTiming> timings = scheduler.run(graph(
+                PipelineStage.builder().name("retrieval").input(QUERY).output(CHUNKS)
+                        .action(c -> c.put(CHUNKS, "chunks")).build(),
+                PipelineStage.builder().name("analysis").input(QUERY).output(ANALYSIS).optional(true)
+                        .action(c -> {
+                            throw new IllegalStateException("LLM down");
+                        }).build(),
+                generation()), context);
+
+        assertEquals("q|chunks|-", context.get(ANSWER));
+        assertEquals("failed", outcome(timings, "analysis"));
+        assertEquals(1, meterRegistry.get("rag.pipeline.stage")
+                .tags("stage", "analysis", "outcome", "failed").timer().count());
+    }
+
+    @Test
+    void optionalStageTimeoutInterruptsItAndContinues() {
+        config.setStageTimeoutMs(Map.of("analysis", 100L));
+        CountDownLatch interrupted = new CountDownLatch(1);
+        StageContext context = context();
+
+        List<StageScheduler.StageTiming> timings = scheduler.run(graph(
+                PipelineStage.builder().name("retrieval").input(QUERY).output(CHUNKS)
+                        .action(c -> c.put(CHUNKS, "chunks")).build(),
+                PipelineStage.builder().name("analysis").input(QUERY).output(ANALYSIS).optional(true)
+                        .action(c -> {
+                            try {
+                                Thread.sleep(5000);
+                            } catch (InterruptedException e) {
+                                interrupted.countDown();
+                            }
+                        }).build(),
+                generation()), context);
+
+        assertEquals("q|chunks|-", context.get(ANSWER));
+        assertEquals("timeout", outcome(timings, "analysis"));
+        assertDoesNotThrow(() -> assertTrue(interrupted.await(1, TimeUnit.SECONDS)));
+        assertFalse(context.cancellation().isCancelled());
+    }
+
+    @Test
+    void requiredStageFailureAbortsAndCancels() {
+        StageContext context = context();
+
+        StageScheduler.StageFailedException e = assertThrows(StageScheduler.StageFailedException.class,
+                () -> scheduler.run(graph(
+                        PipelineStage.builder().name("retrieval").input(QUERY).output(CHUNKS)
+                                .action(c -> {
+                                    throw new IllegalStateException("index unavailable");
+                                }).build(),
+                        PipelineStage.builder().name("analysis").input(QUERY).output(ANALYSIS)
+                                .action(c -> c.put(ANALYSIS, "analysis")).build(),
+                        generation()), context));
+
+        assertEquals("retrieval", e.getStage());
+        assertFalse(context.has(ANSWER));
+        assertTrue(context.cancellation().isCancelled());
+    }
+
+    @Test
+    void requiredStageTimeoutAborts() {
+        config.setStageTimeoutMs(Map.of("retrieval", 100L));
+        StageContext context = context();
+
+        StageScheduler.StageFailedException e = assertThrows(StageScheduler.StageFailedException.class,
+                () -> scheduler.run(graph(
+                        PipelineStage.builder().name("retrieval").input(QUERY).output(CHUNKS)
+                                .action(c -> Thread.sleep(5000)).build(),
+                        PipelineStage.builder().name("analysis").input(QUERY).output(ANALYSIS).optional(true)
+                                .action(c -> c.put(ANALYSIS, "analysis")).build(),
+                        generation()), context));
+
+        assertEquals("retrieval", e.getStage());
+        assertTrue(e.getMessage().contains("timeout"), e.getMessage());
+    }
+
+    @Test
+    void cancelledContextStopsRunningStages() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        StageContext context = context();
+        Thread canceller = Thread.ofVirtual().start(() -> {
+            try {
+                started.await();
+            } catch (InterruptedException ignored) {
+                return;
+            }
+            context.cancellation().cancel("client gone");
+        });
+
+        long start = System.nanoTime();
+        assertThrows(StageScheduler.StageFailedException.class, () -> scheduler.run(graph(
+                PipelineStage.builder().name("retrieval").input(QUERY).output(CHUNKS)
+                        .action(c -> {
+                            started.countDown();
+                            Thread.sleep(5000);
+                        }).build(),
+                generationOf(Set.of(CHUNKS))), context));
+        canceller.join();
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1500);
+    }
+
+    private static StageContext context() {
+        StageContext context = new StageContext(new CancellationToken());
+        context.put(QUERY, "q");
+        return context;
+    }
+
+    private static StageGraph graph(PipelineStage... stages) {
+        return StageGraph.of(List.of(stages), Set.of(QUERY));
+    }
+
+    private static PipelineStage generation() {
+        return generationOf(Set.of(CHUNKS, ANALYSIS));
+    }
+
+    private static PipelineStage generationOf(Set<StageContext.Key<?>> inputs) {
+        return PipelineStage.builder().name("generation").input(QUERY).inputs(inputs).output(ANSWER)
+                .action(c -> c.put(ANSWER, c.get(QUERY) + "|" + c.find(CHUNKS).orElse("-")
+                        + "|" + c.find(ANALYSIS).orElse("-")))
+                .build();
+    }
+
+    private static String outcome(List<StageScheduler.StageTiming> timings, String stage) {
+        return timings.stream().filter(timing -> timing.stage().equals(stage))
+                .map(StageScheduler.StageTiming::outcome).findFirst().orElse(null);
+    }
+}
@@ -0,0 +1,92 @@
+package com.team14.chatbot.service.RagModules.retriever.rerank;
+
+import com.team14.chatbot.configuration.RerankConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Hedged Cohere calls against a stubbed HTTP exchange: a slow first call that
+ * loses to the hedge must still count in the latency window.
+ */
+class CohereRerankerTest {
+
+    private static final long HEDGE_MIN_DELAY_MS = 300;
+    private static final String RESPONSE = "{\"results\":[{\"index\":0,\"relevance_score\":0.9}]}";
+
+    private final AtomicBoolean slowNext = new AtomicBoolean();
+    private final AtomicInteger calls = new AtomicInteger();
+    private CohereReranker reranker;
+
+    @BeforeEach
+    void setUp() {
+        RerankConfig config = new RerankConfig();
+        config.getRemote().setHedgeMinDelayMs(HEDGE_MIN_DELAY_MS);
+        config.getRemote().setLatencyWindow(20);
+
+        PassageWindowSelector windowSelector = mock(PassageWindowSelector.class);
+        when(windowSelector.windows(anyString(), anyList(), any())).thenReturn(List.of("chunk"));
+
+        WebClient.Builder builder = WebClient.builder().exchangeFunction(request -> {
+            calls.incrementAndGet();
+            Mono<ClientResponse> response = Mono.fromSupplier(() -> ClientResponse.create(HttpStatus.OK)
+                    .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                    .body(RESPONSE)
+                    .build());
+            return slowNext.getAndSet(false) ? Mono.delay(Duration.ofSeconds(5)).then(response) : response;
+        });
+
+        reranker = new CohereReranker(builder, config, new SimpleMeterRegistry(), windowSelector);
+        ReflectionTestUtils.setField(reranker, "rerankModel", "rerank-test");
+        reranker.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        reranker.shutdown();
+    }
+
+    @Test
+    void cancelledSlowFirstCallMovesP95() {
+        for (int i = 0; i < 40; i++) {
+            rerank();
+        }
+        assertTrue(reranker.latencyP95() < HEDGE_MIN_DELAY_MS, "fast calls only: p95=" + reranker.latencyP95());
+
+        for (int i = 0; i < 2; i++) {
+            int before = calls.get();
+            slowNext.set(true);
+            long start = System.nanoTime();
+            assertEquals(1, rerank().size());
+            assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() < 5000, "hedge should win");
+            assertEquals(before + 2, calls.get(), "first call + hedge");
+        }
+
+        // The two cancelled first calls ran at least the hedge delay
+        assertTrue(reranker.latencyP95() >= HEDGE_MIN_DELAY_MS, "p95=" + reranker.latencyP95());
+    }
+
+    private List<Document> rerank() {
+        Document doc = Document.builder().id("doc-1").text("chunk").build();
+        return reranker.rerankAsync("query", List.of(doc), 1, Duration.ofSeconds(10)).block();
+    }
+}
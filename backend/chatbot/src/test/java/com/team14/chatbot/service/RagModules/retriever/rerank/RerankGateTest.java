@@ -0,0 +1,101 @@
+package com.team14.chatbot.service.RagModules.retriever.rerank;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.team14.chatbot.configuration.RerankConfig;
+import com.team14.chatbot.service.RagModules.retriever.HybridSearchService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Default gating thresholds against fused lists built with the real RRF
+ * constant: a fusion both legs agree on must skip the reranker, a fusion the
+ * legs disagree on must not.
+ */
+class RerankGateTest {
+
+    private final RerankGate gate = new RerankGate(new RerankConfig(), null, new SimpleMeterRegistry(),
+            new ObjectMapper());
+
+    @Test
+    void skipsWhenBothLegsAgreeOnTop1() {
+        // Same top-1 in dense and BM25, the rest found by both legs in a slightly different order
+        RerankGate.GateDecision decision = gate.evaluate(fused(
+                new int[][] {{0, 0}, {1, 2}, {2, 1}, {3, 4}, {5, 3}, {4, 6}}));
+
+        assertFalse(decision.rerank(), decision.toString());
+        assertEquals("confident", decision.reason());
+        assertTrue(decision.top1Agreement());
+    }
+
+    @Test
+    void skipsWhenTop1LeadsByOneRankInBothLegs() {
+        RerankGate.GateDecision decision = gate.evaluate(fused(
+                new int[][] {{0, 0}, {1, 1}, {2, 2}, {3, 3}, {4, 4}}));
+
+        assertFalse(decision.rerank(), decision.toString());
+        assertEquals(1.0, decision.rankMargin(), 1e-9);
+    }
+
+    @Test
+    void reranksWhenLegsSwapTop1() {
+        RerankGate.GateDecision decision = gate.evaluate(fused(
+                new int[][] {{0, 1}, {1, 0}, {2, 2}, {3, 3}, {4, 4}}));
+
+        assertTrue(decision.rerank());
+        assertEquals("low_margin", decision.reason());
+        assertEquals(0.0, decision.rankMargin(), 1e-9);
+    }
+
+    @Test
+    void reranksWhenLegsPartlyDisagree() {
+        // Dense puts the top-1 second, BM25 ranks the runner-up first
+        RerankGate.GateDecision decision = gate.evaluate(fused(
+                new int[][] {{0, 1}, {2, 0}, {1, 3}, {3, 2}, {4, 4}}));
+
+        assertTrue(decision.rerank());
+        assertEquals("low_margin", decision.reason());
+    }
+
+    @Test
+    void reranksWhenFewBothLegHits() {
+        // Clear top-1, but the rest of the top-5 comes from one leg only
+        List<Document> candidates = fused(new int[][] {{0, 0}, {1, -1}, {-1, 1}, {2, -1}, {-1, 2}, {3, 3}});
+
+        RerankGate.GateDecision decision = gate.evaluate(candidates);
+
+        assertTrue(decision.rerank());
+        assertEquals("topk_disagreement", decision.reason());
+    }
+
+    /**
+     * Documents with the rrf/dense/sparse scores HybridSearchService would give
+     * them for these {dense rank, sparse rank} pairs (-1: not found by that leg),
+     * best first
+     */
+    private static List<Document> fused(int[][] ranks) {
+        List<Document> documents = new ArrayList<>();
+        for (int i = 0; i < ranks.length; i++) {
+            double dense = contribution(ranks[i][0]);
+            double sparse = contribution(ranks[i][1]);
+            documents.add(Document.builder()
+                    .id("doc-" + i)
+                    .text("chunk " + i)
+                    .metadata(Map.of("rrf_score", dense + sparse, "dense_score", dense, "sparse_score", sparse))
+                    .build());
+        }
+        documents.sort((a, b) -> Double.compare(
+                (double) b.getMetadata().get("rrf_score"), (double) a.getMetadata().get("rrf_score")));
+        return documents;
+    }
+
+    private static double contribution(int rank) {
+        return rank < 0 ? 0.0 : 1.0 / (HybridSearchService.RRF_K + rank + 1);
+    }
+}
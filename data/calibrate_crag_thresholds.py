@@ -0,0 +1,98 @@
+"""
+Hiệu chỉnh ngưỡng của CRAG pre-classifier từ các verdict LLM đã log.
+
+Backend ghi mỗi lần LLM chấm CRAG (và các lần audit) thành một dòng:
+    ... CRAG_SAMPLE {"source": "llm", "top_rerank_score": 0.83, "reranker": "cohere:rerank-multilingual-v3.0",
+                     "agreement": 0.6, "coverage": 0.75, "llm_quality": "GOOD"}
+(top_rerank_score = -1 khi tài liệu không được rerank)
+
+Ngưỡng rerank chỉ đúng với một thang điểm: chỉ giữ các mẫu không rerank và các
+mẫu của reranker --reranker (mặc định cohere, khớp crag.pre-classifier.calibrated-rerankers).
+
+Script chọn ngưỡng GOOD và BAD sao cho quyết định local khớp với LLM ở mức
+>= --target-precision, và tỉ lệ câu hỏi được quyết định local là lớn nhất.
+
+Usage:
+    python calibrate_crag_thresholds.py app.log --target-precision 0.9 --reranker cohere
+"""
+import argparse
+import itertools
+import json
+
+MARKER = "CRAG_SAMPLE "
+
+
+def load_samples(path, reranker):
+    samples = []
+    with open(path, encoding="utf-8") as f:
+        for line in f:
+            idx = line.find(MARKER)
+            if idx < 0:
+                continue
+            sample = json.loads(line[idx + len(MARKER):])
+            name = (sample.get("reranker") or "").split(":")[0]
+            if sample["top_rerank_score"] < 0 or name == reranker:
+                samples.append(sample)
+    return samples
+
+
+def is_good(s, rerank, agreement, coverage):
+    strong = s["top_rerank_score"] >= rerank if s["top_rerank_score"] >= 0 else s["agreement"] >= agreement
+    return strong and s["coverage"] >= coverage
+
+
+def is_bad(s, rerank, coverage):
+    weak = s["top_rerank_score"] <= rerank if s["top_rerank_score"] >= 0 else s["agreement"] == 0
+    return weak and s["coverage"] <= coverage
+
+
+def best_thresholds(samples, label, grid, predicate, target):
+    best = None
+    for params in itertools.product(*grid):
+        decided = [s for s in samples if predicate(s, *params)]
+        if not decided:
+            continue
+        precision = sum(s["llm_quality"] == label for s in decided) / len(decided)
+        share = len(decided) / len(samples)
+        if precision >= target and (best is None or share > best[0]):
+            best = (share, precision, params)
+    return best
+
+
+def main():
+    parser = argparse.ArgumentParser()
+    parser.add_argument("log_file")
+    parser.add_argument("--target-precision", type=float, default=0.9)
+    parser.add_argument("--reranker", default="cohere")
+    args = parser.parse_args()
+
+    samples = load_samples(args.log_file, args.reranker)
+    print(f"📥 Đọc được {len(samples)} verdict LLM")
+    if len(samples) < 100:
+        print("⚠️ Cần ít nhất 100 verdict để hiệu chỉnh đáng tin cậy")
+        return
+
+    steps = [round(0.05 * i, 2) for i in range(0, 21)]
+    good = best_thresholds(samples, "GOOD", [steps, steps, steps], is_good, args.target_precision)
+    bad = best_thresholds(samples, "BAD", [steps, steps], is_bad, args.target_precision)
+
+    print("\napplication.yaml (crag.pre-classifier):")
+    if good:
+        share, precision, (rerank, agreement, coverage) = good
+        print(f"    # GOOD: {share:.1%} quyết định local, precision {precision:.1%}")
+        print(f"    good-min-rerank-score: {rerank}")
+        print(f"    good-min-agreement: {agreement}")
+        print(f"    good-min-coverage: {coverage}")
+    else:
+        print("    # ❌ không có ngưỡng GOOD đạt precision yêu cầu")
+    if bad:
+        share, precision, (rerank, coverage) = bad
+        print(f"    # BAD: {share:.1%} quyết định local, precision {precision:.1%}")
+        print(f"    bad-max-rerank-score: {rerank}")
+        print(f"    bad-max-coverage: {coverage}")
+    else:
+        print("    # ❌ không có ngưỡng BAD đạt precision yêu cầu")
+
+
+if __name__ == "__main__":
+    main()
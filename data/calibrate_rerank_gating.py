@@ -0,0 +1,83 @@
+"""
+Hiệu chỉnh ngưỡng rerank gating từ log của backend.
+
+Backend ghi mỗi request đã rerank (và một phần request bị skip, rerank ngầm để
+kiểm tra) thành một dòng:
+    ... GATING_SAMPLE {"decision": "rerank", "rank_margin": 1.42, "top1_agreement": true,
+                       "topk_agreement": 0.8, "top1_match": true, "overlap": 0.8, ...}
+
+Script tìm bộ ngưỡng cho tỉ lệ skip lớn nhất mà vẫn giữ độ chính xác top-1
+(top-1 của RRF == top-1 sau rerank) trên các request bị skip >= --target-precision.
+
+Usage:
+    python calibrate_rerank_gating.py app.log --target-precision 0.95
+"""
+import argparse
+import json
+import itertools
+
+MARKER = "GATING_SAMPLE "
+
+
+def load_samples(path):
+    samples = []
+    with open(path, encoding="utf-8") as f:
+        for line in f:
+            idx = line.find(MARKER)
+            if idx >= 0:
+                samples.append(json.loads(line[idx + len(MARKER):]))
+    return samples
+
+
+def evaluate(samples, margin, require_top1, topk):
+    skipped = [s for s in samples
+               if s["rank_margin"] >= margin
+               and (s["top1_agreement"] or not require_top1)
+               and s["topk_agreement"] >= topk]
+    if not skipped:
+        return 0.0, 1.0, 0.0
+    precision = sum(s["top1_match"] for s in skipped) / len(skipped)
+    overlap = sum(s["overlap"] for s in skipped) / len(skipped)
+    return len(skipped) / len(samples), precision, overlap
+
+
+def main():
+    parser = argparse.ArgumentParser()
+    parser.add_argument("log_file")
+    parser.add_argument("--target-precision", type=float, default=0.95)
+    parser.add_argument("--min-samples", type=int, default=200)
+    args = parser.parse_args()
+
+    samples = load_samples(args.log_file)
+    print(f"📥 Đọc được {len(samples)} mẫu")
+    if len(samples) < args.min_samples:
+        print(f"⚠️ Cần ít nhất {args.min_samples} mẫu để hiệu chỉnh đáng tin cậy")
+        return
+
+    best = None
+    # rank_margin: 1.0 = top-1 một bậc hạng trước runner-up ở cả hai leg (RRF_K = 10)
+    margins = [round(0.25 * i, 2) for i in range(1, 17)]
+    topks = [round(0.2 * i, 1) for i in range(0, 6)]
+    for margin, require_top1, topk in itertools.product(margins, [True, False], topks):
+        skip_rate, precision, overlap = evaluate(samples, margin, require_top1, topk)
+        if precision >= args.target_precision and (best is None or skip_rate > best[0]):
+            best = (skip_rate, precision, overlap, margin, require_top1, topk)
+
+    if best is None:
+        print("❌ Không có bộ ngưỡng nào đạt độ chính xác yêu cầu, giữ rerank cho mọi request")
+        return
+
+    skip_rate, precision, overlap, margin, require_top1, topk = best
+    print(f"✅ skip rate={skip_rate:.1%} | top-1 precision={precision:.1%} | overlap={overlap:.2f}")
+    print("\napplication.yaml (rerank.gating):")
+    print(f"    min-rank-margin: {margin}")
+    print(f"    require-top1-agreement: {str(require_top1).lower()}")
+    print(f"    min-top-k-agreement: {topk}")
+    print("\nHoặc cập nhật runtime: PUT /admin/rag/rerank-gating")
+    print(json.dumps({"enabled": True, "minCandidates": 5, "minRankMargin": margin,
+                      "requireTop1Agreement": require_top1, "minTopKAgreement": topk,
+                      "agreementK": 5, "shadowSampleRate": 0.05}, indent=2))
+
+
+if __name__ == "__main__":
+    main()
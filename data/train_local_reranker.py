@@ -0,0 +1,80 @@
+"""
+Huấn luyện model rerank local (gradient-boosted trees) và export sang JSON
+cho LocalFeatureReranker (backend/chatbot/src/main/resources/rerank/).
+
+Input: file JSONL, mỗi dòng là một cặp (query, chunk) đã có feature và nhãn, ví dụ
+lấy điểm Cohere làm "teacher" (relevance_score >= 0.5 -> label 1):
+    {"bm25_score": 3.1, "dense_similarity": 0.72, "rrf_score": 0.18,
+     "term_overlap": 0.66, "log_length": 4.9, "label": 1}
+
+Usage:
+    python train_local_reranker.py rerank_samples.jsonl \
+        ../backend/chatbot/src/main/resources/rerank/local-reranker-gbdt.json
+"""
+import json
+import sys
+
+import numpy as np
+from sklearn.ensemble import GradientBoostingClassifier
+from sklearn.metrics import roc_auc_score
+from sklearn.model_selection import train_test_split
+
+FEATURES = ["bm25_score", "dense_similarity", "rrf_score", "term_overlap", "log_length"]
+
+
+def load_samples(path):
+    X, y = [], []
+    with open(path, encoding="utf-8") as f:
+        for line in f:
+            if not line.strip():
+                continue
+            row = json.loads(line)
+            X.append([float(row.get(name, 0.0)) for name in FEATURES])
+            y.append(int(row["label"]))
+    return np.array(X), np.array(y)
+
+
+def export_tree(estimator, learning_rate):
+    tree = estimator.tree_
+    nodes = []
+    for i in range(tree.node_count):
+        left, right = int(tree.children_left[i]), int(tree.children_right[i])
+        if left == -1:
+            nodes.append({"leaf": float(learning_rate * tree.value[i][0][0])})
+        else:
+            # sklearn: x <= threshold -> left; Java: x < threshold -> left
+            threshold = float(np.nextafter(tree.threshold[i], np.inf))
+            nodes.append({"feature": int(tree.feature[i]), "threshold": threshold,
+                          "left": left, "right": right})
+    return {"nodes": nodes}
+
+
+def main(samples_path, output_path):
+    X, y = load_samples(samples_path)
+    X_train, X_test, y_train, y_test = train_test_split(X, y, test_size=0.2, random_state=42)
+
+    model = GradientBoostingClassifier(n_estimators=50, max_depth=3, learning_rate=0.1)
+    model.fit(X_train, y_train)
+    auc = roc_auc_score(y_test, model.predict_proba(X_test)[:, 1])
+    print(f"✅ AUC (test): {auc:.4f}")
+
+    prior = y_train.mean()
+    exported = {
+        "name": f"gbdt-{len(model.estimators_)}x{model.max_depth}",
+        "features": FEATURES,
+        "base_score": float(np.log(prior / (1 - prior))),
+        "trees": [export_tree(est[0], model.learning_rate) for est in model.estimators_],
+        # Đọc bởi LocalFeatureReranker (log khi load model)
+        "evaluation": {"test_auc": round(float(auc), 4), "train_samples": int(len(y_train)),
+                       "test_samples": int(len(y_test)), "positive_rate": round(float(prior), 4)},
+    }
+    with open(output_path, "w", encoding="utf-8") as f:
+        json.dump(exported, f, indent=1)
+    print(f"💾 Đã lưu model vào {output_path}")
+
+
+if __name__ == "__main__":
+    if len(sys.argv) != 3:
+        print(__doc__)
+        sys.exit(1)
+    main(sys.argv[1], sys.argv[2])
@@ -0,0 +1,70 @@
+"""
+Chọn ngưỡng similarity cho semantic cache của query processing.
+
+Backend ghi các cặp (câu hỏi mới, câu hỏi gần nhất trong cache) thành một dòng:
+    ... QUERY_CACHE_SAMPLE {"source": "miss", "similarity": 0.91, "same_intents": true}
+- source = "miss": similarity dưới ngưỡng, kết quả mới được so với kết quả của hàng xóm
+- source = "hit": hit được tính lại trong nền (shadow check)
+same_intents = kết quả cache có cùng tập intent với kết quả tính mới hay không.
+
+Với mỗi ngưỡng, script tính precision (tỉ lệ cặp >= ngưỡng mà kết quả cache vẫn
+đúng) và tỉ lệ cặp được dùng lại, rồi đề xuất ngưỡng thấp nhất đạt
+--target-precision (nhiều hit nhất mà vẫn đủ chính xác).
+
+Usage:
+    python tune_query_cache_threshold.py app.log --target-precision 0.97
+"""
+import argparse
+import json
+
+MARKER = "QUERY_CACHE_SAMPLE "
+
+
+def load_samples(path):
+    samples = []
+    with open(path, encoding="utf-8") as f:
+        for line in f:
+            idx = line.find(MARKER)
+            if idx >= 0:
+                samples.append(json.loads(line[idx + len(MARKER):]))
+    return samples
+
+
+def main():
+    parser = argparse.ArgumentParser()
+    parser.add_argument("log_file")
+    parser.add_argument("--target-precision", type=float, default=0.97)
+    parser.add_argument("--min-support", type=int, default=20,
+                        help="số cặp tối thiểu trên ngưỡng để tin được precision")
+    args = parser.parse_args()
+
+    samples = load_samples(args.log_file)
+    print(f"📥 Đọc được {len(samples)} cặp câu hỏi")
+    if len(samples) < 50:
+        print("⚠️ Cần ít nhất 50 cặp để chọn ngưỡng đáng tin cậy")
+        return
+
+    print(f"\n{'ngưỡng':>7} {'dùng lại':>9} {'precision':>10} {'số cặp':>7}")
+    best = None
+    for step in range(80, 100):
+        threshold = round(step / 100, 2)
+        above = [s for s in samples if s["similarity"] >= threshold]
+        if not above:
+            continue
+        precision = sum(s["same_intents"] for s in above) / len(above)
+        share = len(above) / len(samples)
+        print(f"{threshold:>7} {share:>9.1%} {precision:>10.1%} {len(above):>7}")
+        if best is None and precision >= args.target_precision and len(above) >= args.min_support:
+            best = (threshold, share, precision)
+
+    print("\napplication.yaml (query-cache.matching):")
+    if best:
+        threshold, share, precision = best
+        print(f"    # {share:.1%} cặp được dùng lại, precision {precision:.1%}")
+        print(f"    similarity-threshold: {threshold}")
+    else:
+        print(f"    # ❌ không có ngưỡng nào đạt precision {args.target_precision:.0%}, giữ ngưỡng hiện tại")
+
+
+if __name__ == "__main__":
+    main()